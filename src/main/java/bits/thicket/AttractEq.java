@@ -43,4 +43,41 @@ public enum AttractEq {
         throw new IllegalArgumentException( "Dimension not supported: " + dim ); 
     }
 
+    /**
+     * @return coefficient applied to edge weight, matching {@link AttractFunc} implementations.
+     */
+    static float coeff( AttractEq eq, LayoutParams params ) {
+        switch( eq ) {
+        case LOG_DIST:
+        case LINEAR_DIST:
+            return 1f / params.mScale;
+        case SQUARE_DIST:
+        default:
+            return 1f / ( params.mScale * params.mScale );
+        }
+    }
+
+    /**
+     * Computes attraction magnitude of an edge, matching {@link AttractFunc} implementations.
+     * Force on endpoint A is <code>-mag * ( A - B )</code>, and on B is <code>-mag * ( B - A )</code>.
+     *
+     * @param eq     Attraction equation.
+     * @param wCoeff Edge weight multiplied by {@link #coeff}.
+     * @param distSq Squared distance between endpoints.
+     */
+    static float magnitude( AttractEq eq, float wCoeff, float distSq ) {
+        switch( eq ) {
+        case LOG_DIST:
+        {
+            double dd = Math.sqrt( distSq );
+            return (float)( wCoeff * Math.log( 1.0 + dd ) / ( dd + AttractFunc.EPS ) );
+        }
+        case LINEAR_DIST:
+            return wCoeff;
+        case SQUARE_DIST:
+        default:
+            return wCoeff * (float)Math.sqrt( distSq );
+        }
+    }
+
 }
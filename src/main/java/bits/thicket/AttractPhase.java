@@ -6,35 +6,202 @@
 
 package bits.thicket;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+
 /**
+ * Applies attractive forces along edges.
+ * <p>
+ * If {@link LayoutParams#mThreadNo} is greater than one, verts are partitioned
+ * across a pool of worker threads. Each worker visits the edges of its own verts
+ * and accumulates force only into those verts, so every edge is evaluated
+ * once from each endpoint and no two workers write to the same Vert.
+ *
  * @author decamp
  */
 class AttractPhase implements SolverPhase {
-    
+
+    private static final int MIN_BLOCK_SIZE = 256;
+    private static final int BLOCKS_PER_THREAD = 16;
+
     private AttractFunc mFunc;
-    
-    
+
+    private AttractEq mEq;
+    private int mDim;
+    private float mCoeff;
+
+    private WorkerPool mPool;
+    private Worker[] mWorkers;
+    private Vert[] mVertArr = new Vert[0];
+    private final AtomicInteger mCursor = new AtomicInteger( 0 );
+
+
     @Override
     public void init( LayoutParams params, Graph graph ) {
         AttractEq eq = params.mAttractEq;
         if( eq == null ) {
             eq = AttractEq.SQUARE_DIST;
         }
-        
+
         mFunc = AttractEq.newFunc( eq, params.mDim );
         mFunc.init( params, graph );
+
+        mEq    = eq;
+        mDim   = params.mDim;
+        mCoeff = AttractEq.coeff( eq, params );
+
+        mPool = WorkerPool.reuse( mPool, WorkerPool.threadCount( params ) );
+        if( mPool == null ) {
+            mWorkers = null;
+        } else {
+            mWorkers = new Worker[ mPool.threadNo() ];
+            for( int i = 0; i < mWorkers.length; i++ ) {
+                mWorkers[i] = new Worker( this );
+            }
+        }
     }
-    
-    
+
+
     @Override
     public void step( LayoutParams params, Graph graph ) {
+        if( mPool != null && graph.mVertNo > MIN_BLOCK_SIZE ) {
+            stepParallel( graph );
+            return;
+        }
+
         for( Edge e = graph.mEdges; e != null; e = e.mGraphNext ) {
             mFunc.apply( e );
         }
     }
-    
-    
+
+
     @Override
-    public void dispose( LayoutParams params, Graph graph ) {}
+    public void dispose( LayoutParams params, Graph graph ) {
+        if( mPool != null ) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mWorkers = null;
+        mVertArr = new Vert[0];
+    }
+
+
+
+    private void stepParallel( Graph graph ) {
+        final int vertNo = graph.mVertNo;
+        Vert[] arr = mVertArr;
+        if( arr.length < vertNo ) {
+            arr = mVertArr = new Vert[ vertNo + ( vertNo >> 2 ) ];
+        }
+
+        int n = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            arr[n++] = v;
+        }
+
+        int block = n / ( mWorkers.length * BLOCKS_PER_THREAD );
+        if( block < MIN_BLOCK_SIZE ) {
+            block = MIN_BLOCK_SIZE;
+        }
+
+        mCursor.set( 0 );
+        for( Worker w: mWorkers ) {
+            w.mVerts     = arr;
+            w.mVertNo    = n;
+            w.mBlockSize = block;
+        }
+
+        mPool.run( mWorkers, mWorkers.length );
+
+        for( Worker w: mWorkers ) {
+            w.mVerts = null;
+        }
+    }
+
+
+    private static final class Worker implements Runnable {
+
+        private final AttractPhase mPhase;
+
+        Vert[] mVerts;
+        int mVertNo;
+        int mBlockSize;
+
+
+        Worker( AttractPhase phase ) {
+            mPhase = phase;
+        }
+
+
+        public void run() {
+            final Vert[] verts = mVerts;
+            final int vertNo   = mVertNo;
+            final int block    = mBlockSize;
+            final boolean dim2 = mPhase.mDim == 2;
+
+            while( true ) {
+                int start = mPhase.mCursor.getAndAdd( block );
+                if( start >= vertNo ) {
+                    return;
+                }
+                int end = Math.min( start + block, vertNo );
+
+                if( dim2 ) {
+                    for( int i = start; i < end; i++ ) {
+                        gather2( verts[i] );
+                    }
+                } else {
+                    for( int i = start; i < end; i++ ) {
+                        gather3( verts[i] );
+                    }
+                }
+            }
+        }
+
+
+        private void gather2( Vert v ) {
+            final AttractEq eq = mPhase.mEq;
+            final float coeff  = mPhase.mCoeff;
+            float fx = 0f;
+            float fy = 0f;
+
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Vert u    = e.other( v );
+                float dx  = v.mX - u.mX;
+                float dy  = v.mY - u.mY;
+                float mag = AttractEq.magnitude( eq, e.mWeight * coeff, dx * dx + dy * dy );
+                fx += mag * dx;
+                fy += mag * dy;
+            }
+
+            v.mForceX -= fx;
+            v.mForceY -= fy;
+        }
+
+
+        private void gather3( Vert v ) {
+            final AttractEq eq = mPhase.mEq;
+            final float coeff  = mPhase.mCoeff;
+            float fx = 0f;
+            float fy = 0f;
+            float fz = 0f;
+
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Vert u    = e.other( v );
+                float dx  = v.mX - u.mX;
+                float dy  = v.mY - u.mY;
+                float dz  = v.mZ - u.mZ;
+                float mag = AttractEq.magnitude( eq, e.mWeight * coeff, dx * dx + dy * dy + dz * dz );
+                fx += mag * dx;
+                fy += mag * dy;
+                fz += mag * dz;
+            }
+
+            v.mForceX -= fx;
+            v.mForceY -= fy;
+            v.mForceZ -= fz;
+        }
+
+    }
 
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Runs a {@link LayoutSolver} on a background thread and publishes the positions of the
+ * graph after every step as a {@link LayoutSnapshot}, so that a render thread can draw the
+ * layout while it runs without blocking the solver. Snapshots are triple-buffered: the layout
+ * thread fills one buffer, the reader holds another, and the third holds the most recent
+ * snapshot that has not yet been read. Neither thread ever waits on the other.
+ * <p>
+ * While a layout is running, the graph must not be accessed by any other thread. Between
+ * steps in which the graph is being coarsened, no snapshots are published and the reader
+ * continues to see the last complete snapshot.
+ * <p>
+ * {@link #start}, {@link #join}, {@link #stop} and {@link #dispose} may only be called by one
+ * thread at a time. {@link #snapshot} may be called by one thread, which may be a different one.
+ *
+ * @author decamp
+ */
+public class BackgroundLayout {
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger( 0 );
+
+    // Set on shared buffer index when buffer holds a snapshot that has not been read.
+    private static final int FRESH      = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final LayoutSolver mSolver = new LayoutSolver();
+
+    private final LayoutSnapshot[] mSnapshots = {
+            new LayoutSnapshot(), new LayoutSnapshot(), new LayoutSnapshot() };
+
+    private final AtomicInteger mShared = new AtomicInteger( 1 );
+
+    // Owned by reader.
+    private int mReadIndex = 2;
+
+    // Owned by layout thread once started.
+    private int mWriteIndex = 0;
+    private int mDim;
+    private long mStepNo;
+    private int mTopoVersion;
+    private Vert[] mTopoVerts = new Vert[0];
+    private int[] mTopoEdges  = new int[0];
+    private int mTopoEdgeNo;
+
+    private Thread mThread = null;
+    private volatile boolean mStop = false;
+    private volatile Throwable mErr = null;
+
+
+    public BackgroundLayout() {}
+
+
+    /**
+     * Starts layout of <code>graph</code> on a new thread. Any layout already running is
+     * stopped first, leaving its graph in an undefined state. A snapshot of the initial
+     * positions is published before this method returns.
+     *
+     * @param params Layout parameters. Must not be modified while layout is running.
+     * @param graph  Graph to lay out. Must not be accessed until layout has converged
+     *               and {@link #join()} has returned.
+     */
+    public void start( LayoutParams params, Graph graph ) {
+        halt();
+        mErr  = null;
+        mStop = false;
+
+        if( graph.mVertNo > PackedGraph.MAX_VERT_NO ) {
+            throw new IllegalArgumentException( "Graph too large: " + graph.mVertNo + " verts" );
+        }
+
+        mSolver.init( params, graph );
+        mDim         = params.mDim;
+        mStepNo      = 0;
+        mTopoVersion = mSolver.graphVersion() - 1;
+        publish();
+
+        Thread t = new Thread( new Runnable() {
+            public void run() {
+                runLayout();
+            }
+        }, "thicket-layout-" + sThreadCount.incrementAndGet() );
+        t.setDaemon( true );
+        mThread = t;
+        t.start();
+    }
+
+    /**
+     * Blocks until the running layout converges or is stopped. If the layout thread threw,
+     * the exception is rethrown.
+     */
+    public void join() {
+        Thread t = mThread;
+        if( t == null ) {
+            rethrow();
+            return;
+        }
+
+        boolean interrupted = false;
+        while( true ) {
+            try {
+                t.join();
+                break;
+            } catch( InterruptedException ex ) {
+                interrupted = true;
+            }
+        }
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+
+        mThread = null;
+        rethrow();
+    }
+
+    /**
+     * Stops the running layout after its current step and blocks until the layout thread
+     * has finished. If the layout had not converged, its graph is left in an undefined state.
+     * If the layout thread threw, the exception is rethrown.
+     */
+    public void stop() {
+        mStop = true;
+        join();
+    }
+
+    /**
+     * @return true iff a layout has been started and has neither converged nor been stopped.
+     */
+    public boolean isRunning() {
+        Thread t = mThread;
+        return t != null && t.isAlive();
+    }
+
+    /**
+     * Returns the most recently published snapshot. The returned snapshot remains valid
+     * and unchanged until the next call to this method, but no longer.
+     *
+     * @return most recent snapshot. Empty if no layout has been started.
+     */
+    public LayoutSnapshot snapshot() {
+        if( ( mShared.get() & FRESH ) != 0 ) {
+            mReadIndex = mShared.getAndSet( mReadIndex ) & INDEX_MASK;
+        }
+        return mSnapshots[mReadIndex];
+    }
+
+    /**
+     * Stops any running layout and releases resources. This object may not be used afterward.
+     */
+    public void dispose() {
+        halt();
+        mSolver.dispose();
+    }
+
+
+
+    private void runLayout() {
+        final LayoutSolver solver = mSolver;
+        try {
+            while( !mStop && !solver.converged() ) {
+                solver.step();
+                mStepNo++;
+                if( !solver.coarsening() ) {
+                    publish();
+                }
+            }
+        } catch( Throwable t ) {
+            mErr = t;
+        }
+    }
+
+
+    /**
+     * Stops layout thread without rethrowing its errors.
+     */
+    private void halt() {
+        try {
+            stop();
+        } catch( Throwable ignore ) {}
+    }
+
+
+    private void rethrow() {
+        Throwable err = mErr;
+        if( err == null ) {
+            return;
+        }
+        mErr = null;
+        if( err instanceof RuntimeException ) {
+            throw (RuntimeException)err;
+        }
+        if( err instanceof Error ) {
+            throw (Error)err;
+        }
+        throw new RuntimeException( err );
+    }
+
+
+    /**
+     * Copies current state of solver into write buffer and swaps it with the shared buffer.
+     */
+    private void publish() {
+        final LayoutSolver solver = mSolver;
+        final int version = solver.graphVersion();
+        if( version != mTopoVersion ) {
+            buildTopology( solver.currentGraph() );
+            mTopoVersion = version;
+        }
+
+        final LayoutSnapshot s = mSnapshots[mWriteIndex];
+        final Vert[] verts = mTopoVerts;
+        final int vertNo   = verts.length;
+
+        if( s.mX.length < vertNo ) {
+            s.mX = new float[vertNo];
+            s.mY = new float[vertNo];
+            s.mZ = new float[vertNo];
+        }
+
+        final float[] x = s.mX;
+        final float[] y = s.mY;
+        final float[] z = s.mZ;
+        for( int i = 0; i < vertNo; i++ ) {
+            Vert v = verts[i];
+            x[i] = v.mX;
+            y[i] = v.mY;
+            z[i] = v.mZ;
+        }
+
+        s.mVertNo          = vertNo;
+        s.mEdgeNo          = mTopoEdgeNo;
+        s.mDim             = mDim;
+        s.mCoarseLevel     = solver.currentGraph().mCoarseLevel;
+        s.mRemainingLevels = solver.remainingLevels();
+        s.mStepNo          = mStepNo;
+        s.mConverged       = solver.converged();
+        s.mVerts           = verts;
+        s.mEdges           = mTopoEdges;
+
+        mWriteIndex = mShared.getAndSet( mWriteIndex | FRESH ) & INDEX_MASK;
+    }
+
+    /**
+     * Creates new vert and edge arrays for graph. Arrays are never reused, as the reader
+     * may still hold snapshots that refer to the previous ones.
+     * <p>
+     * Overwrites mTempDist of each Vert in graph.
+     */
+    private void buildTopology( Graph graph ) {
+        final Vert[] verts = new Vert[graph.mVertNo];
+        int i = 0;
+        int adjNo = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            v.mTempDist = i;
+            verts[i++] = v;
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                adjNo++;
+            }
+        }
+
+        final int[] edges = new int[adjNo & ~1];
+        int k = 0;
+        for( i = 0; i < verts.length; i++ ) {
+            Vert v = verts[i];
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                int j = (int)e.other( v ).mTempDist;
+                if( j > i && k < edges.length ) {
+                    edges[k++] = i;
+                    edges[k++] = j;
+                }
+            }
+        }
+
+        mTopoVerts  = verts;
+        mTopoEdges  = edges;
+        mTopoEdgeNo = k / 2;
+    }
+
+}
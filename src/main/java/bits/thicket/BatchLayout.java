@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Lays out many independent graphs on a fixed set of threads. Each thread owns a
+ * {@link LayoutSolver} that it reuses from one graph to the next, so phases, trees
+ * and buffers are allocated once per thread rather than once per graph. Each graph is
+ * laid out single-threaded, which gives the highest throughput when there are at least
+ * as many graphs as threads.
+ * <p>
+ * A BatchLayout may only be driven by one thread at a time. Call {@link #dispose()}
+ * once it is no longer needed to stop its threads.
+ *
+ * @author decamp
+ */
+public class BatchLayout {
+
+    private final WorkerPool mPool;
+    private final Worker[] mWorkers;
+    private final AtomicInteger mCursor = new AtomicInteger( 0 );
+
+    private Graph[] mGraphs = new Graph[0];
+    private long[] mSeeds   = new long[0];
+    private int mGraphNo;
+
+
+    /**
+     * @param threadNo Number of threads to use, including the calling thread.
+     *                 Values &leq; 0 use one thread per available processor.
+     */
+    public BatchLayout( int threadNo ) {
+        if( threadNo <= 0 ) {
+            threadNo = Runtime.getRuntime().availableProcessors();
+        }
+        mPool    = new WorkerPool( threadNo );
+        mWorkers = new Worker[threadNo];
+        for( int i = 0; i < threadNo; i++ ) {
+            mWorkers[i] = new Worker( this );
+        }
+    }
+
+
+    /**
+     * @return number of threads used for layout, including the calling thread.
+     */
+    public int threadNo() {
+        return mWorkers.length;
+    }
+
+    /**
+     * Lays out every graph in <code>graphs</code> and blocks until all have converged.
+     * <p>
+     * Every graph is laid out with a copy of <code>params</code>, with <code>mThreadNo</code>
+     * set to 1 and <code>mStats</code> set to null. If <code>params.mRand</code> is set, it is
+     * used on the calling thread to draw one seed per graph, so results do not depend on
+     * how graphs are scheduled across threads. Phase overrides such as
+     * <code>params.mRepulsePhase</code> cannot be shared between threads and are not allowed.
+     * <p>
+     * If the layout of any graph throws, the remaining graphs are still laid out and the
+     * first exception is then rethrown.
+     *
+     * @param graphs Graphs to lay out.
+     * @param params Parameters for all layouts. Not modified.
+     */
+    public void layout( Collection<? extends Graph> graphs, LayoutParams params ) {
+        if( params.mAttractPhase != null || params.mRepulsePhase != null || params.mUpdatePhase != null ) {
+            throw new IllegalArgumentException( "Phase overrides cannot be used with BatchLayout." );
+        }
+
+        final int n = graphs.size();
+        if( mGraphs.length < n ) {
+            mGraphs = new Graph[n];
+            mSeeds  = new long[n];
+        }
+
+        final Graph[] arr = mGraphs;
+        int i = 0;
+        for( Graph g: graphs ) {
+            arr[i++] = g;
+        }
+
+        // Start largest graphs first, so that no thread is left with a large graph at the end.
+        Arrays.sort( arr, 0, n, LARGEST_FIRST );
+
+        final Random rand = params.mRand;
+        if( rand != null ) {
+            for( i = 0; i < n; i++ ) {
+                mSeeds[i] = rand.nextLong();
+            }
+        }
+
+        for( Worker w: mWorkers ) {
+            w.init( params, rand != null );
+        }
+
+        mGraphNo = n;
+        mCursor.set( 0 );
+
+        try {
+            mPool.run( mWorkers, Math.min( mWorkers.length, n ) );
+        } finally {
+            Arrays.fill( arr, 0, n, null );
+            mGraphNo = 0;
+        }
+
+        for( Worker w: mWorkers ) {
+            Throwable err = w.mErr;
+            if( err == null ) {
+                continue;
+            }
+            for( Worker v: mWorkers ) {
+                v.mErr = null;
+            }
+            if( err instanceof RuntimeException ) {
+                throw (RuntimeException)err;
+            }
+            if( err instanceof Error ) {
+                throw (Error)err;
+            }
+            throw new RuntimeException( err );
+        }
+    }
+
+    /**
+     * Stops all threads and releases solvers. This object may not be used afterward.
+     */
+    public void dispose() {
+        mPool.shutdown();
+        for( Worker w: mWorkers ) {
+            w.dispose();
+        }
+    }
+
+
+
+    private static final Comparator<Graph> LARGEST_FIRST = new Comparator<Graph>() {
+        public int compare( Graph a, Graph b ) {
+            int na = a.mVertNo + a.mEdgeNo;
+            int nb = b.mVertNo + b.mEdgeNo;
+            return na > nb ? -1 : ( na < nb ? 1 : 0 );
+        }
+    };
+
+
+    private static final class Worker implements Runnable {
+
+        private final BatchLayout mBatch;
+        private final LayoutSolver mSolver = new LayoutSolver();
+        private final Random mRand = new Random();
+        private LayoutParams mParams = null;
+
+        // First failure of this worker during current batch.
+        Throwable mErr = null;
+
+
+        Worker( BatchLayout batch ) {
+            mBatch = batch;
+        }
+
+
+        void init( LayoutParams params, boolean seeded ) {
+            LayoutParams p = new LayoutParams( params );
+            p.mThreadNo = 1;
+            p.mStats    = null;
+            p.mRand     = seeded ? mRand : null;
+            mParams = p;
+        }
+
+
+        public void run() {
+            final BatchLayout batch   = mBatch;
+            final LayoutSolver solver = mSolver;
+            final LayoutParams params = mParams;
+
+            while( true ) {
+                int i = batch.mCursor.getAndIncrement();
+                if( i >= batch.mGraphNo ) {
+                    return;
+                }
+
+                if( params.mRand != null ) {
+                    mRand.setSeed( batch.mSeeds[i] );
+                }
+
+                try {
+                    solver.init( params, batch.mGraphs[i] );
+                    while( !solver.converged() ) {
+                        solver.step();
+                    }
+                } catch( Throwable t ) {
+                    if( mErr == null ) {
+                        mErr = t;
+                    }
+                }
+            }
+        }
+
+
+        void dispose() {
+            mSolver.dispose();
+            mParams = null;
+        }
+
+    }
+
+}
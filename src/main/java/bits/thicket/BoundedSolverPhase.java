@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+/**
+ * A SolverPhase that can make use of the graph bounds computed during
+ * the gravity phase, which saves a pass over the verts when building
+ * spatial structures.
+ *
+ * @author decamp
+ */
+public interface BoundedSolverPhase extends SolverPhase {
+
+    /**
+     * @param params         Layout parameters.
+     * @param graph          Graph to process.
+     * @param optGraphBounds Bounds of graph in the form [ x0, y0, ( z0, ) x1, y1, ( z1 ) ], or
+     *                       null if bounds should be computed by the phase.
+     */
+    public void step( LayoutParams params, Graph graph, float[] optGraphBounds );
+
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+
+
+/**
+ * Builds the edges of a coarse graph, as {@link Graphs#coarsenContinue} does, with the
+ * work split across the threads of a {@link WorkerPool}. The result is identical to that
+ * of <code>coarsenContinue</code>, down to the order of every edge list and the order in
+ * which the weights of merged edges are summed, so coarsening does not depend on thread
+ * count.
+ * <p>
+ * Fine verts are split into contiguous blocks, one per thread, and edges are built in
+ * three passes:
+ * <ol>
+ * <li>Each thread walks the edges of its block and records, in order, the fine edges
+ *     that move to each graph and the coarse edges required. Requests for coarse edges
+ *     are put in buckets by a hash of their endpoints.</li>
+ * <li>Each thread merges one bucket of requests from every block, in block order, through
+ *     its own {@link EdgeTable}. The first request for a pair of verts creates the edge
+ *     and later requests add to its weight.</li>
+ * <li>Each thread links the graph lists of its block, and the edge lists of the coarse
+ *     graph verts in one bucket. Lists of all blocks are then joined.</li>
+ * </ol>
+ * Levels too small to split, or with more than 2<sup>24</sup> verts, are built on the
+ * calling thread with <code>coarsenContinue</code>.
+ * <p>
+ * Overwrites mTempDist of the fine verts and of the coarse verts.
+ *
+ * @author decamp
+ */
+final class CoarseEdgeBuilder {
+
+    static final int MIN_BLOCK_SIZE = 1 << 13;
+
+    /**
+     * Verts are indexed through mTempDist, which holds integers exactly only up to this size.
+     */
+    private static final int MAX_VERTS = 1 << 24;
+
+    private static final int PHASE_WALK  = 0;
+    private static final int PHASE_MERGE = 1;
+    private static final int PHASE_LINK  = 2;
+    private static final int PHASE_CLEAR = 3;
+
+    private final EdgeTable mTable = new EdgeTable();
+    private Task[] mTasks = new Task[0];
+
+
+    /**
+     * Moves every vert of <code>list</code> into <code>src</code> or <code>dst</code> and
+     * rebuilds their edges, as <code>Graphs.coarsenContinue( src, dst, list, Integer.MAX_VALUE, table )</code>
+     * would with an empty table.
+     *
+     * @param src     Graph passed to {@link Graphs#coarsenBegin}.
+     * @param dst     Graph returned by {@link Graphs#coarsenBegin}.
+     * @param list    Verts detached from <code>src</code>.
+     * @param optPool Pool to split work across, or null to run on the calling thread.
+     */
+    void build( Graph src, Graph dst, Vert list, WorkerPool optPool ) {
+        final int n = Graphs.size( list );
+        final int taskNo = optPool == null ? 1 : Math.min( optPool.threadNo(), n / MIN_BLOCK_SIZE );
+
+        if( taskNo <= 1 || n + dst.mVertNo > MAX_VERTS ) {
+            Graphs.coarsenContinue( src, dst, list, Integer.MAX_VALUE, mTable );
+            mTable.clear();
+            return;
+        }
+
+        // Fine verts are indexed by position, and coarse verts follow them.
+        final Vert[] verts = new Vert[n];
+        int i = 0;
+        for( Vert v = list; v != null; v = v.mGraphNext ) {
+            v.mTempDist = i;
+            verts[i++] = v;
+        }
+        for( Vert c = dst.mVerts; c != null; c = c.mGraphNext ) {
+            c.mTempDist = i++;
+        }
+
+        if( mTasks.length < taskNo ) {
+            Task[] tasks = Arrays.copyOf( mTasks, taskNo );
+            for( i = mTasks.length; i < taskNo; i++ ) {
+                tasks[i] = new Task();
+            }
+            mTasks = tasks;
+        }
+
+        final Task[] tasks = mTasks;
+        final int block = ( n + taskNo - 1 ) / taskNo;
+        for( i = 0; i < taskNo; i++ ) {
+            tasks[i].init( tasks, taskNo, i, verts, i * block, Math.min( n, ( i + 1 ) * block ) );
+        }
+
+        run( optPool, tasks, taskNo, PHASE_WALK );
+        run( optPool, tasks, taskNo, PHASE_MERGE );
+        run( optPool, tasks, taskNo, PHASE_LINK );
+
+        // Lists are built by prepending, so the lists of later blocks go in front.
+        for( i = 0; i < taskNo; i++ ) {
+            final Task t = tasks[i];
+            if( t.mSrcVertHead != null ) {
+                t.mSrcVertTail.mGraphNext = src.mVerts;
+                src.mVerts = t.mSrcVertHead;
+                src.mVertNo += t.mSrcVertNo;
+            }
+            if( t.mDstVertHead != null ) {
+                t.mDstVertTail.mGraphNext = dst.mVerts;
+                dst.mVerts = t.mDstVertHead;
+                dst.mVertNo += t.mDstVertNo;
+            }
+            if( t.mSrcEdgeHead != null ) {
+                t.mSrcEdgeTail.mGraphNext = src.mEdges;
+                src.mEdges = t.mSrcEdgeHead;
+                src.mEdgeNo += t.mSrcEdgeNo;
+            }
+            if( t.mDstEdgeHead != null ) {
+                t.mDstEdgeTail.mGraphNext = dst.mEdges;
+                dst.mEdges = t.mDstEdgeHead;
+                dst.mEdgeNo += t.mDstEdgeNo;
+            }
+        }
+
+        run( optPool, tasks, taskNo, PHASE_CLEAR );
+    }
+
+
+    private static void run( WorkerPool pool, Task[] tasks, int taskNo, int phase ) {
+        for( int i = 0; i < taskNo; i++ ) {
+            tasks[i].mPhase = phase;
+        }
+        pool.run( tasks, taskNo );
+    }
+
+
+
+    private static final class Task implements Runnable {
+
+        private final EdgeTable mTable = new EdgeTable();
+
+        int mPhase;
+
+        private Task[] mTasks;
+        private int mTaskNo;
+        private int mIndex;
+        private Vert[] mVerts;
+        private int mStart;
+        private int mEnd;
+
+        // Fine edges moved into the fine graph, in order.
+        private Edge[] mPush = new Edge[0];
+        private int mPushNo;
+
+        // Requested edges, in order. A coarse request has endpoints and a weight, and
+        // receives the edge if it created one. A fine request carries an existing edge.
+        private Vert[] mReqA      = new Vert[0];
+        private Vert[] mReqB      = new Vert[0];
+        private float[] mReqWeight = new float[0];
+        private Edge[] mReqEdge   = new Edge[0];
+        private int[] mReqPos     = new int[0];
+        private int mReqNo;
+
+        // Requests whose edges are added to the coarse graph, in order.
+        private int[] mDst = new int[0];
+        private int mDstNo;
+
+        // Coarse requests by merge bucket.
+        private int[][] mMerge  = new int[0][];
+        private int[] mMergeNo  = new int[0];
+
+        // Edges to add to each vert of the coarse graph, by bucket of the vert. Each is a
+        // request index shifted left by one, with the low bit set if the vert is endpoint B.
+        private int[][] mLinks = new int[0][];
+        private int[] mLinkNo  = new int[0];
+
+        // Lists built by PHASE_LINK, in reverse order of the block.
+        Vert mSrcVertHead;
+        Vert mSrcVertTail;
+        int  mSrcVertNo;
+        Vert mDstVertHead;
+        Vert mDstVertTail;
+        int  mDstVertNo;
+        Edge mSrcEdgeHead;
+        Edge mSrcEdgeTail;
+        int  mSrcEdgeNo;
+        Edge mDstEdgeHead;
+        Edge mDstEdgeTail;
+        int  mDstEdgeNo;
+
+
+        void init( Task[] tasks, int taskNo, int index, Vert[] verts, int start, int end ) {
+            mTasks  = tasks;
+            mTaskNo = taskNo;
+            mIndex  = index;
+            mVerts  = verts;
+            mStart  = start;
+            mEnd    = end;
+
+            if( mMerge.length < taskNo ) {
+                mMerge  = new int[taskNo][];
+                mMergeNo = new int[taskNo];
+                mLinks  = new int[taskNo][];
+                mLinkNo = new int[taskNo];
+                for( int i = 0; i < taskNo; i++ ) {
+                    mMerge[i] = new int[16];
+                    mLinks[i] = new int[16];
+                }
+            }
+        }
+
+
+        public void run() {
+            switch( mPhase ) {
+            case PHASE_WALK:
+                walk();
+                break;
+            case PHASE_MERGE:
+                merge();
+                break;
+            case PHASE_LINK:
+                linkGraph();
+                linkVerts();
+                break;
+            default:
+                clear();
+                break;
+            }
+        }
+
+        /**
+         * Records the work that rebuildEdges would do for each vert of the block.
+         */
+        private void walk() {
+            final Vert[] verts = mVerts;
+            mPushNo = 0;
+            mReqNo  = 0;
+            mDstNo  = 0;
+            Arrays.fill( mMergeNo, 0 );
+            Arrays.fill( mLinkNo, 0 );
+
+            for( int i = mStart; i < mEnd; i++ ) {
+                final Vert v      = verts[i];
+                final Vert father = v.mGraphOwner;
+
+                for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                    if( v != e.mA ) {
+                        // Edge is kept if neither vert is being replaced.
+                        if( father == null && e.mA.mGraphOwner == null ) {
+                            addLink( v, addRequest( null, null, 0f, e, i ), false );
+                        }
+                        continue;
+                    }
+
+                    final Vert brother = e.mB;
+                    final Vert uncle   = brother.mGraphOwner;
+
+                    if( father != null ) {
+                        push( e );
+                        final Vert target = uncle != null ? uncle : brother;
+                        if( father != target ) {
+                            addCoarseRequest( father, target, e.mWeight, i );
+                        }
+                    } else if( uncle != null ) {
+                        push( e );
+                        addCoarseRequest( v, uncle, e.mWeight, i );
+                    } else {
+                        // Both verts are valid. Promote edge to next level.
+                        final int req = addRequest( null, null, 0f, e, i );
+                        addDst( req );
+                        addLink( v, req, false );
+                    }
+                }
+
+                // Edge lists of promoted verts are rebuilt by PHASE_LINK.
+                v.mEdges = null;
+            }
+        }
+
+
+        private void merge() {
+            final EdgeTable table = mTable;
+            final int q = mIndex;
+
+            for( int r = 0; r < mTaskNo; r++ ) {
+                final Task t     = mTasks[r];
+                final int[] reqs = t.mMerge[q];
+                final int count  = t.mMergeNo[q];
+
+                for( int k = 0; k < count; k++ ) {
+                    final int req = reqs[k];
+                    final Vert a  = t.mReqA[req];
+                    final Vert b  = t.mReqB[req];
+                    final Edge e  = table.find( a, b );
+                    if( e == null ) {
+                        Edge newEdge = new Edge( a, b, t.mReqWeight[req] );
+                        table.add( newEdge );
+                        t.mReqEdge[req] = newEdge;
+                    } else {
+                        e.mWeight += t.mReqWeight[req];
+                    }
+                }
+            }
+
+            table.clear();
+        }
+
+
+        private void linkGraph() {
+            final Vert[] verts = mVerts;
+
+            Vert srcVert = null;
+            Vert dstVert = null;
+            mSrcVertTail = null;
+            mDstVertTail = null;
+            mSrcVertNo   = 0;
+            mDstVertNo   = 0;
+
+            for( int i = mStart; i < mEnd; i++ ) {
+                final Vert v = verts[i];
+                if( v.mGraphOwner != null ) {
+                    v.mGraphNext = srcVert;
+                    srcVert = v;
+                    if( mSrcVertTail == null ) {
+                        mSrcVertTail = v;
+                    }
+                    mSrcVertNo++;
+                } else {
+                    v.mGraphNext = dstVert;
+                    dstVert = v;
+                    if( mDstVertTail == null ) {
+                        mDstVertTail = v;
+                    }
+                    mDstVertNo++;
+                }
+            }
+
+            mSrcVertHead = srcVert;
+            mDstVertHead = dstVert;
+
+            Edge head = null;
+            for( int k = 0; k < mPushNo; k++ ) {
+                final Edge e = mPush[k];
+                e.mGraphNext = head;
+                head = e;
+            }
+            mSrcEdgeHead = head;
+            mSrcEdgeTail = mPushNo == 0 ? null : mPush[0];
+            mSrcEdgeNo   = mPushNo;
+
+            head = null;
+            mDstEdgeTail = null;
+            mDstEdgeNo   = 0;
+            for( int k = 0; k < mDstNo; k++ ) {
+                final Edge e = mReqEdge[ mDst[k] ];
+                if( e == null ) {
+                    continue;
+                }
+                e.mGraphNext = head;
+                head = e;
+                if( mDstEdgeTail == null ) {
+                    mDstEdgeTail = e;
+                }
+                mDstEdgeNo++;
+            }
+            mDstEdgeHead = head;
+        }
+
+        /**
+         * Builds edge lists of the coarse graph verts in this task's bucket.
+         * <p>
+         * Serially, edges created before a promoted vert is reached are prepended to its
+         * list, then reversed along with the rest of the list when the vert rebuilds it,
+         * and edges created afterward are prepended again. So edges from blocks and verts
+         * before the vert are added first in reverse order, and the rest in forward order.
+         */
+        private void linkVerts() {
+            final int fineNo = mVerts.length;
+            final int q = mIndex;
+
+            for( int r = mTaskNo - 1; r >= 0; r-- ) {
+                final Task t      = mTasks[r];
+                final int[] links = t.mLinks[q];
+                for( int k = t.mLinkNo[q] - 1; k >= 0; k-- ) {
+                    t.link( links[k], fineNo, true );
+                }
+            }
+
+            for( int r = 0; r < mTaskNo; r++ ) {
+                final Task t      = mTasks[r];
+                final int[] links = t.mLinks[q];
+                final int count   = t.mLinkNo[q];
+                for( int k = 0; k < count; k++ ) {
+                    t.link( links[k], fineNo, false );
+                }
+            }
+        }
+
+        /**
+         * Adds the edge of a link entry of this task to its vert, if the edge exists and
+         * was requested before (<code>before == true</code>) or not before the vert was
+         * reached.
+         */
+        private void link( int entry, int fineNo, boolean before ) {
+            final int req = entry >>> 1;
+            final Edge e  = mReqEdge[req];
+            if( e == null ) {
+                return;
+            }
+
+            final Vert v;
+            if( mReqA[req] == null ) {
+                v = mVerts[ mReqPos[req] ];
+            } else {
+                v = ( entry & 1 ) == 0 ? mReqA[req] : mReqB[req];
+            }
+
+            final int pos = (int)v.mTempDist;
+            if( ( pos < fineNo && mReqPos[req] < pos ) == before ) {
+                v.addEdge( e );
+            }
+        }
+
+
+        private void clear() {
+            Arrays.fill( mPush, 0, mPushNo, null );
+            Arrays.fill( mReqA, 0, mReqNo, null );
+            Arrays.fill( mReqB, 0, mReqNo, null );
+            Arrays.fill( mReqEdge, 0, mReqNo, null );
+            mPushNo = 0;
+            mReqNo  = 0;
+            mDstNo  = 0;
+            mVerts  = null;
+            mTasks  = null;
+            mSrcVertHead = null;
+            mSrcVertTail = null;
+            mDstVertHead = null;
+            mDstVertTail = null;
+            mSrcEdgeHead = null;
+            mSrcEdgeTail = null;
+            mDstEdgeHead = null;
+            mDstEdgeTail = null;
+        }
+
+
+        private void push( Edge e ) {
+            if( mPushNo == mPush.length ) {
+                mPush = Arrays.copyOf( mPush, Math.max( 64, mPushNo * 2 ) );
+            }
+            mPush[mPushNo++] = e;
+        }
+
+
+        private int addRequest( Vert a, Vert b, float weight, Edge e, int pos ) {
+            if( mReqNo == mReqA.length ) {
+                int cap = Math.max( 64, mReqNo * 2 );
+                mReqA      = Arrays.copyOf( mReqA, cap );
+                mReqB      = Arrays.copyOf( mReqB, cap );
+                mReqWeight = Arrays.copyOf( mReqWeight, cap );
+                mReqEdge   = Arrays.copyOf( mReqEdge, cap );
+                mReqPos    = Arrays.copyOf( mReqPos, cap );
+            }
+            final int req = mReqNo++;
+            mReqA[req]      = a;
+            mReqB[req]      = b;
+            mReqWeight[req] = weight;
+            mReqEdge[req]   = e;
+            mReqPos[req]    = pos;
+            return req;
+        }
+
+
+        private void addCoarseRequest( Vert a, Vert b, float weight, int pos ) {
+            final int req = addRequest( a, b, weight, null, pos );
+            addDst( req );
+
+            final int q = (int)( ( ( EdgeTable.hash( a, b ) >>> 1 ) * (long)mTaskNo ) >>> 31 );
+            if( mMergeNo[q] == mMerge[q].length ) {
+                mMerge[q] = Arrays.copyOf( mMerge[q], mMergeNo[q] * 2 );
+            }
+            mMerge[q][ mMergeNo[q]++ ] = req;
+
+            addLink( a, req, false );
+            addLink( b, req, true );
+        }
+
+
+        private void addDst( int req ) {
+            if( mDstNo == mDst.length ) {
+                mDst = Arrays.copyOf( mDst, Math.max( 64, mDstNo * 2 ) );
+            }
+            mDst[mDstNo++] = req;
+        }
+
+
+        private void addLink( Vert v, int req, boolean isB ) {
+            final int q = (int)v.mTempDist % mTaskNo;
+            if( mLinkNo[q] == mLinks[q].length ) {
+                mLinks[q] = Arrays.copyOf( mLinks[q], mLinkNo[q] * 2 );
+            }
+            mLinks[q][ mLinkNo[q]++ ] = req << 1 | ( isB ? 1 : 0 );
+        }
+
+    }
+
+}
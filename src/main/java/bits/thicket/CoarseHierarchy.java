@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.*;
+
+
+/**
+ * Multilevel coarsening of a graph, built once and shared by any number of layouts of
+ * that graph with {@link LayoutSolver#init(LayoutParams,CoarseHierarchy,Graph)}.
+ * <p>
+ * Unlike {@link Graphs#coarsen}, building a hierarchy does not modify the source graph.
+ * Each level is stored as arrays of vert weights and edges, along with the vert of the
+ * next coarser level that each vert maps to. A layout creates Verts and Edges for each
+ * coarse level as it reaches it and discards them once the next finer level has been
+ * refined, so positions belong to the layout, and a hierarchy is never modified after
+ * it is built. Several solvers may use one hierarchy at once, provided that each lays
+ * out its own copy of the graph, such as one returned by {@link #newGraph()}.
+ * <p>
+ * Topology and coarse vert weights are fixed by the LayoutParams given to
+ * {@link #build}. Later layouts ignore <code>mCoarsenStrategy</code> and use the coarse
+ * vert weights computed with the <code>mVertWeightModel</code> of the build.
+ *
+ * @author decamp
+ */
+public final class CoarseHierarchy {
+
+    /**
+     * Coarsens a copy of <code>graph</code> until it cannot be further coarsened, as
+     * {@link LayoutSolver} would. <code>graph</code> is not modified, except that
+     * mTempDist is overwritten.
+     *
+     * @param params Supplies the coarsening strategy, vert weight model and thread count.
+     * @param graph  Graph to coarsen.
+     * @return hierarchy of <code>graph</code>. Level 0 is <code>graph</code> itself.
+     */
+    public static CoarseHierarchy build( LayoutParams params, Graph graph ) {
+        final int n = graph.mVertNo;
+        final VertWeightModel weighter = params.mVertWeightModel;
+
+        // Copy graph, keeping verts in list order and edges in the order of each vert's
+        // edge list, as coarsening strategies break ties by that order.
+        Vert[] verts = new Vert[n];
+        Graph g = new Graph();
+
+        Graphs.labelIndex( graph.mVerts );
+        int i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            Vert c = new Vert();
+            c.mWeight = weighter.atomicWeight( v );
+            verts[i++] = c;
+        }
+        for( i = n - 1; i >= 0; i-- ) {
+            g.addVert( verts[i] );
+        }
+
+        Map<Edge,Edge> copies = new IdentityHashMap<Edge,Edge>( graph.mEdgeNo * 2 );
+        i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            final Vert c = verts[i++];
+            Edge tail = null;
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Edge copy = copies.get( e );
+                if( copy == null ) {
+                    copy = new Edge( verts[ (int)e.mA.mTempDist ], verts[ (int)e.mB.mTempDist ], e.mWeight );
+                    copies.put( e, copy );
+                    g.addEdge( copy );
+                }
+                if( tail == null ) {
+                    c.mEdges = copy;
+                } else {
+                    tail.setNext( c, copy );
+                }
+                tail = copy;
+            }
+        }
+
+        List<Level> levels = new ArrayList<Level>();
+        Graphs.labelIndex( g.mVerts );
+        Level level = new Level( verts );
+        levels.add( level );
+
+        final WorkerPool pool = WorkerPool.reuse( null, WorkerPool.threadCount( params ) );
+        final CoarseEdgeBuilder builder = new CoarseEdgeBuilder();
+        try {
+            while( params.mMultilevel && g.mEdgeNo >= 2 ) {
+                Graph coarse = Graphs.coarsen( params, g, pool, builder );
+                if( coarse == null ) {
+                    break;
+                }
+
+                Vert[] coarseVerts = new Vert[coarse.mVertNo];
+                i = 0;
+                for( Vert v = coarse.mVerts; v != null; v = v.mGraphNext ) {
+                    v.mTempDist = i;
+                    coarseVerts[i++] = v;
+                }
+
+                // Promoted verts now carry their index in the coarse level.
+                final int[] parents = new int[verts.length];
+                final boolean[] collapsed = new boolean[verts.length];
+                for( i = 0; i < verts.length; i++ ) {
+                    Vert owner = verts[i].mGraphOwner;
+                    collapsed[i] = owner != null;
+                    parents[i]   = (int)( owner != null ? owner : verts[i] ).mTempDist;
+                }
+                level.mParents   = parents;
+                level.mCollapsed = collapsed;
+
+                level = new Level( coarseVerts );
+                levels.add( level );
+                g = coarse;
+                verts = coarseVerts;
+            }
+        } finally {
+            if( pool != null ) {
+                pool.shutdown();
+            }
+        }
+
+        return new CoarseHierarchy( levels.toArray( new Level[levels.size()] ) );
+    }
+
+
+    private final Level[] mLevels;
+
+
+    private CoarseHierarchy( Level[] levels ) {
+        mLevels = levels;
+    }
+
+
+    /**
+     * @return number of levels, including the finest level.
+     */
+    public int levelNo() {
+        return mLevels.length;
+    }
+
+    /**
+     * @param level Level index, where 0 is the finest level.
+     * @return number of verts in level.
+     */
+    public int vertNo( int level ) {
+        return mLevels[level].mVertNo;
+    }
+
+    /**
+     * @param level Level index, where 0 is the finest level.
+     * @return number of edges in level.
+     */
+    public int edgeNo( int level ) {
+        return mLevels[level].mEdgeNo;
+    }
+
+    /**
+     * @return new graph with the same topology and vert weights as the graph the hierarchy
+     *         was built from, with all verts at the origin.
+     */
+    public Graph newGraph() {
+        return instantiate( 0, null, new Vert[ mLevels[0].mVertNo ] );
+    }
+
+
+    /**
+     * Creates verts and edges of a level.
+     *
+     * @param level    Level index.
+     * @param optPos   Interleaved xyz positions of verts, or null to leave verts at origin.
+     * @param outVerts Receives verts of level, in index order.
+     * @return graph holding <code>outVerts</code>, listed in index order.
+     */
+    Graph instantiate( int level, float[] optPos, Vert[] outVerts ) {
+        final Level lev = mLevels[level];
+        final int n = lev.mVertNo;
+        final Graph g = new Graph();
+
+        for( int i = n - 1; i >= 0; i-- ) {
+            Vert v = new Vert();
+            v.mWeight = lev.mWeights[i];
+            if( optPos != null ) {
+                v.mX = optPos[ i * 3     ];
+                v.mY = optPos[ i * 3 + 1 ];
+                v.mZ = optPos[ i * 3 + 2 ];
+            }
+            outVerts[i] = v;
+            g.addVert( v );
+        }
+
+        final int[] a = lev.mEdgeA;
+        final int[] b = lev.mEdgeB;
+        final float[] w = lev.mEdgeWeights;
+        for( int i = 0; i < lev.mEdgeNo; i++ ) {
+            g.connect( outVerts[ a[i] ], outVerts[ b[i] ], w[i] );
+        }
+
+        g.mCoarseLevel = level;
+        return g;
+    }
+
+    /**
+     * Computes the initial positions of the verts of the coarsest level from the verts of
+     * the finest level. Each coarse vert is placed at the weighted mean of the verts it
+     * combines.
+     *
+     * @param verts Verts of finest level, in index order, with weights initialized.
+     * @return interleaved xyz positions of coarsest verts.
+     */
+    float[] restrictPositions( Vert[] verts ) {
+        final int n = verts.length;
+        float[] pos = new float[ n * 3 ];
+        float[] weights = new float[n];
+        for( int i = 0; i < n; i++ ) {
+            Vert v = verts[i];
+            pos[ i * 3     ] = v.mX;
+            pos[ i * 3 + 1 ] = v.mY;
+            pos[ i * 3 + 2 ] = v.mZ;
+            weights[i] = v.mWeight;
+        }
+
+        for( int level = 0; level < mLevels.length - 1; level++ ) {
+            final Level lev = mLevels[level];
+            final int[] parents = lev.mParents;
+            final int coarseNo  = mLevels[ level + 1 ].mVertNo;
+            final float[] sum   = new float[ coarseNo * 3 ];
+            final float[] mass  = new float[coarseNo];
+
+            for( int i = 0; i < lev.mVertNo; i++ ) {
+                final int p   = parents[i];
+                final float w = weights[i];
+                sum[ p * 3     ] += w * pos[ i * 3     ];
+                sum[ p * 3 + 1 ] += w * pos[ i * 3 + 1 ];
+                sum[ p * 3 + 2 ] += w * pos[ i * 3 + 2 ];
+                mass[p] += w;
+            }
+            for( int p = 0; p < coarseNo; p++ ) {
+                final float scale = mass[p] == 0f ? 0f : 1f / mass[p];
+                sum[ p * 3     ] *= scale;
+                sum[ p * 3 + 1 ] *= scale;
+                sum[ p * 3 + 2 ] *= scale;
+            }
+
+            pos = sum;
+            weights = mLevels[ level + 1 ].mWeights;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Prepares the verts of a level for {@link RefineFunc#refine}, as {@link Graphs#uncoarsen}
+     * would leave them. Verts that were combined have mGraphOwner set to their coarse vert.
+     * Verts that were promoted have mGraphOwner cleared and take the position of their
+     * coarse copy.
+     *
+     * @param level       Index of finer level.
+     * @param coarseVerts Verts of level <code>level + 1</code>, in index order.
+     * @param fineVerts   Verts of level <code>level</code>, in index order.
+     */
+    void prolong( int level, Vert[] coarseVerts, Vert[] fineVerts ) {
+        final Level lev = mLevels[level];
+        final int[] parents = lev.mParents;
+        final boolean[] collapsed = lev.mCollapsed;
+
+        for( int i = 0; i < lev.mVertNo; i++ ) {
+            final Vert v = fineVerts[i];
+            final Vert p = coarseVerts[ parents[i] ];
+            if( collapsed[i] ) {
+                v.mGraphOwner = p;
+            } else {
+                v.mGraphOwner = null;
+                v.mX = p.mX;
+                v.mY = p.mY;
+                v.mZ = p.mZ;
+            }
+        }
+    }
+
+
+
+    private static final class Level {
+
+        final int mVertNo;
+        final float[] mWeights;
+
+        final int mEdgeNo;
+        final int[] mEdgeA;
+        final int[] mEdgeB;
+        final float[] mEdgeWeights;
+
+        /**
+         * Index of vert in next coarser level that each vert maps to, or null for coarsest level.
+         */
+        int[] mParents;
+
+        /**
+         * True for each vert that was combined with another vert, rather than promoted.
+         */
+        boolean[] mCollapsed;
+
+
+        /**
+         * @param verts Verts of level in index order. mTempDist of each vert must hold its index.
+         */
+        Level( Vert[] verts ) {
+            final int n = verts.length;
+            mVertNo  = n;
+            mWeights = new float[n];
+
+            int edgeNo = 0;
+            for( int i = 0; i < n; i++ ) {
+                mWeights[i] = verts[i].mWeight;
+                for( Edge e = verts[i].mEdges; e != null; e = e.next( verts[i] ) ) {
+                    if( e.mA == verts[i] ) {
+                        edgeNo++;
+                    }
+                }
+            }
+
+            mEdgeNo      = edgeNo;
+            mEdgeA       = new int[edgeNo];
+            mEdgeB       = new int[edgeNo];
+            mEdgeWeights = new float[edgeNo];
+
+            int j = 0;
+            for( int i = 0; i < n; i++ ) {
+                final Vert v = verts[i];
+                for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                    if( e.mA == v ) {
+                        mEdgeA[j]       = i;
+                        mEdgeB[j]       = (int)e.mB.mTempDist;
+                        mEdgeWeights[j] = e.mWeight;
+                        j++;
+                    }
+                }
+            }
+        }
+
+    }
+
+}
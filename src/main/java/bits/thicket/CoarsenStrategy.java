@@ -20,7 +20,7 @@ interface CoarsenStrategy {
      * Runs in O(E) time.
      */
     public static final CoarsenStrategy MAX_EDGE = new CoarsenStrategy() {
-        public Vert coarsenVerts( LayoutParams params, Vert list ) {
+        public Vert coarsenVerts( LayoutParams params, Vert list, WorkerPool optPool ) {
             Vert ret = null;
             
             // Find set of nodes to collapse.
@@ -62,80 +62,29 @@ interface CoarsenStrategy {
      * the signature will be much lower.
      * <p>
      * In practice, I've found this provides a <i>tiny</i> improvement
-     * to quality. However, this function is not optimized, and runs
-     * in O(VE^2) time (I think), where V is the number of verts and E is the
-     * number of edges.
-     * 
+     * to quality. Scoring a pair of verts takes O(min(deg(u),deg(v))) time,
+     * and scoring is split across the threads of the given pool.
+     * See {@link SignatureMatching}.
      */
-    public static final CoarsenStrategy EDGE_SIGNATURE = new CoarsenStrategy() {
-        public Vert coarsenVerts( LayoutParams params, Vert list ) {
-            Vert ret = null;
-            int vertCount = 0;
-            
-            // Clear temp variables
-            for( Vert v = list; v != null; v = v.mGraphNext ) {
-                v.mTempNext = null;
-                vertCount++;
-            }
-            
-            // Find set of nodes to collapse.
-            for( Vert v = list; v != null; v = v.mGraphNext ) {
-                // Check if already collapsed
-                if( v.mGraphOwner != null ) {
-                    continue;
-                }
-                
-                // Mark all vertices that connect to v.
-                float vTotal = 0f;
-                v.mTempNext = v;
-                for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
-                    e.other( v ).mTempNext = v;
-                    vTotal += e.mWeight;
-                }
-                
-                // For each vertex connected to v that is not collapsed, find number of shared vertices.
-                Edge bestEdge = null;
-                float bestMatch = 0f;
-                
-                for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
-                    Vert u = e.other( v );
-                    if( u.mGraphOwner != null ) {
-                        continue;
-                    }
-                    
-                    float uTotal = 0f;
-                    float sTotal = 0f;
-                    
-                    for( Edge f = u.mEdges; f != null; f = f.next( u ) ) {
-                        uTotal += f.mWeight;
-                        if( f.other( u ).mTempNext == v ) {
-                            sTotal += f.mWeight;
-                        }
-                    }
-                    
-                    float match = sTotal / ( uTotal + vTotal );
-                    if( match > bestMatch ) {
-                        bestMatch = match;
-                        bestEdge  = e;
-                    }
-                }
-                
-                if( bestEdge == null ) {
-                    continue;
-                }
-                
-                // Combine nodes to create coarser parent. 
-                Vert combined = Graphs.combine( bestEdge.mA, bestEdge.mB, params.mVertWeightModel );
-                combined.mGraphNext = ret;
-                ret = combined;
-            }
-            
-            return ret;
-        }
-    };
+    public static final CoarsenStrategy EDGE_SIGNATURE = new SignatureMatching();
+    
+    /**
+     * Heavy-edge matching computed in rounds split across the threads of the given pool,
+     * finished by a serial greedy pass. Reduces each level about as much as MAX_EDGE, but
+     * the result does not depend on thread count. See {@link HandshakeMatching}.
+     */
+    public static final CoarsenStrategy HANDSHAKE = new HandshakeMatching();
+    
+    /**
+     * Combines the leaves of each hub into groups, matches remaining verts in pairs, and
+     * when that leaves too many verts, adds unmatched verts to neighbouring groups. Keeps
+     * the number of levels logarithmic on star-heavy graphs, where pairwise matching
+     * collapses only one leaf per hub per level. See {@link GroupMatching}.
+     */
+    public static final CoarsenStrategy GROUP = new GroupMatching();
     
     /**
-     * Generates list of vertices, each one an aggregate of two verts 
+     * Generates list of vertices, each one an aggregate of two or more verts 
      * from the provided list.
      * <p>
      * The provided Verts will be modified during this call. Mainly, 
@@ -149,7 +98,12 @@ interface CoarsenStrategy {
      * v.mTempDist <br/>
      * <p>
      * Note that no changes will be made to the v.mWeight or v.mEdges.
+     *
+     * @param params  Layout parameters.
+     * @param verts   List of verts to coarsen.
+     * @param optPool Pool to split work across, or null to run on the calling thread.
+     *                Strategies that do not run in parallel ignore it.
      */
-    public Vert coarsenVerts( LayoutParams params, Vert verts );
+    public Vert coarsenVerts( LayoutParams params, Vert verts, WorkerPool optPool );
     
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.List;
+
+
+/**
+ * Lays out a graph that may be disconnected by laying out each connected component on its
+ * own and then packing the components together. Within one layout, disconnected components
+ * are held together only by gravity and drift apart or overlap, and stray components inflate
+ * the bounds used to size repulsion trees. Laying out components independently avoids both,
+ * and lets components be laid out concurrently on a {@link BatchLayout}.
+ * <p>
+ * After layout, the bounding box of each component, padded by
+ * {@link LayoutParams#mComponentGap}, is packed with a skyline packer into a roughly square
+ * region centered on {@link LayoutParams#mGravityCenter}. In 3D, components are packed by their
+ * x-y footprint and centered in z.
+ * <p>
+ * Components are laid out single-threaded, so a graph dominated by one large component gains
+ * little from additional threads.
+ *
+ * @author decamp
+ */
+public class ComponentLayout {
+
+    private final BatchLayout mBatch;
+    private final SkylinePacker mPacker = new SkylinePacker();
+    private final float[] mBox = new float[6];
+
+
+    /**
+     * @param threadNo Number of threads to use, including the calling thread.
+     *                 Values &leq; 0 use one thread per available processor.
+     */
+    public ComponentLayout( int threadNo ) {
+        mBatch = new BatchLayout( threadNo );
+    }
+
+
+    public int threadNo() {
+        return mBatch.threadNo();
+    }
+
+    /**
+     * Lays out <code>graph</code> and blocks until done. Components are laid out as described
+     * by {@link BatchLayout#layout}. On return, <code>graph</code> contains the same verts and
+     * edges as before, in a different order. If layout throws, <code>graph</code> is left in
+     * an undefined state.
+     *
+     * @param graph  Graph to lay out.
+     * @param params Layout parameters. Not modified.
+     */
+    public void layout( Graph graph, LayoutParams params ) {
+        if( params.mDim != 2 && params.mDim != 3 ) {
+            throw new IllegalArgumentException( "LayoutParams.mDim = " + params.mDim );
+        }
+
+        List<Graph> comps = Graphs.splitComponents( graph );
+        mBatch.layout( comps, params );
+        pack( comps, params );
+        Graphs.merge( comps, graph );
+    }
+
+    /**
+     * Stops all threads. This object may not be used afterward.
+     */
+    public void dispose() {
+        mBatch.dispose();
+    }
+
+
+
+    private void pack( List<Graph> comps, LayoutParams params ) {
+        final int n = comps.size();
+        final int dim = params.mDim;
+        final float gap = params.mComponentGap * params.mScale;
+        final float[] box = mBox;
+
+        float[] x0 = new float[n];
+        float[] y0 = new float[n];
+        float[] zc = new float[n];
+        float[] w  = new float[n];
+        float[] h  = new float[n];
+        double area = 0.0;
+
+        for( int i = 0; i < n; i++ ) {
+            Graph g = comps.get( i );
+            if( dim == 2 ) {
+                Graphs.computeBounds2( g.mVerts, box );
+                x0[i] = box[0];
+                y0[i] = box[1];
+                w[i]  = box[2] - box[0] + gap;
+                h[i]  = box[3] - box[1] + gap;
+            } else {
+                Graphs.computeBounds3( g.mVerts, box );
+                x0[i] = box[0];
+                y0[i] = box[1];
+                zc[i] = ( box[2] + box[5] ) * 0.5f;
+                w[i]  = box[3] - box[0] + gap;
+                h[i]  = box[4] - box[1] + gap;
+            }
+            area += (double)w[i] * h[i];
+        }
+
+        float[] px = new float[n];
+        float[] py = new float[n];
+        mPacker.pack( w, h, n, (float)Math.sqrt( area ), px, py );
+        
+        float width  = 0f;
+        float height = 0f;
+        for( int i = 0; i < n; i++ ) {
+            width  = Math.max( width, px[i] + w[i] );
+            height = Math.max( height, py[i] + h[i] );
+        }
+
+        // Lower-left of packing such that packing is centered on gravity center.
+        final float[] center = params.mGravityCenter;
+        final float ox = center[0] - ( width  - gap ) * 0.5f;
+        final float oy = center[1] - ( height - gap ) * 0.5f;
+
+        for( int i = 0; i < n; i++ ) {
+            float dx = ox + px[i] - x0[i];
+            float dy = oy + py[i] - y0[i];
+            float dz = dim == 2 ? 0f : center[2] - zc[i];
+
+            for( Vert v = comps.get( i ).mVerts; v != null; v = v.mGraphNext ) {
+                v.mX += dx;
+                v.mY += dy;
+                v.mZ += dz;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Searches for the tree depth that minimizes the cost of Barnes-Hut repulsion.
+ * Each step reports the cost measured at the current depth, and the tuner moves
+ * the depth up or down until the cost stops decreasing.
+ *
+ * @author decamp
+ */
+final class DepthTuner {
+
+    private static final int DEFAULT_START_DEPTH = 9;
+
+    private int mDepth;
+    private boolean mTune;
+    private int mPos;        /** 0 = init, 1 = increased once, 2 = increased twice... **/
+    private int mDepthBest;  /** Best depth tested. **/
+    private float mCostBest; /** Cost of best depth tested. **/
+
+
+    /**
+     * @param maxDepth Fixed depth to use, or a value &leq; 0 to tune depth automatically.
+     */
+    void init( int maxDepth ) {
+        if( maxDepth <= 0 ) {
+            mDepth = DEFAULT_START_DEPTH;
+            mTune  = true;
+            mPos   = 0;
+        } else {
+            mDepth = maxDepth;
+            mTune  = false;
+        }
+    }
+
+    /**
+     * @return depth to use for next tree build.
+     */
+    int depth() {
+        return mDepth;
+    }
+
+    /**
+     * @return true iff the tuner still requires cost measurements.
+     */
+    boolean tuning() {
+        return mTune;
+    }
+
+    /**
+     * Reports cost of a step performed at {@link #depth()}.
+     */
+    void update( float cost ) {
+        if( !mTune ) {
+            return;
+        }
+
+        if( mPos == 0 ) {
+            // First iteration.
+            mCostBest  = cost;
+            mDepthBest = mDepth--;
+            mPos--;
+        } else if( cost < mCostBest ) {
+            // If cost decreased, keep searching in same direction.
+            mCostBest  = cost;
+            mDepthBest = mDepth;
+
+            if( mPos > 0 ) {
+                mDepth++;
+                mPos++;
+            } else if( mDepth > 1 ) {
+                mDepth--;
+                mPos--;
+            } else {
+                // Nowhere to go. We're done.
+                // This is a weird thing to happen, and probably means that most of the points are
+                // at about the same position.
+                mTune = false;
+            }
+        } else {
+            // Cost has decreased. If this occurred on our first attemp to decrease
+            // depth, switch directions. Otherwise, the search is complete.
+            if( mPos == -1 ) {
+                mDepth += 2;
+                mPos = 1;
+            } else {
+                mDepth = mDepthBest;
+                mTune  = false;
+            }
+        }
+    }
+
+}
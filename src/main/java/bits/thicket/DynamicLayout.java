@@ -0,0 +1,677 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.*;
+
+
+/**
+ * Maintains a converged layout while verts and edges are added and removed. Changes are
+ * made through this object and queued, and {@link #relax()} then updates the layout locally:
+ * new verts are placed at the weighted centroid of their placed neighbors, and only verts
+ * within {@link LayoutParams#mDynamicHops} hops of a change are moved. All other verts are
+ * held fixed and act only as sources of repulsion.
+ * <p>
+ * Repulsion from fixed verts is computed with a Barnes-Hut tree that is kept between calls
+ * to {@link #relax()}. Verts that have moved or changed since the tree was built are tracked,
+ * and their contributions to the tree are corrected exactly. The tree is rebuilt only once
+ * the cost of these corrections exceeds the cost of a rebuild, so the cost of a relaxation
+ * is amortized in proportion to the size of the changed region rather than the graph.
+ * <p>
+ * Removed verts and edges are unlinked from their neighbors immediately, but are only
+ * removed from the lists of the graph at the next call to {@link #relax()}, which requires
+ * one pass over those lists.
+ * <p>
+ * The graph must not be modified other than through this object, and positions must not be
+ * modified other than by {@link #relax()}, while this object is in use.
+ *
+ * @author decamp
+ */
+public class DynamicLayout {
+
+    private final LayoutParams mParams;
+    private final LayoutParams mLocalParams;
+    private final Graph mGraph;
+    private final Random mRand;
+    private final int mDim;
+    private final RepulseEq mEq;
+    private final float mCoeff;
+    private final float mApproxThreshSq;
+
+    // Pending changes. Verts and Edges use identity equality, and insertion order
+    // keeps results reproducible for a given random seed.
+    private final Set<Vert> mAddedVerts   = new LinkedHashSet<Vert>();
+    private final Set<Vert> mRemovedVerts = new HashSet<Vert>();
+    private final Set<Edge> mRemovedEdges = new HashSet<Edge>();
+    private final Set<Vert> mSeeds        = new LinkedHashSet<Vert>();
+
+    // Tree of all verts at time of last build.
+    private final PackedTree mTree = new PackedTree();
+    private boolean mTreeValid = false;
+    private int mTreeVertNo    = 0;
+    private float[] mTreeX = new float[0];
+    private float[] mTreeY = new float[0];
+    private float[] mTreeZ = new float[0];
+    private float[] mTreeW = new float[0];
+
+    // Verts that have changed since tree was built. Entries hold position and weight each vert
+    // had in tree, or a weight of 0 if not in tree. Vert is null once removed.
+    private final Map<Vert,Integer> mStaleIndex = new IdentityHashMap<Vert,Integer>();
+    private Vert[] mStaleVerts = new Vert[16];
+    private float[] mStaleX = new float[16];
+    private float[] mStaleY = new float[16];
+    private float[] mStaleZ = new float[16];
+    private float[] mStaleW = new float[16];
+    private int mStaleNo = 0;
+
+    // Region being relaxed. Active verts occupy [0, mActiveNo), fixed neighbors [mActiveNo, mRegionNo).
+    private Vert[] mRegion  = new Vert[16];
+    private int[] mHops     = new int[16];
+    private int mActiveNo   = 0;
+    private int mRegionNo   = 0;
+
+    private final PackedGraph mLocal = new PackedGraph();
+    private final PackedGravityPhase mGravityPhase = new PackedGravityPhase();
+    private final PackedAttractPhase mAttractPhase = new PackedAttractPhase();
+    private final PackedGlobalStepUpdatePhase mUpdatePhase = new PackedGlobalStepUpdatePhase();
+    private final float[] mAcc = new float[3];
+
+
+    /**
+     * @param params Layout parameters, usually the same as used to lay out <code>graph</code>.
+     *               Must not be modified while this object is in use.
+     * @param graph  Graph with a converged layout. Must not be coarsened.
+     */
+    public DynamicLayout( LayoutParams params, Graph graph ) {
+        if( params.mDim != 2 && params.mDim != 3 ) {
+            throw new IllegalArgumentException( "LayoutParams.mDim = " + params.mDim );
+        }
+        if( graph.mFinerGraph != null ) {
+            throw new IllegalArgumentException( "Graph is coarsened." );
+        }
+
+        RepulseEq eq = params.mRepulseEq;
+        if( eq == null ) {
+            eq = RepulseEq.INV_LINEAR_DIST;
+        }
+
+        mParams = params;
+        mGraph  = graph;
+        mRand   = params.mRand != null ? params.mRand : new Random();
+        mDim    = params.mDim;
+        mEq     = eq;
+        mCoeff  = PackedRepulsePhase.coeff( eq, params );
+        mApproxThreshSq = params.mRepulseApproxThresh * params.mRepulseApproxThresh;
+
+        LayoutParams lp = new LayoutParams( params );
+        lp.mThreadNo          = 1;
+        lp.mStats             = null;
+        lp.mUpdateInitialStep = params.mDynamicInitialStep;
+        mLocalParams = lp;
+    }
+
+
+    public Graph graph() {
+        return mGraph;
+    }
+
+    /**
+     * Adds a vert to the graph. The vert will be positioned by the next call to {@link #relax()}.
+     *
+     * @param v New vert, without any edges.
+     */
+    public void addVert( Vert v ) {
+        if( v.mEdges != null ) {
+            throw new IllegalArgumentException( "New vert may not have edges." );
+        }
+        mGraph.addVert( v );
+        markStale( v, false );
+        mAddedVerts.add( v );
+        mSeeds.add( v );
+    }
+
+    /**
+     * Connects two verts of the graph, as described by {@link Graph#connect}.
+     */
+    public Edge connect( Vert a, Vert b, float weight ) {
+        markStale( a, true );
+        markStale( b, true );
+        mSeeds.add( a );
+        mSeeds.add( b );
+        return mGraph.connect( a, b, weight );
+    }
+
+    /**
+     * Removes an edge from the graph.
+     */
+    public void removeEdge( Edge e ) {
+        if( !e.mA.removeEdge( e ) ) {
+            return;
+        }
+        e.mB.removeEdge( e );
+        mRemovedEdges.add( e );
+        markStale( e.mA, true );
+        markStale( e.mB, true );
+        mSeeds.add( e.mA );
+        mSeeds.add( e.mB );
+    }
+
+    /**
+     * Removes a vert and all of its edges from the graph.
+     */
+    public void removeVert( Vert v ) {
+        for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+            Vert u = e.other( v );
+            u.removeEdge( e );
+            mRemovedEdges.add( e );
+            markStale( u, true );
+            mSeeds.add( u );
+        }
+        v.mEdges = null;
+
+        markStale( v, true );
+        mStaleVerts[ mStaleIndex.get( v ) ] = null;
+        mRemovedVerts.add( v );
+        mAddedVerts.remove( v );
+        mSeeds.remove( v );
+    }
+
+    /**
+     * Applies all changes made since the previous call and relaxes the layout around them.
+     * Blocks until the relaxed region has converged, as determined by
+     * {@link LayoutParams#mUpdateTol}.
+     *
+     * @return number of verts that were moved.
+     */
+    public int relax() {
+        compactLists();
+        placeAddedVerts();
+
+        if( mSeeds.isEmpty() ) {
+            return 0;
+        }
+
+        final VertWeightModel weights = mParams.mVertWeightModel;
+        for( Vert v: mSeeds ) {
+            v.mWeight = weights.atomicWeight( v );
+        }
+
+        collectRegion();
+        mSeeds.clear();
+
+        final int activeNo = mActiveNo;
+        if( !mTreeValid || (long)( mStaleNo + activeNo ) * activeNo > mGraph.mVertNo ) {
+            rebuildTree();
+        }
+        for( int i = 0; i < activeNo; i++ ) {
+            markStale( mRegion[i], true );
+        }
+
+        final LayoutParams lp = mLocalParams;
+        final PackedGraph g   = mLocal;
+        g.packSubset( mRegion, mRegionNo );
+
+        mGravityPhase.init( lp, g );
+        mAttractPhase.init( lp, g );
+        mUpdatePhase.init(  lp, g );
+
+        while( !mUpdatePhase.converged() ) {
+            mGravityPhase.step( lp, g );
+            mAttractPhase.step( lp, g );
+            repulse( g, activeNo );
+
+            // Fixed verts have no force and so do not move.
+            Arrays.fill( g.mForceX, activeNo, mRegionNo, 0f );
+            Arrays.fill( g.mForceY, activeNo, mRegionNo, 0f );
+            Arrays.fill( g.mForceZ, activeNo, mRegionNo, 0f );
+
+            mUpdatePhase.step( lp, g );
+            g.writePositions();
+        }
+
+        Arrays.fill( mRegion, 0, mRegionNo, null );
+        return activeNo;
+    }
+
+
+
+    /**
+     * Records position and weight that a vert has in the tree, if not already recorded.
+     *
+     * @param inTree True if vert is in tree, false if it has been added since tree was built.
+     */
+    private void markStale( Vert v, boolean inTree ) {
+        if( mStaleIndex.containsKey( v ) ) {
+            return;
+        }
+
+        final int n = mStaleNo++;
+        if( n == mStaleVerts.length ) {
+            int cap = n * 2;
+            mStaleVerts = Arrays.copyOf( mStaleVerts, cap );
+            mStaleX = Arrays.copyOf( mStaleX, cap );
+            mStaleY = Arrays.copyOf( mStaleY, cap );
+            mStaleZ = Arrays.copyOf( mStaleZ, cap );
+            mStaleW = Arrays.copyOf( mStaleW, cap );
+        }
+
+        mStaleIndex.put( v, n );
+        mStaleVerts[n] = v;
+        mStaleX[n] = v.mX;
+        mStaleY[n] = v.mY;
+        mStaleZ[n] = v.mZ;
+        mStaleW[n] = inTree && mTreeValid ? v.mWeight : 0f;
+    }
+
+
+    private void clearStale() {
+        mStaleIndex.clear();
+        Arrays.fill( mStaleVerts, 0, mStaleNo, null );
+        mStaleNo = 0;
+    }
+
+
+    private void compactLists() {
+        final Graph g = mGraph;
+
+        if( !mRemovedVerts.isEmpty() ) {
+            Vert head = null;
+            Vert tail = null;
+            int n = 0;
+            for( Vert v = g.mVerts; v != null; v = v.mGraphNext ) {
+                if( mRemovedVerts.contains( v ) ) {
+                    continue;
+                }
+                if( tail == null ) {
+                    head = v;
+                } else {
+                    tail.mGraphNext = v;
+                }
+                tail = v;
+                n++;
+            }
+            if( tail != null ) {
+                tail.mGraphNext = null;
+            }
+            for( Vert v: mRemovedVerts ) {
+                v.mGraphNext = null;
+            }
+            g.mVerts  = head;
+            g.mVertNo = n;
+            mRemovedVerts.clear();
+        }
+
+        if( !mRemovedEdges.isEmpty() ) {
+            Edge head = null;
+            Edge tail = null;
+            int n = 0;
+            for( Edge e = g.mEdges; e != null; e = e.mGraphNext ) {
+                if( mRemovedEdges.contains( e ) ) {
+                    continue;
+                }
+                if( tail == null ) {
+                    head = e;
+                } else {
+                    tail.mGraphNext = e;
+                }
+                tail = e;
+                n++;
+            }
+            if( tail != null ) {
+                tail.mGraphNext = null;
+            }
+            for( Edge e: mRemovedEdges ) {
+                e.mGraphNext = null;
+            }
+            g.mEdges  = head;
+            g.mEdgeNo = n;
+            mRemovedEdges.clear();
+        }
+    }
+
+    /**
+     * Places each new vert at the weighted centroid of its neighbors that have positions.
+     * New verts connected only to other new verts are placed once a neighbor has been
+     * placed. Verts with no placed neighbors are placed near the center of gravity.
+     */
+    private void placeAddedVerts() {
+        if( mAddedVerts.isEmpty() ) {
+            return;
+        }
+
+        final Set<Vert> pending = mAddedVerts;
+        final float noise = mParams.mScale * 0.01f;
+        final float[] center = mParams.mGravityCenter;
+        final float[] acc = mAcc;
+        boolean progress = true;
+
+        while( progress && !pending.isEmpty() ) {
+            progress = false;
+            for( Iterator<Vert> it = pending.iterator(); it.hasNext(); ) {
+                Vert v = it.next();
+                if( !centroid( v, pending, acc ) ) {
+                    continue;
+                }
+                place( v, acc[0], acc[1], acc[2], noise );
+                it.remove();
+                progress = true;
+            }
+        }
+
+        for( Vert v: pending ) {
+            place( v, center[0], center[1], center[2], mParams.mScale );
+        }
+        pending.clear();
+    }
+
+    /**
+     * Computes weighted centroid of neighbors of <code>v</code> that are not in <code>exclude</code>.
+     *
+     * @return true iff <code>v</code> has any such neighbors.
+     */
+    private boolean centroid( Vert v, Set<Vert> exclude, float[] out ) {
+        double x = 0.0;
+        double y = 0.0;
+        double z = 0.0;
+        double w = 0.0;
+
+        for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+            Vert u = e.other( v );
+            if( exclude.contains( u ) ) {
+                continue;
+            }
+            double uw = e.mWeight * u.mWeight;
+            if( uw <= 0.0 ) {
+                uw = 1.0;
+            }
+            x += uw * u.mX;
+            y += uw * u.mY;
+            z += uw * u.mZ;
+            w += uw;
+        }
+
+        if( w == 0.0 ) {
+            return false;
+        }
+
+        out[0] = (float)( x / w );
+        out[1] = (float)( y / w );
+        out[2] = (float)( z / w );
+        return true;
+    }
+
+
+    private void place( Vert v, float x, float y, float z, float noise ) {
+        final Random rand = mRand;
+        v.mX = x + noise * ( rand.nextFloat() - 0.5f );
+        v.mY = y + noise * ( rand.nextFloat() - 0.5f );
+        v.mZ = mDim == 2 ? 0f : z + noise * ( rand.nextFloat() - 0.5f );
+    }
+
+    /**
+     * Collects all verts within mDynamicHops of a seed into the active part of mRegion,
+     * and their remaining neighbors into the fixed part.
+     */
+    private void collectRegion() {
+        final int maxHops = Math.max( 0, mParams.mDynamicHops );
+        final Vert visited = new Vert();
+        int n = 0;
+
+        for( Vert v: mSeeds ) {
+            ensureRegionCapacity( n + 1 );
+            v.mTempNext = visited;
+            mRegion[n] = v;
+            mHops[n++] = 0;
+        }
+
+        // Breadth-first search, using mRegion as queue.
+        for( int head = 0; head < n; head++ ) {
+            final Vert v = mRegion[head];
+            final int hops = mHops[head] + 1;
+            if( hops > maxHops ) {
+                continue;
+            }
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Vert u = e.other( v );
+                if( u.mTempNext == visited ) {
+                    continue;
+                }
+                ensureRegionCapacity( n + 1 );
+                u.mTempNext = visited;
+                mRegion[n] = u;
+                mHops[n++] = hops;
+            }
+        }
+
+        final int activeNo = n;
+        for( int i = 0; i < activeNo; i++ ) {
+            final Vert v = mRegion[i];
+            if( mHops[i] < maxHops ) {
+                continue;
+            }
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Vert u = e.other( v );
+                if( u.mTempNext == visited ) {
+                    continue;
+                }
+                ensureRegionCapacity( n + 1 );
+                u.mTempNext = visited;
+                mRegion[n++] = u;
+            }
+        }
+
+        mActiveNo = activeNo;
+        mRegionNo = n;
+    }
+
+
+    private void ensureRegionCapacity( int n ) {
+        if( n <= mRegion.length ) {
+            return;
+        }
+        int cap = Math.max( n, mRegion.length * 2 );
+        mRegion = Arrays.copyOf( mRegion, cap );
+        mHops   = Arrays.copyOf( mHops, cap );
+    }
+
+
+    private void rebuildTree() {
+        final Graph graph = mGraph;
+        final int n = graph.mVertNo;
+
+        if( mTreeX.length < n ) {
+            int cap = n + ( n >> 3 );
+            mTreeX = new float[cap];
+            mTreeY = new float[cap];
+            mTreeZ = new float[cap];
+            mTreeW = new float[cap];
+        }
+
+        int i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            mTreeX[i] = v.mX;
+            mTreeY[i] = v.mY;
+            mTreeZ[i] = v.mZ;
+            mTreeW[i] = v.mWeight;
+            i++;
+        }
+
+        int depth = mParams.mRepulseApproxMaxTreeDepth;
+        if( depth <= 0 ) {
+            // Roughly four verts per leaf.
+            depth = 1;
+            while( depth < 16 && ( 1L << ( mDim * depth ) ) < n / 4 ) {
+                depth++;
+            }
+        }
+
+        mTree.rebuild( mTreeX, mTreeY, mTreeZ, mTreeW, n, mDim, depth, null, 0f );
+        mTreeVertNo = n;
+        mTreeValid  = true;
+        clearStale();
+    }
+
+    /**
+     * Adds repulsion to active verts of local graph. Repulsion from the tree is corrected
+     * by removing the contribution of each stale vert at its position in the tree and adding
+     * its contribution at its current position.
+     */
+    private void repulse( PackedGraph g, int activeNo ) {
+        final RepulseEq eq = mEq;
+        final int dim      = mDim;
+        final float coeff  = mCoeff;
+        final Vert[] staleVerts = mStaleVerts;
+        final int staleNo  = mStaleNo;
+        final float[] acc  = mAcc;
+
+        for( int i = 0; i < activeNo; i++ ) {
+            final Vert self = g.mVerts[i];
+            final float x = g.mX[i];
+            final float y = g.mY[i];
+            final float z = g.mZ[i];
+
+            acc[0] = 0f;
+            acc[1] = 0f;
+            acc[2] = 0f;
+            if( mTreeVertNo > 0 ) {
+                if( dim == 2 ) {
+                    treeForce2( x, y, acc );
+                } else {
+                    treeForce3( x, y, z, acc );
+                }
+            }
+
+            float fx = acc[0];
+            float fy = acc[1];
+            float fz = acc[2];
+
+            for( int k = 0; k < staleNo; k++ ) {
+                float w = mStaleW[k];
+                if( w > 0f ) {
+                    float dx = mStaleX[k] - x;
+                    float dy = mStaleY[k] - y;
+                    float dz = dim == 2 ? 0f : mStaleZ[k] - z;
+                    float dd = dx * dx + dy * dy + dz * dz;
+                    // The tree skips verts at zero offset, so there is nothing to remove.
+                    if( dd != 0f ) {
+                        float mag = PackedRepulsePhase.magnitude( eq, dim, coeff * w, dd );
+                        fx -= mag * dx;
+                        fy -= mag * dy;
+                        fz -= mag * dz;
+                    }
+                }
+
+                Vert u = staleVerts[k];
+                if( u != null && u != self ) {
+                    float dx  = u.mX - x;
+                    float dy  = u.mY - y;
+                    float dz  = dim == 2 ? 0f : u.mZ - z;
+                    float mag = PackedRepulsePhase.magnitude( eq, dim, coeff * u.mWeight, dx * dx + dy * dy + dz * dz );
+                    fx += mag * dx;
+                    fy += mag * dy;
+                    fz += mag * dz;
+                }
+            }
+
+            g.mForceX[i] += fx;
+            g.mForceY[i] += fy;
+            g.mForceZ[i] += fz;
+        }
+    }
+
+
+    private void treeForce2( float x, float y, float[] acc ) {
+        final PackedTree tree = mTree;
+        final RepulseEq eq    = mEq;
+        final float coeff     = mCoeff;
+        final float thresh    = mApproxThreshSq;
+        final int[] skip      = tree.mSkip;
+        final int cellNo      = tree.mCellNo;
+
+        float fx = 0f;
+        float fy = 0f;
+
+        int c = 0;
+        while( c < cellNo ) {
+            float dx   = tree.mCellX[c] - x;
+            float dy   = tree.mCellY[c] - y;
+            float half = tree.mHalfSize[c];
+
+            // Check if cell is far away.
+            if( 4.0f * half * half < thresh * ( dx * dx + dy * dy ) ) {
+                // Approximate cell as a single vert at its center of gravity.
+                dx = tree.mMeanX[c] - x;
+                dy = tree.mMeanY[c] - y;
+                float mag = PackedRepulsePhase.magnitude( eq, 2, coeff * tree.mWeight[c], dx * dx + dy * dy );
+                fx += mag * dx;
+                fy += mag * dy;
+                c = skip[c];
+                continue;
+            }
+
+            // Check if cell is leaf.
+            if( skip[c] == c + 1 ) {
+                ForceKernels.repulse2( eq, coeff, x, y, tree.mSortX, tree.mSortY, tree.mSortW,
+                                       tree.mStart[c], tree.mEnd[c], acc );
+            }
+
+            c++;
+        }
+
+        acc[0] += fx;
+        acc[1] += fy;
+    }
+
+
+    private void treeForce3( float x, float y, float z, float[] acc ) {
+        final PackedTree tree = mTree;
+        final RepulseEq eq    = mEq;
+        final float coeff     = mCoeff;
+        final float thresh    = mApproxThreshSq;
+        final int[] skip      = tree.mSkip;
+        final int cellNo      = tree.mCellNo;
+
+        float fx = 0f;
+        float fy = 0f;
+        float fz = 0f;
+
+        int c = 0;
+        while( c < cellNo ) {
+            float dx   = tree.mCellX[c] - x;
+            float dy   = tree.mCellY[c] - y;
+            float dz   = tree.mCellZ[c] - z;
+            float half = tree.mHalfSize[c];
+
+            // Check if cell is far away.
+            if( 4.0f * half * half < thresh * ( dx * dx + dy * dy + dz * dz ) ) {
+                // Approximate cell as a single vert at its center of gravity.
+                dx = tree.mMeanX[c] - x;
+                dy = tree.mMeanY[c] - y;
+                dz = tree.mMeanZ[c] - z;
+                float mag = PackedRepulsePhase.magnitude( eq, 3, coeff * tree.mWeight[c], dx * dx + dy * dy + dz * dz );
+                fx += mag * dx;
+                fy += mag * dy;
+                fz += mag * dz;
+                c = skip[c];
+                continue;
+            }
+
+            // Check if cell is leaf.
+            if( skip[c] == c + 1 ) {
+                ForceKernels.repulse3( eq, coeff, x, y, z, tree.mSortX, tree.mSortY, tree.mSortZ, tree.mSortW,
+                                       tree.mStart[c], tree.mEnd[c], acc );
+            }
+
+            c++;
+        }
+
+        acc[0] += fx;
+        acc[1] += fy;
+        acc[2] += fz;
+    }
+
+}
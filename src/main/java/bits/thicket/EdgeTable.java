@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+
+
+/**
+ * Open-addressing hash table of Edges, keyed by their unordered pair of endpoints.
+ * Used while coarsening to find the coarse edge, if any, that already joins two verts,
+ * in constant time regardless of vert degree.
+ * <p>
+ * Verts are hashed by identity. Slots are kept between calls to {@link #clear}, but
+ * are reallocated if they are much larger than what the last fill required, so that
+ * clearing the table between levels stays proportional to the size of each level.
+ *
+ * @author decamp
+ */
+final class EdgeTable {
+
+    private static final int MIN_CAPACITY = 64;
+
+    private Edge[] mSlots = new Edge[MIN_CAPACITY];
+    private int mMask     = MIN_CAPACITY - 1;
+    private int mSize     = 0;
+
+
+    /**
+     * Removes all edges.
+     */
+    void clear() {
+        if( mSize == 0 ) {
+            return;
+        }
+        if( mSize * 8 < mSlots.length && mSlots.length > MIN_CAPACITY ) {
+            int cap = capacityFor( mSize );
+            mSlots = new Edge[cap];
+            mMask  = cap - 1;
+        } else {
+            Arrays.fill( mSlots, null );
+        }
+        mSize = 0;
+    }
+
+    /**
+     * @return edge joining <code>a</code> and <code>b</code>, or null if none is in the table.
+     */
+    Edge find( Vert a, Vert b ) {
+        final Edge[] slots = mSlots;
+        final int mask = mMask;
+        int i = hash( a, b ) & mask;
+        while( true ) {
+            Edge e = slots[i];
+            if( e == null ) {
+                return null;
+            }
+            if( e.mA == a && e.mB == b || e.mA == b && e.mB == a ) {
+                return e;
+            }
+            i = ( i + 1 ) & mask;
+        }
+    }
+
+    /**
+     * Adds an edge. The table must not already hold an edge with the same endpoints.
+     */
+    void add( Edge e ) {
+        if( ( mSize + 1 ) * 2 > mSlots.length ) {
+            rehash( mSlots.length * 2 );
+        }
+        insert( mSlots, mMask, e );
+        mSize++;
+    }
+
+
+    private void rehash( int cap ) {
+        final Edge[] old = mSlots;
+        final Edge[] slots = new Edge[cap];
+        final int mask = cap - 1;
+        for( Edge e: old ) {
+            if( e != null ) {
+                insert( slots, mask, e );
+            }
+        }
+        mSlots = slots;
+        mMask  = mask;
+    }
+
+
+    private static void insert( Edge[] slots, int mask, Edge e ) {
+        int i = hash( e.mA, e.mB ) & mask;
+        while( slots[i] != null ) {
+            i = ( i + 1 ) & mask;
+        }
+        slots[i] = e;
+    }
+
+
+    private static int capacityFor( int n ) {
+        int cap = MIN_CAPACITY;
+        while( cap < n * 2 && cap < ( 1 << 30 ) ) {
+            cap <<= 1;
+        }
+        return cap;
+    }
+
+
+    /**
+     * @return hash of an unordered pair of verts, as used to place edges in a table.
+     */
+    static int hash( Vert a, Vert b ) {
+        return mix( System.identityHashCode( a ) ) + mix( System.identityHashCode( b ) );
+    }
+
+
+    private static int mix( int h ) {
+        h *= 0x9E3779B1;
+        return h ^ ( h >>> 15 );
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Batched repulsion kernels for packed arrays. Each kernel applies one equation to a
+ * contiguous range of sources, with the equation selected once per batch rather
+ * than once per pair, and with no interface calls. The loops are simple enough for
+ * the JIT to unroll and keep entirely in registers.
+ * <p>
+ * Results match {@link PackedRepulsePhase#magnitude}. Sources at zero offset from the
+ * target, including the target itself, are skipped, so a target may be in its own
+ * batch. Their magnitude would be divided by EPS, which overflows for large weights and
+ * turns what should be a zero force into NaN.
+ *
+ * @author decamp
+ */
+final class ForceKernels {
+
+    private static final float EPS = 0x0.000002P-60f;
+
+
+    /**
+     * Accumulates repulsion from sources {@code [start, end)} onto a target at {@code (x, y)}.
+     *
+     * @param coeff Repulsion coefficient, from {@link PackedRepulsePhase#coeff}.
+     * @param out   Force is added to {@code out[0]} and {@code out[1]}.
+     */
+    static void repulse2( RepulseEq eq, float coeff, float x, float y,
+                          float[] xs, float[] ys, float[] ws, int start, int end,
+                          float[] out )
+    {
+        float fx = 0f;
+        float fy = 0f;
+
+        switch( eq ) {
+        case INV_LOG_DIST:
+            for( int k = start; k < end; k++ ) {
+                float dx  = xs[k] - x;
+                float dy  = ys[k] - y;
+                float ss  = dx * dx + dy * dy;
+                if( ss == 0f ) {
+                    continue;
+                }
+                double dd = Math.sqrt( ss );
+                float mag = coeff * ws[k] / ( (float)( dd * Math.log( 1.0 + dd ) ) + EPS );
+                fx += mag * dx;
+                fy += mag * dy;
+            }
+            break;
+
+        case INV_SQUARE_DIST:
+            for( int k = start; k < end; k++ ) {
+                float dx  = xs[k] - x;
+                float dy  = ys[k] - y;
+                float dd  = dx * dx + dy * dy;
+                if( dd == 0f ) {
+                    continue;
+                }
+                float mag = coeff * ws[k] / ( (float)Math.sqrt( dd ) * dd + EPS );
+                fx += mag * dx;
+                fy += mag * dy;
+            }
+            break;
+
+        case INV_LINEAR_DIST:
+        default:
+            for( int k = start; k < end; k++ ) {
+                float dx  = xs[k] - x;
+                float dy  = ys[k] - y;
+                float dd  = dx * dx + dy * dy;
+                if( dd == 0f ) {
+                    continue;
+                }
+                float mag = coeff * ws[k] / ( dd + EPS );
+                fx += mag * dx;
+                fy += mag * dy;
+            }
+            break;
+        }
+
+        out[0] += fx;
+        out[1] += fy;
+    }
+
+    /**
+     * 3D version of {@link #repulse2}. Force is added to {@code out[0..2]}.
+     */
+    static void repulse3( RepulseEq eq, float coeff, float x, float y, float z,
+                          float[] xs, float[] ys, float[] zs, float[] ws, int start, int end,
+                          float[] out )
+    {
+        float fx = 0f;
+        float fy = 0f;
+        float fz = 0f;
+
+        switch( eq ) {
+        case INV_LOG_DIST:
+            for( int k = start; k < end; k++ ) {
+                float dx  = xs[k] - x;
+                float dy  = ys[k] - y;
+                float dz  = zs[k] - z;
+                float ss  = dx * dx + dy * dy + dz * dz;
+                if( ss == 0f ) {
+                    continue;
+                }
+                double dd = Math.sqrt( ss );
+                float mag = coeff * ws[k] / ( (float)( dd * Math.log( 1.0 + dd ) ) + EPS );
+                fx += mag * dx;
+                fy += mag * dy;
+                fz += mag * dz;
+            }
+            break;
+
+        case INV_SQUARE_DIST:
+            for( int k = start; k < end; k++ ) {
+                float dx  = xs[k] - x;
+                float dy  = ys[k] - y;
+                float dz  = zs[k] - z;
+                float dd  = dx * dx + dy * dy + dz * dz;
+                if( dd == 0f ) {
+                    continue;
+                }
+                float mag = coeff * ws[k] / ( (float)Math.sqrt( dd ) * dd + EPS );
+                fx += mag * dx;
+                fy += mag * dy;
+                fz += mag * dz;
+            }
+            break;
+
+        case INV_LINEAR_DIST:
+        default:
+            for( int k = start; k < end; k++ ) {
+                float dx  = xs[k] - x;
+                float dy  = ys[k] - y;
+                float dz  = zs[k] - z;
+                float dd  = dx * dx + dy * dy + dz * dz;
+                if( dd == 0f ) {
+                    continue;
+                }
+                float mag = coeff * ws[k] / ( (float)Math.sqrt( dd ) + EPS );
+                fx += mag * dx;
+                fy += mag * dy;
+                fz += mag * dz;
+            }
+            break;
+        }
+
+        out[0] += fx;
+        out[1] += fy;
+        out[2] += fz;
+    }
+
+
+    private ForceKernels() {}
+
+}
@@ -24,6 +24,8 @@ public class GlobalStepUpdatePhase implements UpdatePhase {
     private int mProgressCount = 0;
     private float mStep;
     private boolean mConverged = false;
+    private int mStepNo;
+    private int mMaxSteps;
     
     
     public GlobalStepUpdatePhase() {}
@@ -43,6 +45,8 @@ public class GlobalStepUpdatePhase implements UpdatePhase {
         mPrevEnergy    = Float.POSITIVE_INFINITY;
         mProgressCount = 0;
         mConverged     = false;
+        mStepNo        = 0;
+        mMaxSteps      = params.mUpdateMaxSteps > 0 ? params.mUpdateMaxSteps : Integer.MAX_VALUE;
         
         mFunc = params.mDim == 2 ? FUNC2 : FUNC3;
         mStep = mStepStart;
@@ -70,7 +74,7 @@ public class GlobalStepUpdatePhase implements UpdatePhase {
         }
         
         mPrevEnergy = totalEnergy;
-        mConverged  = mStep < mStepStop;
+        mConverged  = mStep < mStepStop || ++mStepNo >= mMaxSteps;
     }
     
     
@@ -182,34 +182,104 @@ public class Graphs {
      * is called. To get a usuable version of {@code src}, you must call {@code uncoarsen}
      * on this graph returned by this method.
      *
+     * <p>
+     * If <code>params.mThreadNo</code> calls for more than one thread, the work is split
+     * across a pool of threads created for this call.
+     *
      * @param  params Supplies the coarsening strategy to use.
      * @param  src    Source graph. NOT USUABLE after coarsening.
      * @return Coarsened version of graph, or null if graph cannot be further coarsened.
      */
     public static Graph coarsen( LayoutParams params, Graph src ) {
+        WorkerPool pool = WorkerPool.reuse( null, WorkerPool.threadCount( params ) );
+        try {
+            return coarsen( params, src, pool, new CoarseEdgeBuilder() );
+        } finally {
+            if( pool != null ) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #coarsen(LayoutParams,Graph)}, for callers that hold onto a pool and
+     * edge builder across levels.
+     *
+     * @param optPool Pool to split work across, or null to run on the calling thread.
+     * @param edges   Builds the edges of the coarsened graph.
+     */
+    static Graph coarsen( LayoutParams params, Graph src, WorkerPool optPool, CoarseEdgeBuilder edges ) {
+        Graph dst = coarsenBegin( params, src, optPool );
+        if( dst == null ) {
+            return null;
+        }
+        edges.build( src, dst, detachVerts( src ), optPool );
+
+        // Push revert data to stack.
+        //dst.mDiameter = Graphs.pseudoDiameter( dst.mVerts );
+        return dst;
+    }
+
+    /**
+     * First part of {@link #coarsen}, which selects the verts to combine. The returned
+     * graph holds the coarse verts, but has no edges until the verts of <code>src</code>
+     * are passed to {@link #coarsenContinue} or {@link CoarseEdgeBuilder#build}.
+     * <code>src</code> is not modified.
+     *
+     * @param optPool Pool to split work across, or null to run on the calling thread.
+     * @return Coarsened graph to be filled, or null if graph cannot be further coarsened.
+     */
+    static Graph coarsenBegin( LayoutParams params, Graph src, WorkerPool optPool ) {
         if( src.mVertNo <= 1 || params.mCoarsenStrategy == null ) {
             return null;
         }
-        
+
         Graph dst = new Graph();
         dst.mCoarseLevel = src.mCoarseLevel + 1;
         dst.mFinerGraph  = src;
-        
+
         // Create list of new verts to be created.
-        dst.mVerts  = params.mCoarsenStrategy.coarsenVerts( params, src.mVerts );
+        dst.mVerts  = params.mCoarsenStrategy.coarsenVerts( params, src.mVerts, optPool );
         dst.mVertNo = Graphs.size( dst.mVerts );
-        
-        // Reconstruct vert list.
-        Vert loopVert = src.mVerts;
-        src.mVerts    = null;
-        src.mVertNo   = 0;
-        src.mEdges    = null;
-        src.mEdgeNo   = 0;
-        
-        while( loopVert != null ) {
+        return dst;
+    }
+
+    /**
+     * Empties the vert and edge lists of a graph.
+     *
+     * @return the vert list that was removed.
+     */
+    static Vert detachVerts( Graph g ) {
+        Vert ret = g.mVerts;
+        g.mVerts  = null;
+        g.mVertNo = 0;
+        g.mEdges  = null;
+        g.mEdgeNo = 0;
+        return ret;
+    }
+
+    /**
+     * Second part of {@link #coarsen}. Moves verts from a list detached from
+     * <code>src</code> into either <code>src</code>, if collapsed, or <code>dst</code>, if
+     * promoted, and rebuilds their edges. May be called repeatedly with the returned
+     * list to split the work into pieces.
+     * <p>
+     * Parallel coarse edges are merged through <code>edges</code>, so each level takes
+     * O(E) time regardless of vert degree. The same table must be passed to every call
+     * for a given <code>dst</code>, and must be cleared before coarsening another level.
+     *
+     * @param src      Graph passed to {@link #coarsenBegin}.
+     * @param dst      Graph returned by {@link #coarsenBegin}.
+     * @param loopVert Remaining verts of <code>src</code>.
+     * @param maxVerts Max number of verts to process.
+     * @param edges    Holds the edges created for <code>dst</code> so far.
+     * @return verts that remain to be processed, or null if coarsening is complete.
+     */
+    static Vert coarsenContinue( Graph src, Graph dst, Vert loopVert, int maxVerts, EdgeTable edges ) {
+        while( loopVert != null && maxVerts-- > 0 ) {
             Vert v = loopVert;
             loopVert = loopVert.mGraphNext;
-            
+
             if( v.mGraphOwner != null ) {
                 // This vert is being collapsed.
                 src.addVert( v );
@@ -219,12 +289,10 @@ public class Graphs {
             }
 
             // Rebuild edge list.
-            rebuildEdges( v, src, dst );
+            rebuildEdges( v, src, dst, edges );
         }
 
-        // Push revert data to stack.
-        //dst.mDiameter = Graphs.pseudoDiameter( dst.mVerts );
-        return dst;
+        return loopVert;
     }
 
     /**
@@ -304,6 +372,111 @@ public class Graphs {
         return dst;
     }
     
+    /**
+     * Splits a graph into its connected components. Every vert and edge of {@code src}
+     * is moved into exactly one of the returned graphs, and {@code src} is left empty.
+     * Use {@link #merge} to move them back.
+     * <p>
+     * Overwrites mTempNext.
+     *
+     * @param src Graph to split. Empty on return.
+     * @return one graph for each connected component of {@code src}, in no particular order.
+     */
+    public static List<Graph> splitComponents( Graph src ) {
+        final int n = src.mVertNo;
+        final Vert[] verts = new Vert[n];
+        final Vert visited = new Vert();
+        
+        int i = 0;
+        for( Vert v = src.mVerts; v != null; v = v.mGraphNext ) {
+            v.mTempNext = null;
+            verts[i++] = v;
+        }
+        
+        src.mVerts  = null;
+        src.mVertNo = 0;
+        src.mEdges  = null;
+        src.mEdgeNo = 0;
+        
+        // Breadth-first search from each unvisited vert.
+        List<Graph> ret = new ArrayList<Graph>();
+        final Vert[] queue = new Vert[n];
+        
+        for( i = 0; i < n; i++ ) {
+            Vert root = verts[i];
+            if( root.mTempNext == visited ) {
+                continue;
+            }
+            
+            Graph comp = new Graph();
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            root.mTempNext = visited;
+            
+            while( head < tail ) {
+                Vert v = queue[head++];
+                comp.addVert( v );
+                
+                for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                    Vert u = e.other( v );
+                    if( e.mA == v ) {
+                        comp.addEdge( e );
+                    }
+                    if( u.mTempNext != visited ) {
+                        u.mTempNext = visited;
+                        queue[tail++] = u;
+                    }
+                }
+            }
+            
+            ret.add( comp );
+        }
+        
+        for( i = 0; i < n; i++ ) {
+            verts[i].mTempNext = null;
+        }
+        
+        return ret;
+    }
+    
+    /**
+     * Moves all verts and edges of a set of graphs into one graph, as after
+     * {@link #splitComponents}. The source graphs are left empty.
+     *
+     * @param srcs Graphs to merge. Must not be coarsened.
+     * @param dst  Graph to receive verts and edges. Any existing contents are discarded.
+     */
+    public static void merge( Collection<? extends Graph> srcs, Graph dst ) {
+        dst.mVerts       = null;
+        dst.mVertNo      = 0;
+        dst.mEdges       = null;
+        dst.mEdgeNo      = 0;
+        dst.mCoarseLevel = 0;
+        dst.mFinerGraph  = null;
+        
+        for( Graph g: srcs ) {
+            Vert v = g.mVerts;
+            while( v != null ) {
+                Vert next = v.mGraphNext;
+                dst.addVert( v );
+                v = next;
+            }
+            
+            Edge e = g.mEdges;
+            while( e != null ) {
+                Edge next = e.mGraphNext;
+                dst.addEdge( e );
+                e = next;
+            }
+            
+            g.mVerts  = null;
+            g.mVertNo = 0;
+            g.mEdges  = null;
+            g.mEdgeNo = 0;
+        }
+    }
+    
     /**
      * Computes estimate of graph diameter.
      * <p>
@@ -365,6 +538,93 @@ public class Graphs {
     }
     
     
+    /**
+     * Packed version of the breadth-first search in {@link #pseudoDiameter}. Computes the
+     * hop distance from one vert to every other.
+     *
+     * @param g      Graph to search.
+     * @param src    Index of start vert.
+     * @param out    Receives distance to vert <code>i</code> at <code>out[off+i]</code>, or -1 if unreachable.
+     * @param off    Offset into <code>out</code>.
+     * @param queue  Work array of length at least <code>g.mVertNo</code>.
+     * @return number of verts reached, including <code>src</code>.
+     */
+    static int bfs( PackedGraph g, int src, int[] out, int off, int[] queue ) {
+        final int n = g.mVertNo;
+        final int[] adjStart = g.mAdjStart;
+        final int[] adj      = g.mAdjVert;
+
+        Arrays.fill( out, off, off + n, -1 );
+        out[off + src] = 0;
+        queue[0] = src;
+        int head = 0;
+        int tail = 1;
+
+        while( head < tail ) {
+            final int v = queue[head++];
+            final int d = out[off + v] + 1;
+            for( int k = adjStart[v]; k < adjStart[v+1]; k++ ) {
+                int u = adj[k];
+                if( out[off + u] < 0 ) {
+                    out[off + u] = d;
+                    queue[tail++] = u;
+                }
+            }
+        }
+
+        return tail;
+    }
+
+    /**
+     * Selects pivots by max-min sampling. The first pivot is chosen at random, and each
+     * following pivot is the vert furthest from all previous pivots. Verts that cannot be
+     * reached from any pivot are treated as infinitely far, so every connected component
+     * receives a pivot before any component receives a second one.
+     *
+     * @param g         Graph to sample.
+     * @param count     Number of pivots to select.
+     * @param rand      Chooses first pivot.
+     * @param outPivots Receives index of each pivot.
+     * @param outDist   Receives hop distances from pivot <code>p</code> to vert <code>i</code>
+     *                  at <code>outDist[p*g.mVertNo+i]</code>, as computed by {@link #bfs}.
+     * @return number of pivots selected, which is smaller than <code>count</code> if graph has fewer verts.
+     */
+    static int selectPivots( PackedGraph g, int count, Random rand, int[] outPivots, int[] outDist ) {
+        final int n = g.mVertNo;
+        count = Math.min( count, n );
+        if( count <= 0 ) {
+            return 0;
+        }
+
+        final int[] queue   = new int[n];
+        final int[] minDist = new int[n];
+        Arrays.fill( minDist, Integer.MAX_VALUE );
+
+        int pivot = rand.nextInt( n );
+        for( int p = 0; p < count; p++ ) {
+            outPivots[p] = pivot;
+            final int off = p * n;
+            bfs( g, pivot, outDist, off, queue );
+
+            int next = -1;
+            int nextDist = -1;
+            for( int i = 0; i < n; i++ ) {
+                int d = outDist[off + i];
+                if( d >= 0 && d < minDist[i] ) {
+                    minDist[i] = d;
+                }
+                if( minDist[i] > nextDist ) {
+                    nextDist = minDist[i];
+                    next = i;
+                }
+            }
+            pivot = next;
+        }
+
+        return count;
+    }
+    
+    
     public static void labelIndex( Vert vertList ) {
         int label = 0;
         while( vertList != null ) {
@@ -502,7 +762,25 @@ public class Graphs {
     }
 
 
-    private static void rebuildEdges( Vert v, Graph src, Graph dst ) {
+    /**
+     * Adds a vert to a vert created by {@link #combine}, moving it to the weighted
+     * average of its members.
+     */
+    static void absorb( Vert c, Vert v, VertWeightModel weighter ) {
+        final float cw = c.mWeight;
+        final float vw = v.mWeight;
+        final float scale = 1f / ( cw + vw );
+        
+        c.mX = scale * ( cw * c.mX + vw * v.mX );
+        c.mY = scale * ( cw * c.mY + vw * v.mY );
+        //c.mZ = scale * ( cw * c.mZ + vw * v.mZ );
+        
+        v.mGraphOwner = c;
+        c.mWeight = weighter.combinedWeight( c, v );
+    }
+
+
+    private static void rebuildEdges( Vert v, Graph src, Graph dst, EdgeTable table ) {
         Edge loopEdge = v.mEdges;
         v.mEdges = null;
         
@@ -531,19 +809,21 @@ public class Graphs {
                 // Check if other vertex in edge (sibling) is also being combined.
                 if( uncle != null ) {
                     // Check if father is already linked to uncle.
-                    if( father != uncle && !findAndAdd( father.mEdges, father, uncle, e.mWeight ) ) {
+                    if( father != uncle && !findAndAdd( table, father, uncle, e.mWeight ) ) {
                         Edge newEdge = new Edge( father, uncle, e.mWeight );
                         father.addEdge( newEdge );
                         uncle.addEdge( newEdge );
                         dst.addEdge( newEdge );
+                        table.add( newEdge );
                     }
                 } else {
                     // Check if father is already linked to brother.
-                    if( !findAndAdd( father.mEdges, father, brother, e.mWeight ) ) {
+                    if( !findAndAdd( table, father, brother, e.mWeight ) ) {
                         Edge newEdge = new Edge( father, brother, e.mWeight );
                         father.addEdge( newEdge );
                         brother.addEdge( newEdge );
                         dst.addEdge( newEdge );
+                        table.add( newEdge );
                     }
                 }
             } else {
@@ -551,26 +831,15 @@ public class Graphs {
                     // Push edge
                     src.addEdge( e );
                     
-                    // Check if vert is already linked to uncle.
-                    // Note that we are only checking edges already added back into vert.mEdges.
-                    // This is fine because:
-                    // 1. 'uncle' must be a new node to this level and must have been created on this coarsening event.
-                    // 2. Because 'uncle' is new to this level, any edges to 'uncle' are also new to this level.
-                    // 3. This method is allowed to remove edges only from the provided 'vert' Vert. For all other Verts,
-                    //    'other', this method may only prepend new edges to 'other.mEdges.'
-                    // 4. Therefore, if an earlier call to this method created an edge between 'vert' and 'uncle', it would
-                    //    have been prepended to vert.mEdges.
-                    // 5. All new edges are valid: 
-                    //    edge.mA.mGraphCoarser == null && edge.mB.mGraphCoarser == null   ==>
-                    //    father == null && uncle == null
-                    // 6. Therefore, to reach this part of the code, all edges from 'vert'->'uncle' would already have been 
-                    //    added back into vert.mEdges.
-                    if( !findAndAdd( v.mEdges, v, uncle, e.mWeight ) ) {
+                    // Check if vert is already linked to uncle. Any such edge was created
+                    // during this coarsening event, because uncle is new, so it is in the table.
+                    if( !findAndAdd( table, v, uncle, e.mWeight ) ) {
                         Edge newEdge = new Edge( v, uncle, e.mWeight );
                         v.addEdge( newEdge );
                         uncle.addEdge( newEdge );
                         dst.addEdge( newEdge );
-                    } 
+                        table.add( newEdge );
+                    }
                 } else {
                     // Both nodes are valid. Promote edge to next level.
                     dst.addEdge( e );
@@ -581,17 +850,13 @@ public class Graphs {
     }
     
     
-    private static boolean findAndAdd( Edge edges, Vert owner, Vert target, float weight ) {
-        while( edges != null ) {
-            if( edges.contains( target ) ) {
-                edges.mWeight += weight;
-                return true;
-            }
-            
-            edges = edges.next( owner );
+    private static boolean findAndAdd( EdgeTable table, Vert owner, Vert target, float weight ) {
+        Edge e = table.find( owner, target );
+        if( e == null ) {
+            return false;
         }
-        
-        return false;
+        e.mWeight += weight;
+        return true;
     }
     
     
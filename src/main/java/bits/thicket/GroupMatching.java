@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Coarsening that combines groups of verts rather than pairs, for graphs that pairwise
+ * matching reduces slowly, such as those with many hubs of degree-1 neighbours. With
+ * pairwise matching, a hub can absorb only one of its leaves per level, so a star of
+ * <code>k</code> leaves needs <code>k</code> levels to collapse.
+ * <p>
+ * Runs in three passes:
+ * <ol>
+ * <li>The free leaves of each vert are combined into groups of up to
+ *     <code>MAX_GROUP</code> verts. The hub itself is left free.</li>
+ * <li>Remaining free verts are matched along their heaviest edge to a free neighbour,
+ *     as with {@link #MAX_EDGE}.</li>
+ * <li>If the first two passes leave more than <code>STALL_RATIO</code> of the verts
+ *     in the coarse graph, each vert that is still free joins the group of its most heavily
+ *     connected neighbour, if that group has room.</li>
+ * </ol>
+ * Every pass is O(E), and a leaf-heavy graph shrinks by a constant factor per level, so
+ * the number of levels stays logarithmic in graph size.
+ * <p>
+ * Overwrites mTempDist of the combined verts it returns.
+ *
+ * @author decamp
+ */
+final class GroupMatching implements CoarsenStrategy {
+
+    /**
+     * Largest number of verts combined into one.
+     */
+    static final int MAX_GROUP = 8;
+
+    /**
+     * Ratio of coarse to fine verts above which the grouping pass is run.
+     */
+    static final float STALL_RATIO = 0.75f;
+
+
+    public Vert coarsenVerts( LayoutParams params, Vert list, WorkerPool optPool ) {
+        final VertWeightModel weighter = params.mVertWeightModel;
+        final int n = Graphs.size( list );
+        int remaining = n;
+        Vert ret = null;
+
+        // Group leaves of each hub. Group sizes are kept in mTempDist.
+        for( Vert hub = list; hub != null; hub = hub.mGraphNext ) {
+            if( isLeaf( hub ) ) {
+                continue;
+            }
+
+            Vert first = null;
+            Vert group = null;
+
+            for( Edge e = hub.mEdges; e != null; e = e.next( hub ) ) {
+                Vert u = e.other( hub );
+                if( u.mGraphOwner != null || u == first || !isLeaf( u ) ) {
+                    continue;
+                }
+                if( first == null ) {
+                    first = u;
+                    continue;
+                }
+
+                if( group == null ) {
+                    group = Graphs.combine( first, u, weighter );
+                    group.mTempDist = 2;
+                    group.mGraphNext = ret;
+                    ret = group;
+                } else {
+                    Graphs.absorb( group, u, weighter );
+                    group.mTempDist++;
+                }
+                remaining--;
+
+                if( group.mTempDist >= MAX_GROUP ) {
+                    first = null;
+                    group = null;
+                }
+            }
+        }
+
+        // Match remaining verts in pairs.
+        for( Vert v = list; v != null; v = v.mGraphNext ) {
+            if( v.mGraphOwner != null ) {
+                continue;
+            }
+
+            Edge maxEdge    = null;
+            float maxWeight = Float.NEGATIVE_INFINITY;
+
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Vert u = e.other( v );
+                if( e.mWeight > maxWeight && u.mGraphOwner == null && u != v ) {
+                    maxWeight = e.mWeight;
+                    maxEdge   = e;
+                }
+            }
+            if( maxEdge == null ) {
+                continue;
+            }
+
+            Vert combined = Graphs.combine( maxEdge.mA, maxEdge.mB, weighter );
+            combined.mTempDist = 2;
+            combined.mGraphNext = ret;
+            ret = combined;
+            remaining--;
+        }
+
+        if( remaining <= n * STALL_RATIO ) {
+            return ret;
+        }
+
+        // Reduction has stalled. Add verts that are still free to neighbouring groups.
+        for( Vert v = list; v != null; v = v.mGraphNext ) {
+            if( v.mGraphOwner != null ) {
+                continue;
+            }
+
+            Vert best       = null;
+            float maxWeight = Float.NEGATIVE_INFINITY;
+
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Vert owner = e.other( v ).mGraphOwner;
+                if( e.mWeight > maxWeight && owner != null && owner.mTempDist < MAX_GROUP ) {
+                    maxWeight = e.mWeight;
+                    best      = owner;
+                }
+            }
+            if( best == null ) {
+                continue;
+            }
+
+            Graphs.absorb( best, v, weighter );
+            best.mTempDist++;
+        }
+
+        return ret;
+    }
+
+
+    private static boolean isLeaf( Vert v ) {
+        return v.mEdges != null && v.mEdges.next( v ) == null;
+    }
+
+}
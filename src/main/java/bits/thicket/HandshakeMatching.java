@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Heavy-edge matching that runs in parallel rounds. In each round, every unmatched vert
+ * picks its highest rated edge to another unmatched vert, and pairs of verts that pick each
+ * other are matched. Edges are rated by their weight divided by the weights of both verts,
+ * which keeps verts left unmatched on one level from being passed over on every level
+ * after. Ties between edges of equal rating are broken by a hash of the edge, so that edge
+ * order is strict and the locally highest rated edge around any unmatched vert is always
+ * picked from both ends. Every round therefore matches at least one pair, and in practice
+ * the first few rounds match most of the verts that greedy matching would.
+ * <p>
+ * Rounds stop once they match only a small fraction of the verts, which happens on chains
+ * of edges whose ratings increase in one direction: each round matches only the highest
+ * rated pair of each chain. The verts that are still free are then matched by a serial
+ * greedy pass, so the matching is maximal and levels shrink about as quickly as with
+ * {@link #MAX_EDGE}.
+ * <p>
+ * Picking and matching only read the graph, and each pair is combined by the thread that
+ * owns its lower-indexed vert, so rounds split across threads without synchronization.
+ * Results do not depend on thread count. A pick is only recomputed once its target has
+ * been matched, so later rounds are much cheaper than the first. On a single thread this
+ * is a few times slower than {@link #MAX_EDGE}.
+ * <p>
+ * Overwrites mTempDist. Lists of more than 2<sup>24</sup> verts fall back to {@link #MAX_EDGE}.
+ *
+ * @author decamp
+ */
+final class HandshakeMatching implements CoarsenStrategy {
+
+    /**
+     * Rounds stop once a round matches fewer than one in this many verts.
+     */
+    private static final int MIN_ROUND_YIELD = 64;
+    private static final int MAX_ROUNDS      = 16;
+
+    /**
+     * Verts are indexed through mTempDist, which holds integers exactly only up to this size.
+     */
+    private static final int MAX_VERTS = 1 << 24;
+
+    static final int MIN_BLOCK_SIZE = 1 << 13;
+
+    private static final int PHASE_PICK    = 0;
+    private static final int PHASE_MATCH   = 1;
+    private static final int PHASE_COMBINE = 2;
+
+
+    public Vert coarsenVerts( LayoutParams params, Vert list, WorkerPool optPool ) {
+        final int n = Graphs.size( list );
+        if( n == 0 ) {
+            return null;
+        }
+        if( n > MAX_VERTS ) {
+            return MAX_EDGE.coarsenVerts( params, list, optPool );
+        }
+
+        final Vert[] verts = new Vert[n];
+        final int[] match  = new int[n];
+        final int[] pick   = new int[n];
+
+        int i = 0;
+        for( Vert v = list; v != null; v = v.mGraphNext ) {
+            v.mTempDist = i;
+            match[i]    = v.mGraphOwner == null ? -1 : i;
+            pick[i]     = -1;
+            verts[i++]  = v;
+        }
+
+        final int threadNo = optPool == null ? 1 : Math.max( 1, Math.min( optPool.threadNo(), n / MIN_BLOCK_SIZE ) );
+        final int block    = ( n + threadNo - 1 ) / threadNo;
+        final Task[] tasks = new Task[threadNo];
+        for( i = 0; i < threadNo; i++ ) {
+            tasks[i] = new Task( params, verts, match, pick, i * block, Math.min( n, ( i + 1 ) * block ) );
+        }
+
+        final WorkerPool pool = threadNo > 1 ? optPool : null;
+        for( int round = 0; round < MAX_ROUNDS; round++ ) {
+            run( pool, tasks, PHASE_PICK );
+            run( pool, tasks, PHASE_MATCH );
+
+            int matched = 0;
+            for( Task t: tasks ) {
+                matched += t.mMatchNo;
+            }
+            if( matched == 0 || matched * MIN_ROUND_YIELD < n ) {
+                break;
+            }
+        }
+
+        matchGreedy( verts, match );
+        run( pool, tasks, PHASE_COMBINE );
+
+        // Join lists of combined verts.
+        Vert ret = null;
+        for( i = threadNo - 1; i >= 0; i-- ) {
+            Task t = tasks[i];
+            if( t.mHead != null ) {
+                t.mTail.mGraphNext = ret;
+                ret = t.mHead;
+            }
+        }
+
+        return ret;
+    }
+
+
+    private static void run( WorkerPool pool, Task[] tasks, int phase ) {
+        for( Task t: tasks ) {
+            t.mPhase = phase;
+        }
+        if( pool != null ) {
+            pool.run( tasks, tasks.length );
+        } else {
+            for( Task t: tasks ) {
+                t.run();
+            }
+        }
+    }
+
+    /**
+     * Matches each free vert, in index order, to the free neighbour with the highest rating.
+     */
+    private static void matchGreedy( Vert[] verts, int[] match ) {
+        for( int i = 0; i < verts.length; i++ ) {
+            if( match[i] >= 0 ) {
+                continue;
+            }
+
+            final Vert v = verts[i];
+            int best = -1;
+            float bestRating = Float.NEGATIVE_INFINITY;
+
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                int j = (int)e.other( v ).mTempDist;
+                if( match[j] < 0 && j != i ) {
+                    float r = rating( e, v, verts[j] );
+                    if( r > bestRating ) {
+                        best       = j;
+                        bestRating = r;
+                    }
+                }
+            }
+
+            if( best >= 0 ) {
+                match[i]    = best;
+                match[best] = i;
+            }
+        }
+    }
+
+    /**
+     * Weight of an edge relative to the weights of the verts it joins. Edges between verts
+     * that were not matched on the finer level then rate as highly as edges between the
+     * pairs around them, so such verts are matched on the next level instead of being
+     * passed over until they only hang off of the heaviest verts.
+     */
+    private static float rating( Edge e, Vert a, Vert b ) {
+        float w = a.mWeight * b.mWeight;
+        return w > 0f ? e.mWeight / w : e.mWeight;
+    }
+
+    /**
+     * Breaks ties between edges of equal rating. Symmetric in <code>a</code> and <code>b</code>.
+     */
+    private static int edgeHash( int a, int b ) {
+        int lo = Math.min( a, b );
+        int hi = Math.max( a, b );
+        int h  = lo * 0x9E3779B1 + hi;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+
+
+    private static final class Task implements Runnable {
+
+        private final LayoutParams mParams;
+        private final Vert[] mVerts;
+        private final int[] mMatch;
+        private final int[] mPick;
+        private final int mStart;
+        private final int mEnd;
+
+        int mPhase;
+        int mMatchNo;
+        Vert mHead;
+        Vert mTail;
+
+
+        Task( LayoutParams params, Vert[] verts, int[] match, int[] pick, int start, int end ) {
+            mParams = params;
+            mVerts  = verts;
+            mMatch  = match;
+            mPick   = pick;
+            mStart  = start;
+            mEnd    = end;
+        }
+
+
+        public void run() {
+            switch( mPhase ) {
+            case PHASE_PICK:
+                pick();
+                break;
+            case PHASE_MATCH:
+                match();
+                break;
+            default:
+                combine();
+                break;
+            }
+        }
+
+
+        private void pick() {
+            final Vert[] verts = mVerts;
+            final int[] match  = mMatch;
+            final int[] pick   = mPick;
+
+            for( int i = mStart; i < mEnd; i++ ) {
+                if( match[i] >= 0 ) {
+                    pick[i] = -1;
+                    continue;
+                }
+
+                // The set of free verts only shrinks, so a pick that is still free is
+                // still the highest rated free neighbour.
+                int prev = pick[i];
+                if( prev >= 0 && match[prev] < 0 ) {
+                    continue;
+                }
+
+                final Vert v = verts[i];
+                int best = -1;
+                int bestHash = 0;
+                float bestRating = Float.NEGATIVE_INFINITY;
+
+                for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                    int j = (int)e.other( v ).mTempDist;
+                    if( match[j] >= 0 || j == i ) {
+                        continue;
+                    }
+                    float r = rating( e, v, verts[j] );
+                    if( r < bestRating ) {
+                        continue;
+                    }
+                    if( r > bestRating || best < 0 ) {
+                        best       = j;
+                        bestHash   = edgeHash( i, j );
+                        bestRating = r;
+                    } else {
+                        int hash = edgeHash( i, j );
+                        if( hash > bestHash ) {
+                            best     = j;
+                            bestHash = hash;
+                        }
+                    }
+                }
+
+                // Verts with no free neighbours can never be matched. Remove them from later rounds.
+                if( best < 0 ) {
+                    match[i] = i;
+                }
+                pick[i] = best;
+            }
+        }
+
+
+        private void match() {
+            final int[] match = mMatch;
+            final int[] pick  = mPick;
+            int count = 0;
+
+            for( int i = mStart; i < mEnd; i++ ) {
+                int j = pick[i];
+                if( j > i && pick[j] == i ) {
+                    match[i] = j;
+                    match[j] = i;
+                    count += 2;
+                }
+            }
+
+            mMatchNo = count;
+        }
+
+
+        private void combine() {
+            final Vert[] verts = mVerts;
+            final int[] match  = mMatch;
+            final VertWeightModel weighter = mParams.mVertWeightModel;
+            Vert head = null;
+            Vert tail = null;
+
+            for( int i = mStart; i < mEnd; i++ ) {
+                int j = match[i];
+                if( j <= i ) {
+                    continue;
+                }
+                Vert c = Graphs.combine( verts[i], verts[j], weighter );
+                if( head == null ) {
+                    head = c;
+                } else {
+                    tail.mGraphNext = c;
+                }
+                tail = c;
+            }
+
+            mHead = head;
+            mTail = tail;
+        }
+
+    }
+
+}
@@ -45,6 +45,48 @@ public class LayoutParams {
      * Random Number Generator for whatever may require it.
      */
     public Random mRand = null;
+
+    /**
+     * Number of threads used by phases that support parallel execution.
+     * A value of 1 runs all work on the calling thread. Values &leq; 0 use
+     * one thread per available processor.
+     */
+    public int mThreadNo = 1;
+
+    /**
+     * If true, each level of the layout is copied into a {@link PackedGraph} and
+     * laid out with array-based phases, which have much better memory locality on
+     * large graphs. Positions are copied back to the Verts after every step.
+     * When set, <code>mAttractPhase</code>, <code>mRepulsePhase</code> and
+     * <code>mUpdatePhase</code> are ignored, and repulsion always uses the
+     * Barnes-Hut approximation.
+     */
+    public boolean mPacked = false;
+
+    /**
+     * If non-null, the solver records per-step and per-level timings and counters
+     * into this object. Leave null to disable all instrumentation.
+     */
+    public SolverStats mStats = null;
+
+    /**
+     * Space left between connected components packed by {@link ComponentLayout},
+     * expressed in proportion to <code>mScale</code>.
+     */
+    public float mComponentGap = 2f;
+
+    /**
+     * Number of hops from a changed vert within which {@link DynamicLayout#relax()} moves
+     * verts. Verts further away are held fixed.
+     */
+    public int mDynamicHops = 2;
+
+    /**
+     * Step length used at the start of each {@link DynamicLayout#relax()}, expressed in
+     * proportion to <code>mScale</code>. Smaller than <code>mUpdateInitialStep</code>, as
+     * a converged layout only needs local adjustment.
+     */
+    public float mDynamicInitialStep = 0.1f;
     
     
     /**************************************************************************
@@ -114,6 +156,70 @@ public class LayoutParams {
      */
     public int mRepulseApproxMaxTreeDepth = -1;
     
+    /**
+     * If true, the Barnes-Hut approximation is computed with a tree stored in flat
+     * primitive arrays ({@link RepulsePhaseFlatTree}) rather than with linked
+     * QuadtreeCell objects. Results are the same, but the flat tree uses far less
+     * memory and traverses with better locality on large graphs.
+     */
+    public boolean mRepulseFlatTree = false;
+    
+    /**
+     * If true, flat trees are constructed by sorting Morton (Z-order) keys of the verts
+     * and emitting cells from the sorted keys, rather than by recursive partitioning.
+     * The key sort runs in parallel when <code>mThreadNo &gt; 1</code>. Applies only when
+     * a flat tree is in use, that is, when <code>mPacked</code> or
+     * <code>mRepulseFlatTree</code> is set.
+     */
+    public boolean mRepulseMortonBuild = false;
+    
+    /**
+     * If true, {@link RepulsePhaseBarnesHut} keeps its tree between steps and only moves
+     * verts that have crossed cell boundaries, instead of rebuilding the tree every step.
+     * A full rebuild is still performed whenever too many verts move. This helps most
+     * late in a layout, when step lengths are small.
+     */
+    public boolean mRepulseRefit = false;
+    
+    /**
+     * If true, {@link RepulsePhaseBarnesHut} walks the tree once for each small subtree of
+     * verts rather than once for each vert, using the bounding box of the group to decide
+     * which cells are far enough to approximate. The resulting cell list is then applied
+     * to every vert in the group. Forces are at least as accurate as with per-vert
+     * traversal, with far fewer cell visits.
+     */
+    public boolean mRepulseGroupTraversal = false;
+
+    /**
+     * If true, Barnes-Hut interaction lists are recorded for each leaf of the tree and
+     * reused across steps ({@link RepulsePhaseInteractionList}), and are only rebuilt
+     * once some vert has moved further than <code>mRepulseListMargin</code> since they
+     * were recorded. Takes precedence over <code>mRepulseFlatTree</code>.
+     */
+    public boolean mRepulseInteractionLists = false;
+
+    /**
+     * How far verts may move before interaction lists must be rebuilt, expressed in
+     * proportion to <code>mScale</code>. Larger margins allow lists to be reused for
+     * more steps, but make lists longer and each step more expensive.
+     */
+    public float mRepulseListMargin = 0.25f;
+    
+    /**
+     * If true, the finest level of a multilevel layout computes repulsion only between
+     * nearby verts, with {@link RepulsePhaseGrid}, rather than with the phase used for the
+     * coarser levels. Coarse levels have already arranged the graph globally, so the final
+     * level mostly needs local untangling, which a grid does in linear time.
+     * Has no effect if <code>mPacked</code> is set or if the graph was not coarsened.
+     */
+    public boolean mRepulseGridFinalLevel = false;
+
+    /**
+     * Cutoff radius for {@link RepulsePhaseGrid}, expressed in proportion to <code>mScale</code>.
+     * Verts further apart than this do not repel each other.
+     */
+    public float mRepulseGridCutoff = 3f;
+    
     
     /**************************************************************************
      * Update Phase - Updates position of each node.
@@ -153,6 +259,61 @@ public class LayoutParams {
      */
     public float mUpdateCoarseTol = -1f;
     
+    /**
+     * Max number of steps performed on each level of a layout before the level is treated
+     * as converged, regardless of step length. The step length heuristic occasionally settles
+     * into a cycle on very small graphs and never reaches <code>mUpdateTol</code>; this bounds
+     * the time taken in that case. Values &leq; 0 disable the limit.
+     */
+    public int mUpdateMaxSteps = 100000;
+    
+    
+    /**************************************************************************
+     * Initial Placement - Parameters for {@link PivotMds}.
+     **************************************************************************/
+
+    /**
+     * If true, verts are placed with {@link PivotMds} before layout begins, overwriting
+     * their existing positions. {@link LayoutSolver} places the coarsest level of a
+     * multilevel layout, or the whole graph if <code>mMultilevel</code> is false.
+     * {@link StressSolver} places the whole graph.
+     */
+    public boolean mInitPivotMds = false;
+
+    /**
+     * Number of pivots used by {@link PivotMds}. Memory use is twelve bytes per vert per pivot.
+     */
+    public int mPivotMdsPivots = 50;
+
+
+    /**************************************************************************
+     * Stress Layout - Parameters for {@link StressSolver}.
+     **************************************************************************/
+
+    /**
+     * Number of passes over all terms performed by {@link StressSolver}.
+     */
+    public int mStressIterations = 30;
+
+    /**
+     * Determines the step length of the final pass of {@link StressSolver}. Step lengths are
+     * annealed from one that moves the most weakly weighted term fully into place down to one
+     * that moves the most strongly weighted term by this fraction.
+     */
+    public float mStressEpsilon = 0.1f;
+
+    /**
+     * Largest graph for which {@link StressSolver} uses a term for every pair of verts.
+     * Larger graphs use sparse terms to <code>mStressPivots</code> pivot verts.
+     */
+    public int mStressExactMaxVerts = 2000;
+
+    /**
+     * Number of pivots used by {@link StressSolver} on graphs larger than
+     * <code>mStressExactMaxVerts</code>. Memory use is four bytes per vert per pivot.
+     */
+    public int mStressPivots = 64;
+    
     
     /**
      * Used for multilevel layouts to determine which nodes to combine
@@ -166,4 +327,56 @@ public class LayoutParams {
      */
     RefineFunc mRefine = RefineFunc.EXPAND_PERTURB;
     
+    
+    public LayoutParams() {}
+    
+    /**
+     * Creates a shallow copy of <code>copy</code>. Objects such as <code>mRand</code>,
+     * <code>mStats</code> and phase overrides are shared, not duplicated.
+     */
+    public LayoutParams( LayoutParams copy ) {
+        mDim                      = copy.mDim;
+        mScale                    = copy.mScale;
+        mMultilevel               = copy.mMultilevel;
+        mVertWeightModel          = copy.mVertWeightModel;
+        mRand                     = copy.mRand;
+        mThreadNo                 = copy.mThreadNo;
+        mPacked                   = copy.mPacked;
+        mStats                    = copy.mStats;
+        mComponentGap             = copy.mComponentGap;
+        mDynamicHops              = copy.mDynamicHops;
+        mDynamicInitialStep       = copy.mDynamicInitialStep;
+        mGravityForce             = copy.mGravityForce;
+        System.arraycopy( copy.mGravityCenter, 0, mGravityCenter, 0, 3 );
+        mAttractPhase             = copy.mAttractPhase;
+        mAttractEq                = copy.mAttractEq;
+        mRepulsePhase             = copy.mRepulsePhase;
+        mRepulseEq                = copy.mRepulseEq;
+        mRepulseApprox            = copy.mRepulseApprox;
+        mRepulseApproxThresh      = copy.mRepulseApproxThresh;
+        mRepulseApproxMaxTreeDepth = copy.mRepulseApproxMaxTreeDepth;
+        mRepulseFlatTree          = copy.mRepulseFlatTree;
+        mRepulseMortonBuild       = copy.mRepulseMortonBuild;
+        mRepulseRefit             = copy.mRepulseRefit;
+        mRepulseGroupTraversal    = copy.mRepulseGroupTraversal;
+        mRepulseInteractionLists  = copy.mRepulseInteractionLists;
+        mRepulseListMargin        = copy.mRepulseListMargin;
+        mRepulseGridFinalLevel    = copy.mRepulseGridFinalLevel;
+        mRepulseGridCutoff        = copy.mRepulseGridCutoff;
+        mUpdatePhase              = copy.mUpdatePhase;
+        mUpdateInitialStep        = copy.mUpdateInitialStep;
+        mUpdateIncrementStep      = copy.mUpdateIncrementStep;
+        mUpdateTol                = copy.mUpdateTol;
+        mUpdateCoarseTol          = copy.mUpdateCoarseTol;
+        mUpdateMaxSteps           = copy.mUpdateMaxSteps;
+        mInitPivotMds             = copy.mInitPivotMds;
+        mPivotMdsPivots           = copy.mPivotMdsPivots;
+        mStressIterations         = copy.mStressIterations;
+        mStressEpsilon            = copy.mStressEpsilon;
+        mStressExactMaxVerts      = copy.mStressExactMaxVerts;
+        mStressPivots             = copy.mStressPivots;
+        mCoarsenStrategy          = copy.mCoarsenStrategy;
+        mRefine                   = copy.mRefine;
+    }
+
 }
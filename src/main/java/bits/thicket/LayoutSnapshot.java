@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Copy of the positions of a graph at one step of a layout, published by
+ * {@link BackgroundLayout}. Positions are held in packed arrays in the same manner as
+ * {@link PackedGraph}, and edges as pairs of vert indices.
+ * <p>
+ * Snapshots are recycled. A snapshot obtained from {@link BackgroundLayout#snapshot()}
+ * will not be modified until the next call to that method, and must not be modified
+ * by the reader. Arrays may be longer than the number of elements in use.
+ *
+ * @author decamp
+ */
+public class LayoutSnapshot {
+
+    /**
+     * Number of verts in snapshot.
+     */
+    public int mVertNo;
+
+    /**
+     * Number of undirected edges in snapshot.
+     */
+    public int mEdgeNo;
+
+    /**
+     * Dimensionality of layout.
+     */
+    public int mDim;
+
+    /**
+     * Number of times the graph in the snapshot has been coarsened.
+     */
+    public int mCoarseLevel;
+
+    /**
+     * Number of levels that remain to be laid out, as described by
+     * {@link LayoutSolver#remainingLevels()}.
+     */
+    public int mRemainingLevels;
+
+    /**
+     * Number of steps performed by solver before snapshot was taken.
+     */
+    public long mStepNo;
+
+    /**
+     * True iff the layout had converged when snapshot was taken.
+     */
+    public boolean mConverged;
+
+    /**
+     * Source Vert of each index. Only the identity of each Vert may be used by readers,
+     * as the fields of Verts are modified by the layout thread. This array is shared by all
+     * snapshots of the same graph level and is never modified.
+     */
+    public Vert[] mVerts = new Vert[0];
+
+    /**
+     * Edges, stored as pairs of indices into vert arrays. Edge {@code i} connects
+     * {@code mEdges[2*i]} and {@code mEdges[2*i+1]}. Shared in the same manner as <code>mVerts</code>.
+     */
+    public int[] mEdges = new int[0];
+
+    public float[] mX = new float[0];
+    public float[] mY = new float[0];
+    public float[] mZ = new float[0];
+
+}
@@ -12,6 +12,20 @@ package bits.thicket;
  * {@link #step()} should be called until {@link #converged()} returns true. Intermediate results may
  * be retrieved from the graph object at any time between calls to {@link #step()}, however, the solver
  * and graph objects are not thread safe in any way.
+ * <p>
+ * Each call to {@link #step()} performs one bounded unit of work: one layout step, one piece of
+ * a coarsening, or one transition between levels. Interactive applications that must return
+ * within a frame budget can instead call {@link #stepFor(long)} or {@link #runUntil(long)}, which
+ * perform as many steps as are expected to fit in the given time. If <code>mThreadNo</code> calls
+ * for more than one thread, each coarse level is built in one step, split across threads.
+ * <p>
+ * A solver may be initialized again to lay out another graph, whether or not the previous layout
+ * has finished. Phases created by the solver, along with their trees and buffers, are reused by
+ * later layouts wherever the parameters allow, which matters when laying out many small graphs.
+ * <p>
+ * When the same graph is laid out repeatedly, a {@link CoarseHierarchy} may be built once and
+ * passed to {@link #init(LayoutParams,CoarseHierarchy,Graph)}, which skips coarsening and leaves
+ * the topology of the graph untouched.
  *
  * @author decamp
  */
@@ -24,17 +38,71 @@ public class LayoutSolver {
     private static final int MODE_LAYOUT_FINISH = 4;
     private static final int MODE_CONVERGED     = 5;
     
+    // Kinds of work performed by step(), for cost estimation.
+    private static final int TASK_COARSEN_BEGIN = 0;
+    private static final int TASK_COARSEN       = 1;
+    private static final int TASK_LAYOUT_START  = 2;
+    private static final int TASK_LAYOUT        = 3;
+    private static final int TASK_LAYOUT_FINISH = 4;
+    private static final int TASK_NUM           = 5;
+    
+    // Number of verts moved to coarser graph per step while coarsening.
+    private static final int COARSEN_CHUNK = 8192;
+    
     private int mMode = MODE_UNINITIALIZED;
     
     private LayoutParams mParams;
     private Graph mGraph;
     private boolean mMultilevel = true;
+    private int mRootLevel = 0;
+    
+    // Coarser graph being built from mGraph, and verts of mGraph not yet moved into it.
+    private Graph mCoarseGraph  = null;
+    private Vert  mCoarseCursor = null;
+    private final EdgeTable mCoarseEdges = new EdgeTable();
+    
+    // Used instead of chunks when coarsening on more than one thread.
+    private WorkerPool mCoarsenPool = null;
+    private CoarseEdgeBuilder mCoarseBuilder = null;
+    private int   mCoarsenVertNo = 0;
+    private long  mCoarsenNanos  = 0L;
+    
+    // Prebuilt hierarchy, if any, with the index and verts of the level held by mGraph.
+    private CoarseHierarchy mHierarchy = null;
+    private Graph  mRootGraph      = null;
+    private Vert[] mRootVerts      = null;
+    private Vert[] mLevelVerts     = null;
+    private int    mHierarchyLevel = 0;
+    
+    // Incremented whenever the verts or edges of the current graph change.
+    private int mGraphVersion = 0;
+    
+    // Smoothed cost of each task in nanos per unit of work, or 0 if not yet measured,
+    // and smoothed deviation of cost.
+    private final double[] mTaskCost = new double[TASK_NUM];
+    private final double[] mTaskDev  = new double[TASK_NUM];
     
     private GravityPhase mGravityPhase = new GravityPhase();
     private SolverPhase  mAttractPhase;
     private SolverPhase  mRepulsePhase;
     private UpdatePhase  mUpdatePhase;
     
+    // Phases created by this solver, rather than supplied by LayoutParams, for reuse by init().
+    private AttractPhase          mOwnAttractPhase;
+    private SolverPhase           mOwnRepulsePhase;
+    private RepulsePhaseGrid      mOwnGridPhase;
+    private GlobalStepUpdatePhase mOwnUpdatePhase;
+    
+    private boolean mUsePacked = false;
+    private boolean mRefined   = false;
+    private PackedGraph mPackedGraph = null;
+    private PackedGravityPhase  mPackedGravityPhase;
+    private PackedAttractPhase  mPackedAttractPhase;
+    private PackedRepulsePhase  mPackedRepulsePhase;
+    private PackedUpdatePhase   mPackedUpdatePhase;
+    
+    private SolverStats mStats = null;
+    
     private final float[] mWork = new float[6];
 
     /**
@@ -49,10 +117,45 @@ public class LayoutSolver {
         mRepulsePhase = getRepulsePhase( params );
         mUpdatePhase  = getUpdatePhase(  params );
         
+        mUsePacked = params.mPacked;
+        if( mUsePacked ) {
+            if( mPackedGraph == null ) {
+                mPackedGraph = new PackedGraph();
+            }
+            if( mPackedGravityPhase == null ) {
+                mPackedGravityPhase = new PackedGravityPhase();
+                mPackedAttractPhase = new PackedAttractPhase();
+                mPackedRepulsePhase = new PackedRepulsePhase();
+                mPackedUpdatePhase  = new PackedGlobalStepUpdatePhase();
+            }
+        }
+        
+        mCoarsenPool = WorkerPool.reuse( mCoarsenPool, params.mMultilevel ? WorkerPool.threadCount( params ) : 1 );
+        if( mCoarsenPool != null && mCoarseBuilder == null ) {
+            mCoarseBuilder = new CoarseEdgeBuilder();
+        }
         
         mParams     = params;
         mGraph      = graph;
         mMultilevel = params.mMultilevel;
+        mStats      = params.mStats;
+        mRefined    = false;
+        mRootLevel  = graph.mCoarseLevel;
+        
+        mCoarseGraph  = null;
+        mCoarseCursor = null;
+        mHierarchy    = null;
+        mRootGraph    = null;
+        mRootVerts    = null;
+        mLevelVerts   = null;
+        mGraphVersion++;
+        
+        if( mStats != null ) {
+            mStats.reset();
+            SolverStats.Level lev = mStats.level( graph.mCoarseLevel );
+            lev.mVertNo = graph.mVertNo;
+            lev.mEdgeNo = graph.mEdgeNo;
+        }
         
         if( mMultilevel ) {
             mMode = MODE_COARSEN;
@@ -66,21 +169,76 @@ public class LayoutSolver {
         }
     }
 
+    /**
+     * Initializes solver to lay out a graph using a prebuilt hierarchy. Layout starts at the
+     * coarsest level of <code>hierarchy</code>, placing each coarse vert at the weighted mean of
+     * the current positions of the verts of <code>graph</code> that it combines. Coarse levels are
+     * created as they are reached. <code>graph</code> is only modified by having its vert positions
+     * and weights set, so it may be laid out again with the same hierarchy.
+     *
+     * @param params    Layout parameters. <code>mCoarsenStrategy</code> is ignored.
+     * @param hierarchy Hierarchy built from <code>graph</code> or from a graph with the same topology.
+     * @param graph     Either the graph <code>hierarchy</code> was built from, with verts in the
+     *                  same order, or a graph returned by {@link CoarseHierarchy#newGraph()}.
+     * @throws IllegalArgumentException if <code>graph</code> does not match <code>hierarchy</code>.
+     */
+    public void init( LayoutParams params, CoarseHierarchy hierarchy, Graph graph ) {
+        if( graph.mVertNo != hierarchy.vertNo( 0 ) ) {
+            throw new IllegalArgumentException( "Graph has " + graph.mVertNo + " verts, hierarchy has " + hierarchy.vertNo( 0 ) );
+        }
+        
+        init( params, graph );
+        
+        final int top = hierarchy.levelNo() - 1;
+        if( !mMultilevel || top == 0 ) {
+            return;
+        }
+        
+        final Vert[] verts = new Vert[graph.mVertNo];
+        int i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            verts[i++] = v;
+        }
+        
+        mHierarchy      = hierarchy;
+        mRootGraph      = graph;
+        mRootVerts      = verts;
+        mHierarchyLevel = top;
+        mLevelVerts     = new Vert[ hierarchy.vertNo( top ) ];
+        mGraph = hierarchy.instantiate( top, hierarchy.restrictPositions( verts ), mLevelVerts );
+        mGraph.mCoarseLevel = mRootLevel + top;
+        mMode = MODE_LAYOUT_START;
+        
+        if( mStats != null ) {
+            for( int level = 1; level <= top; level++ ) {
+                SolverStats.Level lev = mStats.level( mRootLevel + level );
+                lev.mVertNo    = hierarchy.vertNo( level );
+                lev.mEdgeNo    = hierarchy.edgeNo( level );
+                lev.mReduction = (float)hierarchy.vertNo( level ) / hierarchy.vertNo( level - 1 );
+            }
+        }
+    }
+
     /**
      * After initialization, call step repeatedly to increment layout process.
      */
     public void step() {
         switch( mMode ) {
         case MODE_COARSEN:
-            if( mGraph.mEdgeNo >= 2 ) {
-                mGraph = Graphs.coarsen( mParams, mGraph );
+            if( mCoarseGraph != null ) {
+                continueCoarsen();
+                return;
+            }
+            if( mGraph.mEdgeNo >= 2 && beginCoarsen() ) {
                 return;
-            } else {
-                mMode = MODE_LAYOUT_START;
-                // Fallthrough
             }
+            mMode = MODE_LAYOUT_START;
+            // Fallthrough
             
         case MODE_LAYOUT_START:
+            if( !mRefined && mParams.mInitPivotMds ) {
+                PivotMds.layout( mParams, mGraph );
+            }
             initPhases();
             mMode = MODE_LAYOUT;
             return;
@@ -90,8 +248,16 @@ public class LayoutSolver {
             return;
         
         case MODE_LAYOUT_FINISH:
-            if( mGraph.mFinerGraph != null ) {
-                mGraph = Graphs.uncoarsen( mParams, mGraph );
+            if( hasFinerLevel() ) {
+                if( mStats != null ) {
+                    long t0 = System.nanoTime();
+                    mGraph = uncoarsen();
+                    mStats.level( mGraph.mCoarseLevel ).mRefineNanos += System.nanoTime() - t0;
+                } else {
+                    mGraph = uncoarsen();
+                }
+                mRefined = true;
+                mGraphVersion++;
                 mMode = MODE_LAYOUT_START;
                 return;
             }
@@ -108,6 +274,91 @@ public class LayoutSolver {
         }
     }
 
+    /**
+     * Calls {@link #step()} until the solver converges or until <code>nanos</code>
+     * nanoseconds have passed, as described by {@link #runUntil(long)}.
+     *
+     * @param nanos Time budget in nanoseconds.
+     * @return number of steps performed.
+     */
+    public int stepFor( long nanos ) {
+        return runUntil( System.nanoTime() + nanos );
+    }
+
+    /**
+     * Calls {@link #step()} until the solver converges or until {@link System#nanoTime()}
+     * reaches <code>deadlineNanos</code>. The cost of each step is estimated from the cost of
+     * previous steps of the same kind, scaled by the size of the current graph, and a step is
+     * only started if it is expected to finish before the deadline. A kind of step that has not
+     * yet been measured, such as the first coarsening, is only started as the first step of a
+     * call. At least one step is performed by each call unless the solver has converged,
+     * so layout progresses even when the budget is smaller than any single step.
+     * <p>
+     * A single layout step on a very large graph may still take longer than the budget.
+     * Use {@link #estimatedStepNanos()} to detect this.
+     *
+     * @param deadlineNanos Deadline in terms of {@link System#nanoTime()}.
+     * @return number of steps performed.
+     */
+    public int runUntil( long deadlineNanos ) {
+        if( mMode == MODE_UNINITIALIZED ) {
+            throw new IllegalStateException( "Uninitialized." );
+        }
+        
+        int count = 0;
+        
+        while( mMode != MODE_CONVERGED ) {
+            final int task    = currentTask();
+            final double work = currentWork( task );
+            final long t0     = System.nanoTime();
+            
+            if( count > 0 ) {
+                final double cost = mTaskCost[task];
+                if( cost <= 0.0 || ( cost + 4.0 * mTaskDev[task] ) * work > deadlineNanos - t0 ) {
+                    break;
+                }
+            }
+            
+            step();
+            count++;
+            updateCost( task, ( System.nanoTime() - t0 ) / work );
+        }
+        
+        return count;
+    }
+
+    /**
+     * @return estimated time in nanoseconds that the next call to {@link #step()} will take,
+     *         or -1 if unknown. Estimates are only updated by {@link #runUntil(long)}.
+     */
+    public long estimatedStepNanos() {
+        if( mMode == MODE_CONVERGED || mMode == MODE_UNINITIALIZED ) {
+            return 0L;
+        }
+        final int task = currentTask();
+        final double cost = mTaskCost[task];
+        return cost <= 0.0 ? -1L : (long)( ( cost + 4.0 * mTaskDev[task] ) * currentWork( task ) );
+    }
+
+    /**
+     * @return number of graph levels that remain to be laid out, including the current level.
+     *         While the graph is still being coarsened, the final number of levels is not yet
+     *         known and this is a lower bound. Returns 0 once the layout has converged.
+     */
+    public int remainingLevels() {
+        switch( mMode ) {
+        case MODE_COARSEN:
+            return ( mCoarseGraph != null ? mCoarseGraph : mGraph ).mCoarseLevel - mRootLevel + 1;
+        case MODE_LAYOUT_START:
+        case MODE_LAYOUT:
+            return mGraph.mCoarseLevel - mRootLevel + 1;
+        case MODE_LAYOUT_FINISH:
+            return mGraph.mCoarseLevel - mRootLevel;
+        default:
+            return 0;
+        }
+    }
+
     /**
      * @return true iff solver has converged layout.
      */
@@ -125,26 +376,97 @@ public class LayoutSolver {
         }
         
         mMode = MODE_UNINITIALIZED;
+        mCoarseGraph  = null;
+        mCoarseCursor = null;
+        mHierarchy    = null;
+        mRootGraph    = null;
+        mRootVerts    = null;
+        mLevelVerts   = null;
         mAttractPhase.dispose( mParams, mGraph );
         mRepulsePhase.dispose( mParams, mGraph );
         mUpdatePhase.dispose(  mParams, mGraph );
+        
+        if( mCoarsenPool != null ) {
+            mCoarsenPool.shutdown();
+            mCoarsenPool = null;
+        }
+        
+        if( mUsePacked ) {
+            mPackedAttractPhase.dispose( mParams, mPackedGraph );
+            mPackedRepulsePhase.dispose( mParams, mPackedGraph );
+            mPackedUpdatePhase.dispose(  mParams, mPackedGraph );
+            mPackedGraph = null;
+        }
+        
         mParams = null;
         mGraph  = null;
+        mStats  = null;
     }
 
 
+    /**
+     * @return graph at the level currently being processed. While a level is being
+     *         coarsened, some of its verts may be missing from the graph's lists.
+     */
     public Graph currentGraph() {
         return mGraph;
     }
 
 
+    /**
+     * @return packed copy of {@link #currentGraph()} if {@link LayoutParams#mPacked} is set
+     *         and layout of the current level has started, otherwise null.
+     */
+    public PackedGraph currentPackedGraph() {
+        return mUsePacked ? mPackedGraph : null;
+    }
+
+
     public double currentCost() {
-        return mUpdatePhase.cost();
+        return mUsePacked ? mPackedUpdatePhase.cost() : mUpdatePhase.cost();
+    }
+
+    /**
+     * @return value that changes whenever verts or edges are added to or removed from
+     *         {@link #currentGraph()}, or when the current graph is replaced.
+     */
+    int graphVersion() {
+        return mGraphVersion;
+    }
+
+    /**
+     * @return true iff the solver is coarsening, during which {@link #currentGraph()}
+     *         may be incomplete.
+     */
+    boolean coarsening() {
+        return mMode == MODE_COARSEN;
     }
 
 
     
     private void initPhases() {
+        if( mUsePacked ) {
+            mPackedGraph.pack( mGraph );
+            mPackedGravityPhase.init( mParams, mPackedGraph );
+            mPackedAttractPhase.init( mParams, mPackedGraph );
+            mPackedRepulsePhase.init( mParams, mPackedGraph );
+            mPackedUpdatePhase.init(  mParams, mPackedGraph );
+            return;
+        }
+        
+        if( mParams.mRepulseGridFinalLevel && 
+            mRefined && 
+            !hasFinerLevel() && 
+            !( mRepulsePhase instanceof RepulsePhaseGrid ) ) 
+        {
+            // Finest level only needs local repulsion.
+            mRepulsePhase.dispose( mParams, mGraph );
+            if( mOwnGridPhase == null ) {
+                mOwnGridPhase = new RepulsePhaseGrid();
+            }
+            mRepulsePhase = mOwnGridPhase;
+        }
+        
         mGravityPhase.init( mParams, mGraph );
         mAttractPhase.init( mParams, mGraph );
         mRepulsePhase.init( mParams, mGraph );
@@ -153,13 +475,23 @@ public class LayoutSolver {
     
     
     private void stepLayout() {
+        if( mStats != null ) {
+            stepLayoutWithStats();
+            return;
+        }
+        
+        if( mUsePacked ) {
+            stepPackedLayout();
+            return;
+        }
+        
         mGravityPhase.step( mParams, mGraph );
         mAttractPhase.step( mParams, mGraph );
         
-        if( mRepulsePhase instanceof RepulsePhaseBarnesHut ) {
+        if( mRepulsePhase instanceof BoundedSolverPhase ) {
             mGravityPhase.graphBounds( mWork );
             //System.out.println( "BOUNDS: " + Box3.format( mWork ) );
-            ((RepulsePhaseBarnesHut)mRepulsePhase).step( mParams, mGraph, mWork );
+            ((BoundedSolverPhase)mRepulsePhase).step( mParams, mGraph, mWork );
         } else {
             mRepulsePhase.step( mParams, mGraph );
         }
@@ -167,43 +499,291 @@ public class LayoutSolver {
         mUpdatePhase.step( mParams, mGraph );
         
         if( mUpdatePhase.converged() ) {
-            if( mGraph.mFinerGraph == null || !mParams.mMultilevel ) {
-                mMode = MODE_CONVERGED;
+            finishLevel();
+        }
+    }
+    
+    
+    private void stepPackedLayout() {
+        final PackedGraph g = mPackedGraph;
+        mPackedGravityPhase.step( mParams, g );
+        mPackedAttractPhase.step( mParams, g );
+        mPackedGravityPhase.graphBounds( mWork );
+        mPackedRepulsePhase.step( mParams, g, mWork );
+        mPackedUpdatePhase.step( mParams, g );
+        g.writePositions();
+        
+        if( mPackedUpdatePhase.converged() ) {
+            finishLevel();
+        }
+    }
+    
+    
+    /**
+     * Same as stepLayout() and stepPackedLayout(), but records timings in mStats.
+     * Kept separate so that uninstrumented layouts pay nothing.
+     */
+    private void stepLayoutWithStats() {
+        final SolverStats stats = mStats;
+        final long[] nanos = stats.mStepNanos;
+        stats.clearStep();
+        
+        boolean converged;
+        long t0 = System.nanoTime();
+        long t1;
+        
+        if( mUsePacked ) {
+            final PackedGraph g = mPackedGraph;
+            mPackedGravityPhase.step( mParams, g );
+            t1 = System.nanoTime();
+            nanos[SolverStats.GRAVITY] = t1 - t0;
+            t0 = t1;
+            
+            mPackedAttractPhase.step( mParams, g );
+            t1 = System.nanoTime();
+            nanos[SolverStats.ATTRACT] = t1 - t0;
+            t0 = t1;
+            
+            mPackedGravityPhase.graphBounds( mWork );
+            mPackedRepulsePhase.step( mParams, g, mWork );
+            t1 = System.nanoTime();
+            nanos[SolverStats.REPULSE] = t1 - t0 - nanos[SolverStats.TREE];
+            t0 = t1;
+            
+            mPackedUpdatePhase.step( mParams, g );
+            g.writePositions();
+            converged = mPackedUpdatePhase.converged();
+            
+        } else {
+            mGravityPhase.step( mParams, mGraph );
+            t1 = System.nanoTime();
+            nanos[SolverStats.GRAVITY] = t1 - t0;
+            t0 = t1;
+            
+            mAttractPhase.step( mParams, mGraph );
+            t1 = System.nanoTime();
+            nanos[SolverStats.ATTRACT] = t1 - t0;
+            t0 = t1;
+            
+            if( mRepulsePhase instanceof BoundedSolverPhase ) {
+                mGravityPhase.graphBounds( mWork );
+                ((BoundedSolverPhase)mRepulsePhase).step( mParams, mGraph, mWork );
             } else {
-                mMode = MODE_LAYOUT_FINISH;
+                mRepulsePhase.step( mParams, mGraph );
             }
+            t1 = System.nanoTime();
+            nanos[SolverStats.REPULSE] = t1 - t0 - nanos[SolverStats.TREE];
+            t0 = t1;
+            
+            mUpdatePhase.step( mParams, mGraph );
+            converged = mUpdatePhase.converged();
+        }
+        
+        nanos[SolverStats.UPDATE] = System.nanoTime() - t0;
+        stats.finishStep( stats.level( mGraph.mCoarseLevel ) );
+        
+        if( converged ) {
+            finishLevel();
         }
     }
     
     
-    private static SolverPhase getAttractPhase( LayoutParams params ) {
+    private boolean beginCoarsen() {
+        final long t0 = mStats == null ? 0L : System.nanoTime();
+        final Graph coarse = Graphs.coarsenBegin( mParams, mGraph, mCoarsenPool );
+        if( coarse == null ) {
+            return false;
+        }
+        
+        mCoarsenVertNo = mGraph.mVertNo;
+        mCoarseGraph   = coarse;
+        mCoarseCursor  = Graphs.detachVerts( mGraph );
+        mCoarseEdges.clear();
+        mGraphVersion++;
+        if( mStats != null ) {
+            mCoarsenNanos = System.nanoTime() - t0;
+        }
+        return true;
+    }
+    
+    
+    private void continueCoarsen() {
+        final Graph fine   = mGraph;
+        final Graph coarse = mCoarseGraph;
+        final long t0 = mStats == null ? 0L : System.nanoTime();
+        
+        if( mCoarsenPool != null ) {
+            // Parallel build requires the whole level at once.
+            mCoarseBuilder.build( fine, coarse, mCoarseCursor, mCoarsenPool );
+            mCoarseCursor = null;
+        } else {
+            mCoarseCursor = Graphs.coarsenContinue( fine, coarse, mCoarseCursor, COARSEN_CHUNK, mCoarseEdges );
+        }
+        mGraphVersion++;
+        if( mStats != null ) {
+            mCoarsenNanos += System.nanoTime() - t0;
+        }
+        if( mCoarseCursor != null ) {
+            return;
+        }
+        
+        mGraph       = coarse;
+        mCoarseGraph = null;
+        mCoarseEdges.clear();
+        
+        if( mStats != null ) {
+            final int fineVertNo = mCoarsenVertNo;
+            SolverStats.Level lev = mStats.level( coarse.mCoarseLevel );
+            lev.mVertNo       = coarse.mVertNo;
+            lev.mEdgeNo       = coarse.mEdgeNo;
+            lev.mReduction    = fineVertNo == 0 ? 1f : (float)coarse.mVertNo / fineVertNo;
+            lev.mCoarsenNanos = mCoarsenNanos;
+        }
+    }
+    
+    
+    /**
+     * Updates smoothed cost and deviation of a task in the same manner as TCP
+     * round-trip time estimation, so that noisy tasks are estimated conservatively.
+     */
+    private void updateCost( int task, double cost ) {
+        final double prev = mTaskCost[task];
+        if( prev <= 0.0 ) {
+            mTaskCost[task] = cost;
+            mTaskDev[task]  = 0.5 * cost;
+        } else {
+            mTaskDev[task]  += 0.25  * ( Math.abs( cost - prev ) - mTaskDev[task] );
+            mTaskCost[task] += 0.125 * ( cost - prev );
+        }
+    }
+    
+    
+    private int currentTask() {
+        switch( mMode ) {
+        case MODE_COARSEN:
+            return mCoarseGraph != null ? TASK_COARSEN : TASK_COARSEN_BEGIN;
+        case MODE_LAYOUT_START:
+            return TASK_LAYOUT_START;
+        case MODE_LAYOUT:
+            return TASK_LAYOUT;
+        default:
+            return TASK_LAYOUT_FINISH;
+        }
+    }
+    
+    
+    /**
+     * @return amount of work for given task on current graph, in arbitrary units.
+     */
+    private double currentWork( int task ) {
+        switch( task ) {
+        case TASK_COARSEN:
+            return mCoarsenPool != null ? mCoarsenVertNo + 1.0 : COARSEN_CHUNK;
+        case TASK_LAYOUT_FINISH:
+            int finerVertNo;
+            if( mHierarchy != null ) {
+                finerVertNo = mHierarchyLevel > 0 ? mHierarchy.vertNo( mHierarchyLevel - 1 ) : 0;
+            } else {
+                Graph finer = mGraph.mFinerGraph;
+                finerVertNo = finer == null ? 0 : finer.mVertNo;
+            }
+            return mGraph.mVertNo + mGraph.mEdgeNo + finerVertNo + 1.0;
+        default:
+            return mGraph.mVertNo + mGraph.mEdgeNo + 1.0;
+        }
+    }
+    
+    
+    private boolean hasFinerLevel() {
+        return mHierarchy != null ? mHierarchyLevel > 0 : mGraph.mFinerGraph != null;
+    }
+    
+    
+    /**
+     * Replaces the current graph with the next finer level and refines it.
+     */
+    private Graph uncoarsen() {
+        if( mHierarchy == null ) {
+            return Graphs.uncoarsen( mParams, mGraph );
+        }
+        
+        final int level = mHierarchyLevel - 1;
+        final Graph fine;
+        final Vert[] fineVerts;
+        
+        if( level == 0 ) {
+            fine      = mRootGraph;
+            fineVerts = mRootVerts;
+        } else {
+            fineVerts = new Vert[ mHierarchy.vertNo( level ) ];
+            fine      = mHierarchy.instantiate( level, null, fineVerts );
+            fine.mCoarseLevel = mRootLevel + level;
+        }
+        
+        mHierarchy.prolong( level, mLevelVerts, fineVerts );
+        mParams.mRefine.refine( mParams, mGraph, fine );
+        mHierarchyLevel = level;
+        mLevelVerts     = fineVerts;
+        return fine;
+    }
+    
+    
+    private void finishLevel() {
+        if( !hasFinerLevel() || !mParams.mMultilevel ) {
+            mMode = MODE_CONVERGED;
+        } else {
+            mMode = MODE_LAYOUT_FINISH;
+        }
+    }
+    
+    
+    private SolverPhase getAttractPhase( LayoutParams params ) {
         if( params.mAttractPhase != null ) {
             return params.mAttractPhase;
-        } else {
-            return new AttractPhase(); 
         }
+        if( mOwnAttractPhase == null ) {
+            mOwnAttractPhase = new AttractPhase();
+        }
+        return mOwnAttractPhase;
     }
     
     
-    private static SolverPhase getRepulsePhase( LayoutParams params ) {
+    private SolverPhase getRepulsePhase( LayoutParams params ) {
         if( params.mRepulsePhase != null ) {
             return params.mRepulsePhase;
         } 
         
+        SolverPhase p = mOwnRepulsePhase;
+        
         if( params.mRepulseApprox ) {
-            return new RepulsePhaseBarnesHut();
+            if( params.mRepulseInteractionLists ) {
+                if( !( p instanceof RepulsePhaseInteractionList ) ) {
+                    p = new RepulsePhaseInteractionList();
+                }
+            } else if( params.mRepulseFlatTree ) {
+                if( !( p instanceof RepulsePhaseFlatTree ) ) {
+                    p = new RepulsePhaseFlatTree();
+                }
+            } else if( !( p instanceof RepulsePhaseBarnesHut ) ) {
+                p = new RepulsePhaseBarnesHut();
+            }
+        } else if( !( p instanceof RepulsePhaseBruteForce ) ) {
+            p = new RepulsePhaseBruteForce();
         }
         
-        return new RepulsePhaseBruteForce();
+        mOwnRepulsePhase = p;
+        return p;
     }
 
     
-    private static UpdatePhase getUpdatePhase( LayoutParams params ) {
+    private UpdatePhase getUpdatePhase( LayoutParams params ) {
         if( params.mUpdatePhase != null ) {
             return params.mUpdatePhase;
         }
-        
-        return new GlobalStepUpdatePhase();
+        if( mOwnUpdatePhase == null ) {
+            mOwnUpdatePhase = new GlobalStepUpdatePhase();
+        }
+        return mOwnUpdatePhase;
     }
     
 }
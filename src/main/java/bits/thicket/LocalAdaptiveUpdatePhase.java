@@ -31,6 +31,8 @@ public class LocalAdaptiveUpdatePhase implements UpdatePhase {
     private int mProgressCount = 0;
     private float mSpeedGlobal;
     private boolean mConverged = false;
+    private int mStepNo;
+    private int mMaxSteps;
     
     
     public LocalAdaptiveUpdatePhase() {}
@@ -48,6 +50,8 @@ public class LocalAdaptiveUpdatePhase implements UpdatePhase {
         
         mConverged   = false;
         mSpeedGlobal = mSpeedStart;
+        mStepNo      = 0;
+        mMaxSteps    = params.mUpdateMaxSteps > 0 ? params.mUpdateMaxSteps : Integer.MAX_VALUE;
     }
     
     
@@ -95,7 +99,7 @@ public class LocalAdaptiveUpdatePhase implements UpdatePhase {
         }
         
         mSpeedGlobal = newSpeedGlobal;
-        mConverged  = mSpeedGlobal < mSpeedStop;
+        mConverged  = mSpeedGlobal < mSpeedStop || ++mStepNo >= mMaxSteps;
         
         //System.out.println( mSpeedGlobal );
     }
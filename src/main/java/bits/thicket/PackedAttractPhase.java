@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Packed version of {@link AttractPhase}. On a single thread, each edge is visited
+ * once, from its lower-indexed endpoint, and force is applied to both endpoints.
+ * When running on multiple threads, verts are split into blocks and each worker
+ * gathers force over the full adjacency of its own verts, so no two workers write
+ * to the same element of the force arrays.
+ *
+ * @author decamp
+ */
+class PackedAttractPhase implements PackedSolverPhase {
+
+    private static final int MIN_BLOCK_SIZE = 256;
+    private static final int BLOCKS_PER_THREAD = 16;
+
+    private AttractEq mEq;
+    private int mDim;
+    private float mCoeff;
+
+    private WorkerPool mPool;
+    private Worker[] mWorkers;
+    private final AtomicInteger mCursor = new AtomicInteger( 0 );
+
+
+    @Override
+    public void init( LayoutParams params, PackedGraph graph ) {
+        AttractEq eq = params.mAttractEq;
+        if( eq == null ) {
+            eq = AttractEq.SQUARE_DIST;
+        }
+
+        mEq    = eq;
+        mDim   = params.mDim;
+        mCoeff = AttractEq.coeff( eq, params );
+
+        mPool = WorkerPool.reuse( mPool, WorkerPool.threadCount( params ) );
+        if( mPool == null ) {
+            mWorkers = null;
+        } else {
+            mWorkers = new Worker[ mPool.threadNo() ];
+            for( int i = 0; i < mWorkers.length; i++ ) {
+                mWorkers[i] = new Worker( this );
+            }
+        }
+    }
+
+
+    @Override
+    public void step( LayoutParams params, PackedGraph graph ) {
+        final int n = graph.mVertNo;
+        if( mPool != null && n > MIN_BLOCK_SIZE ) {
+            int block = Math.max( MIN_BLOCK_SIZE, n / ( mWorkers.length * BLOCKS_PER_THREAD ) );
+            mCursor.set( 0 );
+            for( Worker w: mWorkers ) {
+                w.mGraph = graph;
+                w.mBlockSize = block;
+            }
+            mPool.run( mWorkers, mWorkers.length );
+            for( Worker w: mWorkers ) {
+                w.mGraph = null;
+            }
+            return;
+        }
+
+        if( mDim == 2 ) {
+            step2( graph, 0, graph.mVertNo );
+        } else {
+            step3( graph, 0, graph.mVertNo );
+        }
+    }
+
+
+    @Override
+    public void dispose( LayoutParams params, PackedGraph graph ) {
+        if( mPool != null ) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mWorkers = null;
+    }
+
+
+
+    private void step2( PackedGraph g, int start, int end ) {
+        final AttractEq eq   = mEq;
+        final float coeff    = mCoeff;
+        final int[] adjStart = g.mAdjStart;
+        final int[] adj      = g.mAdjVert;
+        final float[] adjW   = g.mAdjWeight;
+        final float[] xs = g.mX;
+        final float[] ys = g.mY;
+        final float[] fx = g.mForceX;
+        final float[] fy = g.mForceY;
+
+        for( int i = start; i < end; i++ ) {
+            final float ax = xs[i];
+            final float ay = ys[i];
+            float sx = 0f;
+            float sy = 0f;
+
+            for( int k = adjStart[i]; k < adjStart[i+1]; k++ ) {
+                int j = adj[k];
+                if( j < i ) {
+                    continue;
+                }
+                float dx  = ax - xs[j];
+                float dy  = ay - ys[j];
+                float mag = AttractEq.magnitude( eq, adjW[k] * coeff, dx * dx + dy * dy );
+                sx += mag * dx;
+                sy += mag * dy;
+                fx[j] += mag * dx;
+                fy[j] += mag * dy;
+            }
+
+            fx[i] -= sx;
+            fy[i] -= sy;
+        }
+    }
+
+
+    private void step3( PackedGraph g, int start, int end ) {
+        final AttractEq eq   = mEq;
+        final float coeff    = mCoeff;
+        final int[] adjStart = g.mAdjStart;
+        final int[] adj      = g.mAdjVert;
+        final float[] adjW   = g.mAdjWeight;
+        final float[] xs = g.mX;
+        final float[] ys = g.mY;
+        final float[] zs = g.mZ;
+        final float[] fx = g.mForceX;
+        final float[] fy = g.mForceY;
+        final float[] fz = g.mForceZ;
+
+        for( int i = start; i < end; i++ ) {
+            final float ax = xs[i];
+            final float ay = ys[i];
+            final float az = zs[i];
+            float sx = 0f;
+            float sy = 0f;
+            float sz = 0f;
+
+            for( int k = adjStart[i]; k < adjStart[i+1]; k++ ) {
+                int j = adj[k];
+                if( j < i ) {
+                    continue;
+                }
+                float dx  = ax - xs[j];
+                float dy  = ay - ys[j];
+                float dz  = az - zs[j];
+                float mag = AttractEq.magnitude( eq, adjW[k] * coeff, dx * dx + dy * dy + dz * dz );
+                sx += mag * dx;
+                sy += mag * dy;
+                sz += mag * dz;
+                fx[j] += mag * dx;
+                fy[j] += mag * dy;
+                fz[j] += mag * dz;
+            }
+
+            fx[i] -= sx;
+            fy[i] -= sy;
+            fz[i] -= sz;
+        }
+    }
+
+
+    private void gather2( PackedGraph g, int start, int end ) {
+        final AttractEq eq   = mEq;
+        final float coeff    = mCoeff;
+        final int[] adjStart = g.mAdjStart;
+        final int[] adj      = g.mAdjVert;
+        final float[] adjW   = g.mAdjWeight;
+        final float[] xs = g.mX;
+        final float[] ys = g.mY;
+        final float[] fx = g.mForceX;
+        final float[] fy = g.mForceY;
+
+        for( int i = start; i < end; i++ ) {
+            final float ax = xs[i];
+            final float ay = ys[i];
+            float sx = 0f;
+            float sy = 0f;
+
+            for( int k = adjStart[i]; k < adjStart[i+1]; k++ ) {
+                int j = adj[k];
+                float dx  = ax - xs[j];
+                float dy  = ay - ys[j];
+                float mag = AttractEq.magnitude( eq, adjW[k] * coeff, dx * dx + dy * dy );
+                sx += mag * dx;
+                sy += mag * dy;
+            }
+
+            fx[i] -= sx;
+            fy[i] -= sy;
+        }
+    }
+
+
+    private void gather3( PackedGraph g, int start, int end ) {
+        final AttractEq eq   = mEq;
+        final float coeff    = mCoeff;
+        final int[] adjStart = g.mAdjStart;
+        final int[] adj      = g.mAdjVert;
+        final float[] adjW   = g.mAdjWeight;
+        final float[] xs = g.mX;
+        final float[] ys = g.mY;
+        final float[] zs = g.mZ;
+        final float[] fx = g.mForceX;
+        final float[] fy = g.mForceY;
+        final float[] fz = g.mForceZ;
+
+        for( int i = start; i < end; i++ ) {
+            final float ax = xs[i];
+            final float ay = ys[i];
+            final float az = zs[i];
+            float sx = 0f;
+            float sy = 0f;
+            float sz = 0f;
+
+            for( int k = adjStart[i]; k < adjStart[i+1]; k++ ) {
+                int j = adj[k];
+                float dx  = ax - xs[j];
+                float dy  = ay - ys[j];
+                float dz  = az - zs[j];
+                float mag = AttractEq.magnitude( eq, adjW[k] * coeff, dx * dx + dy * dy + dz * dz );
+                sx += mag * dx;
+                sy += mag * dy;
+                sz += mag * dz;
+            }
+
+            fx[i] -= sx;
+            fy[i] -= sy;
+            fz[i] -= sz;
+        }
+    }
+
+
+    private static final class Worker implements Runnable {
+
+        private final PackedAttractPhase mPhase;
+
+        PackedGraph mGraph;
+        int mBlockSize;
+
+
+        Worker( PackedAttractPhase phase ) {
+            mPhase = phase;
+        }
+
+
+        public void run() {
+            final PackedGraph g = mGraph;
+            final int n = g.mVertNo;
+
+            while( true ) {
+                int start = mPhase.mCursor.getAndAdd( mBlockSize );
+                if( start >= n ) {
+                    return;
+                }
+                int end = Math.min( n, start + mBlockSize );
+                if( mPhase.mDim == 2 ) {
+                    mPhase.gather2( g, start, end );
+                } else {
+                    mPhase.gather3( g, start, end );
+                }
+            }
+        }
+
+    }
+
+}
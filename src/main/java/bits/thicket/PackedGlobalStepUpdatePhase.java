@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Packed version of {@link GlobalStepUpdatePhase}.
+ *
+ * @author decamp
+ */
+public class PackedGlobalStepUpdatePhase implements PackedUpdatePhase {
+
+    private static final float EPS = 0x0.000002P-60f;
+
+    private float mStepUpdate = 0.9f;
+    private float mStepStop   = 0.005f;
+
+    private int mDim;
+    private float mPrevEnergy  = Float.POSITIVE_INFINITY;
+    private int mProgressCount = 0;
+    private float mStep;
+    private boolean mConverged = false;
+    private int mStepNo;
+    private int mMaxSteps;
+
+
+    public PackedGlobalStepUpdatePhase() {}
+
+
+
+    public void init( LayoutParams params, PackedGraph graph ) {
+        mDim        = params.mDim;
+        mStepUpdate = params.mUpdateIncrementStep;
+
+        if( graph.mCoarseLevel > 0 && params.mUpdateCoarseTol > 0f ) {
+            mStepStop = params.mScale * params.mUpdateCoarseTol;
+        } else {
+            mStepStop = params.mScale * params.mUpdateTol;
+        }
+
+        mPrevEnergy    = Float.POSITIVE_INFINITY;
+        mProgressCount = 0;
+        mConverged     = false;
+        mStepNo        = 0;
+        mMaxSteps      = params.mUpdateMaxSteps > 0 ? params.mUpdateMaxSteps : Integer.MAX_VALUE;
+        mStep          = params.mScale * params.mUpdateInitialStep;
+    }
+
+
+    public void step( LayoutParams params, PackedGraph graph ) {
+        final float step = mStep;
+        final int n = graph.mVertNo;
+        final float[] xs = graph.mX;
+        final float[] ys = graph.mY;
+        final float[] fxs = graph.mForceX;
+        final float[] fys = graph.mForceY;
+        float totalEnergy = 0f;
+
+        if( mDim == 2 ) {
+            for( int i = 0; i < n; i++ ) {
+                float fx = fxs[i];
+                float fy = fys[i];
+                float energy = fx * fx + fy * fy + EPS;
+                float scale  = step / (float)Math.sqrt( energy );
+                xs[i] += scale * fx;
+                ys[i] += scale * fy;
+                totalEnergy += energy;
+            }
+        } else {
+            final float[] zs  = graph.mZ;
+            final float[] fzs = graph.mForceZ;
+            for( int i = 0; i < n; i++ ) {
+                float fx = fxs[i];
+                float fy = fys[i];
+                float fz = fzs[i];
+                float energy = fx * fx + fy * fy + fz * fz + EPS;
+                float scale  = step / (float)Math.sqrt( energy );
+                xs[i] += scale * fx;
+                ys[i] += scale * fy;
+                zs[i] += scale * fz;
+                totalEnergy += energy;
+            }
+        }
+
+        // Update step length.
+        if( totalEnergy < mPrevEnergy ) {
+            if( ++mProgressCount >= 5 ) {
+                mProgressCount = 0;
+                mStep /= mStepUpdate;
+            }
+        } else {
+            mProgressCount = 0;
+            mStep *= mStepUpdate;
+        }
+
+        mPrevEnergy = totalEnergy;
+        mConverged  = mStep < mStepStop || ++mStepNo >= mMaxSteps;
+    }
+
+
+    public void dispose( LayoutParams params, PackedGraph graph ) {}
+
+
+    public boolean converged() {
+        return mConverged;
+    }
+
+
+    public double cost() {
+        return mPrevEnergy;
+    }
+
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+
+
+/**
+ * Structure-of-arrays version of a {@link Graph}. Vertex state is held in parallel
+ * float arrays and adjacency is stored in compressed sparse row (CSR) form, so that
+ * phases can walk verts and edges without chasing list pointers.
+ * <p>
+ * A PackedGraph is usually created from a Graph with {@link #pack(Graph)}, in which case
+ * {@link #mVerts} holds the source Vert for each index and {@link #writePositions()} copies
+ * results back. The adjacency of vert {@code i} is found in {@code mAdjVert} and
+ * {@code mAdjWeight} over the range {@code [ mAdjStart[i], mAdjStart[i+1] )}. Every
+ * edge appears twice, once for each endpoint.
+ * <p>
+ * Arrays may be longer than the number of elements in use; they are reused
+ * across calls to {@link #pack(Graph)}.
+ *
+ * @author decamp
+ */
+public class PackedGraph {
+
+    /**
+     * Largest graph that may be packed. Vert indices are temporarily stored in
+     * {@link Vert#mTempDist} during packing, which is exact only up to 2^24.
+     */
+    public static final int MAX_VERT_NO = 1 << 24;
+
+    /**
+     * Number of verts in graph.
+     */
+    public int mVertNo;
+
+    /**
+     * Number of undirected edges in graph. Adjacency arrays hold {@code 2 * mEdgeNo} entries.
+     */
+    public int mEdgeNo;
+
+    /**
+     * Number of times the source graph has been coarsened.
+     */
+    public int mCoarseLevel;
+
+    /**
+     * Source Vert of each index, or null if graph was not created from a Graph.
+     */
+    public Vert[] mVerts;
+
+    /**
+     * set-by: user or {@link #pack}, by library for each layout step
+     */
+    public float[] mX;
+    public float[] mY;
+    public float[] mZ;
+
+    /**
+     * set-by: user or {@link #pack}
+     */
+    public float[] mWeight;
+
+    /**
+     * set-by: library on each layout step
+     */
+    public float[] mForceX;
+    public float[] mForceY;
+    public float[] mForceZ;
+
+    /**
+     * CSR adjacency offsets. Length is at least {@code mVertNo + 1}.
+     */
+    public int[] mAdjStart;
+
+    /**
+     * CSR adjacency targets.
+     */
+    public int[] mAdjVert;
+
+    /**
+     * CSR adjacency weights, matching <code>mAdjVert</code>.
+     */
+    public float[] mAdjWeight;
+
+
+
+    public PackedGraph() {
+        alloc( 0, 0 );
+    }
+
+
+    public PackedGraph( Graph graph ) {
+        pack( graph );
+    }
+
+    /**
+     * Allocates a packed graph with room for the given number of verts and undirected edges.
+     * Arrays are zeroed and {@link #mVerts} entries are null.
+     */
+    public PackedGraph( int vertNo, int edgeNo ) {
+        alloc( vertNo, edgeNo );
+        mVertNo = vertNo;
+        mEdgeNo = edgeNo;
+    }
+
+
+    /**
+     * Replaces contents of this PackedGraph with a copy of {@code graph}. Positions,
+     * weights and edges are copied. Existing arrays are reused when large enough.
+     * <p>
+     * Overwrites mTempDist of each Vert in graph.
+     */
+    public void pack( Graph graph ) {
+        final int vertNo = graph.mVertNo;
+        if( vertNo > MAX_VERT_NO ) {
+            throw new IllegalArgumentException( "Graph too large to pack: " + vertNo + " verts" );
+        }
+
+        // Count adjacency from per-vert lists rather than graph.mEdgeNo to remain
+        // correct for partially constructed graphs.
+        int adjNo = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                adjNo++;
+            }
+        }
+
+        alloc( vertNo, ( adjNo + 1 ) / 2 );
+        mVertNo      = vertNo;
+        mEdgeNo      = adjNo / 2;
+        mCoarseLevel = graph.mCoarseLevel;
+
+        int i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            v.mTempDist = i;
+            mVerts[i]   = v;
+            mX[i]       = v.mX;
+            mY[i]       = v.mY;
+            mZ[i]       = v.mZ;
+            mWeight[i]  = v.mWeight;
+            i++;
+        }
+        Arrays.fill( mVerts, vertNo, mVerts.length, null );
+
+        int k = 0;
+        for( i = 0; i < vertNo; i++ ) {
+            Vert v = mVerts[i];
+            mAdjStart[i] = k;
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                mAdjVert[k]   = (int)e.other( v ).mTempDist;
+                mAdjWeight[k] = e.mWeight;
+                k++;
+            }
+        }
+        mAdjStart[vertNo] = k;
+    }
+
+    /**
+     * Replaces contents of this PackedGraph with a subset of the verts of a graph.
+     * Positions and weights are copied, and only those edges with both endpoints in
+     * the subset are included.
+     * <p>
+     * Overwrites mTempNext and mTempDist of each Vert in subset.
+     *
+     * @param verts  Verts to pack. Each Vert may appear only once.
+     * @param vertNo Number of verts in <code>verts</code> to pack.
+     */
+    public void packSubset( Vert[] verts, int vertNo ) {
+        if( vertNo > MAX_VERT_NO ) {
+            throw new IllegalArgumentException( "Graph too large to pack: " + vertNo + " verts" );
+        }
+
+        // Members are marked with a unique nonce.
+        final Vert member = new Vert();
+        for( int i = 0; i < vertNo; i++ ) {
+            Vert v = verts[i];
+            v.mTempNext = member;
+            v.mTempDist = i;
+        }
+
+        int adjNo = 0;
+        for( int i = 0; i < vertNo; i++ ) {
+            Vert v = verts[i];
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                if( e.other( v ).mTempNext == member ) {
+                    adjNo++;
+                }
+            }
+        }
+
+        alloc( vertNo, ( adjNo + 1 ) / 2 );
+        mVertNo      = vertNo;
+        mEdgeNo      = adjNo / 2;
+        mCoarseLevel = 0;
+
+        int k = 0;
+        for( int i = 0; i < vertNo; i++ ) {
+            Vert v = verts[i];
+            mVerts[i]    = v;
+            mX[i]        = v.mX;
+            mY[i]        = v.mY;
+            mZ[i]        = v.mZ;
+            mWeight[i]   = v.mWeight;
+            mAdjStart[i] = k;
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Vert u = e.other( v );
+                if( u.mTempNext == member ) {
+                    mAdjVert[k]   = (int)u.mTempDist;
+                    mAdjWeight[k] = e.mWeight;
+                    k++;
+                }
+            }
+        }
+        mAdjStart[vertNo] = k;
+        Arrays.fill( mVerts, vertNo, mVerts.length, null );
+    }
+
+    /**
+     * Replaces contents of this PackedGraph with the verts of {@code graph}, without
+     * any adjacency. Positions and weights are copied and forces are zeroed.
+     * This is cheaper than {@link #pack(Graph)} and does not modify the Verts.
+     */
+    public void packVerts( Graph graph ) {
+        final int vertNo = graph.mVertNo;
+        alloc( vertNo, 0 );
+        mVertNo      = vertNo;
+        mEdgeNo      = 0;
+        mCoarseLevel = graph.mCoarseLevel;
+
+        int i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            mVerts[i]  = v;
+            mX[i]      = v.mX;
+            mY[i]      = v.mY;
+            mZ[i]      = v.mZ;
+            mWeight[i] = v.mWeight;
+            mAdjStart[i] = 0;
+            i++;
+        }
+        mAdjStart[vertNo] = 0;
+
+        Arrays.fill( mForceX, 0, vertNo, 0f );
+        Arrays.fill( mForceY, 0, vertNo, 0f );
+        Arrays.fill( mForceZ, 0, vertNo, 0f );
+    }
+
+    /**
+     * Copies positions and weights from source Verts into packed arrays.
+     */
+    public void readPositions() {
+        final Vert[] verts = mVerts;
+        for( int i = 0; i < mVertNo; i++ ) {
+            Vert v = verts[i];
+            mX[i] = v.mX;
+            mY[i] = v.mY;
+            mZ[i] = v.mZ;
+            mWeight[i] = v.mWeight;
+        }
+    }
+
+    /**
+     * Copies packed positions and forces back to source Verts.
+     */
+    public void writePositions() {
+        final Vert[] verts = mVerts;
+        for( int i = 0; i < mVertNo; i++ ) {
+            Vert v = verts[i];
+            v.mX = mX[i];
+            v.mY = mY[i];
+            v.mZ = mZ[i];
+            v.mForceX = mForceX[i];
+            v.mForceY = mForceY[i];
+            v.mForceZ = mForceZ[i];
+        }
+    }
+
+    /**
+     * Creates a new linked-list Graph from this packed graph. New Vert and Edge objects are
+     * allocated, and {@link #mVerts} is updated to point at them so that subsequent calls
+     * to {@link #writePositions()} target the new graph.
+     *
+     * @return new Graph with same positions, weights and edges as this packed graph.
+     */
+    public Graph unpack() {
+        final int vertNo = mVertNo;
+        if( mVerts == null || mVerts.length < vertNo ) {
+            mVerts = new Vert[ mX.length ];
+        }
+
+        Graph ret = new Graph();
+        ret.mCoarseLevel = mCoarseLevel;
+
+        for( int i = vertNo - 1; i >= 0; i-- ) {
+            Vert v = new Vert();
+            v.mX = mX[i];
+            v.mY = mY[i];
+            v.mZ = mZ[i];
+            v.mWeight = mWeight[i];
+            mVerts[i] = v;
+            ret.addVert( v );
+        }
+
+        for( int i = 0; i < vertNo; i++ ) {
+            for( int k = mAdjStart[i]; k < mAdjStart[i+1]; k++ ) {
+                int j = mAdjVert[k];
+                if( j > i ) {
+                    ret.connect( mVerts[i], mVerts[j], mAdjWeight[k] );
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Ensures capacity for the given number of verts and undirected edges.
+     * Contents of arrays are not preserved when they are reallocated.
+     */
+    public void alloc( int vertNo, int edgeNo ) {
+        if( mX == null || mX.length < vertNo ) {
+            int cap = vertNo + ( vertNo >> 3 );
+            mVerts   = new Vert[cap];
+            mX       = new float[cap];
+            mY       = new float[cap];
+            mZ       = new float[cap];
+            mWeight  = new float[cap];
+            mForceX  = new float[cap];
+            mForceY  = new float[cap];
+            mForceZ  = new float[cap];
+            mAdjStart = new int[cap + 1];
+        }
+
+        int adjNo = edgeNo * 2;
+        if( mAdjVert == null || mAdjVert.length < adjNo ) {
+            int cap = adjNo + ( adjNo >> 3 );
+            mAdjVert   = new int[cap];
+            mAdjWeight = new float[cap];
+        }
+    }
+
+}
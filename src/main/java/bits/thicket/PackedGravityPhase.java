@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Packed version of {@link GravityPhase}. Initializes the force of each vert
+ * with gravitational attraction and computes the bounds of the graph.
+ *
+ * @author decamp
+ */
+class PackedGravityPhase implements PackedSolverPhase {
+
+    private static final float EPS = 0x0.000002P-60f;
+
+    private float mX;
+    private float mY;
+    private float mZ;
+    private float mForce;
+    private int mDim;
+    private final float[] mBounds = new float[6];
+
+
+    PackedGravityPhase() {}
+
+
+    @Override
+    public void init( LayoutParams params, PackedGraph graph ) {
+        mDim   = params.mDim;
+        mX     = params.mGravityCenter[0];
+        mY     = params.mGravityCenter[1];
+        mZ     = params.mGravityCenter[2];
+        mForce = params.mGravityForce > 0f ? params.mGravityForce : 0f;
+    }
+
+
+    @Override
+    public void step( LayoutParams params, PackedGraph graph ) {
+        if( mDim == 2 ) {
+            step2( graph );
+        } else {
+            step3( graph );
+        }
+    }
+
+
+    @Override
+    public void dispose( LayoutParams params, PackedGraph graph ) {}
+
+
+    public void graphBounds( float[] outBounds ) {
+        System.arraycopy( mBounds, 0, outBounds, 0, mDim * 2 );
+    }
+
+
+
+    private void step2( PackedGraph graph ) {
+        final int n = graph.mVertNo;
+        final float[] bounds = mBounds;
+
+        if( n == 0 ) {
+            bounds[0] = mX - 0.5f;
+            bounds[1] = mY - 0.5f;
+            bounds[2] = mX + 0.5f;
+            bounds[3] = mY + 0.5f;
+            return;
+        }
+
+        final float[] xs = graph.mX;
+        final float[] ys = graph.mY;
+        final float[] ws = graph.mWeight;
+        final float[] fx = graph.mForceX;
+        final float[] fy = graph.mForceY;
+        final float gx = mX;
+        final float gy = mY;
+        final float gf = mForce;
+
+        float x0 = xs[0];
+        float x1 = x0;
+        float y0 = ys[0];
+        float y1 = y0;
+
+        for( int i = 0; i < n; i++ ) {
+            float x = xs[i];
+            float y = ys[i];
+            if(      x < x0 ) x0 = x;
+            else if( x > x1 ) x1 = x;
+            if(      y < y0 ) y0 = y;
+            else if( y > y1 ) y1 = y;
+
+            float dx = gx - x;
+            float dy = gy - y;
+            float scale = gf * ws[i] / ( (float)Math.sqrt( dx * dx + dy * dy ) + EPS );
+            fx[i] = scale * dx;
+            fy[i] = scale * dy;
+        }
+
+        bounds[0] = x0;
+        bounds[1] = y0;
+        bounds[2] = x1;
+        bounds[3] = y1;
+    }
+
+
+    private void step3( PackedGraph graph ) {
+        final int n = graph.mVertNo;
+        final float[] bounds = mBounds;
+
+        if( n == 0 ) {
+            bounds[0] = mX - 0.5f;
+            bounds[1] = mY - 0.5f;
+            bounds[2] = mZ - 0.5f;
+            bounds[3] = mX + 0.5f;
+            bounds[4] = mY + 0.5f;
+            bounds[5] = mZ + 0.5f;
+            return;
+        }
+
+        final float[] xs = graph.mX;
+        final float[] ys = graph.mY;
+        final float[] zs = graph.mZ;
+        final float[] ws = graph.mWeight;
+        final float[] fx = graph.mForceX;
+        final float[] fy = graph.mForceY;
+        final float[] fz = graph.mForceZ;
+        final float gx = mX;
+        final float gy = mY;
+        final float gz = mZ;
+        final float gf = mForce;
+
+        float x0 = xs[0];
+        float x1 = x0;
+        float y0 = ys[0];
+        float y1 = y0;
+        float z0 = zs[0];
+        float z1 = z0;
+
+        for( int i = 0; i < n; i++ ) {
+            float x = xs[i];
+            float y = ys[i];
+            float z = zs[i];
+            if(      x < x0 ) x0 = x;
+            else if( x > x1 ) x1 = x;
+            if(      y < y0 ) y0 = y;
+            else if( y > y1 ) y1 = y;
+            if(      z < z0 ) z0 = z;
+            else if( z > z1 ) z1 = z;
+
+            float dx = gx - x;
+            float dy = gy - y;
+            float dz = gz - z;
+            float scale = gf * ws[i] / ( (float)Math.sqrt( dx * dx + dy * dy + dz * dz ) + EPS );
+            fx[i] = scale * dx;
+            fy[i] = scale * dy;
+            fz[i] = scale * dz;
+        }
+
+        bounds[0] = x0;
+        bounds[1] = y0;
+        bounds[2] = z0;
+        bounds[3] = x1;
+        bounds[4] = y1;
+        bounds[5] = z1;
+    }
+
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Packed version of {@link RepulsePhaseBarnesHut}. Builds a {@link PackedTree} over
+ * the graph each step and walks it once per vert. Distant cells are accepted and
+ * applied exactly as in RepulsePhaseBarnesHut, so both phases produce the same
+ * forces for the same tree depth, up to rounding. Leaves are evaluated with the
+ * batched {@link ForceKernels} over the tree-ordered copies of vert positions.
+ * <p>
+ * Honors {@link LayoutParams#mThreadNo} in the same way as RepulsePhaseBarnesHut.
+ * If {@link LayoutParams#mRepulseMortonBuild} is set, the tree is built from sorted
+ * Morton keys on the same worker pool used for traversal.
+ *
+ * @author decamp
+ */
+class PackedRepulsePhase implements PackedSolverPhase {
+
+    private static final float EPS = 0x0.000002P-60f;
+    private static final float FORCE_COST_FACTOR = 4.0f;
+    private static final int MIN_BLOCK_SIZE = 64;
+    private static final int BLOCKS_PER_THREAD = 16;
+
+    private int mDim;
+    private RepulseEq mEq;
+    private float mCoeff;
+    private float mApproxThreshSq;
+    private boolean mMortonBuild;
+    private SolverStats mStats;
+
+    private final PackedTree mTree = new PackedTree();
+    private final DepthTuner mTuner = new DepthTuner();
+    private final float[] mWork = new float[3];
+
+    private final AtomicInteger mCursor = new AtomicInteger( 0 );
+    private Traversal mSerial;
+    private WorkerPool mPool;
+    private Traversal[] mWorkers;
+
+
+    @Override
+    public void init( LayoutParams params, PackedGraph graph ) {
+        RepulseEq eq = params.mRepulseEq;
+        if( eq == null ) {
+            eq = RepulseEq.INV_LINEAR_DIST;
+        }
+
+        mDim   = params.mDim;
+        mEq    = eq;
+        mCoeff = coeff( eq, params );
+        mApproxThreshSq = params.mRepulseApproxThresh * params.mRepulseApproxThresh;
+        mMortonBuild    = params.mRepulseMortonBuild;
+        mStats          = params.mStats;
+        mTuner.init( params.mRepulseApproxMaxTreeDepth );
+
+        mSerial = new Traversal( this );
+        mPool   = WorkerPool.reuse( mPool, WorkerPool.threadCount( params ) );
+        if( mPool == null ) {
+            mWorkers = null;
+        } else {
+            mWorkers = new Traversal[ mPool.threadNo() ];
+            for( int i = 0; i < mWorkers.length; i++ ) {
+                mWorkers[i] = new Traversal( this );
+            }
+        }
+    }
+
+
+    @Override
+    public void step( LayoutParams params, PackedGraph graph ) {
+        step( params, graph, null );
+    }
+
+    /**
+     * @param optGraphBounds Bounds of graph, as computed by {@link PackedGravityPhase#graphBounds}.
+     *                       If null, bounds will be computed from the graph.
+     */
+    public void step( LayoutParams params, PackedGraph graph, float[] optGraphBounds ) {
+        final int dim = mDim;
+        final int n   = graph.mVertNo;
+
+        float[] cent = null;
+        float size = 0f;
+        if( optGraphBounds != null ) {
+            cent = mWork;
+            for( int i = 0; i < dim; i++ ) {
+                cent[i] = ( optGraphBounds[i] + optGraphBounds[i+dim] ) * 0.5f;
+                size = Math.max( size, optGraphBounds[i+dim] - optGraphBounds[i] );
+            }
+        }
+
+        final SolverStats stats = mStats;
+        final long t0 = stats == null ? 0L : System.nanoTime();
+
+        if( mMortonBuild ) {
+            mTree.rebuildMorton( graph, dim, mTuner.depth(), cent, size, mPool );
+        } else {
+            mTree.rebuild( graph, dim, mTuner.depth(), cent, size );
+        }
+
+        if( stats != null ) {
+            stats.addTree( System.nanoTime() - t0, mTree.mCellNo );
+        }
+
+        long costTraversal = 0;
+        long costForceCalc = 0;
+
+        if( mPool != null && n > MIN_BLOCK_SIZE ) {
+            int block = Math.max( MIN_BLOCK_SIZE, n / ( mWorkers.length * BLOCKS_PER_THREAD ) );
+            mCursor.set( 0 );
+            for( Traversal t: mWorkers ) {
+                t.reset( graph, block );
+            }
+
+            mPool.run( mWorkers, mWorkers.length );
+
+            for( Traversal t: mWorkers ) {
+                costTraversal += t.mCostTraversal;
+                costForceCalc += t.mCostForceCalc;
+                t.mGraph = null;
+            }
+        } else {
+            Traversal t = mSerial;
+            t.reset( graph, n );
+            t.run();
+            costTraversal = t.mCostTraversal;
+            costForceCalc = t.mCostForceCalc;
+            t.mGraph = null;
+        }
+
+        if( stats != null ) {
+            stats.addTraversal( costTraversal, costForceCalc );
+        }
+        mTuner.update( costTraversal + FORCE_COST_FACTOR * costForceCalc );
+    }
+
+
+    @Override
+    public void dispose( LayoutParams params, PackedGraph graph ) {
+        if( mPool != null ) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mWorkers = null;
+    }
+
+    /**
+     * @return coefficient applied to vert weight, matching {@link RepulseFunc} implementations.
+     */
+    static float coeff( RepulseEq eq, LayoutParams params ) {
+        if( eq == RepulseEq.INV_SQUARE_DIST ) {
+            return -RepulseFunc.REPULSE_FACTOR * params.mScale * params.mScale;
+        }
+        return -RepulseFunc.REPULSE_FACTOR * params.mScale;
+    }
+
+    /**
+     * Computes repulsion magnitude. Force on target is <code>mag * ( source - target )</code>.
+     *
+     * @param eq     Repulsion equation.
+     * @param dim    Dimensionality.
+     * @param wCoeff Weight of source multiplied by {@link #coeff}.
+     * @param distSq Squared distance between source and target.
+     */
+    static float magnitude( RepulseEq eq, int dim, float wCoeff, float distSq ) {
+        switch( eq ) {
+        case INV_LOG_DIST:
+        {
+            double dd = Math.sqrt( distSq );
+            return wCoeff / ( (float)( dd * Math.log( 1.0 + dd ) ) + EPS );
+        }
+        case INV_SQUARE_DIST:
+            return wCoeff / ( (float)Math.sqrt( distSq ) * distSq + EPS );
+        case INV_LINEAR_DIST:
+        default:
+            if( dim == 2 ) {
+                return wCoeff / ( distSq + EPS );
+            }
+            return wCoeff / ( (float)Math.sqrt( distSq ) + EPS );
+        }
+    }
+
+
+
+    private static final class Traversal implements Runnable {
+
+        private final PackedRepulsePhase mPhase;
+        private final float[] mAcc = new float[3];
+
+        PackedGraph mGraph;
+        int mBlockSize;
+        long mCostTraversal;
+        long mCostForceCalc;
+
+
+        Traversal( PackedRepulsePhase phase ) {
+            mPhase = phase;
+        }
+
+
+        void reset( PackedGraph graph, int blockSize ) {
+            mGraph = graph;
+            mBlockSize = blockSize;
+            mCostTraversal = 0;
+            mCostForceCalc = 0;
+        }
+
+
+        public void run() {
+            final int n = mGraph.mVertNo;
+
+            if( mBlockSize >= n ) {
+                apply( 0, n );
+                return;
+            }
+
+            while( true ) {
+                int start = mPhase.mCursor.getAndAdd( mBlockSize );
+                if( start >= n ) {
+                    return;
+                }
+                apply( start, Math.min( n, start + mBlockSize ) );
+            }
+        }
+
+
+        private void apply( int start, int end ) {
+            if( mPhase.mDim == 2 ) {
+                for( int i = start; i < end; i++ ) {
+                    apply2( i );
+                }
+            } else {
+                for( int i = start; i < end; i++ ) {
+                    apply3( i );
+                }
+            }
+        }
+
+
+        private void apply2( int i ) {
+            final PackedTree tree = mPhase.mTree;
+            final RepulseEq eq    = mPhase.mEq;
+            final float coeff     = mPhase.mCoeff;
+            final float thresh    = mPhase.mApproxThreshSq;
+            final float[] sx      = tree.mSortX;
+            final float[] sy      = tree.mSortY;
+            final float[] sw      = tree.mSortW;
+            final int[] skip      = tree.mSkip;
+            final int cellNo      = tree.mCellNo;
+            final float[] acc     = mAcc;
+
+            final float x = mGraph.mX[i];
+            final float y = mGraph.mY[i];
+            float fx = 0f;
+            float fy = 0f;
+            acc[0] = 0f;
+            acc[1] = 0f;
+            long traversal = 0;
+            long forceCalc = 0;
+
+            int c = 0;
+            while( c < cellNo ) {
+                traversal++;
+                float dx   = tree.mCellX[c] - x;
+                float dy   = tree.mCellY[c] - y;
+                float half = tree.mHalfSize[c];
+
+                // Check if cell is far away.
+                if( 4.0f * half * half < thresh * ( dx * dx + dy * dy ) ) {
+                    forceCalc++;
+                    // Approximate cell as a single vert at its center of gravity.
+                    dx = tree.mMeanX[c] - x;
+                    dy = tree.mMeanY[c] - y;
+                    float mag = magnitude( eq, 2, coeff * tree.mWeight[c], dx * dx + dy * dy );
+                    fx += mag * dx;
+                    fy += mag * dy;
+                    c = skip[c];
+                    continue;
+                }
+
+                // Check if cell is leaf.
+                if( skip[c] == c + 1 ) {
+                    int start = tree.mStart[c];
+                    int end   = tree.mEnd[c];
+                    forceCalc += end - start;
+                    ForceKernels.repulse2( eq, coeff, x, y, sx, sy, sw, start, end, acc );
+                }
+
+                c++;
+            }
+
+            mGraph.mForceX[i] += fx + acc[0];
+            mGraph.mForceY[i] += fy + acc[1];
+            mCostTraversal += traversal;
+            mCostForceCalc += forceCalc;
+        }
+
+
+        private void apply3( int i ) {
+            final PackedTree tree = mPhase.mTree;
+            final RepulseEq eq    = mPhase.mEq;
+            final float coeff     = mPhase.mCoeff;
+            final float thresh    = mPhase.mApproxThreshSq;
+            final float[] sx      = tree.mSortX;
+            final float[] sy      = tree.mSortY;
+            final float[] sz      = tree.mSortZ;
+            final float[] sw      = tree.mSortW;
+            final int[] skip      = tree.mSkip;
+            final int cellNo      = tree.mCellNo;
+            final float[] acc     = mAcc;
+
+            final float x = mGraph.mX[i];
+            final float y = mGraph.mY[i];
+            final float z = mGraph.mZ[i];
+            float fx = 0f;
+            float fy = 0f;
+            float fz = 0f;
+            acc[0] = 0f;
+            acc[1] = 0f;
+            acc[2] = 0f;
+            long traversal = 0;
+            long forceCalc = 0;
+
+            int c = 0;
+            while( c < cellNo ) {
+                traversal++;
+                float dx   = tree.mCellX[c] - x;
+                float dy   = tree.mCellY[c] - y;
+                float dz   = tree.mCellZ[c] - z;
+                float half = tree.mHalfSize[c];
+
+                // Check if cell is far away.
+                if( 4.0f * half * half < thresh * ( dx * dx + dy * dy + dz * dz ) ) {
+                    forceCalc++;
+                    // Approximate cell as a single vert at its center of gravity.
+                    dx = tree.mMeanX[c] - x;
+                    dy = tree.mMeanY[c] - y;
+                    dz = tree.mMeanZ[c] - z;
+                    float mag = magnitude( eq, 3, coeff * tree.mWeight[c], dx * dx + dy * dy + dz * dz );
+                    fx += mag * dx;
+                    fy += mag * dy;
+                    fz += mag * dz;
+                    c = skip[c];
+                    continue;
+                }
+
+                // Check if cell is leaf.
+                if( skip[c] == c + 1 ) {
+                    int start = tree.mStart[c];
+                    int end   = tree.mEnd[c];
+                    forceCalc += end - start;
+                    ForceKernels.repulse3( eq, coeff, x, y, z, sx, sy, sz, sw, start, end, acc );
+                }
+
+                c++;
+            }
+
+            mGraph.mForceX[i] += fx + acc[0];
+            mGraph.mForceY[i] += fy + acc[1];
+            mGraph.mForceZ[i] += fz + acc[2];
+            mCostTraversal += traversal;
+            mCostForceCalc += forceCalc;
+        }
+
+    }
+
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+/**
+ * Counterpart of {@link SolverPhase} that operates on a {@link PackedGraph}.
+ *
+ * @author decamp
+ */
+public interface PackedSolverPhase {
+    public void init( LayoutParams params, PackedGraph graph );
+    public void step( LayoutParams params, PackedGraph graph );
+    public void dispose( LayoutParams params, PackedGraph graph );
+}
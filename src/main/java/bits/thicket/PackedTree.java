@@ -0,0 +1,702 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+
+
+/**
+ * Quadtree (2D) or octree (3D) stored in parallel primitive arrays.
+ * <p>
+ * Cells are laid out depth-first: the first child of an internal cell {@code c}
+ * is {@code c + 1}, and {@code mSkip[c]} is the index of the first cell after
+ * the subtree of {@code c}. A cell is a leaf iff {@code mSkip[c] == c + 1}.
+ * Vertex indices are stored in {@code mOrder} such that the verts of every cell,
+ * leaf or not, occupy the contiguous range {@code [ mStart[c], mEnd[c] )}.
+ * <p>
+ * This allows a complete Barnes-Hut traversal to be performed with a single
+ * forward scan and no stack:
+ * <pre>
+ * int c = 0;
+ * while( c &lt; mCellNo ) {
+ *     if( accept( c ) || isLeaf( c ) ) { ...; c = mSkip[c]; } else { c++; }
+ * }
+ * </pre>
+ * <p>
+ * Two builds are available that produce the same layout. {@link #rebuild} partitions
+ * verts recursively from the root. {@link #rebuildMorton} quantizes each vert to a
+ * Morton (Z-order) key whose digits are the child indices along its path, sorts
+ * the keys with a parallel radix sort, and then emits all cells in one pass over
+ * the sorted keys, opening cells as key prefixes diverge and closing them, with
+ * their masses, bottom-up.
+ *
+ * @author decamp
+ */
+final class PackedTree {
+
+    /**
+     * Deepest tree that {@link #rebuildMorton} can build, limited by the bits in a long key.
+     */
+    static final int MORTON_MAX_DEPTH_2 = 31;
+    static final int MORTON_MAX_DEPTH_3 = 21;
+
+    int mDim;
+    int mCellNo;
+
+    // Geometric center of cell.
+    float[] mCellX;
+    float[] mCellY;
+    float[] mCellZ;
+
+    // Half-size of cell on any dimension.
+    float[] mHalfSize;
+
+    // Weighted mean position of verts in cell.
+    float[] mMeanX;
+    float[] mMeanY;
+    float[] mMeanZ;
+
+    // Total weight of verts in cell.
+    float[] mWeight;
+
+    // Index of first cell after subtree.
+    int[] mSkip;
+
+    // Range of cell's verts in mOrder.
+    int[] mStart;
+    int[] mEnd;
+
+    // Vert indices in depth-first cell order.
+    int[] mOrder = new int[0];
+
+    // Vert positions and weights in mOrder order, so the verts of any cell are contiguous.
+    float[] mSortX = new float[0];
+    float[] mSortY = new float[0];
+    float[] mSortZ = new float[0];
+    float[] mSortW = new float[0];
+
+    private int[] mScratch = new int[0];
+    private int[][] mOffsets = new int[0][];
+    private int mMaxDepth;
+    private final float[] mWork = new float[6];
+    private final float[] mRoot = new float[4];
+
+    // Position arrays of current build.
+    private float[] mXs;
+    private float[] mYs;
+    private float[] mZs;
+    private float[] mWs;
+
+    // Morton build state.
+    private long[] mKeys = new long[0];
+    private final RadixSort mSort = new RadixSort();
+    private KeyTask[] mKeyTasks = new KeyTask[0];
+    private int[] mOpen    = new int[0];
+    private float[] mAccW  = new float[0];
+    private float[] mAccX  = new float[0];
+    private float[] mAccY  = new float[0];
+    private float[] mAccZ  = new float[0];
+
+
+    PackedTree() {
+        allocCells( 16 );
+    }
+
+    /**
+     * Clears tree and populates it with verts of a packed graph.
+     *
+     * @param g          Graph to index.
+     * @param dim        Dimensionality; 2 or 3.
+     * @param maxDepth   Max depth of tree cells.
+     * @param optCenter  Center of root cell. If null, the center and size are inferred from vert positions.
+     * @param optSize    Size of root cell, if {@code optCenter != null}.
+     */
+    void rebuild( PackedGraph g, int dim, int maxDepth, float[] optCenter, float optSize ) {
+        rebuild( g.mX, g.mY, g.mZ, g.mWeight, g.mVertNo, dim, maxDepth, optCenter, optSize );
+    }
+
+    /**
+     * Clears tree and populates it with a set of weighted points.
+     */
+    void rebuild( float[] xs, float[] ys, float[] zs, float[] ws, int n,
+                  int dim, int maxDepth, float[] optCenter, float optSize )
+    {
+        mDim      = dim;
+        mCellNo   = 0;
+        mMaxDepth = maxDepth < 0 ? 0 : maxDepth;
+        if( n == 0 ) {
+            return;
+        }
+
+        mXs = xs;
+        mYs = ys;
+        mZs = zs;
+        mWs = ws;
+
+        if( mOrder.length < n ) {
+            mOrder   = new int[ n + ( n >> 3 ) ];
+            mScratch = new int[ mOrder.length ];
+        }
+        for( int i = 0; i < n; i++ ) {
+            mOrder[i] = i;
+        }
+
+        if( mOffsets.length < mMaxDepth + 1 ) {
+            mOffsets = new int[ mMaxDepth + 1 ][ 18 ];
+        }
+
+        final float[] root = mRoot;
+        computeRoot( n, optCenter, optSize, root );
+        build_r( 0, n, root[0], root[1], root[2], root[3], 0 );
+        gatherSorted( n );
+
+        mXs = null;
+        mYs = null;
+        mZs = null;
+        mWs = null;
+    }
+
+    /**
+     * Morton-order build of a packed graph.
+     *
+     * @see #rebuildMorton(float[], float[], float[], float[], int, int, int, float[], float, WorkerPool)
+     */
+    void rebuildMorton( PackedGraph g, int dim, int maxDepth, float[] optCenter, float optSize, WorkerPool optPool ) {
+        rebuildMorton( g.mX, g.mY, g.mZ, g.mWeight, g.mVertNo, dim, maxDepth, optCenter, optSize, optPool );
+    }
+
+    /**
+     * Clears tree and populates it with a set of weighted points using Morton-order
+     * construction. The resulting tree is the same as that produced by {@link #rebuild},
+     * except that depth is limited to {@link #MORTON_MAX_DEPTH_2} or {@link #MORTON_MAX_DEPTH_3},
+     * and points lying within rounding error of a cell boundary may fall on the other side.
+     *
+     * @param optPool Pool used to compute and sort keys, or null to build on the calling thread.
+     */
+    void rebuildMorton( float[] xs, float[] ys, float[] zs, float[] ws, int n,
+                        int dim, int maxDepth, float[] optCenter, float optSize,
+                        WorkerPool optPool )
+    {
+        final int levels = Math.min( maxDepth < 0 ? 0 : maxDepth, dim == 3 ? MORTON_MAX_DEPTH_3 : MORTON_MAX_DEPTH_2 );
+        mDim      = dim;
+        mCellNo   = 0;
+        mMaxDepth = levels;
+        if( n == 0 ) {
+            return;
+        }
+
+        mXs = xs;
+        mYs = ys;
+        mZs = zs;
+        mWs = ws;
+
+        if( mOrder.length < n ) {
+            mOrder   = new int[ n + ( n >> 3 ) ];
+            mScratch = new int[ mOrder.length ];
+        }
+        if( mKeys.length < n ) {
+            mKeys = new long[ mOrder.length ];
+        }
+        if( mOpen.length < levels + 1 ) {
+            mOpen = new int[ levels + 1 ];
+            mAccW = new float[ levels + 1 ];
+            mAccX = new float[ levels + 1 ];
+            mAccY = new float[ levels + 1 ];
+            mAccZ = new float[ levels + 1 ];
+        }
+
+        final float[] root = mRoot;
+        computeRoot( n, optCenter, optSize, root );
+
+        // Quantize positions to keys.
+        final int taskNo = optPool != null && n >= RadixSort.PARALLEL_MIN_SIZE ? optPool.threadNo() : 1;
+        if( mKeyTasks.length < taskNo ) {
+            mKeyTasks = new KeyTask[ taskNo ];
+            for( int i = 0; i < taskNo; i++ ) {
+                mKeyTasks[i] = new KeyTask( this );
+            }
+        }
+
+        final float half   = root[3];
+        final double scale = half > 0f ? (double)( 1L << levels ) / ( 2.0 * half ) : 0.0;
+        for( int i = 0; i < taskNo; i++ ) {
+            KeyTask t = mKeyTasks[i];
+            t.mStart  = (int)( (long)n * i / taskNo );
+            t.mEnd    = (int)( (long)n * ( i + 1 ) / taskNo );
+            t.mLevels = levels;
+            t.mX0     = root[0] - half;
+            t.mY0     = root[1] - half;
+            t.mZ0     = root[2] - half;
+            t.mScale  = scale;
+        }
+        if( taskNo == 1 ) {
+            mKeyTasks[0].run();
+        } else {
+            optPool.run( mKeyTasks, taskNo );
+        }
+
+        mSort.sort( mKeys, mOrder, n, dim * levels, optPool );
+        emitMorton( n, levels, root[0], root[1], root[2], half );
+        gatherSorted( n );
+
+        mXs = null;
+        mYs = null;
+        mZs = null;
+        mWs = null;
+    }
+
+
+    /**
+     * Updates tree after its points have moved, without changing its structure. Copies
+     * current positions and weights into tree order and recomputes the weight and
+     * weighted mean of every cell from its members. Geometric cell bounds are not
+     * changed, so points may lie outside their cells afterward.
+     * <p>
+     * Points must be the same, and have the same indices, as when the tree was built.
+     */
+    void refreshMoments( float[] xs, float[] ys, float[] zs, float[] ws ) {
+        if( mCellNo == 0 ) {
+            return;
+        }
+
+        mXs = xs;
+        mYs = ys;
+        mZs = zs;
+        mWs = ws;
+        gatherSorted( mEnd[0] );
+        mXs = null;
+        mYs = null;
+        mZs = null;
+        mWs = null;
+
+        // Children always follow their parents, so a reverse scan sees every child first.
+        for( int c = mCellNo - 1; c >= 0; c-- ) {
+            float w = 0f, mx = 0f, my = 0f, mz = 0f;
+            if( mSkip[c] == c + 1 ) {
+                for( int k = mStart[c]; k < mEnd[c]; k++ ) {
+                    float vw = mSortW[k];
+                    w  += vw;
+                    mx += vw * mSortX[k];
+                    my += vw * mSortY[k];
+                    mz += vw * mSortZ[k];
+                }
+            } else {
+                for( int ch = c + 1; ch < mSkip[c]; ch = mSkip[ch] ) {
+                    float cw = mWeight[ch];
+                    w  += cw;
+                    mx += cw * mMeanX[ch];
+                    my += cw * mMeanY[ch];
+                    mz += cw * mMeanZ[ch];
+                }
+            }
+            finishCell( c, w, mx, my, mz );
+        }
+    }
+
+
+    boolean isLeaf( int cell ) {
+        return mSkip[cell] == cell + 1;
+    }
+
+
+    int childIndexFor( int cell, float x, float y, float z ) {
+        int idx = ( x < mCellX[cell] ? 0 : 1 ) +
+                  ( y < mCellY[cell] ? 0 : 2 );
+        if( mDim == 3 && z >= mCellZ[cell] ) {
+            idx += 4;
+        }
+        return idx;
+    }
+
+
+
+    private int build_r( int start, int end, float cx, float cy, float cz, float half, int depth ) {
+        final int cell = allocCell();
+        mCellX[cell]    = cx;
+        mCellY[cell]    = cy;
+        mCellZ[cell]    = cz;
+        mHalfSize[cell] = half;
+        mStart[cell]    = start;
+        mEnd[cell]      = end;
+
+        final int[] order = mOrder;
+
+        if( end - start <= 1 || depth >= mMaxDepth ) {
+            float w = 0f, mx = 0f, my = 0f, mz = 0f;
+            for( int k = start; k < end; k++ ) {
+                int i = order[k];
+                float vw = mWs[i];
+                w  += vw;
+                mx += vw * mXs[i];
+                my += vw * mYs[i];
+                mz += vw * mZs[i];
+            }
+            finishCell( cell, w, mx, my, mz );
+            mSkip[cell] = cell + 1;
+            return cell;
+        }
+
+        // Counting sort of range by child index.
+        final int childNo = mDim == 3 ? 8 : 4;
+        final int[] off   = mOffsets[depth];
+        final int[] tmp   = mScratch;
+        Arrays.fill( off, 0, childNo + 1, 0 );
+
+        for( int k = start; k < end; k++ ) {
+            off[ childIndex( order[k], cx, cy, cz ) + 1 ]++;
+        }
+
+        off[0] = start;
+        for( int b = 0; b < childNo; b++ ) {
+            off[b+1] += off[b];
+            off[9+b] = off[b];
+        }
+
+        for( int k = start; k < end; k++ ) {
+            int i = order[k];
+            tmp[ off[ 9 + childIndex( i, cx, cy, cz ) ]++ ] = i;
+        }
+        System.arraycopy( tmp, start, order, start, end - start );
+
+        float w = 0f, mx = 0f, my = 0f, mz = 0f;
+        final float h = half * 0.5f;
+
+        for( int b = 0; b < childNo; b++ ) {
+            int s = off[b];
+            int e = off[b+1];
+            if( s == e ) {
+                continue;
+            }
+
+            int child = build_r( s,
+                                 e,
+                                 cx + ( ( b << 1 & 0x2 ) - 1 ) * h,
+                                 cy + ( ( b      & 0x2 ) - 1 ) * h,
+                                 cz + ( ( b >> 1 & 0x2 ) - 1 ) * h,
+                                 h,
+                                 depth + 1 );
+
+            float cw = mWeight[child];
+            w  += cw;
+            mx += cw * mMeanX[child];
+            my += cw * mMeanY[child];
+            mz += cw * mMeanZ[child];
+        }
+
+        finishCell( cell, w, mx, my, mz );
+        mSkip[cell] = mCellNo;
+        return cell;
+    }
+
+
+    /**
+     * Emits cells in depth-first order from sorted keys. For each vert, the number of
+     * leading key digits shared with its neighbors determines which cells close before
+     * it and the depth of the leaf that holds it. Open cells accumulate mass and pass it
+     * to their parent when closed.
+     */
+    private void emitMorton( int n, int levels, float cx, float cy, float cz, float half ) {
+        final long[] keys = mKeys;
+        final int[] order = mOrder;
+        final int[] open  = mOpen;
+        final int dim     = mDim;
+        final int mask    = ( 1 << dim ) - 1;
+
+        int top = -1;
+        int lcpPrev = -1;
+
+        for( int k = 0; k < n; k++ ) {
+            final long key  = keys[k];
+            final int lcpNext = k + 1 < n ? commonLevels( key, keys[k+1], dim, levels ) : -1;
+
+            while( top > lcpPrev ) {
+                closeCell( top--, k );
+            }
+
+            final int leaf = Math.min( levels, Math.max( lcpPrev, lcpNext ) + 1 );
+            while( top < leaf ) {
+                final int cell = allocCell();
+                top++;
+                if( top == 0 ) {
+                    mCellX[cell]    = cx;
+                    mCellY[cell]    = cy;
+                    mCellZ[cell]    = cz;
+                    mHalfSize[cell] = half;
+                } else {
+                    final int parent = open[top-1];
+                    final int b   = (int)( key >>> ( dim * ( levels - top ) ) ) & mask;
+                    final float h = mHalfSize[parent] * 0.5f;
+                    mCellX[cell]    = mCellX[parent] + ( ( b << 1 & 0x2 ) - 1 ) * h;
+                    mCellY[cell]    = mCellY[parent] + ( ( b      & 0x2 ) - 1 ) * h;
+                    mCellZ[cell]    = mCellZ[parent] + ( ( b >> 1 & 0x2 ) - 1 ) * h;
+                    mHalfSize[cell] = h;
+                }
+                mStart[cell] = k;
+                open[top]  = cell;
+                mAccW[top] = 0f;
+                mAccX[top] = 0f;
+                mAccY[top] = 0f;
+                mAccZ[top] = 0f;
+            }
+
+            final int i  = order[k];
+            final float w = mWs[i];
+            mAccW[top] += w;
+            mAccX[top] += w * mXs[i];
+            mAccY[top] += w * mYs[i];
+            mAccZ[top] += w * mZs[i];
+
+            lcpPrev = lcpNext;
+        }
+
+        while( top >= 0 ) {
+            closeCell( top--, n );
+        }
+    }
+
+
+    private void closeCell( int depth, int end ) {
+        final int cell = mOpen[depth];
+        mEnd[cell]  = end;
+        mSkip[cell] = mCellNo;
+        finishCell( cell, mAccW[depth], mAccX[depth], mAccY[depth], mAccZ[depth] );
+        if( depth > 0 ) {
+            mAccW[depth-1] += mAccW[depth];
+            mAccX[depth-1] += mAccX[depth];
+            mAccY[depth-1] += mAccY[depth];
+            mAccZ[depth-1] += mAccZ[depth];
+        }
+    }
+
+    /**
+     * Copies positions and weights into mSortX/Y/Z/W in tree order.
+     */
+    private void gatherSorted( int n ) {
+        if( mSortX.length < n ) {
+            int cap = mOrder.length;
+            mSortX = new float[cap];
+            mSortY = new float[cap];
+            mSortZ = new float[cap];
+            mSortW = new float[cap];
+        }
+
+        final int[] order = mOrder;
+        for( int k = 0; k < n; k++ ) {
+            int i = order[k];
+            mSortX[k] = mXs[i];
+            mSortY[k] = mYs[i];
+            mSortZ[k] = mZs[i];
+            mSortW[k] = mWs[i];
+        }
+    }
+
+    /**
+     * @return number of leading digits shared by two keys of {@code levels} digits.
+     */
+    private static int commonLevels( long a, long b, int dim, int levels ) {
+        long x = a ^ b;
+        if( x == 0L ) {
+            return levels;
+        }
+        return levels - 1 - ( 63 - Long.numberOfLeadingZeros( x ) ) / dim;
+    }
+
+    /**
+     * Computes root cell as [ cx, cy, cz, halfSize ].
+     */
+    private void computeRoot( int n, float[] optCenter, float optSize, float[] out ) {
+        if( optCenter != null ) {
+            out[0] = optCenter[0];
+            out[1] = optCenter[1];
+            out[2] = mDim == 3 ? optCenter[2] : 0f;
+            out[3] = optSize * 0.5f;
+            return;
+        }
+
+        float[] box = mWork;
+        computeBounds( mXs, mYs, mZs, n, mDim, box );
+        float size = Math.max( box[3] - box[0], Math.max( box[4] - box[1], box[5] - box[2] ) );
+        out[0] = ( box[0] + box[3] ) * 0.5f;
+        out[1] = ( box[1] + box[4] ) * 0.5f;
+        out[2] = ( box[2] + box[5] ) * 0.5f;
+        out[3] = size * 0.5f;
+    }
+
+
+    private void finishCell( int cell, float w, float mx, float my, float mz ) {
+        mWeight[cell] = w;
+        if( w > 0f ) {
+            float s = 1f / w;
+            mMeanX[cell] = mx * s;
+            mMeanY[cell] = my * s;
+            mMeanZ[cell] = mz * s;
+        } else {
+            mMeanX[cell] = mCellX[cell];
+            mMeanY[cell] = mCellY[cell];
+            mMeanZ[cell] = mCellZ[cell];
+        }
+    }
+
+
+    private int childIndex( int i, float cx, float cy, float cz ) {
+        int idx = ( mXs[i] < cx ? 0 : 1 ) +
+                  ( mYs[i] < cy ? 0 : 2 );
+        if( mDim == 3 && mZs[i] >= cz ) {
+            idx += 4;
+        }
+        return idx;
+    }
+
+
+    private int allocCell() {
+        if( mCellNo == mSkip.length ) {
+            allocCells( mCellNo * 3 / 2 + 1 );
+        }
+        return mCellNo++;
+    }
+
+
+    private void allocCells( int cap ) {
+        if( mSkip == null ) {
+            mCellX    = new float[cap];
+            mCellY    = new float[cap];
+            mCellZ    = new float[cap];
+            mHalfSize = new float[cap];
+            mMeanX    = new float[cap];
+            mMeanY    = new float[cap];
+            mMeanZ    = new float[cap];
+            mWeight   = new float[cap];
+            mSkip     = new int[cap];
+            mStart    = new int[cap];
+            mEnd      = new int[cap];
+            return;
+        }
+
+        mCellX    = Arrays.copyOf( mCellX, cap );
+        mCellY    = Arrays.copyOf( mCellY, cap );
+        mCellZ    = Arrays.copyOf( mCellZ, cap );
+        mHalfSize = Arrays.copyOf( mHalfSize, cap );
+        mMeanX    = Arrays.copyOf( mMeanX, cap );
+        mMeanY    = Arrays.copyOf( mMeanY, cap );
+        mMeanZ    = Arrays.copyOf( mMeanZ, cap );
+        mWeight   = Arrays.copyOf( mWeight, cap );
+        mSkip     = Arrays.copyOf( mSkip, cap );
+        mStart    = Arrays.copyOf( mStart, cap );
+        mEnd      = Arrays.copyOf( mEnd, cap );
+    }
+
+
+    /**
+     * Spreads the low 32 bits of {@code v} to the even bits of a long.
+     */
+    private static long spread2( long v ) {
+        v &= 0xFFFFFFFFL;
+        v = ( v | ( v << 16 ) ) & 0x0000FFFF0000FFFFL;
+        v = ( v | ( v <<  8 ) ) & 0x00FF00FF00FF00FFL;
+        v = ( v | ( v <<  4 ) ) & 0x0F0F0F0F0F0F0F0FL;
+        v = ( v | ( v <<  2 ) ) & 0x3333333333333333L;
+        v = ( v | ( v <<  1 ) ) & 0x5555555555555555L;
+        return v;
+    }
+
+    /**
+     * Spreads the low 21 bits of {@code v} to every third bit of a long.
+     */
+    private static long spread3( long v ) {
+        v &= 0x1FFFFFL;
+        v = ( v | ( v << 32 ) ) & 0x001F00000000FFFFL;
+        v = ( v | ( v << 16 ) ) & 0x001F0000FF0000FFL;
+        v = ( v | ( v <<  8 ) ) & 0x100F00F00F00F00FL;
+        v = ( v | ( v <<  4 ) ) & 0x10C30C30C30C30C3L;
+        v = ( v | ( v <<  2 ) ) & 0x1249249249249249L;
+        return v;
+    }
+
+
+    private static long quantize( float v, float v0, double scale, long max ) {
+        long q = (long)( ( v - v0 ) * scale );
+        return q < 0L ? 0L : q > max ? max : q;
+    }
+
+
+    private static void computeBounds( float[] xs, float[] ys, float[] zs, int n, int dim, float[] out ) {
+        float x0 = xs[0], x1 = x0;
+        float y0 = ys[0], y1 = y0;
+        float z0 = dim == 3 ? zs[0] : 0f, z1 = z0;
+
+        for( int i = 1; i < n; i++ ) {
+            if(      xs[i] < x0 ) x0 = xs[i];
+            else if( xs[i] > x1 ) x1 = xs[i];
+            if(      ys[i] < y0 ) y0 = ys[i];
+            else if( ys[i] > y1 ) y1 = ys[i];
+            if( dim == 3 ) {
+                if(      zs[i] < z0 ) z0 = zs[i];
+                else if( zs[i] > z1 ) z1 = zs[i];
+            }
+        }
+
+        out[0] = x0;
+        out[1] = y0;
+        out[2] = z0;
+        out[3] = x1;
+        out[4] = y1;
+        out[5] = z1;
+    }
+
+
+
+    /**
+     * Computes Morton keys for a range of verts. Bit {@code 0} of each key digit
+     * comes from x, bit 1 from y and bit 2 from z, matching {@link #childIndexFor}.
+     */
+    private static final class KeyTask implements Runnable {
+
+        private final PackedTree mTree;
+
+        int mStart;
+        int mEnd;
+        int mLevels;
+        float mX0;
+        float mY0;
+        float mZ0;
+        double mScale;
+
+
+        KeyTask( PackedTree tree ) {
+            mTree = tree;
+        }
+
+
+        public void run() {
+            final PackedTree t = mTree;
+            final float[] xs   = t.mXs;
+            final float[] ys   = t.mYs;
+            final float[] zs   = t.mZs;
+            final int[] order  = t.mOrder;
+            final long[] keys  = t.mKeys;
+            final long max     = ( 1L << mLevels ) - 1L;
+            final double scale = mScale;
+
+            if( t.mDim == 2 ) {
+                for( int i = mStart; i < mEnd; i++ ) {
+                    order[i] = i;
+                    keys[i]  = spread2( quantize( xs[i], mX0, scale, max ) ) |
+                               spread2( quantize( ys[i], mY0, scale, max ) ) << 1;
+                }
+            } else {
+                for( int i = mStart; i < mEnd; i++ ) {
+                    order[i] = i;
+                    keys[i]  = spread3( quantize( xs[i], mX0, scale, max ) ) |
+                               spread3( quantize( ys[i], mY0, scale, max ) ) << 1 |
+                               spread3( quantize( zs[i], mZ0, scale, max ) ) << 2;
+                }
+            }
+        }
+
+    }
+
+}
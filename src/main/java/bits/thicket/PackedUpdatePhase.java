@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+/**
+ * Counterpart of {@link UpdatePhase} that operates on a {@link PackedGraph}.
+ *
+ * @author decamp
+ */
+public interface PackedUpdatePhase extends PackedSolverPhase {
+    public boolean converged();
+    public double cost();
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Places verts by Pivot MDS (Brandes and Pich, "Eigensolver Methods for Progressive
+ * Multidimensional Scaling of Large Data"). Pivots are chosen by max-min sampling, and
+ * classical MDS is applied to the hop distances between every vert and every pivot.
+ * The result approximates the global shape of a stress-minimizing layout in
+ * O(k * (V + E) + k^2 * V) time for k pivots, and makes a far better starting point for
+ * iterative layout than random positions.
+ * <p>
+ * Verts with identical distances to all pivots, such as the leaves of a star, receive
+ * identical coordinates, so a small amount of noise is added to every position.
+ * Distances between disconnected components are treated as one hop longer than the
+ * longest distance within a component.
+ *
+ * @author decamp
+ */
+public final class PivotMds {
+
+    private static final int MAX_ITERATIONS = 200;
+    private static final double ITERATION_TOL = 1E-9;
+
+    private static final float NOISE = 0.05f;
+
+
+    /**
+     * Overwrites positions of all verts in <code>graph</code>. Uses <code>mDim</code>,
+     * <code>mScale</code>, <code>mGravityCenter</code>, <code>mRand</code> and
+     * <code>mPivotMdsPivots</code> from <code>params</code>. Distances between verts are
+     * approximately <code>mScale</code> times the number of hops between them, and the
+     * layout is centered on <code>mGravityCenter</code>.
+     */
+    public static void layout( LayoutParams params, Graph graph ) {
+        PackedGraph g = new PackedGraph();
+        g.pack( graph );
+        layout( params, g );
+        g.writePositions();
+    }
+
+    /**
+     * Overwrites positions of all verts in packed graph, in the same manner as
+     * {@link #layout(LayoutParams, Graph)}. Does not write positions back to source verts.
+     */
+    public static void layout( LayoutParams params, PackedGraph g ) {
+        final int dim = params.mDim;
+        if( dim != 2 && dim != 3 ) {
+            throw new IllegalArgumentException( "LayoutParams.mDim = " + dim );
+        }
+
+        final int n = g.mVertNo;
+        if( n == 0 ) {
+            return;
+        }
+
+        final Random rand = params.mRand != null ? params.mRand : new Random();
+        final int k = Math.max( 1, Math.min( params.mPivotMdsPivots, n ) );
+        final int[] pivots = new int[k];
+        final int[] dist   = new int[k * n];
+        Graphs.selectPivots( g, k, rand, pivots, dist );
+
+        // Unreachable verts are placed one hop beyond the furthest reachable vert.
+        int maxDist = 0;
+        for( int i = 0; i < dist.length; i++ ) {
+            maxDist = Math.max( maxDist, dist[i] );
+        }
+        for( int i = 0; i < dist.length; i++ ) {
+            if( dist[i] < 0 ) {
+                dist[i] = maxDist + 1;
+            }
+        }
+
+        final double[] c = doubleCenter( dist, n, k );
+
+        // C^T C is only k by k, so its eigenvectors are cheap to find.
+        final double[] m = new double[k * k];
+        for( int p = 0; p < k; p++ ) {
+            final int offP = p * n;
+            for( int q = p; q < k; q++ ) {
+                final int offQ = q * n;
+                double sum = 0.0;
+                for( int i = 0; i < n; i++ ) {
+                    sum += c[offP + i] * c[offQ + i];
+                }
+                m[p * k + q] = sum;
+                m[q * k + p] = sum;
+            }
+        }
+
+        // Coordinates along each axis are C times the eigenvector of C^T C. That product has
+        // length sigma, the singular value of C for the axis, while classical MDS scales each
+        // axis by the square root of its eigenvalue, which is proportional to sqrt(sigma).
+        // Each axis is divided by sqrt(sigma) so that axes keep their relative extents.
+        final double[][] axes = new double[dim][];
+        for( int d = 0; d < dim; d++ ) {
+            double[] v = principalAxis( m, k, axes, d, rand );
+            double[] x = new double[n];
+            if( v != null ) {
+                for( int p = 0; p < k; p++ ) {
+                    final double vp = v[p];
+                    final int off = p * n;
+                    for( int i = 0; i < n; i++ ) {
+                        x[i] += c[off + i] * vp;
+                    }
+                }
+
+                double sigma = 0.0;
+                for( int i = 0; i < n; i++ ) {
+                    sigma += x[i] * x[i];
+                }
+                sigma = Math.sqrt( sigma );
+                if( sigma > 0.0 ) {
+                    double s = 1.0 / Math.sqrt( sigma );
+                    for( int i = 0; i < n; i++ ) {
+                        x[i] *= s;
+                    }
+                }
+            }
+            axes[d] = v;
+            switch( d ) {
+            case 0: copy( x, g.mX ); break;
+            case 1: copy( x, g.mY ); break;
+            default: copy( x, g.mZ ); break;
+            }
+        }
+        if( dim == 2 ) {
+            Arrays.fill( g.mZ, 0, n, 0f );
+        }
+
+        // Scale so that distances best fit hop counts, weighted as in stress.
+        double num = 0.0;
+        double den = 0.0;
+        for( int p = 0; p < k; p++ ) {
+            final int q = pivots[p];
+            for( int i = 0; i < n; i++ ) {
+                int hops = dist[p * n + i];
+                if( hops <= 0 ) {
+                    continue;
+                }
+                double dx = g.mX[i] - g.mX[q];
+                double dy = g.mY[i] - g.mY[q];
+                double dz = g.mZ[i] - g.mZ[q];
+                double len = Math.sqrt( dx * dx + dy * dy + dz * dz ) / hops;
+                num += len;
+                den += len * len;
+            }
+        }
+
+        final float scale = params.mScale * ( den > 0.0 ? (float)( num / den ) : 1f );
+        final float noise = params.mScale * NOISE;
+        final float[] center = params.mGravityCenter;
+        final float half = 0.5f * noise;
+
+        for( int i = 0; i < n; i++ ) {
+            g.mX[i] = scale * g.mX[i] + noise * rand.nextFloat() - half + center[0];
+            g.mY[i] = scale * g.mY[i] + noise * rand.nextFloat() - half + center[1];
+            if( dim == 3 ) {
+                g.mZ[i] = scale * g.mZ[i] + noise * rand.nextFloat() - half + center[2];
+            }
+        }
+    }
+
+
+    /**
+     * @return matrix of double-centered squared distances, stored in the same order as <code>dist</code>.
+     */
+    private static double[] doubleCenter( int[] dist, int n, int k ) {
+        final double[] c = new double[k * n];
+        final double[] rowMean = new double[n];
+        final double[] colMean = new double[k];
+        double mean = 0.0;
+
+        for( int p = 0; p < k; p++ ) {
+            final int off = p * n;
+            double sum = 0.0;
+            for( int i = 0; i < n; i++ ) {
+                double d = dist[off + i];
+                double sq = d * d;
+                c[off + i] = sq;
+                rowMean[i] += sq;
+                sum += sq;
+            }
+            colMean[p] = sum / n;
+            mean += sum;
+        }
+
+        mean /= (double)n * k;
+        for( int i = 0; i < n; i++ ) {
+            rowMean[i] /= k;
+        }
+
+        for( int p = 0; p < k; p++ ) {
+            final int off = p * n;
+            final double cm = colMean[p] - mean;
+            for( int i = 0; i < n; i++ ) {
+                c[off + i] = -0.5 * ( c[off + i] - rowMean[i] - cm );
+            }
+        }
+
+        return c;
+    }
+
+    /**
+     * Finds eigenvector of symmetric k by k matrix <code>m</code> with largest eigenvalue
+     * that is orthogonal to <code>prev[0..count-1]</code>, by power iteration.
+     *
+     * @return unit eigenvector of length k, or null if remaining eigenvalues are all zero.
+     */
+    private static double[] principalAxis( double[] m, int k, double[][] prev, int count, Random rand ) {
+        double[] v = new double[k];
+        double[] w = new double[k];
+        for( int p = 0; p < k; p++ ) {
+            v[p] = rand.nextDouble() - 0.5;
+        }
+        if( !orthonormalize( v, prev, count ) ) {
+            return null;
+        }
+
+        for( int iter = 0; iter < MAX_ITERATIONS; iter++ ) {
+            for( int p = 0; p < k; p++ ) {
+                double sum = 0.0;
+                for( int q = 0; q < k; q++ ) {
+                    sum += m[p * k + q] * v[q];
+                }
+                w[p] = sum;
+            }
+            if( !orthonormalize( w, prev, count ) ) {
+                return null;
+            }
+
+            double dot = 0.0;
+            for( int p = 0; p < k; p++ ) {
+                dot += v[p] * w[p];
+            }
+            double[] t = v;
+            v = w;
+            w = t;
+            if( 1.0 - Math.abs( dot ) < ITERATION_TOL ) {
+                break;
+            }
+        }
+
+        return v;
+    }
+
+    /**
+     * Removes components of <code>v</code> along <code>prev[0..count-1]</code> and normalizes.
+     *
+     * @return false if nothing remains of <code>v</code>.
+     */
+    private static boolean orthonormalize( double[] v, double[][] prev, int count ) {
+        for( int a = 0; a < count; a++ ) {
+            double[] u = prev[a];
+            if( u == null ) {
+                continue;
+            }
+            double dot = 0.0;
+            for( int p = 0; p < v.length; p++ ) {
+                dot += v[p] * u[p];
+            }
+            for( int p = 0; p < v.length; p++ ) {
+                v[p] -= dot * u[p];
+            }
+        }
+
+        double len = 0.0;
+        for( int p = 0; p < v.length; p++ ) {
+            len += v[p] * v[p];
+        }
+        len = Math.sqrt( len );
+        if( len < 1E-150 ) {
+            return false;
+        }
+        for( int p = 0; p < v.length; p++ ) {
+            v[p] /= len;
+        }
+        return true;
+    }
+
+
+    private static void copy( double[] src, float[] dst ) {
+        for( int i = 0; i < src.length; i++ ) {
+            dst[i] = (float)src[i];
+        }
+    }
+
+
+    private PivotMds() {}
+
+}
@@ -53,6 +53,26 @@ public interface Quadtree {
      */
     public void insert( Vert vert );
     
+    /**
+     * Updates tree after Verts have moved, without rebuilding it. Cell topology and bounds are
+     * kept: only Verts that have left their leaf cells are removed and reinserted, after which
+     * the weight and mean of every cell are recomputed bottom-up and emptied cells are dropped.
+     * This is much cheaper than <code>rebuild()</code> when few Verts cross cell boundaries.
+     * <p>
+     * Refitting fails if any Vert has left the root cell, or if more than
+     * <code>maxMigrations</code> Verts must be reinserted. The tree is left in an undefined
+     * state in that case, and must be rebuilt before use.
+     *
+     * @param maxMigrations Max number of Verts that may change cells.
+     * @return true if tree was refit, false if it must be rebuilt.
+     */
+    public boolean refit( int maxMigrations );
+
+    /**
+     * @return number of cells currently in tree.
+     */
+    public int cellCount();
+
     /**
      * @return the root cell of this Quadtree.
      */
@@ -22,7 +22,15 @@ public class Quadtree2 implements Quadtree {
     private QuadtreeCell mRoot = null;
     private QuadtreeCell[] mPool = null;
     private int mPoolPos = 0;
+    // Cells emptied by refit, linked on mNextSibling, that are reused before the pool grows.
+    private QuadtreeCell mFree = null;
+    private int mFreeNo = 0;
     private final float[] mWork = new float[4];
+
+    // Refit state.
+    private Vert mMoved = null;
+    private int mMovedNo = 0;
+    private int mMovedLimit = 0;
     
     
     public Quadtree2() {
@@ -54,12 +62,7 @@ public class Quadtree2 implements Quadtree {
         }
         
         // Finish cells by computing center of gravity.
-        for( int i = 0; i < mPoolPos; i++ ) {
-            QuadtreeCell cell = mPool[i];
-            float w = 1f / cell.mWeight;
-            cell.mMeanX *= w;
-            cell.mMeanY *= w;
-        }
+        finishCells();
     }
     
     
@@ -71,6 +74,8 @@ public class Quadtree2 implements Quadtree {
         
         mRoot = null;
         mPoolPos = 0;
+        mFree = null;
+        mFreeNo = 0;
     }
     
     
@@ -115,7 +120,41 @@ public class Quadtree2 implements Quadtree {
         return mRoot;
     }
 
-    
+
+    public int cellCount() {
+        return mPoolPos - mFreeNo;
+    }
+
+
+    public boolean refit( int maxMigrations ) {
+        final QuadtreeCell root = mRoot;
+        if( root == null ) {
+            return false;
+        }
+
+        // Detach verts that have left their leaves, sum weights and drop emptied cells.
+        mMoved      = null;
+        mMovedNo    = 0;
+        mMovedLimit = maxMigrations;
+        refit_r( root );
+        if( mMovedNo > maxMigrations ) {
+            mMoved = null;
+            return false;
+        }
+
+        Vert vert = mMoved;
+        mMoved = null;
+        while( vert != null ) {
+            Vert next = vert.mTempNext;
+            insert( vert );
+            vert = next;
+        }
+
+        finishCells();
+        return true;
+    }
+
+
     public QuadtreeCell childFor( QuadtreeCell cell, Vert vert ) {
         return cell.mChildren[ childIndexFor( cell, vert ) ];
     }
@@ -127,8 +166,104 @@ public class Quadtree2 implements Quadtree {
     }
     
     
-    
-   
+    private int childIndexFor( QuadtreeCell cell, QuadtreeCell child ) {
+        return ( child.mX < cell.mX ? 0 : 1 ) +
+               ( child.mY < cell.mY ? 0 : 2 );
+    }
+
+
+    private static boolean contains( QuadtreeCell cell, Vert vert ) {
+        float h  = cell.mHalfSize;
+        float dx = vert.mX - cell.mX;
+        float dy = vert.mY - cell.mY;
+        return dx >= -h && dx <= h &&
+               dy >= -h && dy <= h;
+    }
+
+    /**
+     * Detaches verts that have moved outside their leaves, recomputes first moment and
+     * weight of subtree, and removes empty cells.
+     *
+     * @return true iff cell still contains any verts.
+     */
+    private boolean refit_r( QuadtreeCell cell ) {
+        cell.mWeight = 0f;
+        cell.mMeanX  = 0f;
+        cell.mMeanY  = 0f;
+        cell.mMeanZ  = 0f;
+
+        if( cell.mVerts != null ) {
+            Vert prev = null;
+            Vert vert = cell.mVerts;
+            while( vert != null ) {
+                Vert next = vert.mTempNext;
+                if( contains( cell, vert ) ) {
+                    addWeightToCell( vert, cell );
+                    prev = vert;
+                } else {
+                    if( ++mMovedNo > mMovedLimit || !contains( mRoot, vert ) ) {
+                        mMovedNo = Integer.MAX_VALUE;
+                        return true;
+                    }
+                    if( prev == null ) {
+                        cell.mVerts = next;
+                    } else {
+                        prev.mTempNext = next;
+                    }
+                    vert.mTempNext = mMoved;
+                    mMoved = vert;
+                }
+                vert = next;
+            }
+            return cell.mVerts != null;
+        }
+
+        QuadtreeCell prev = null;
+        QuadtreeCell next;
+        for( QuadtreeCell child = cell.mChildList; child != null; child = next ) {
+            next = child.mNextSibling;
+            if( !refit_r( child ) ) {
+                if( prev == null ) {
+                    cell.mChildList = next;
+                } else {
+                    prev.mNextSibling = next;
+                }
+                cell.mChildren[ childIndexFor( cell, child ) ] = null;
+                freeCell( child );
+                continue;
+            }
+            if( mMovedNo > mMovedLimit ) {
+                return true;
+            }
+
+            cell.mWeight += child.mWeight;
+            cell.mMeanX  += child.mMeanX;
+            cell.mMeanY  += child.mMeanY;
+            cell.mMeanZ  += child.mMeanZ;
+            prev = child;
+        }
+
+        return cell.mChildList != null;
+    }
+
+    /**
+     * Converts first moment of each cell to center of gravity.
+     */
+    private void finishCells() {
+        for( int i = 0; i < mPoolPos; i++ ) {
+            QuadtreeCell cell = mPool[i];
+            if( cell.mWeight > 0f ) {
+                float s = 1f / cell.mWeight;
+                cell.mMeanX *= s;
+                cell.mMeanY *= s;
+            } else {
+                cell.mMeanX = cell.mX;
+                cell.mMeanY = cell.mY;
+            }
+        }
+    }
+
+
     private void addVertToCell( Vert vert, QuadtreeCell cell ) {
         addWeightToCell( vert, cell );
         vert.mTempNext = cell.mVerts;
@@ -147,7 +282,11 @@ public class Quadtree2 implements Quadtree {
     private QuadtreeCell allocCell() {
         QuadtreeCell ret;
         
-        if( mPoolPos < mPool.length ) {
+        if( mFree != null ) {
+            ret = mFree;
+            mFree = ret.mNextSibling;
+            mFreeNo--;
+        } else if( mPoolPos < mPool.length ) {
             ret = mPool[mPoolPos++];
         } else {
             int cap = ( mPool.length * 3 ) / 2;
@@ -174,6 +313,19 @@ public class Quadtree2 implements Quadtree {
     }
     
     
+    /**
+     * Returns an emptied cell to be reused by <code>allocCell()</code>. The cell is left
+     * in the pool, where <code>finishCells()</code> treats it as an empty cell.
+     * <p>
+     * PRECONDITION: Cell has no verts or children and is not referenced by the tree.
+     */
+    private void freeCell( QuadtreeCell cell ) {
+        cell.mNextSibling = mFree;
+        mFree = cell;
+        mFreeNo++;
+    }
+    
+    
     private void divideCell( QuadtreeCell cell ) {
         Vert vert   = cell.mVerts;
         cell.mVerts = null;
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Stable least-significant-digit radix sort of long keys with int payloads.
+ * <p>
+ * When given a {@link WorkerPool}, each pass is split into contiguous ranges, one
+ * per thread. Threads first histogram their own range, then scatter it to offsets
+ * computed digit-major, thread-minor, which keeps the sort stable without any
+ * synchronization beyond the two pool barriers per pass. Passes in which every key
+ * shares the same digit are skipped.
+ * <p>
+ * Scratch buffers are kept between calls.
+ *
+ * @author decamp
+ */
+final class RadixSort {
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX      = 1 << RADIX_BITS;
+    private static final int RADIX_MASK = RADIX - 1;
+
+    /**
+     * Inputs smaller than this are always sorted on the calling thread.
+     */
+    static final int PARALLEL_MIN_SIZE = 1 << 14;
+
+
+    private long[] mKeyTmp = new long[0];
+    private int[] mValTmp  = new int[0];
+    private Pass[] mPasses = new Pass[0];
+
+
+    /**
+     * Sorts {@code keys[0,n)} in ascending order, applying the same permutation to {@code vals}.
+     * Only the low {@code bits} bits of each key are considered.
+     *
+     * @param keys    Keys to sort. All keys must be non-negative.
+     * @param vals    Payload of each key.
+     * @param n       Number of elements.
+     * @param bits    Number of significant bits in keys.
+     * @param optPool Pool to run on, or null to sort on the calling thread.
+     */
+    void sort( long[] keys, int[] vals, int n, int bits, WorkerPool optPool ) {
+        if( n <= 1 || bits <= 0 ) {
+            return;
+        }
+        if( mKeyTmp.length < n ) {
+            mKeyTmp = new long[ n + ( n >> 3 ) ];
+            mValTmp = new int[ mKeyTmp.length ];
+        }
+
+        final int passNo = optPool != null && n >= PARALLEL_MIN_SIZE ? optPool.threadNo() : 1;
+        if( mPasses.length < passNo ) {
+            Pass[] arr = new Pass[ passNo ];
+            System.arraycopy( mPasses, 0, arr, 0, mPasses.length );
+            for( int i = mPasses.length; i < passNo; i++ ) {
+                arr[i] = new Pass();
+            }
+            mPasses = arr;
+        }
+        for( int i = 0; i < passNo; i++ ) {
+            Pass p = mPasses[i];
+            p.mStart = (int)( (long)n * i / passNo );
+            p.mEnd   = (int)( (long)n * ( i + 1 ) / passNo );
+        }
+
+        long[] srcKeys = keys;
+        int[] srcVals  = vals;
+        long[] dstKeys = mKeyTmp;
+        int[] dstVals  = mValTmp;
+
+        for( int shift = 0; shift < bits; shift += RADIX_BITS ) {
+            for( int i = 0; i < passNo; i++ ) {
+                mPasses[i].reset( srcKeys, srcVals, dstKeys, dstVals, shift, false );
+            }
+            run( optPool, passNo );
+
+            // Convert counts to offsets: digit-major, thread-minor.
+            int sum = 0;
+            boolean trivial = false;
+            for( int d = 0; d < RADIX; d++ ) {
+                int start = sum;
+                for( int i = 0; i < passNo; i++ ) {
+                    int[] hist = mPasses[i].mHist;
+                    int c = hist[d];
+                    hist[d] = sum;
+                    sum += c;
+                }
+                if( sum - start == n ) {
+                    trivial = true;
+                    break;
+                }
+            }
+            if( trivial ) {
+                continue;
+            }
+
+            for( int i = 0; i < passNo; i++ ) {
+                mPasses[i].mScatter = true;
+            }
+            run( optPool, passNo );
+
+            long[] tk = srcKeys; srcKeys = dstKeys; dstKeys = tk;
+            int[] tv  = srcVals; srcVals = dstVals; dstVals = tv;
+        }
+
+        for( int i = 0; i < passNo; i++ ) {
+            mPasses[i].reset( null, null, null, null, 0, false );
+        }
+
+        if( srcKeys != keys ) {
+            System.arraycopy( srcKeys, 0, keys, 0, n );
+            System.arraycopy( srcVals, 0, vals, 0, n );
+        }
+    }
+
+
+
+    private void run( WorkerPool pool, int passNo ) {
+        if( passNo == 1 ) {
+            mPasses[0].run();
+        } else {
+            pool.run( mPasses, passNo );
+        }
+    }
+
+
+    private static final class Pass implements Runnable {
+
+        final int[] mHist = new int[ RADIX ];
+
+        int mStart;
+        int mEnd;
+        int mShift;
+        boolean mScatter;
+
+        long[] mSrcKeys;
+        int[] mSrcVals;
+        long[] mDstKeys;
+        int[] mDstVals;
+
+
+        void reset( long[] srcKeys, int[] srcVals, long[] dstKeys, int[] dstVals, int shift, boolean scatter ) {
+            mSrcKeys = srcKeys;
+            mSrcVals = srcVals;
+            mDstKeys = dstKeys;
+            mDstVals = dstVals;
+            mShift   = shift;
+            mScatter = scatter;
+        }
+
+
+        public void run() {
+            final long[] keys = mSrcKeys;
+            final int[] hist  = mHist;
+            final int shift   = mShift;
+            final int end     = mEnd;
+
+            if( !mScatter ) {
+                for( int d = 0; d < RADIX; d++ ) {
+                    hist[d] = 0;
+                }
+                for( int i = mStart; i < end; i++ ) {
+                    hist[ (int)( keys[i] >>> shift ) & RADIX_MASK ]++;
+                }
+                return;
+            }
+
+            final int[] vals     = mSrcVals;
+            final long[] dstKeys = mDstKeys;
+            final int[] dstVals  = mDstVals;
+            for( int i = mStart; i < end; i++ ) {
+                long k  = keys[i];
+                int pos = hist[ (int)( k >>> shift ) & RADIX_MASK ]++;
+                dstKeys[pos] = k;
+                dstVals[pos] = vals[i];
+            }
+        }
+
+    }
+
+}
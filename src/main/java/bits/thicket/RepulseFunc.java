@@ -14,6 +14,10 @@ interface RepulseFunc {
     
     void init( LayoutParams params, Graph graph );
     
+    /**
+     * Applies force of all verts in cell to <code>vert</code>, approximated as a single vert
+     * at the cell's center of gravity.
+     */
     void applyCellForce( QuadtreeCell cell, Vert vert );
         
     void appleVertForce( Vert v, Vert target );
@@ -31,8 +35,8 @@ interface RepulseFunc {
         }
         
         public void applyCellForce( QuadtreeCell cell, Vert target ) {
-            float dx  = cell.mX - target.mX;
-            float dy  = cell.mY - target.mY;
+            float dx  = cell.mMeanX - target.mX;
+            float dy  = cell.mMeanY - target.mY;
             double dd = Math.sqrt( dx * dx + dy * dy );
             float mag = mCoeff * cell.mWeight / ( (float)( dd * Math.log( 1.0 + dd ) ) + EPS );
             
@@ -59,9 +63,9 @@ interface RepulseFunc {
         }
         
         public void applyCellForce( QuadtreeCell cell, Vert target ) {
-            float dx  = cell.mX - target.mX;
-            float dy  = cell.mY - target.mY;
-            float dz  = cell.mZ - target.mZ;
+            float dx  = cell.mMeanX - target.mX;
+            float dy  = cell.mMeanY - target.mY;
+            float dz  = cell.mMeanZ - target.mZ;
             double dd = Math.sqrt( dx * dx + dy * dy + dz * dz );
             float mag = mCoeff * cell.mWeight / ( (float)( dd * Math.log( 1.0 + dd ) ) + EPS );
             target.mForceX += mag * dx;
@@ -90,8 +94,8 @@ interface RepulseFunc {
         }
         
         public void applyCellForce( QuadtreeCell cell, Vert target ) {
-            float dx  = cell.mX - target.mX;
-            float dy  = cell.mY - target.mY;
+            float dx  = cell.mMeanX - target.mX;
+            float dy  = cell.mMeanY - target.mY;
             float mag = mCoeff * cell.mWeight / ( dx * dx + dy * dy + EPS );
             
             target.mForceX += mag * dx;
@@ -116,9 +120,9 @@ interface RepulseFunc {
         }
         
         public void applyCellForce( QuadtreeCell cell, Vert target ) {
-            float dx  = cell.mX - target.mX;
-            float dy  = cell.mY - target.mY;
-            float dz  = cell.mZ - target.mZ;
+            float dx  = cell.mMeanX - target.mX;
+            float dy  = cell.mMeanY - target.mY;
+            float dz  = cell.mMeanZ - target.mZ;
             float mag = mCoeff * cell.mWeight / ( (float)Math.sqrt( dx * dx + dy * dy + dz * dz ) + EPS );
             target.mForceX += mag * dx;
             target.mForceY += mag * dy;
@@ -146,8 +150,8 @@ interface RepulseFunc {
         }
         
         public void applyCellForce( QuadtreeCell cell, Vert target  ) {
-            float dx  = cell.mX - target.mX;
-            float dy  = cell.mY - target.mY;
+            float dx  = cell.mMeanX - target.mX;
+            float dy  = cell.mMeanY - target.mY;
             float dd  = dx * dx + dy * dy;
             float mag = mCoeff * cell.mWeight / ( (float)Math.sqrt( dd ) * dd + EPS );
             target.mForceX += mag * dx;
@@ -173,9 +177,9 @@ interface RepulseFunc {
         }
         
         public void applyCellForce( QuadtreeCell cell, Vert target ) {
-            float dx  = cell.mX - target.mX;
-            float dy  = cell.mY - target.mY;
-            float dz  = cell.mZ - target.mZ;
+            float dx  = cell.mMeanX - target.mX;
+            float dy  = cell.mMeanY - target.mY;
+            float dz  = cell.mMeanZ - target.mZ;
             float dd  = dx * dx + dy * dy + dz * dz;
             float mag = mCoeff * cell.mWeight / ( (float)Math.sqrt( dd ) * dd + EPS );
             target.mForceX += mag * dx;
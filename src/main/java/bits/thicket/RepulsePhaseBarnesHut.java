@@ -6,12 +6,48 @@
 
 package bits.thicket;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
 /**
+ * Computes repulsive forces with the Barnes-Hut approximation.
+ * <p>
+ * If {@link LayoutParams#mThreadNo} is greater than one, the force traversal is split across
+ * a pool of worker threads. The tree is read-only during traversal and each vertex
+ * only accumulates force into itself, so workers never write to shared state.
+ * <p>
+ * If {@link LayoutParams#mRepulseRefit} is set, the tree is refit to the moved verts rather
+ * than rebuilt on each step, falling back to a full rebuild whenever the tree depth changes,
+ * a vert leaves the root cell, or too many verts change cells.
+ * <p>
+ * If {@link LayoutParams#mRepulseGroupTraversal} is set, verts are split into groups that
+ * each fill a small subtree of at most {@link #GROUP_SIZE} verts, and the tree is walked once
+ * per group instead of once per vert. A cell is approximated for the whole group only if it
+ * passes the acceptance test for the nearest point of the group's bounding box, so each vert
+ * sees a cell list at least as fine as its own traversal would have produced.
+ *
  * @author decamp
  */
-public class RepulsePhaseBarnesHut implements SolverPhase {
+public class RepulsePhaseBarnesHut implements BoundedSolverPhase {
 
     private static final float FORCE_COST_FACTOR = 4.0f;
+
+    /** Minimum number of verts claimed by a worker at a time. **/
+    private static final int MIN_BLOCK_SIZE = 64;
+    /** Target number of blocks per worker, for load balancing. **/
+    private static final int BLOCKS_PER_THREAD = 16;
+    
+    /** 
+     * Max fraction of verts that may change cells before a refit falls back to rebuild.
+     * At least one vert may always change cells, so small graphs are still refit.
+     **/
+    private static final float REFIT_MAX_MIGRATION = 0.1f;
+    /** Fraction by which root cell is enlarged when refitting is enabled. **/
+    private static final float REFIT_ROOT_PAD = 0.0625f;
+    
+    /** Max number of verts that share one traversal when group traversal is enabled. **/
+    static final int GROUP_SIZE = 16;
     
     private int mDim;
     private RepulseFunc mFunc;
@@ -19,16 +55,30 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
     private Quadtree mTree;
     private float mApproxThreshSq;
     
-    private int mDepth;
+    private final DepthTuner mTuner = new DepthTuner();
+    
+    private Traversal mSerial;
+    private WorkerPool mPool;
+    private Traversal[] mWorkers;
+    private Vert[] mVertArr = new Vert[0];
+    private final AtomicInteger mCursor = new AtomicInteger( 0 );
+    
+    private boolean mRefit;
+    private int mTreeDepth;
+    
+    private boolean mGroups;
+    private Vert[] mGroupVerts = new Vert[0];
+    private int[] mGroupStart  = new int[0];
+    private int[] mGroupEnd    = new int[0];
+    private int mGroupNo;
+    private int mGatherPos;
+    private int[] mGatherStart = new int[0];
+    private int[] mGatherCount = new int[0];
     
-    private boolean mDepthTune;
-    private int mDepthTunePos; /** 0 = init, 1 = increased once, 2 = increased twice... **/
-    private int mDepthBest;    /** Best depth tested. **/
-    private float mCostBest;   /** Cost of best depth tested. **/
-    private int mCostTraversal;
-    private int mCostForceCalc;
+    private SolverStats mStats;
     
-    private float[] mWork = new float[6];
+    private float[] mWork   = new float[6];
+    private float[] mCenter = new float[3];
     
     
     @Override
@@ -36,14 +86,11 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
         mDim = params.mDim;
         mApproxThreshSq = params.mRepulseApproxThresh * params.mRepulseApproxThresh;
         
-        mDepth = params.mRepulseApproxMaxTreeDepth;
-        if( mDepth <= 0 ) {
-            mDepth = 9;
-            mDepthTune = true;
-            mDepthTunePos = 0;
-        } else {
-            mDepthTune = false;
-        }
+        mTuner.init( params.mRepulseApproxMaxTreeDepth );
+        mRefit     = params.mRepulseRefit;
+        mTreeDepth = -1;
+        mGroups    = params.mRepulseGroupTraversal;
+        mStats     = params.mStats;
         
         RepulseEq eq = params.mRepulseEq;
         if( eq == null ) {
@@ -53,15 +100,30 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
         mFunc = RepulseEq.newFunc( eq, params.mDim );
         mFunc.init( params, graph );
 
-        switch( params.mDim ) {
-        case 2:
-            mTree = new Quadtree2();
-            break;
-        case 3:
-            mTree = new Quadtree3();
-            break;
-        default:
-            throw new IllegalArgumentException( "LayoutParams.mDim = " + params.mDim );
+        // Keep tree, and its cell pool, between levels and layouts.
+        if( mTree == null || mTree.dims() != params.mDim ) {
+            switch( params.mDim ) {
+            case 2:
+                mTree = new Quadtree2();
+                break;
+            case 3:
+                mTree = new Quadtree3();
+                break;
+            default:
+                throw new IllegalArgumentException( "LayoutParams.mDim = " + params.mDim );
+            }
+        }
+        
+        mSerial = new Traversal( null );
+        mPool   = WorkerPool.reuse( mPool, WorkerPool.threadCount( params ) );
+        
+        if( mPool == null ) {
+            mWorkers = null;
+        } else {
+            mWorkers = new Traversal[ mPool.threadNo() ];
+            for( int i = 0; i < mWorkers.length; i++ ) {
+                mWorkers[i] = new Traversal( mCursor );
+            }
         }
     }
     
@@ -72,107 +134,77 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
     }
     
     
+    @Override
     public void step( LayoutParams params, Graph graph, float[] optGraphBounds ) {
-        if( optGraphBounds == null ) {
-            mTree.rebuild( graph.mVerts, mDepth, null, 0f );
-            
-        } else if( mDim == 2 ) {
-            float[] cent = mWork;
-            cent[0] = ( optGraphBounds[2] + optGraphBounds[0] ) * 0.5f;
-            cent[1] = ( optGraphBounds[3] + optGraphBounds[1] ) * 0.5f;
-            float dx = optGraphBounds[2] - optGraphBounds[0];
-            float dy = optGraphBounds[3] - optGraphBounds[1];   
-            float size = dx >= dy ? dx : dy;
-            mTree.rebuild( graph.mVerts, mDepth, cent, size );
-            
-        } else {
-            float[] cent = mWork;
-            cent[0] = ( optGraphBounds[3] + optGraphBounds[0] ) * 0.5f;
-            cent[1] = ( optGraphBounds[4] + optGraphBounds[1] ) * 0.5f;
-            cent[2] = ( optGraphBounds[5] + optGraphBounds[2] ) * 0.5f;
-            float dx = optGraphBounds[3] - optGraphBounds[0];
-            float dy = optGraphBounds[4] - optGraphBounds[1];   
-            float dz = optGraphBounds[5] - optGraphBounds[2]; 
-            float size = dx >= dy ? dx : dy;
-            if( dz > size ) {
-                size = dz;
-            }
-            mTree.rebuild( graph.mVerts, mDepth, cent, size );
+        final int depth = mTuner.depth();
+        final SolverStats stats = mStats;
+        final long t0 = stats == null ? 0L : System.nanoTime();
+        
+        if( !mRefit || 
+            mTreeDepth != depth || 
+            !mTree.refit( Math.max( 1, (int)( REFIT_MAX_MIGRATION * graph.mVertNo ) ) ) ) 
+        {
+            rebuildTree( graph, depth, optGraphBounds );
+            mTreeDepth = depth;
+        }
+        
+        if( stats != null ) {
+            stats.addTree( System.nanoTime() - t0, mTree.cellCount() );
         }
         
         final QuadtreeCell root = mTree.root();
         
-        if( !mDepthTune ) {
-            if( mDim == 2 ) {
-                for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
-                    apply2_r( root, v );
-                }
+        final boolean parallel = mPool != null && graph.mVertNo > MIN_BLOCK_SIZE;
+        // Counting is nearly free for group traversal, so it is always done.
+        final boolean count    = mGroups || mTuner.tuning() || stats != null;
+        
+        if( mGroups ) {
+            gatherGroups( root, graph.mVertNo );
+            if( parallel ) {
+                applyGroupsParallel( root );
             } else {
-                for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
-                    apply3_r( root, v );
-                }
+                applyGroupsSerial( root );
             }
+        } else if( parallel ) {
+            applyParallel( graph, root, count );
+        } else {
+            applySerial( graph, root, count );
+        }
+        
+        if( !count ) {
             return;
         }
         
-        mCostTraversal = 0;
-        mCostForceCalc = 0;
+        long costTraversal = 0;
+        long costForceCalc = 0;
         
-        if( mDim == 2 ) {
-            for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
-                applyWithTuning2_r( root, v );
+        if( parallel ) {
+            for( Traversal t: mWorkers ) {
+                costTraversal += t.mCostTraversal;
+                costForceCalc += t.mCostForceCalc;
             }
         } else {
-            for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
-                applyWithTuning3_r( root, v );
-            }
+            costTraversal = mSerial.mCostTraversal;
+            costForceCalc = mSerial.mCostForceCalc;
         }
         
-        float cost = mCostTraversal + FORCE_COST_FACTOR * mCostForceCalc;
-
-        if( mDepthTunePos == 0 ) {
-            // First iteration.
-            mCostBest  = cost;
-            mDepthBest = mDepth--;
-            mDepthTunePos--;
-        } else if( cost < mCostBest ) {
-            // If cost decreased, keep searching in same direction.
-            mCostBest  = cost;
-            mDepthBest = mDepth;
-
-            if( mDepthTunePos > 0 ) {
-                mDepth++;
-                mDepthTunePos++;
-            } else if( mDepth > 1 ) {
-                mDepth--;
-                mDepthTunePos--;
-            } else {
-                // Nowhere to go. We're done. 
-                // This is a weird thing to happen, and probably means that most of the points are 
-                // at about the same position. 
-                mDepthTune = false;
-            }
-        } else {
-            // Cost has decreased. If this occurred on our first attemp to decrease
-            // depth, switch directions. Otherwise, the search is complete.
-            if( mDepthTunePos == -1 ) {
-                mDepth += 2;
-                mDepthTunePos = 1;
-            } else {
-                mDepth = mDepthBest;
-                mDepthTune = false;
-            }
+        if( stats != null ) {
+            stats.addTraversal( costTraversal, costForceCalc );
         }
-
-        //if( !mDepthTune && graph.mCoarseLevel == 0 ) {
-        //    System.out.println( "#DEPTH: " + mDepthBest + " " + mDepth + "\t" + mCostBest );
-        //}
+        mTuner.update( costTraversal + FORCE_COST_FACTOR * costForceCalc );
     }
 
     
     @Override
-    public void dispose( LayoutParams params, Graph graph ) {}
-    
+    public void dispose( LayoutParams params, Graph graph ) {
+        if( mPool != null ) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mWorkers = null;
+        mVertArr = new Vert[0];
+        mGroupVerts = new Vert[0];
+    }
     
     
     
@@ -231,8 +263,8 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
     }
     
     
-    private void applyWithTuning2_r( QuadtreeCell cell, Vert v ) {
-        mCostTraversal++;
+    private void applyWithTuning2_r( Traversal t, QuadtreeCell cell, Vert v ) {
+        t.mCostTraversal++;
         
         float dx = cell.mX - v.mX;
         float dy = cell.mY - v.mY;
@@ -240,7 +272,7 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
         
         // Check if cell is far away.
         if( 4.0f * cell.mHalfSize * cell.mHalfSize < mApproxThreshSq * dist ) {
-            mCostForceCalc++;
+            t.mCostForceCalc++;
             mFunc.applyCellForce( cell, v );
             return;
         }
@@ -249,7 +281,7 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
         if( cell.mVerts != null ) {
             for( Vert u = cell.mVerts; u != null; u = u.mTempNext ) {
                 if( u != v ) {
-                    mCostForceCalc++;
+                    t.mCostForceCalc++;
                     mFunc.appleVertForce( u, v );
                 }
             }
@@ -257,13 +289,13 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
         }
 
         for( QuadtreeCell child = cell.mChildList; child != null; child = child.mNextSibling ) {
-            applyWithTuning2_r( child, v );
+            applyWithTuning2_r( t, child, v );
         }
     }
     
     
-    private void applyWithTuning3_r( QuadtreeCell cell, Vert v ) {
-        mCostTraversal++;
+    private void applyWithTuning3_r( Traversal t, QuadtreeCell cell, Vert v ) {
+        t.mCostTraversal++;
         
         float dx = cell.mX - v.mX;
         float dy = cell.mY - v.mY;
@@ -272,7 +304,7 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
         
         // Check if cell is far away.
         if( 4.0f * cell.mHalfSize * cell.mHalfSize < mApproxThreshSq * dist ) {
-            mCostForceCalc++;
+            t.mCostForceCalc++;
             mFunc.applyCellForce( cell, v );
             return;
         }
@@ -281,7 +313,7 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
         if( cell.mVerts != null ) {
             for( Vert u = cell.mVerts; u != null; u = u.mTempNext ) {
                 if( u != v ) {
-                    mCostForceCalc++;
+                    t.mCostForceCalc++;
                     mFunc.appleVertForce( u, v );
                 }
             }
@@ -289,10 +321,524 @@ public class RepulsePhaseBarnesHut implements SolverPhase {
         }
 
         for( QuadtreeCell child = cell.mChildList; child != null; child = child.mNextSibling ) {
-            applyWithTuning3_r( child, v );
+            applyWithTuning3_r( t, child, v );
         }
         
     }
 
     
+    
+    private void rebuildTree( Graph graph, int depth, float[] optGraphBounds ) {
+        // When refitting, pad root so that small outward movements do not force a rebuild.
+        final float pad = mRefit ? 1f + REFIT_ROOT_PAD : 1f;
+        
+        if( optGraphBounds == null ) {
+            if( !mRefit ) {
+                mTree.rebuild( graph.mVerts, depth, null, 0f );
+                return;
+            }
+            optGraphBounds = mWork;
+            if( mDim == 2 ) {
+                Graphs.computeBounds2( graph.mVerts, optGraphBounds );
+            } else {
+                Graphs.computeBounds3( graph.mVerts, optGraphBounds );
+            }
+        }
+        
+        float[] cent = mCenter;
+        if( mDim == 2 ) {
+            cent[0] = ( optGraphBounds[2] + optGraphBounds[0] ) * 0.5f;
+            cent[1] = ( optGraphBounds[3] + optGraphBounds[1] ) * 0.5f;
+            float dx = optGraphBounds[2] - optGraphBounds[0];
+            float dy = optGraphBounds[3] - optGraphBounds[1];   
+            float size = dx >= dy ? dx : dy;
+            mTree.rebuild( graph.mVerts, depth, cent, size * pad );
+            
+        } else {
+            cent[0] = ( optGraphBounds[3] + optGraphBounds[0] ) * 0.5f;
+            cent[1] = ( optGraphBounds[4] + optGraphBounds[1] ) * 0.5f;
+            cent[2] = ( optGraphBounds[5] + optGraphBounds[2] ) * 0.5f;
+            float dx = optGraphBounds[3] - optGraphBounds[0];
+            float dy = optGraphBounds[4] - optGraphBounds[1];   
+            float dz = optGraphBounds[5] - optGraphBounds[2]; 
+            float size = dx >= dy ? dx : dy;
+            if( dz > size ) {
+                size = dz;
+            }
+            mTree.rebuild( graph.mVerts, depth, cent, size * pad );
+        }
+    }
+    
+    
+    private void applySerial( Graph graph, QuadtreeCell root, boolean count ) {
+        final Traversal t = mSerial;
+        t.mCostTraversal = 0;
+        t.mCostForceCalc = 0;
+        
+        if( !count ) {
+            if( mDim == 2 ) {
+                for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+                    apply2_r( root, v );
+                }
+            } else {
+                for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+                    apply3_r( root, v );
+                }
+            }
+        } else {
+            if( mDim == 2 ) {
+                for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+                    applyWithTuning2_r( t, root, v );
+                }
+            } else {
+                for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+                    applyWithTuning3_r( t, root, v );
+                }
+            }
+        }
+    }
+
+    
+    private void applyParallel( Graph graph, QuadtreeCell root, boolean count ) {
+        final int vertNo = graph.mVertNo;
+        Vert[] arr = mVertArr;
+        if( arr.length < vertNo ) {
+            arr = mVertArr = new Vert[ vertNo + ( vertNo >> 2 ) ];
+        }
+        
+        int n = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            arr[n++] = v;
+        }
+        
+        final Traversal[] workers = mWorkers;
+        int block = n / ( workers.length * BLOCKS_PER_THREAD );
+        if( block < MIN_BLOCK_SIZE ) {
+            block = MIN_BLOCK_SIZE;
+        }
+        
+        mCursor.set( 0 );
+        
+        for( Traversal t: workers ) {
+            t.mRoot          = root;
+            t.mVerts         = arr;
+            t.mGroupStart    = null;
+            t.mVertNo        = n;
+            t.mBlockSize     = block;
+            t.mDim           = mDim;
+            t.mTune          = count;
+            t.mCostTraversal = 0;
+            t.mCostForceCalc = 0;
+        }
+        
+        mPool.run( workers, workers.length );
+        
+        for( Traversal t: workers ) {
+            t.mRoot  = null;
+            t.mVerts = null;
+        }
+    }
+    
+    
+    /**
+     * Lists verts in tree order and splits them into groups, where each group holds all 
+     * verts of the largest subtree that contains no more than GROUP_SIZE verts. Leaves
+     * with more than GROUP_SIZE verts, which occur at max depth, are split into groups
+     * of GROUP_SIZE.
+     */
+    private void gatherGroups( QuadtreeCell root, int vertNo ) {
+        if( mGroupVerts.length < vertNo ) {
+            int cap = vertNo + ( vertNo >> 2 );
+            mGroupVerts = new Vert[cap];
+            mGroupStart = new int[cap];
+            mGroupEnd   = new int[cap];
+        }
+        
+        mGroupNo   = 0;
+        mGatherPos = 0;
+        
+        if( root != null && gather_r( root, 0 ) <= GROUP_SIZE ) {
+            addGroup( 0, mGatherPos );
+        }
+    }
+    
+    /**
+     * @return number of verts in subtree of <code>cell</code>. If this exceeds GROUP_SIZE,
+     *         all verts in subtree have been assigned to groups.
+     */
+    private int gather_r( QuadtreeCell cell, int level ) {
+        if( cell.mVerts != null ) {
+            final int start = mGatherPos;
+            for( Vert v = cell.mVerts; v != null; v = v.mTempNext ) {
+                mGroupVerts[mGatherPos++] = v;
+            }
+            
+            final int count = mGatherPos - start;
+            if( count > GROUP_SIZE ) {
+                for( int i = start; i < mGatherPos; i += GROUP_SIZE ) {
+                    addGroup( i, Math.min( i + GROUP_SIZE, mGatherPos ) );
+                }
+            }
+            return count;
+        }
+        
+        final int childNo = cell.mChildren.length;
+        final int base = level * childNo;
+        if( mGatherStart.length < base + childNo ) {
+            mGatherStart = Arrays.copyOf( mGatherStart, ( base + childNo ) * 2 );
+            mGatherCount = Arrays.copyOf( mGatherCount, ( base + childNo ) * 2 );
+        }
+        
+        int total = 0;
+        int k = base;
+        for( QuadtreeCell child = cell.mChildList; child != null; child = child.mNextSibling, k++ ) {
+            mGatherStart[k] = mGatherPos;
+            // Recursion may reallocate mGatherCount, so it must be read after the call.
+            final int count = gather_r( child, level + 1 );
+            mGatherCount[k] = count;
+            total += count;
+        }
+        
+        if( total > GROUP_SIZE ) {
+            // Children that are still small enough become groups.
+            for( int i = base; i < k; i++ ) {
+                if( mGatherCount[i] <= GROUP_SIZE ) {
+                    addGroup( mGatherStart[i], mGatherStart[i] + mGatherCount[i] );
+                }
+            }
+        }
+        
+        return total;
+    }
+    
+    
+    private void addGroup( int start, int end ) {
+        mGroupStart[mGroupNo] = start;
+        mGroupEnd[mGroupNo]   = end;
+        mGroupNo++;
+    }
+    
+    
+    private void applyGroupsSerial( QuadtreeCell root ) {
+        final Traversal t = mSerial;
+        t.mCostTraversal = 0;
+        t.mCostForceCalc = 0;
+        
+        if( mDim == 2 ) {
+            for( int i = 0; i < mGroupNo; i++ ) {
+                t.applyGroup2( root, mGroupVerts, mGroupStart[i], mGroupEnd[i] );
+            }
+        } else {
+            for( int i = 0; i < mGroupNo; i++ ) {
+                t.applyGroup3( root, mGroupVerts, mGroupStart[i], mGroupEnd[i] );
+            }
+        }
+    }
+    
+    
+    private void applyGroupsParallel( QuadtreeCell root ) {
+        final Traversal[] workers = mWorkers;
+        int block = mGroupNo / ( workers.length * BLOCKS_PER_THREAD );
+        if( block < 1 ) {
+            block = 1;
+        }
+        
+        mCursor.set( 0 );
+        
+        for( Traversal t: workers ) {
+            t.mRoot          = root;
+            t.mVerts         = mGroupVerts;
+            t.mGroupStart    = mGroupStart;
+            t.mGroupEnd      = mGroupEnd;
+            t.mGroupNo       = mGroupNo;
+            t.mBlockSize     = block;
+            t.mDim           = mDim;
+            t.mCostTraversal = 0;
+            t.mCostForceCalc = 0;
+        }
+        
+        mPool.run( workers, workers.length );
+        
+        for( Traversal t: workers ) {
+            t.mRoot       = null;
+            t.mVerts      = null;
+            t.mGroupStart = null;
+            t.mGroupEnd   = null;
+        }
+    }
+    
+    
+    /**
+     * Walks the tree to accumulate forces into a set of verts. Each Traversal
+     * keeps its own cost counters so that depth tuning and stats may sum them after
+     * a parallel pass.
+     */
+    private final class Traversal implements Runnable {
+        
+        final AtomicInteger mCursor;
+        
+        QuadtreeCell mRoot;
+        Vert[] mVerts;
+        int mVertNo;
+        int mBlockSize;
+        int mDim;
+        boolean mTune;
+        
+        // Group traversal. mVerts holds verts in tree order when mGroupStart is non-null.
+        int[] mGroupStart;
+        int[] mGroupEnd;
+        int mGroupNo;
+        
+        // Bounds of current group, and cells collected for it.
+        float mMinX;
+        float mMinY;
+        float mMinZ;
+        float mMaxX;
+        float mMaxY;
+        float mMaxZ;
+        QuadtreeCell[] mFar  = new QuadtreeCell[64];
+        QuadtreeCell[] mNear = new QuadtreeCell[64];
+        int mFarNo;
+        int mNearNo;
+        
+        long mCostTraversal;
+        long mCostForceCalc;
+        
+        
+        Traversal( AtomicInteger cursor ) {
+            mCursor = cursor;
+        }
+        
+        
+        public void run() {
+            if( mGroupStart != null ) {
+                runGroups();
+                return;
+            }
+            
+            final QuadtreeCell root = mRoot;
+            final Vert[] verts = mVerts;
+            final int vertNo = mVertNo;
+            final int block = mBlockSize;
+            
+            while( true ) {
+                int start = mCursor.getAndAdd( block );
+                if( start >= vertNo ) {
+                    return;
+                }
+                int end = Math.min( start + block, vertNo );
+                
+                if( !mTune ) {
+                    if( mDim == 2 ) {
+                        for( int i = start; i < end; i++ ) {
+                            apply2_r( root, verts[i] );
+                        }
+                    } else {
+                        for( int i = start; i < end; i++ ) {
+                            apply3_r( root, verts[i] );
+                        }
+                    }
+                } else {
+                    if( mDim == 2 ) {
+                        for( int i = start; i < end; i++ ) {
+                            applyWithTuning2_r( this, root, verts[i] );
+                        }
+                    } else {
+                        for( int i = start; i < end; i++ ) {
+                            applyWithTuning3_r( this, root, verts[i] );
+                        }
+                    }
+                }
+            }
+        }
+        
+        
+        void runGroups() {
+            final QuadtreeCell root = mRoot;
+            final Vert[] verts = mVerts;
+            final int groupNo = mGroupNo;
+            final int block = mBlockSize;
+            
+            while( true ) {
+                int start = mCursor.getAndAdd( block );
+                if( start >= groupNo ) {
+                    return;
+                }
+                int end = Math.min( start + block, groupNo );
+                
+                if( mDim == 2 ) {
+                    for( int i = start; i < end; i++ ) {
+                        applyGroup2( root, verts, mGroupStart[i], mGroupEnd[i] );
+                    }
+                } else {
+                    for( int i = start; i < end; i++ ) {
+                        applyGroup3( root, verts, mGroupStart[i], mGroupEnd[i] );
+                    }
+                }
+            }
+        }
+        
+        
+        void applyGroup2( QuadtreeCell root, Vert[] verts, int start, int end ) {
+            float x0 = Float.POSITIVE_INFINITY;
+            float y0 = Float.POSITIVE_INFINITY;
+            float x1 = Float.NEGATIVE_INFINITY;
+            float y1 = Float.NEGATIVE_INFINITY;
+            
+            for( int i = start; i < end; i++ ) {
+                Vert v = verts[i];
+                x0 = v.mX < x0 ? v.mX : x0;
+                y0 = v.mY < y0 ? v.mY : y0;
+                x1 = v.mX > x1 ? v.mX : x1;
+                y1 = v.mY > y1 ? v.mY : y1;
+            }
+            
+            mMinX   = x0;
+            mMinY   = y0;
+            mMaxX   = x1;
+            mMaxY   = y1;
+            mFarNo  = 0;
+            mNearNo = 0;
+            collect2_r( root );
+            applyCollected( verts, start, end );
+        }
+        
+        
+        void applyGroup3( QuadtreeCell root, Vert[] verts, int start, int end ) {
+            float x0 = Float.POSITIVE_INFINITY;
+            float y0 = Float.POSITIVE_INFINITY;
+            float z0 = Float.POSITIVE_INFINITY;
+            float x1 = Float.NEGATIVE_INFINITY;
+            float y1 = Float.NEGATIVE_INFINITY;
+            float z1 = Float.NEGATIVE_INFINITY;
+            
+            for( int i = start; i < end; i++ ) {
+                Vert v = verts[i];
+                x0 = v.mX < x0 ? v.mX : x0;
+                y0 = v.mY < y0 ? v.mY : y0;
+                z0 = v.mZ < z0 ? v.mZ : z0;
+                x1 = v.mX > x1 ? v.mX : x1;
+                y1 = v.mY > y1 ? v.mY : y1;
+                z1 = v.mZ > z1 ? v.mZ : z1;
+            }
+            
+            mMinX   = x0;
+            mMinY   = y0;
+            mMinZ   = z0;
+            mMaxX   = x1;
+            mMaxY   = y1;
+            mMaxZ   = z1;
+            mFarNo  = 0;
+            mNearNo = 0;
+            collect3_r( root );
+            applyCollected( verts, start, end );
+        }
+        
+        
+        private void collect2_r( QuadtreeCell cell ) {
+            mCostTraversal++;
+            
+            // Offset from cell center to nearest point in group bounds.
+            float dx = cell.mX < mMinX ? mMinX - cell.mX : ( cell.mX > mMaxX ? cell.mX - mMaxX : 0f );
+            float dy = cell.mY < mMinY ? mMinY - cell.mY : ( cell.mY > mMaxY ? cell.mY - mMaxY : 0f );
+            float dist = dx * dx + dy * dy;
+            
+            // Check if cell is far away from entire group.
+            if( 4.0f * cell.mHalfSize * cell.mHalfSize < mApproxThreshSq * dist ) {
+                addFar( cell );
+                return;
+            }
+            
+            // Check if cell is leaf.
+            if( cell.mVerts != null ) {
+                addNear( cell );
+                return;
+            }
+            
+            for( QuadtreeCell child = cell.mChildList; child != null; child = child.mNextSibling ) {
+                collect2_r( child );
+            }
+        }
+        
+        
+        private void collect3_r( QuadtreeCell cell ) {
+            mCostTraversal++;
+            
+            // Offset from cell center to nearest point in group bounds.
+            float dx = cell.mX < mMinX ? mMinX - cell.mX : ( cell.mX > mMaxX ? cell.mX - mMaxX : 0f );
+            float dy = cell.mY < mMinY ? mMinY - cell.mY : ( cell.mY > mMaxY ? cell.mY - mMaxY : 0f );
+            float dz = cell.mZ < mMinZ ? mMinZ - cell.mZ : ( cell.mZ > mMaxZ ? cell.mZ - mMaxZ : 0f );
+            float dist = dx * dx + dy * dy + dz * dz;
+            
+            // Check if cell is far away from entire group.
+            if( 4.0f * cell.mHalfSize * cell.mHalfSize < mApproxThreshSq * dist ) {
+                addFar( cell );
+                return;
+            }
+            
+            // Check if cell is leaf.
+            if( cell.mVerts != null ) {
+                addNear( cell );
+                return;
+            }
+            
+            for( QuadtreeCell child = cell.mChildList; child != null; child = child.mNextSibling ) {
+                collect3_r( child );
+            }
+        }
+        
+        
+        private void addFar( QuadtreeCell cell ) {
+            if( mFarNo == mFar.length ) {
+                mFar = Arrays.copyOf( mFar, mFarNo * 2 );
+            }
+            mFar[mFarNo++] = cell;
+        }
+        
+        
+        private void addNear( QuadtreeCell cell ) {
+            if( mNearNo == mNear.length ) {
+                mNear = Arrays.copyOf( mNear, mNearNo * 2 );
+            }
+            mNear[mNearNo++] = cell;
+        }
+        
+        
+        /**
+         * Applies collected cell lists to each vert in group.
+         */
+        private void applyCollected( Vert[] verts, int start, int end ) {
+            final RepulseFunc func = mFunc;
+            final QuadtreeCell[] far  = mFar;
+            final QuadtreeCell[] near = mNear;
+            final int farNo  = mFarNo;
+            final int nearNo = mNearNo;
+            
+            long nearVertNo = 0;
+            for( int j = 0; j < nearNo; j++ ) {
+                for( Vert u = near[j].mVerts; u != null; u = u.mTempNext ) {
+                    nearVertNo++;
+                }
+            }
+            
+            for( int i = start; i < end; i++ ) {
+                final Vert v = verts[i];
+                for( int j = 0; j < farNo; j++ ) {
+                    func.applyCellForce( far[j], v );
+                }
+                for( int j = 0; j < nearNo; j++ ) {
+                    for( Vert u = near[j].mVerts; u != null; u = u.mTempNext ) {
+                        if( u != v ) {
+                            func.appleVertForce( u, v );
+                        }
+                    }
+                }
+            }
+            
+            // Every vert of the group is in a near leaf, and skips itself.
+            mCostForceCalc += ( end - start ) * ( farNo + nearVertNo - 1 );
+        }
+    
+    }
+
 }
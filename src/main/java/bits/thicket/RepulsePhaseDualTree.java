@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Repulsion computed with a dual-tree traversal, a first-order variant of the
+ * fast multipole method. Where Barnes-Hut walks the tree once for every vert, this
+ * phase interacts cells with cells. When two cells are well separated, the field
+ * of the source cell is expanded about the center of the target cell as a force
+ * and a force gradient (a first-order local expansion). Expansions are then pushed
+ * down the tree and evaluated once at each vert. Only nearby leaves interact
+ * vert-to-vert. For well distributed graphs the cost is close to linear in the
+ * number of verts.
+ * <p>
+ * Cells are separated when {@code sqrt(2) * ( h_a + h_b ) < mRepulseApproxThresh * dist},
+ * where {@code h} is half the size of a cell and {@code dist} the distance between
+ * cell centers. Unlike {@link RepulsePhaseBarnesHut}, the weight of a source cell is
+ * placed at the weighted mean of its verts rather than at its geometric center,
+ * which removes the dipole term from the error and is what allows the looser
+ * separation test. Tree depth is tuned according to
+ * {@link LayoutParams#mRepulseApproxMaxTreeDepth}.
+ * <p>
+ * To use, set {@link LayoutParams#mRepulsePhase} to a new instance. Honors
+ * {@link LayoutParams#mThreadNo} by splitting target subtrees across workers;
+ * each worker writes only to the cells and verts of its own subtrees.
+ *
+ * @author decamp
+ */
+public class RepulsePhaseDualTree implements BoundedSolverPhase {
+
+    private static final float EPS = 0x0.000002P-60f;
+    private static final float FORCE_COST_FACTOR = 4.0f;
+    private static final int MIN_TASK_SIZE = 256;
+    private static final int TASKS_PER_THREAD = 16;
+
+    private int mDim;
+    private RepulseEq mEq;
+    private float mCoeff;
+    private float mApproxThreshSq;
+    private boolean mMortonBuild;
+    private SolverStats mStats;
+
+    private final PackedGraph mPacked = new PackedGraph();
+    private final PackedTree mTree    = new PackedTree();
+    private final DepthTuner mTuner   = new DepthTuner();
+    private final float[] mWork       = new float[3];
+
+    // Local expansion of each cell: force at cell center and its gradient.
+    private float[] mLocX = new float[0];
+    private float[] mLocY;
+    private float[] mLocZ;
+    private float[] mGradXX;
+    private float[] mGradXY;
+    private float[] mGradXZ;
+    private float[] mGradYY;
+    private float[] mGradYZ;
+    private float[] mGradZZ;
+
+    // Root cells of target subtrees processed as independent tasks.
+    private int[] mTasks = new int[16];
+    private int mTaskNo;
+
+    private final AtomicInteger mCursor = new AtomicInteger( 0 );
+    private Walker mSerial;
+    private WorkerPool mPool;
+    private Walker[] mWorkers;
+
+
+    @Override
+    public void init( LayoutParams params, Graph graph ) {
+        RepulseEq eq = params.mRepulseEq;
+        if( eq == null ) {
+            eq = RepulseEq.INV_LINEAR_DIST;
+        }
+
+        mDim   = params.mDim;
+        mEq    = eq;
+        mCoeff = PackedRepulsePhase.coeff( eq, params );
+        mApproxThreshSq = params.mRepulseApproxThresh * params.mRepulseApproxThresh;
+        mMortonBuild    = params.mRepulseMortonBuild;
+        mStats          = params.mStats;
+        mTuner.init( params.mRepulseApproxMaxTreeDepth );
+
+        mSerial = new Walker( this );
+        mPool   = WorkerPool.reuse( mPool, WorkerPool.threadCount( params ) );
+        if( mPool == null ) {
+            mWorkers = null;
+        } else {
+            mWorkers = new Walker[ mPool.threadNo() ];
+            for( int i = 0; i < mWorkers.length; i++ ) {
+                mWorkers[i] = new Walker( this );
+            }
+        }
+    }
+
+
+    @Override
+    public void step( LayoutParams params, Graph graph ) {
+        step( params, graph, null );
+    }
+
+    @Override
+    public void step( LayoutParams params, Graph graph, float[] optGraphBounds ) {
+        final PackedGraph g = mPacked;
+        final int dim = mDim;
+        g.packVerts( graph );
+        if( g.mVertNo == 0 ) {
+            return;
+        }
+
+        float[] cent = null;
+        float size = 0f;
+        if( optGraphBounds != null ) {
+            cent = mWork;
+            for( int i = 0; i < dim; i++ ) {
+                cent[i] = ( optGraphBounds[i] + optGraphBounds[i+dim] ) * 0.5f;
+                size = Math.max( size, optGraphBounds[i+dim] - optGraphBounds[i] );
+            }
+        }
+
+        final SolverStats stats = mStats;
+        final long t0 = stats == null ? 0L : System.nanoTime();
+
+        if( mMortonBuild ) {
+            mTree.rebuildMorton( g, dim, mTuner.depth(), cent, size, mPool );
+        } else {
+            mTree.rebuild( g, dim, mTuner.depth(), cent, size );
+        }
+
+        if( stats != null ) {
+            stats.addTree( System.nanoTime() - t0, mTree.mCellNo );
+        }
+
+        clearExpansions( mTree.mCellNo );
+
+        long costTraversal = 0;
+        long costForceCalc = 0;
+
+        if( mPool != null && g.mVertNo > MIN_TASK_SIZE ) {
+            collectTasks( Math.max( MIN_TASK_SIZE, g.mVertNo / ( mWorkers.length * TASKS_PER_THREAD ) ) );
+            mCursor.set( 0 );
+            for( Walker w: mWorkers ) {
+                w.reset( g );
+            }
+
+            mPool.run( mWorkers, mWorkers.length );
+
+            for( Walker w: mWorkers ) {
+                costTraversal += w.mCostTraversal;
+                costForceCalc += w.mCostForceCalc;
+                w.mGraph = null;
+            }
+        } else {
+            mTasks[0] = 0;
+            mTaskNo   = 1;
+            mCursor.set( 0 );
+            Walker w = mSerial;
+            w.reset( g );
+            w.run();
+            costTraversal = w.mCostTraversal;
+            costForceCalc = w.mCostForceCalc;
+            w.mGraph = null;
+        }
+
+        if( stats != null ) {
+            stats.addTraversal( costTraversal, costForceCalc );
+        }
+        mTuner.update( costTraversal + FORCE_COST_FACTOR * costForceCalc );
+
+        final Vert[] verts = g.mVerts;
+        final float[] fx = g.mForceX;
+        final float[] fy = g.mForceY;
+        final float[] fz = g.mForceZ;
+        for( int i = 0; i < g.mVertNo; i++ ) {
+            Vert v = verts[i];
+            v.mForceX += fx[i];
+            v.mForceY += fy[i];
+            v.mForceZ += fz[i];
+        }
+    }
+
+
+    @Override
+    public void dispose( LayoutParams params, Graph graph ) {
+        if( mPool != null ) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mWorkers = null;
+        mPacked.alloc( 0, 0 );
+        mPacked.mVertNo = 0;
+    }
+
+
+
+    /**
+     * Splits tree into disjoint subtrees of at most {@code grain} verts, or leaves.
+     */
+    private void collectTasks( int grain ) {
+        final PackedTree tree = mTree;
+        int n = 0;
+        int c = 0;
+        while( c < tree.mCellNo ) {
+            if( tree.isLeaf( c ) || tree.mEnd[c] - tree.mStart[c] <= grain ) {
+                if( n == mTasks.length ) {
+                    int[] arr = new int[ n * 2 ];
+                    System.arraycopy( mTasks, 0, arr, 0, n );
+                    mTasks = arr;
+                }
+                mTasks[n++] = c;
+                c = tree.mSkip[c];
+            } else {
+                c++;
+            }
+        }
+        mTaskNo = n;
+    }
+
+
+    private void clearExpansions( int cellNo ) {
+        if( mLocX.length < cellNo ) {
+            int cap = cellNo + ( cellNo >> 2 );
+            mLocX   = new float[cap];
+            mLocY   = new float[cap];
+            mLocZ   = new float[cap];
+            mGradXX = new float[cap];
+            mGradXY = new float[cap];
+            mGradXZ = new float[cap];
+            mGradYY = new float[cap];
+            mGradYZ = new float[cap];
+            mGradZZ = new float[cap];
+            return;
+        }
+
+        for( int c = 0; c < cellNo; c++ ) {
+            mLocX[c]   = 0f;
+            mLocY[c]   = 0f;
+            mLocZ[c]   = 0f;
+            mGradXX[c] = 0f;
+            mGradXY[c] = 0f;
+            mGradXZ[c] = 0f;
+            mGradYY[c] = 0f;
+            mGradYZ[c] = 0f;
+            mGradZZ[c] = 0f;
+        }
+    }
+
+    /**
+     * Derivative of repulsion magnitude with respect to squared distance.
+     *
+     * @param mag    Magnitude, as computed by {@link PackedRepulsePhase#magnitude}.
+     * @param distSq Squared distance.
+     */
+    private static float slope( RepulseEq eq, int dim, float mag, float distSq ) {
+        switch( eq ) {
+        case INV_LOG_DIST:
+        {
+            double d = Math.sqrt( distSq );
+            double s = 1.0 / d + 1.0 / ( ( 1.0 + d ) * Math.log( 1.0 + d ) );
+            return (float)( -mag * s / ( 2.0 * d + EPS ) );
+        }
+        case INV_SQUARE_DIST:
+            return -1.5f * mag / ( distSq + EPS );
+        case INV_LINEAR_DIST:
+        default:
+            if( dim == 2 ) {
+                return -mag / ( distSq + EPS );
+            }
+            return -0.5f * mag / ( distSq + EPS );
+        }
+    }
+
+
+
+    private static final class Walker implements Runnable {
+
+        private final RepulsePhaseDualTree mPhase;
+        private final float[] mAcc = new float[3];
+
+        PackedGraph mGraph;
+        long mCostTraversal;
+        long mCostForceCalc;
+
+
+        Walker( RepulsePhaseDualTree phase ) {
+            mPhase = phase;
+        }
+
+
+        void reset( PackedGraph graph ) {
+            mGraph = graph;
+            mCostTraversal = 0;
+            mCostForceCalc = 0;
+        }
+
+
+        public void run() {
+            final RepulsePhaseDualTree p = mPhase;
+            while( true ) {
+                int t = p.mCursor.getAndIncrement();
+                if( t >= p.mTaskNo ) {
+                    return;
+                }
+                int cell = p.mTasks[t];
+                interact_r( cell, 0 );
+                pushDown( cell );
+            }
+        }
+
+        /**
+         * Accumulates the field of source cell {@code b} into target cell {@code a}.
+         */
+        private void interact_r( int a, int b ) {
+            final PackedTree tree = mPhase.mTree;
+            mCostTraversal++;
+
+            float dx = tree.mCellX[b] - tree.mCellX[a];
+            float dy = tree.mCellY[b] - tree.mCellY[a];
+            float dz = mPhase.mDim == 3 ? tree.mCellZ[b] - tree.mCellZ[a] : 0f;
+            float ha = tree.mHalfSize[a];
+            float hb = tree.mHalfSize[b];
+            float dd = dx * dx + dy * dy + dz * dz;
+
+            // Check if cells are well separated.
+            if( 2.0f * ( ha + hb ) * ( ha + hb ) < mPhase.mApproxThreshSq * dd ) {
+                mCostForceCalc++;
+                dx = tree.mMeanX[b] - tree.mCellX[a];
+                dy = tree.mMeanY[b] - tree.mCellY[a];
+                dz = mPhase.mDim == 3 ? tree.mMeanZ[b] - tree.mCellZ[a] : 0f;
+                addLocal( a, tree.mWeight[b], dx, dy, dz, dx * dx + dy * dy + dz * dz );
+                return;
+            }
+
+            final int[] skip = tree.mSkip;
+            boolean leafA = skip[a] == a + 1;
+            boolean leafB = skip[b] == b + 1;
+
+            if( leafA && leafB ) {
+                direct( a, b );
+            } else if( leafB || !leafA && ha >= hb ) {
+                for( int c = a + 1; c < skip[a]; c = skip[c] ) {
+                    interact_r( c, b );
+                }
+            } else {
+                for( int c = b + 1; c < skip[b]; c = skip[c] ) {
+                    interact_r( a, c );
+                }
+            }
+        }
+
+
+        private void addLocal( int a, float weight, float dx, float dy, float dz, float dd ) {
+            final RepulsePhaseDualTree p = mPhase;
+            final float mag = PackedRepulsePhase.magnitude( p.mEq, p.mDim, p.mCoeff * weight, dd );
+            final float s2  = 2.0f * slope( p.mEq, p.mDim, mag, dd );
+
+            p.mLocX[a]   += mag * dx;
+            p.mLocY[a]   += mag * dy;
+            p.mLocZ[a]   += mag * dz;
+            p.mGradXX[a] -= mag + s2 * dx * dx;
+            p.mGradXY[a] -= s2 * dx * dy;
+            p.mGradXZ[a] -= s2 * dx * dz;
+            p.mGradYY[a] -= mag + s2 * dy * dy;
+            p.mGradYZ[a] -= s2 * dy * dz;
+            p.mGradZZ[a] -= mag + s2 * dz * dz;
+        }
+
+
+        private void direct( int a, int b ) {
+            final RepulsePhaseDualTree p = mPhase;
+            final PackedTree tree = p.mTree;
+            final RepulseEq eq = p.mEq;
+            final float coeff  = p.mCoeff;
+            final int[] order  = tree.mOrder;
+            final float[] sx   = tree.mSortX;
+            final float[] sy   = tree.mSortY;
+            final float[] sz   = tree.mSortZ;
+            final float[] sw   = tree.mSortW;
+            final float[] acc  = mAcc;
+            final int bs = tree.mStart[b];
+            final int be = tree.mEnd[b];
+
+            for( int ka = tree.mStart[a]; ka < tree.mEnd[a]; ka++ ) {
+                final int i = order[ka];
+                acc[0] = 0f;
+                acc[1] = 0f;
+                acc[2] = 0f;
+                if( p.mDim == 2 ) {
+                    ForceKernels.repulse2( eq, coeff, sx[ka], sy[ka], sx, sy, sw, bs, be, acc );
+                } else {
+                    ForceKernels.repulse3( eq, coeff, sx[ka], sy[ka], sz[ka], sx, sy, sz, sw, bs, be, acc );
+                }
+                mGraph.mForceX[i] += acc[0];
+                mGraph.mForceY[i] += acc[1];
+                mGraph.mForceZ[i] += acc[2];
+            }
+
+            mCostForceCalc += ( tree.mEnd[a] - tree.mStart[a] ) * ( be - bs );
+        }
+
+        /**
+         * Translates local expansions from each cell in subtree of {@code root}
+         * to its children, and evaluates them at verts in leaves.
+         */
+        private void pushDown( int root ) {
+            final RepulsePhaseDualTree p = mPhase;
+            final PackedTree tree = p.mTree;
+            final int[] skip  = tree.mSkip;
+            final int[] order = tree.mOrder;
+            final float[] cx  = tree.mCellX;
+            final float[] cy  = tree.mCellY;
+            final float[] cz  = tree.mCellZ;
+            final float[] xs  = mGraph.mX;
+            final float[] ys  = mGraph.mY;
+            final float[] zs  = mGraph.mZ;
+            final boolean dim3 = p.mDim == 3;
+            final int end = skip[root];
+
+            for( int c = root; c < end; c++ ) {
+                final float lx  = p.mLocX[c];
+                final float ly  = p.mLocY[c];
+                final float lz  = p.mLocZ[c];
+                final float gxx = p.mGradXX[c];
+                final float gxy = p.mGradXY[c];
+                final float gxz = p.mGradXZ[c];
+                final float gyy = p.mGradYY[c];
+                final float gyz = p.mGradYZ[c];
+                final float gzz = p.mGradZZ[c];
+
+                if( skip[c] == c + 1 ) {
+                    for( int k = tree.mStart[c]; k < tree.mEnd[c]; k++ ) {
+                        int i = order[k];
+                        float dx = xs[i] - cx[c];
+                        float dy = ys[i] - cy[c];
+                        float dz = dim3 ? zs[i] - cz[c] : 0f;
+                        mGraph.mForceX[i] += lx + gxx * dx + gxy * dy + gxz * dz;
+                        mGraph.mForceY[i] += ly + gxy * dx + gyy * dy + gyz * dz;
+                        mGraph.mForceZ[i] += lz + gxz * dx + gyz * dy + gzz * dz;
+                    }
+                    continue;
+                }
+
+                for( int ch = c + 1; ch < skip[c]; ch = skip[ch] ) {
+                    float dx = cx[ch] - cx[c];
+                    float dy = cy[ch] - cy[c];
+                    float dz = dim3 ? cz[ch] - cz[c] : 0f;
+                    p.mLocX[ch]   += lx + gxx * dx + gxy * dy + gxz * dz;
+                    p.mLocY[ch]   += ly + gxy * dx + gyy * dy + gyz * dz;
+                    p.mLocZ[ch]   += lz + gxz * dx + gyz * dy + gzz * dz;
+                    p.mGradXX[ch] += gxx;
+                    p.mGradXY[ch] += gxy;
+                    p.mGradXZ[ch] += gxz;
+                    p.mGradYY[ch] += gyy;
+                    p.mGradYZ[ch] += gyz;
+                    p.mGradZZ[ch] += gzz;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+
+/**
+ * Barnes-Hut repulsion computed on a {@link PackedTree}, a quadtree/octree held in
+ * parallel primitive arrays, instead of a tree of QuadtreeCell objects.
+ * <p>
+ * Each step, vert positions and weights are gathered into a {@link PackedGraph},
+ * the flat tree is built over those arrays and traversed with a single forward
+ * scan, and the resulting forces are added back to the Verts. The gather and
+ * scatter are linear and cheap compared to the traversal, which no longer chases
+ * cell or vert pointers. Cell acceptance and force calculation match
+ * {@link RepulsePhaseBarnesHut}, as does the handling of
+ * {@link LayoutParams#mRepulseApproxMaxTreeDepth} and {@link LayoutParams#mThreadNo}.
+ *
+ * @author decamp
+ */
+public class RepulsePhaseFlatTree implements BoundedSolverPhase {
+
+    private final PackedGraph mPacked = new PackedGraph();
+    private final PackedRepulsePhase mRepulse = new PackedRepulsePhase();
+
+
+    @Override
+    public void init( LayoutParams params, Graph graph ) {
+        mRepulse.init( params, mPacked );
+    }
+
+
+    @Override
+    public void step( LayoutParams params, Graph graph ) {
+        step( params, graph, null );
+    }
+
+    @Override
+    public void step( LayoutParams params, Graph graph, float[] optGraphBounds ) {
+        final PackedGraph g = mPacked;
+        g.packVerts( graph );
+        mRepulse.step( params, g, optGraphBounds );
+
+        final Vert[] verts = g.mVerts;
+        final float[] fx = g.mForceX;
+        final float[] fy = g.mForceY;
+        final float[] fz = g.mForceZ;
+        final int n = g.mVertNo;
+
+        for( int i = 0; i < n; i++ ) {
+            Vert v = verts[i];
+            v.mForceX += fx[i];
+            v.mForceY += fy[i];
+            v.mForceZ += fz[i];
+        }
+    }
+
+
+    @Override
+    public void dispose( LayoutParams params, Graph graph ) {
+        mRepulse.dispose( params, mPacked );
+        mPacked.alloc( 0, 0 );
+        mPacked.mVertNo = 0;
+    }
+
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Computes repulsive forces only between verts that lie within a cutoff radius of each
+ * other, in linear time. Verts are binned each step into a uniform grid whose cells are no
+ * smaller than the cutoff, so every vert within the cutoff of a target lies in one of the
+ * 3x3 (or 3x3x3) cells around it. Forces follow {@link LayoutParams#mRepulseEq}, and the
+ * cutoff is {@link LayoutParams#mRepulseGridCutoff} in proportion to
+ * {@link LayoutParams#mScale}.
+ * <p>
+ * Without long-range repulsion, this phase cannot unfold a graph by itself. It is meant
+ * for the final levels of a multilevel layout, where coarser levels have already arranged
+ * the graph globally and only local untangling remains. See
+ * {@link LayoutParams#mRepulseGridFinalLevel}.
+ * <p>
+ * The grid spans the graph bounds. If the bounds are so large relative to the cutoff that
+ * the grid would need many more cells than there are verts, cells are enlarged. This keeps
+ * memory linear at the cost of more distance tests, and never changes the result.
+ * Honors {@link LayoutParams#mThreadNo}.
+ *
+ * @author decamp
+ */
+public class RepulsePhaseGrid implements BoundedSolverPhase {
+
+    /** Max number of grid cells allocated per vert. **/
+    private static final int MAX_CELLS_PER_VERT = 4;
+    private static final int MIN_BLOCK_SIZE = 64;
+    private static final int BLOCKS_PER_THREAD = 16;
+
+    private int mDim;
+    private RepulseEq mEq;
+    private float mCoeff;
+    private float mCutoff;
+    private SolverStats mStats;
+
+    // Grid geometry.
+    private float mX0;
+    private float mY0;
+    private float mZ0;
+    private float mInvCellSize;
+    private int mNx;
+    private int mNy;
+    private int mNz;
+
+    // Verts sorted by cell, with packed copies of positions and weights.
+    private Vert[] mVerts     = new Vert[0];
+    private int[] mVertCell   = new int[0];
+    private float[] mXs       = new float[0];
+    private float[] mYs       = new float[0];
+    private float[] mZs       = new float[0];
+    private float[] mWs       = new float[0];
+    private int[] mCellStart  = new int[1];
+    private int mVertNo;
+
+    private final float[] mWork = new float[6];
+
+    private final AtomicInteger mCursor = new AtomicInteger( 0 );
+    private Worker mSerial;
+    private WorkerPool mPool;
+    private Worker[] mWorkers;
+
+
+    @Override
+    public void init( LayoutParams params, Graph graph ) {
+        RepulseEq eq = params.mRepulseEq;
+        if( eq == null ) {
+            eq = RepulseEq.INV_LINEAR_DIST;
+        }
+
+        mDim    = params.mDim;
+        mEq     = eq;
+        mCoeff  = PackedRepulsePhase.coeff( eq, params );
+        mCutoff = params.mRepulseGridCutoff * params.mScale;
+        mStats  = params.mStats;
+
+        if( mDim != 2 && mDim != 3 ) {
+            throw new IllegalArgumentException( "LayoutParams.mDim = " + params.mDim );
+        }
+        if( !( mCutoff > 0f ) ) {
+            throw new IllegalArgumentException( "LayoutParams.mRepulseGridCutoff = " + params.mRepulseGridCutoff );
+        }
+
+        mSerial = new Worker( this, null );
+        mPool   = WorkerPool.reuse( mPool, WorkerPool.threadCount( params ) );
+
+        if( mPool == null ) {
+            mWorkers = null;
+        } else {
+            mWorkers = new Worker[ mPool.threadNo() ];
+            for( int i = 0; i < mWorkers.length; i++ ) {
+                mWorkers[i] = new Worker( this, mCursor );
+            }
+        }
+    }
+
+
+    @Override
+    public void step( LayoutParams params, Graph graph ) {
+        step( params, graph, null );
+    }
+
+
+    @Override
+    public void step( LayoutParams params, Graph graph, float[] optGraphBounds ) {
+        final SolverStats stats = mStats;
+        final long t0 = stats == null ? 0L : System.nanoTime();
+
+        if( optGraphBounds == null ) {
+            optGraphBounds = mWork;
+            if( mDim == 2 ) {
+                Graphs.computeBounds2( graph.mVerts, optGraphBounds );
+            } else {
+                Graphs.computeBounds3( graph.mVerts, optGraphBounds );
+            }
+        }
+
+        int cellNo = buildGrid( graph, optGraphBounds );
+
+        if( stats != null ) {
+            stats.addTree( System.nanoTime() - t0, cellNo );
+        }
+
+        final int n = mVertNo;
+        long costTraversal;
+        long costForceCalc;
+
+        if( mPool != null && n > MIN_BLOCK_SIZE ) {
+            final Worker[] workers = mWorkers;
+            int block = n / ( workers.length * BLOCKS_PER_THREAD );
+            if( block < MIN_BLOCK_SIZE ) {
+                block = MIN_BLOCK_SIZE;
+            }
+
+            mCursor.set( 0 );
+            for( Worker w: workers ) {
+                w.mBlockSize     = block;
+                w.mCostTraversal = 0;
+                w.mCostForceCalc = 0;
+            }
+
+            mPool.run( workers, workers.length );
+
+            costTraversal = 0;
+            costForceCalc = 0;
+            for( Worker w: workers ) {
+                costTraversal += w.mCostTraversal;
+                costForceCalc += w.mCostForceCalc;
+            }
+
+        } else {
+            final Worker w = mSerial;
+            w.mCostTraversal = 0;
+            w.mCostForceCalc = 0;
+            w.apply( 0, n );
+            costTraversal = w.mCostTraversal;
+            costForceCalc = w.mCostForceCalc;
+        }
+
+        if( stats != null ) {
+            stats.addTraversal( costTraversal, costForceCalc );
+        }
+    }
+
+
+    @Override
+    public void dispose( LayoutParams params, Graph graph ) {
+        if( mPool != null ) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mWorkers  = null;
+        mVerts    = new Vert[0];
+        mVertCell = new int[0];
+        mXs       = new float[0];
+        mYs       = new float[0];
+        mZs       = new float[0];
+        mWs       = new float[0];
+        mCellStart = new int[1];
+        mVertNo   = 0;
+    }
+
+
+
+    /**
+     * Sizes grid to bounds and sorts verts into cells with a counting sort.
+     *
+     * @return number of cells in grid
+     */
+    private int buildGrid( Graph graph, float[] bounds ) {
+        final int dim = mDim;
+        final int n = graph.mVertNo;
+        ensureVertCapacity( n );
+
+        float x0 = bounds[0];
+        float y0 = bounds[1];
+        float z0 = dim == 2 ? 0f : bounds[2];
+        float w  = bounds[dim    ] - x0;
+        float h  = bounds[dim + 1] - y0;
+        float d  = dim == 2 ? 0f : bounds[5] - z0;
+
+        // Enlarge cells until grid is small enough. Cells must never be smaller than cutoff.
+        final long maxCells = (long)MAX_CELLS_PER_VERT * n + 1;
+        float size = mCutoff;
+        long nx, ny, nz;
+        while( true ) {
+            nx = (long)( w / size ) + 1;
+            ny = (long)( h / size ) + 1;
+            nz = dim == 2 ? 1 : (long)( d / size ) + 1;
+            if( nx * ny * nz <= maxCells ) {
+                break;
+            }
+            size *= 1.5f;
+        }
+
+        mX0 = x0;
+        mY0 = y0;
+        mZ0 = z0;
+        mInvCellSize = 1f / size;
+        mNx = (int)nx;
+        mNy = (int)ny;
+        mNz = (int)nz;
+
+        final int cellNo = mNx * mNy * mNz;
+        if( mCellStart.length < cellNo + 1 ) {
+            mCellStart = new int[ cellNo + 1 + ( cellNo >> 2 ) ];
+        }
+
+        final int[] start = mCellStart;
+        final int[] vertCell = mVertCell;
+        final Vert[] sorted = mVerts;
+
+        for( int i = 0; i <= cellNo; i++ ) {
+            start[i] = 0;
+        }
+
+        int i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext, i++ ) {
+            int c = cellOf( v.mX, v.mY, v.mZ );
+            vertCell[i] = c;
+            start[c + 1]++;
+        }
+
+        for( int c = 0; c < cellNo; c++ ) {
+            start[c + 1] += start[c];
+        }
+
+        // Place verts, using start[c] as insertion cursor, then shift cursors back.
+        i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext, i++ ) {
+            int k = start[ vertCell[i] ]++;
+            sorted[k] = v;
+            mXs[k] = v.mX;
+            mYs[k] = v.mY;
+            mZs[k] = v.mZ;
+            mWs[k] = v.mWeight;
+        }
+
+        for( int c = cellNo; c > 0; c-- ) {
+            start[c] = start[c - 1];
+        }
+        start[0] = 0;
+
+        mVertNo = i;
+        return cellNo;
+    }
+
+
+    private int cellOf( float x, float y, float z ) {
+        int cx = clamp( (int)( ( x - mX0 ) * mInvCellSize ), mNx );
+        int cy = clamp( (int)( ( y - mY0 ) * mInvCellSize ), mNy );
+        if( mDim == 2 ) {
+            return cy * mNx + cx;
+        }
+        int cz = clamp( (int)( ( z - mZ0 ) * mInvCellSize ), mNz );
+        return ( cz * mNy + cy ) * mNx + cx;
+    }
+
+
+    private static int clamp( int c, int n ) {
+        return c < 0 ? 0 : ( c >= n ? n - 1 : c );
+    }
+
+
+    private void ensureVertCapacity( int n ) {
+        if( mVerts.length >= n ) {
+            return;
+        }
+        int cap = n + ( n >> 2 );
+        mVerts    = new Vert[cap];
+        mVertCell = new int[cap];
+        mXs       = new float[cap];
+        mYs       = new float[cap];
+        mZs       = new float[cap];
+        mWs       = new float[cap];
+    }
+
+
+
+    /**
+     * Accumulates forces for a range of sorted verts. Each worker writes only to the
+     * verts in the ranges it claims.
+     */
+    private static final class Worker implements Runnable {
+
+        private final RepulsePhaseGrid mPhase;
+        private final AtomicInteger mCursor;
+
+        int mBlockSize;
+        long mCostTraversal;
+        long mCostForceCalc;
+
+
+        Worker( RepulsePhaseGrid phase, AtomicInteger cursor ) {
+            mPhase  = phase;
+            mCursor = cursor;
+        }
+
+
+        public void run() {
+            final int n = mPhase.mVertNo;
+            final int block = mBlockSize;
+
+            while( true ) {
+                int start = mCursor.getAndAdd( block );
+                if( start >= n ) {
+                    return;
+                }
+                apply( start, Math.min( start + block, n ) );
+            }
+        }
+
+
+        void apply( int start, int end ) {
+            if( mPhase.mDim == 2 ) {
+                apply2( start, end );
+            } else {
+                apply3( start, end );
+            }
+        }
+
+
+        private void apply2( int start, int end ) {
+            final RepulsePhaseGrid p = mPhase;
+            final RepulseEq eq    = p.mEq;
+            final float coeff     = p.mCoeff;
+            final float cutSq     = p.mCutoff * p.mCutoff;
+            final float inv       = p.mInvCellSize;
+            final int nx          = p.mNx;
+            final int ny          = p.mNy;
+            final int[] cellStart = p.mCellStart;
+            final float[] xs      = p.mXs;
+            final float[] ys      = p.mYs;
+            final float[] ws      = p.mWs;
+            final Vert[] verts    = p.mVerts;
+
+            long costTraversal = 0;
+            long costForceCalc = 0;
+
+            for( int i = start; i < end; i++ ) {
+                final float x = xs[i];
+                final float y = ys[i];
+                final int cx = clamp( (int)( ( x - p.mX0 ) * inv ), nx );
+                final int cy = clamp( (int)( ( y - p.mY0 ) * inv ), ny );
+                final int gx0 = cx > 0 ? cx - 1 : 0;
+                final int gx1 = cx < nx - 1 ? cx + 1 : cx;
+                final int gy0 = cy > 0 ? cy - 1 : 0;
+                final int gy1 = cy < ny - 1 ? cy + 1 : cy;
+
+                float fx = 0f;
+                float fy = 0f;
+
+                for( int gy = gy0; gy <= gy1; gy++ ) {
+                    // Cells in a row are contiguous, so the row is a single range.
+                    final int k0 = cellStart[ gy * nx + gx0 ];
+                    final int k1 = cellStart[ gy * nx + gx1 + 1 ];
+                    costTraversal += gx1 - gx0 + 1;
+
+                    for( int k = k0; k < k1; k++ ) {
+                        float dx = xs[k] - x;
+                        float dy = ys[k] - y;
+                        float dd = dx * dx + dy * dy;
+                        if( dd < cutSq && dd != 0f ) {
+                            float mag = PackedRepulsePhase.magnitude( eq, 2, coeff * ws[k], dd );
+                            fx += mag * dx;
+                            fy += mag * dy;
+                            costForceCalc++;
+                        }
+                    }
+                }
+
+                Vert v = verts[i];
+                v.mForceX += fx;
+                v.mForceY += fy;
+            }
+
+            mCostTraversal += costTraversal;
+            mCostForceCalc += costForceCalc;
+        }
+
+
+        private void apply3( int start, int end ) {
+            final RepulsePhaseGrid p = mPhase;
+            final RepulseEq eq    = p.mEq;
+            final float coeff     = p.mCoeff;
+            final float cutSq     = p.mCutoff * p.mCutoff;
+            final float inv       = p.mInvCellSize;
+            final int nx          = p.mNx;
+            final int ny          = p.mNy;
+            final int nz          = p.mNz;
+            final int[] cellStart = p.mCellStart;
+            final float[] xs      = p.mXs;
+            final float[] ys      = p.mYs;
+            final float[] zs      = p.mZs;
+            final float[] ws      = p.mWs;
+            final Vert[] verts    = p.mVerts;
+
+            long costTraversal = 0;
+            long costForceCalc = 0;
+
+            for( int i = start; i < end; i++ ) {
+                final float x = xs[i];
+                final float y = ys[i];
+                final float z = zs[i];
+                final int cx = clamp( (int)( ( x - p.mX0 ) * inv ), nx );
+                final int cy = clamp( (int)( ( y - p.mY0 ) * inv ), ny );
+                final int cz = clamp( (int)( ( z - p.mZ0 ) * inv ), nz );
+                final int gx0 = cx > 0 ? cx - 1 : 0;
+                final int gx1 = cx < nx - 1 ? cx + 1 : cx;
+                final int gy0 = cy > 0 ? cy - 1 : 0;
+                final int gy1 = cy < ny - 1 ? cy + 1 : cy;
+                final int gz0 = cz > 0 ? cz - 1 : 0;
+                final int gz1 = cz < nz - 1 ? cz + 1 : cz;
+
+                float fx = 0f;
+                float fy = 0f;
+                float fz = 0f;
+
+                for( int gz = gz0; gz <= gz1; gz++ ) {
+                    for( int gy = gy0; gy <= gy1; gy++ ) {
+                        final int row = ( gz * ny + gy ) * nx;
+                        final int k0  = cellStart[ row + gx0 ];
+                        final int k1  = cellStart[ row + gx1 + 1 ];
+                        costTraversal += gx1 - gx0 + 1;
+
+                        for( int k = k0; k < k1; k++ ) {
+                            float dx = xs[k] - x;
+                            float dy = ys[k] - y;
+                            float dz = zs[k] - z;
+                            float dd = dx * dx + dy * dy + dz * dz;
+                            if( dd < cutSq && dd != 0f ) {
+                                float mag = PackedRepulsePhase.magnitude( eq, 3, coeff * ws[k], dd );
+                                fx += mag * dx;
+                                fy += mag * dy;
+                                fz += mag * dz;
+                                costForceCalc++;
+                            }
+                        }
+                    }
+                }
+
+                Vert v = verts[i];
+                v.mForceX += fx;
+                v.mForceY += fy;
+                v.mForceZ += fz;
+            }
+
+            mCostTraversal += costTraversal;
+            mCostForceCalc += costForceCalc;
+        }
+
+    }
+
+}
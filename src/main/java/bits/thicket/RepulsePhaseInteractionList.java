@@ -0,0 +1,506 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Barnes-Hut repulsion that records interaction lists and reuses them across steps,
+ * in the manner of Verlet neighbor lists.
+ * <p>
+ * When lists are built, a {@link PackedTree} is built over the verts and walked once
+ * for each leaf, recording the far cells accepted for all verts of the leaf and the
+ * near leaves whose verts interact directly. Cells are accepted with a criterion
+ * that is padded by a margin, {@link LayoutParams#mRepulseListMargin}, so that the
+ * lists remain valid for as long as no vert moves further than the margin from
+ * where it was when the lists were built. Until then, each step only recomputes the
+ * weight and mean position of every cell and evaluates the recorded lists. Far
+ * cells act from the weighted mean of their verts.
+ * <p>
+ * Late in a layout, when steps are short, lists are typically reused for many steps
+ * and no tree walks are performed. Early on, or with a margin that is too small,
+ * lists are rebuilt every step and this phase costs about the same as a group
+ * Barnes-Hut traversal. Lists are also rebuilt every step while tree depth is being
+ * tuned. Honors {@link LayoutParams#mThreadNo} by splitting leaves across workers.
+ *
+ * @author decamp
+ */
+public class RepulsePhaseInteractionList implements BoundedSolverPhase {
+
+    private static final float FORCE_COST_FACTOR = 4.0f;
+    private static final int MIN_TASK_SIZE = 16;
+    private static final int TASKS_PER_THREAD = 16;
+
+    private int mDim;
+    private RepulseEq mEq;
+    private float mCoeff;
+    private float mApproxThresh;
+    private float mMargin;
+    private boolean mMortonBuild;
+    private SolverStats mStats;
+
+    private final PackedGraph mPacked = new PackedGraph();
+    private final PackedTree mTree    = new PackedTree();
+    private final DepthTuner mTuner   = new DepthTuner();
+    private final float[] mWork       = new float[3];
+
+    // Whether lists are valid, and positions of verts when they were built.
+    private boolean mValid = false;
+    private int mListVertNo = 0;
+    private float[] mRefX = new float[0];
+    private float[] mRefY = new float[0];
+    private float[] mRefZ = new float[0];
+
+    // Leaf cells, each of which is one group of target verts.
+    private int[] mLeaves = new int[16];
+
+    private final AtomicInteger mCursor = new AtomicInteger( 0 );
+    private Task[] mTasks = new Task[0];
+    private int mTaskNo;
+    private WorkerPool mPool;
+    private Runnable[] mWorkers;
+
+
+    @Override
+    public void init( LayoutParams params, Graph graph ) {
+        RepulseEq eq = params.mRepulseEq;
+        if( eq == null ) {
+            eq = RepulseEq.INV_LINEAR_DIST;
+        }
+
+        mDim   = params.mDim;
+        mEq    = eq;
+        mCoeff = PackedRepulsePhase.coeff( eq, params );
+        mApproxThresh = params.mRepulseApproxThresh;
+        mMargin       = Math.max( 0f, params.mRepulseListMargin * params.mScale );
+        mMortonBuild  = params.mRepulseMortonBuild;
+        mStats        = params.mStats;
+        mTuner.init( params.mRepulseApproxMaxTreeDepth );
+        mValid = false;
+
+        mPool = WorkerPool.reuse( mPool, WorkerPool.threadCount( params ) );
+        if( mPool == null ) {
+            mWorkers = null;
+        } else {
+            mWorkers = new Runnable[ mPool.threadNo() ];
+            for( int i = 0; i < mWorkers.length; i++ ) {
+                mWorkers[i] = new Worker( this );
+            }
+        }
+    }
+
+
+    @Override
+    public void step( LayoutParams params, Graph graph ) {
+        step( params, graph, null );
+    }
+
+    @Override
+    public void step( LayoutParams params, Graph graph, float[] optGraphBounds ) {
+        final PackedGraph g = mPacked;
+        g.packVerts( graph );
+        final int n = g.mVertNo;
+        if( n == 0 ) {
+            return;
+        }
+
+        final SolverStats stats = mStats;
+        final long t0 = stats == null ? 0L : System.nanoTime();
+        final boolean build = !mValid || n != mListVertNo || moved( g );
+
+        if( build ) {
+            buildTree( g, optGraphBounds );
+        } else {
+            mTree.refreshMoments( g.mX, g.mY, g.mZ, g.mWeight );
+        }
+
+        if( stats != null ) {
+            stats.addTree( System.nanoTime() - t0, mTree.mCellNo );
+        }
+
+        for( int i = 0; i < mTaskNo; i++ ) {
+            mTasks[i].reset( g, build );
+        }
+        mCursor.set( 0 );
+        if( mPool != null && mTaskNo > 1 ) {
+            mPool.run( mWorkers, mWorkers.length );
+        } else {
+            for( int i = 0; i < mTaskNo; i++ ) {
+                mTasks[i].run();
+            }
+        }
+
+        long costTraversal = 0;
+        long costForceCalc = 0;
+        for( int i = 0; i < mTaskNo; i++ ) {
+            Task t = mTasks[i];
+            costTraversal += t.mCostTraversal;
+            costForceCalc += t.mCostForceCalc;
+            t.mGraph = null;
+        }
+
+        if( stats != null ) {
+            stats.addTraversal( costTraversal, costForceCalc );
+        }
+
+        if( build ) {
+            mTuner.update( costTraversal + FORCE_COST_FACTOR * costForceCalc );
+            // Depth changes invalidate lists, so rebuild every step until tuning is complete.
+            mValid = !mTuner.tuning();
+        }
+
+        final Vert[] verts = g.mVerts;
+        final float[] fx = g.mForceX;
+        final float[] fy = g.mForceY;
+        final float[] fz = g.mForceZ;
+        for( int i = 0; i < n; i++ ) {
+            Vert v = verts[i];
+            v.mForceX += fx[i];
+            v.mForceY += fy[i];
+            v.mForceZ += fz[i];
+        }
+    }
+
+
+    @Override
+    public void dispose( LayoutParams params, Graph graph ) {
+        if( mPool != null ) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mWorkers = null;
+        mTasks   = new Task[0];
+        mTaskNo  = 0;
+        mValid   = false;
+        mPacked.alloc( 0, 0 );
+        mPacked.mVertNo = 0;
+    }
+
+
+    /**
+     * @return true iff any vert has moved further than margin since lists were built.
+     */
+    private boolean moved( PackedGraph g ) {
+        final float limit = mMargin * mMargin;
+        final float[] xs = g.mX;
+        final float[] ys = g.mY;
+        final float[] zs = g.mZ;
+        final float[] rx = mRefX;
+        final float[] ry = mRefY;
+        final float[] rz = mRefZ;
+
+        for( int i = 0; i < g.mVertNo; i++ ) {
+            float dx = xs[i] - rx[i];
+            float dy = ys[i] - ry[i];
+            float dz = zs[i] - rz[i];
+            if( dx * dx + dy * dy + dz * dz > limit ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private void buildTree( PackedGraph g, float[] optGraphBounds ) {
+        final int dim = mDim;
+        final int n   = g.mVertNo;
+
+        float[] cent = null;
+        float size = 0f;
+        if( optGraphBounds != null ) {
+            cent = mWork;
+            for( int i = 0; i < dim; i++ ) {
+                cent[i] = ( optGraphBounds[i] + optGraphBounds[i+dim] ) * 0.5f;
+                size = Math.max( size, optGraphBounds[i+dim] - optGraphBounds[i] );
+            }
+        }
+
+        if( mMortonBuild ) {
+            mTree.rebuildMorton( g, dim, mTuner.depth(), cent, size, mPool );
+        } else {
+            mTree.rebuild( g, dim, mTuner.depth(), cent, size );
+        }
+
+        if( mRefX.length < n ) {
+            int cap = n + ( n >> 3 );
+            mRefX = new float[cap];
+            mRefY = new float[cap];
+            mRefZ = new float[cap];
+        }
+        System.arraycopy( g.mX, 0, mRefX, 0, n );
+        System.arraycopy( g.mY, 0, mRefY, 0, n );
+        System.arraycopy( g.mZ, 0, mRefZ, 0, n );
+        mListVertNo = n;
+
+        // Collect leaves.
+        final PackedTree tree = mTree;
+        int leafNo = 0;
+        for( int c = 0; c < tree.mCellNo; c++ ) {
+            if( tree.mSkip[c] == c + 1 ) {
+                if( leafNo == mLeaves.length ) {
+                    mLeaves = Arrays.copyOf( mLeaves, leafNo * 2 );
+                }
+                mLeaves[leafNo++] = c;
+            }
+        }
+
+        // Split leaves into tasks.
+        int taskNo = 1;
+        if( mPool != null ) {
+            taskNo = Math.max( 1, Math.min( mWorkers.length * TASKS_PER_THREAD, leafNo / MIN_TASK_SIZE ) );
+        }
+        if( mTasks.length < taskNo ) {
+            Task[] arr = Arrays.copyOf( mTasks, taskNo );
+            for( int i = mTasks.length; i < taskNo; i++ ) {
+                arr[i] = new Task( this );
+            }
+            mTasks = arr;
+        }
+        for( int i = 0; i < taskNo; i++ ) {
+            mTasks[i].mFirst = (int)( (long)leafNo * i / taskNo );
+            mTasks[i].mLast  = (int)( (long)leafNo * ( i + 1 ) / taskNo );
+        }
+        mTaskNo = taskNo;
+    }
+
+
+    private static final class Worker implements Runnable {
+
+        private final RepulsePhaseInteractionList mPhase;
+
+        Worker( RepulsePhaseInteractionList phase ) {
+            mPhase = phase;
+        }
+
+        public void run() {
+            final RepulsePhaseInteractionList p = mPhase;
+            while( true ) {
+                int t = p.mCursor.getAndIncrement();
+                if( t >= p.mTaskNo ) {
+                    return;
+                }
+                p.mTasks[t].run();
+            }
+        }
+
+    }
+
+    /**
+     * Owns the interaction lists of a contiguous range of leaves, stored in
+     * compressed row form. Optionally rebuilds them, then evaluates them.
+     */
+    private static final class Task implements Runnable {
+
+        private final RepulsePhaseInteractionList mPhase;
+        private final float[] mAcc = new float[3];
+
+        int mFirst;
+        int mLast;
+
+        // Far cells of leaf mFirst + i are mFar[ mFarStart[i] .. mFarStart[i+1] ).
+        int[] mFarStart  = new int[1];
+        int[] mFar       = new int[16];
+        // Near leaves, likewise.
+        int[] mNearStart = new int[1];
+        int[] mNear      = new int[16];
+
+        PackedGraph mGraph;
+        boolean mBuild;
+        long mCostTraversal;
+        long mCostForceCalc;
+
+
+        Task( RepulsePhaseInteractionList phase ) {
+            mPhase = phase;
+        }
+
+
+        void reset( PackedGraph g, boolean build ) {
+            mGraph = g;
+            mBuild = build;
+            mCostTraversal = 0;
+            mCostForceCalc = 0;
+        }
+
+
+        public void run() {
+            if( mBuild ) {
+                build();
+            }
+            evaluate();
+        }
+
+
+        private void build() {
+            final RepulsePhaseInteractionList p = mPhase;
+            final PackedTree tree = p.mTree;
+            final int[] skip   = tree.mSkip;
+            final float[] cx   = tree.mCellX;
+            final float[] cy   = tree.mCellY;
+            final float[] cz   = tree.mCellZ;
+            final float[] half = tree.mHalfSize;
+            final float[] sx   = tree.mSortX;
+            final float[] sy   = tree.mSortY;
+            final float[] sz   = tree.mSortZ;
+            final float thresh = p.mApproxThresh;
+            final float margin = p.mMargin;
+            final int cellNo   = tree.mCellNo;
+            final int groupNo  = mLast - mFirst;
+            final boolean dim3 = p.mDim == 3;
+
+            if( mFarStart.length < groupNo + 1 ) {
+                mFarStart  = new int[ groupNo + 1 ];
+                mNearStart = new int[ groupNo + 1 ];
+            }
+
+            int farNo  = 0;
+            int nearNo = 0;
+            long traversal = 0;
+
+            for( int gi = 0; gi < groupNo; gi++ ) {
+                final int leaf = p.mLeaves[ mFirst + gi ];
+                mFarStart[gi]  = farNo;
+                mNearStart[gi] = nearNo;
+
+                // Bounding sphere of the leaf's verts, padded by margin.
+                float x0 = Float.POSITIVE_INFINITY, y0 = x0, z0 = x0;
+                float x1 = Float.NEGATIVE_INFINITY, y1 = x1, z1 = x1;
+                for( int k = tree.mStart[leaf]; k < tree.mEnd[leaf]; k++ ) {
+                    x0 = Math.min( x0, sx[k] );
+                    x1 = Math.max( x1, sx[k] );
+                    y0 = Math.min( y0, sy[k] );
+                    y1 = Math.max( y1, sy[k] );
+                    z0 = Math.min( z0, sz[k] );
+                    z1 = Math.max( z1, sz[k] );
+                }
+                final float gx = ( x0 + x1 ) * 0.5f;
+                final float gy = ( y0 + y1 ) * 0.5f;
+                final float gz = ( z0 + z1 ) * 0.5f;
+                final float gr = 0.5f * (float)Math.sqrt( ( x1 - x0 ) * ( x1 - x0 ) +
+                                                          ( y1 - y0 ) * ( y1 - y0 ) +
+                                                          ( z1 - z0 ) * ( z1 - z0 ) ) + margin;
+
+                int c = 0;
+                while( c < cellNo ) {
+                    traversal++;
+                    float dx = cx[c] - gx;
+                    float dy = cy[c] - gy;
+                    float dz = dim3 ? cz[c] - gz : 0f;
+                    float d  = (float)Math.sqrt( dx * dx + dy * dy + dz * dz ) - gr;
+
+                    // Accept if the padded cell is far from every point the group's verts may reach.
+                    if( d > 0f && 2.0f * ( half[c] + margin ) < thresh * d ) {
+                        if( farNo == mFar.length ) {
+                            mFar = Arrays.copyOf( mFar, farNo * 2 );
+                        }
+                        mFar[farNo++] = c;
+                        c = skip[c];
+                        continue;
+                    }
+
+                    if( skip[c] == c + 1 ) {
+                        if( nearNo == mNear.length ) {
+                            mNear = Arrays.copyOf( mNear, nearNo * 2 );
+                        }
+                        mNear[nearNo++] = c;
+                    }
+                    c++;
+                }
+            }
+
+            mFarStart[groupNo]  = farNo;
+            mNearStart[groupNo] = nearNo;
+            mCostTraversal += traversal;
+        }
+
+
+        private void evaluate() {
+            final RepulsePhaseInteractionList p = mPhase;
+            final PackedTree tree = p.mTree;
+            final RepulseEq eq   = p.mEq;
+            final int dim        = p.mDim;
+            final float coeff    = p.mCoeff;
+            final int[] order    = tree.mOrder;
+            final int[] start    = tree.mStart;
+            final int[] end      = tree.mEnd;
+            final float[] mx     = tree.mMeanX;
+            final float[] my     = tree.mMeanY;
+            final float[] mz     = tree.mMeanZ;
+            final float[] mw     = tree.mWeight;
+            final float[] sx     = tree.mSortX;
+            final float[] sy     = tree.mSortY;
+            final float[] sz     = tree.mSortZ;
+            final float[] sw     = tree.mSortW;
+            final float[] acc    = mAcc;
+            final float[] outX   = mGraph.mForceX;
+            final float[] outY   = mGraph.mForceY;
+            final float[] outZ   = mGraph.mForceZ;
+            final int groupNo    = mLast - mFirst;
+            long forceCalc = 0;
+
+            for( int gi = 0; gi < groupNo; gi++ ) {
+                final int leaf   = p.mLeaves[ mFirst + gi ];
+                final int farS   = mFarStart[gi];
+                final int farE   = mFarStart[gi+1];
+                final int nearS  = mNearStart[gi];
+                final int nearE  = mNearStart[gi+1];
+                int nearVerts = 0;
+                for( int j = nearS; j < nearE; j++ ) {
+                    nearVerts += end[ mNear[j] ] - start[ mNear[j] ];
+                }
+
+                for( int k = start[leaf]; k < end[leaf]; k++ ) {
+                    final float x = sx[k];
+                    final float y = sy[k];
+                    final float z = sz[k];
+                    float fx = 0f;
+                    float fy = 0f;
+                    float fz = 0f;
+
+                    for( int j = farS; j < farE; j++ ) {
+                        final int c = mFar[j];
+                        float dx  = mx[c] - x;
+                        float dy  = my[c] - y;
+                        float dz  = mz[c] - z;
+                        float mag = PackedRepulsePhase.magnitude( eq, dim, coeff * mw[c], dx * dx + dy * dy + dz * dz );
+                        fx += mag * dx;
+                        fy += mag * dy;
+                        fz += mag * dz;
+                    }
+
+                    acc[0] = fx;
+                    acc[1] = fy;
+                    acc[2] = fz;
+                    if( dim == 2 ) {
+                        for( int j = nearS; j < nearE; j++ ) {
+                            final int c = mNear[j];
+                            ForceKernels.repulse2( eq, coeff, x, y, sx, sy, sw, start[c], end[c], acc );
+                        }
+                    } else {
+                        for( int j = nearS; j < nearE; j++ ) {
+                            final int c = mNear[j];
+                            ForceKernels.repulse3( eq, coeff, x, y, z, sx, sy, sz, sw, start[c], end[c], acc );
+                        }
+                    }
+
+                    final int i = order[k];
+                    outX[i] += acc[0];
+                    outY[i] += acc[1];
+                    outZ[i] += acc[2];
+                }
+
+                forceCalc += (long)( end[leaf] - start[leaf] ) * ( farE - farS + nearVerts );
+            }
+
+            mCostForceCalc += forceCalc;
+        }
+
+    }
+
+}
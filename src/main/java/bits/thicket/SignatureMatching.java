@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+
+
+/**
+ * Greedy matching by edge signature. Each free vert <code>v</code> is matched to the
+ * free neighbour <code>u</code> whose edges lead mostly to <code>v</code> and the
+ * neighbours of <code>v</code>, scored as the weight of such edges of <code>u</code>
+ * divided by the total edge weight of <code>u</code> and <code>v</code>.
+ * <p>
+ * Total edge weights are computed once. A score is computed by marking the neighbours of
+ * <code>v</code> and scanning the edges of <code>u</code>, or, when <code>u</code> has
+ * the higher degree, by looking up the weight between <code>u</code> and each neighbour
+ * of <code>v</code> in an {@link EdgeTable}, so that scoring a pair takes
+ * O(min(deg(u),deg(v))) time.
+ * <p>
+ * When run on more than one thread, the best partner of every vert, ignoring which verts
+ * are already matched, is found first in parallel. The greedy pass then only rescores
+ * verts whose best partner was taken. This scores more pairs than the serial pass, which
+ * only scores free verts, so it is only used when a pool of more than one thread is given.
+ * Both produce the same matching.
+ * <p>
+ * Overwrites mTempDist. Lists of more than 2<sup>24</sup> verts fall back to {@link #MAX_EDGE}.
+ *
+ * @author decamp
+ */
+final class SignatureMatching implements CoarsenStrategy {
+
+    /**
+     * Verts are indexed through mTempDist, which holds integers exactly only up to this size.
+     */
+    private static final int MAX_VERTS = 1 << 24;
+
+    /**
+     * Edges are only put in a table if some vert has at least this degree.
+     */
+    private static final int TABLE_MIN_DEGREE = 32;
+
+    static final int MIN_BLOCK_SIZE = 1 << 12;
+
+
+    public Vert coarsenVerts( LayoutParams params, Vert list, WorkerPool optPool ) {
+        final int n = Graphs.size( list );
+        if( n == 0 ) {
+            return null;
+        }
+        if( n > MAX_VERTS ) {
+            return MAX_EDGE.coarsenVerts( params, list, optPool );
+        }
+
+        final Vert[] verts  = new Vert[n];
+        final int[] degree  = new int[n];
+        final float[] total = new float[n];
+        int maxDegree = 0;
+
+        int i = 0;
+        for( Vert v = list; v != null; v = v.mGraphNext ) {
+            v.mTempDist = i;
+            verts[i++]  = v;
+        }
+
+        for( i = 0; i < n; i++ ) {
+            Vert v = verts[i];
+            int deg = 0;
+            float sum = 0f;
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                deg++;
+                sum += e.mWeight;
+            }
+            degree[i] = deg;
+            total[i]  = sum;
+            if( deg > maxDegree ) {
+                maxDegree = deg;
+            }
+        }
+
+        // Table holds one edge per pair of verts, carrying the total weight between them.
+        EdgeTable table = null;
+        if( maxDegree >= TABLE_MIN_DEGREE ) {
+            table = new EdgeTable();
+            for( Vert v = list; v != null; v = v.mGraphNext ) {
+                for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                    if( e.mA != v ) {
+                        continue;
+                    }
+                    Edge sum = table.find( e.mA, e.mB );
+                    if( sum == null ) {
+                        table.add( new Edge( e.mA, e.mB, e.mWeight ) );
+                    } else {
+                        sum.mWeight += e.mWeight;
+                    }
+                }
+            }
+        }
+
+        final int threadNo = optPool == null ? 1 : Math.max( 1, Math.min( optPool.threadNo(), n / MIN_BLOCK_SIZE ) );
+        final int block    = ( n + threadNo - 1 ) / threadNo;
+        final int[] best   = threadNo > 1 ? new int[n] : null;
+        final Scorer[] scorers = new Scorer[threadNo];
+        for( i = 0; i < threadNo; i++ ) {
+            scorers[i] = new Scorer( verts, degree, total, table, best, i * block, Math.min( n, ( i + 1 ) * block ) );
+        }
+
+        // Find best partner of every vert in parallel.
+        if( threadNo > 1 ) {
+            optPool.run( scorers, threadNo );
+        }
+
+        // Match greedily in list order.
+        final Scorer scorer = scorers[0];
+        Vert ret = null;
+
+        for( i = 0; i < n; i++ ) {
+            Vert v = verts[i];
+            if( v.mGraphOwner != null ) {
+                continue;
+            }
+
+            int j;
+            if( threadNo > 1 ) {
+                j = best[i];
+                if( j >= 0 && verts[j].mGraphOwner != null ) {
+                    j = scorer.bestPartner( i, true );
+                }
+            } else {
+                j = scorer.bestPartner( i, true );
+            }
+            if( j < 0 ) {
+                continue;
+            }
+
+            Vert combined = Graphs.combine( v, verts[j], params.mVertWeightModel );
+            combined.mGraphNext = ret;
+            ret = combined;
+        }
+
+        return ret;
+    }
+
+
+
+    private static final class Scorer implements Runnable {
+
+        private final Vert[] mVerts;
+        private final int[] mDegree;
+        private final float[] mTotal;
+        private final EdgeTable mTable;
+        private final int[] mBest;
+        private final int mStart;
+        private final int mEnd;
+
+        private final int[] mMark;
+        private final int[] mSeen;
+        private int mMarkStamp = 0;
+        private int mSeenStamp = 0;
+
+
+        Scorer( Vert[] verts, int[] degree, float[] total, EdgeTable table, int[] best, int start, int end ) {
+            mVerts  = verts;
+            mDegree = degree;
+            mTotal  = total;
+            mTable  = table;
+            mBest   = best;
+            mStart  = start;
+            mEnd    = end;
+            mMark   = new int[verts.length];
+            mSeen   = table == null ? null : new int[verts.length];
+        }
+
+
+        public void run() {
+            final Vert[] verts = mVerts;
+            for( int i = mStart; i < mEnd; i++ ) {
+                mBest[i] = verts[i].mGraphOwner != null ? -1 : bestPartner( i, false );
+            }
+        }
+
+        /**
+         * @param i        Index of vert.
+         * @param freeOnly If true, neighbours that are already matched are skipped.
+         * @return index of the first neighbour of vert <code>i</code> with the highest
+         *         positive score, or -1 if none.
+         */
+        int bestPartner( int i, boolean freeOnly ) {
+            final Vert[] verts = mVerts;
+            final int[] mark   = mMark;
+            final Vert v       = verts[i];
+            final int stamp    = mMarkStamp = nextStamp( mMark, mMarkStamp );
+
+            // Mark v and all verts that connect to v.
+            mark[i] = stamp;
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                mark[ (int)e.other( v ).mTempDist ] = stamp;
+            }
+
+            int best = -1;
+            float bestScore = 0f;
+
+            for( Edge e = v.mEdges; e != null; e = e.next( v ) ) {
+                Vert u = e.other( v );
+                int j  = (int)u.mTempDist;
+                if( j == i || freeOnly && u.mGraphOwner != null ) {
+                    continue;
+                }
+
+                float shared = 0f;
+                if( mTable == null || mDegree[j] <= mDegree[i] ) {
+                    for( Edge f = u.mEdges; f != null; f = f.next( u ) ) {
+                        if( mark[ (int)f.other( u ).mTempDist ] == stamp ) {
+                            shared += f.mWeight;
+                        }
+                    }
+                } else {
+                    // Visit each neighbour of v once, as v may have parallel edges.
+                    final int[] seen = mSeen;
+                    final int seenStamp = mSeenStamp = nextStamp( seen, mSeenStamp );
+                    seen[j] = seenStamp;
+                    shared = mTable.find( u, v ).mWeight;
+
+                    for( Edge f = v.mEdges; f != null; f = f.next( v ) ) {
+                        Vert w = f.other( v );
+                        int k  = (int)w.mTempDist;
+                        if( seen[k] == seenStamp ) {
+                            continue;
+                        }
+                        seen[k] = seenStamp;
+                        Edge g = mTable.find( u, w );
+                        if( g != null ) {
+                            shared += g.mWeight;
+                        }
+                    }
+                }
+
+                float score = shared / ( mTotal[i] + mTotal[j] );
+                if( score > bestScore ) {
+                    bestScore = score;
+                    best = j;
+                }
+            }
+
+            return best;
+        }
+
+
+        private static int nextStamp( int[] marks, int stamp ) {
+            if( stamp == Integer.MAX_VALUE ) {
+                Arrays.fill( marks, 0 );
+                return 1;
+            }
+            return stamp + 1;
+        }
+
+    }
+
+}
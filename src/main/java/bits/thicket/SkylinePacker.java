@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * Packs rectangles into a strip of fixed width with the bottom-left skyline heuristic.
+ * Rectangles are placed tallest first. The skyline is the upper contour of everything placed
+ * so far, stored as a list of horizontal segments, and each rectangle is put wherever along
+ * the skyline it would rest lowest, ties going to the left. Space below the skyline is
+ * never reused, which keeps placement at O(N * S) for S skyline segments.
+ *
+ * @author decamp
+ */
+final class SkylinePacker {
+
+    // Skyline segments, ordered by x. Segment i covers [mSegX[i], mSegX[i+1]) at height mSegY[i].
+    private float[] mSegX = new float[16];
+    private float[] mSegY = new float[16];
+    private int mSegNo;
+
+    private Integer[] mOrder = new Integer[0];
+
+
+    /**
+     * Packs rectangles of given sizes.
+     *
+     * @param w          Widths of rectangles.
+     * @param h          Heights of rectangles.
+     * @param n          Number of rectangles.
+     * @param stripWidth Width of strip. Increased to width of widest rectangle if smaller.
+     * @param outX       Receives x-coordinate of lower-left corner of each rectangle.
+     * @param outY       Receives y-coordinate of lower-left corner of each rectangle.
+     * @return height of packing.
+     */
+    float pack( final float[] w, final float[] h, int n, float stripWidth, float[] outX, float[] outY ) {
+        for( int i = 0; i < n; i++ ) {
+            if( w[i] > stripWidth ) {
+                stripWidth = w[i];
+            }
+        }
+
+        if( mOrder.length < n ) {
+            mOrder = new Integer[n];
+        }
+        for( int i = 0; i < n; i++ ) {
+            mOrder[i] = i;
+        }
+        Arrays.sort( mOrder, 0, n, new Comparator<Integer>() {
+            public int compare( Integer a, Integer b ) {
+                float ha = h[a];
+                float hb = h[b];
+                if( ha != hb ) {
+                    return ha > hb ? -1 : 1;
+                }
+                float wa = w[a];
+                float wb = w[b];
+                return wa > wb ? -1 : ( wa < wb ? 1 : 0 );
+            }
+        } );
+
+        mSegNo   = 1;
+        mSegX[0] = 0f;
+        mSegY[0] = 0f;
+
+        float top = 0f;
+
+        for( int k = 0; k < n; k++ ) {
+            final int i = mOrder[k];
+            final float rw = w[i];
+
+            // Find segment to start at that gives lowest resting height.
+            int bestSeg = -1;
+            float bestY = Float.POSITIVE_INFINITY;
+
+            for( int s = 0; s < mSegNo; s++ ) {
+                float x0 = mSegX[s];
+                float x1 = x0 + rw;
+                if( x1 > stripWidth * 1.000001f ) {
+                    break;
+                }
+
+                float y = 0f;
+                for( int t = s; t < mSegNo && mSegX[t] < x1; t++ ) {
+                    if( mSegY[t] > y ) {
+                        y = mSegY[t];
+                    }
+                }
+
+                if( y < bestY ) {
+                    bestY   = y;
+                    bestSeg = s;
+                }
+            }
+
+            final float x = mSegX[bestSeg];
+            outX[i] = x;
+            outY[i] = bestY;
+            raise( x, x + rw, bestY + h[i], stripWidth );
+
+            if( bestY + h[i] > top ) {
+                top = bestY + h[i];
+            }
+        }
+
+        return top;
+    }
+
+
+    /**
+     * Sets skyline to height y over [x0, x1).
+     */
+    private void raise( float x0, float x1, float y, float stripWidth ) {
+        int first = 0;
+        while( first + 1 < mSegNo && mSegX[first + 1] <= x0 ) {
+            first++;
+        }
+
+        int last = first;
+        while( last + 1 < mSegNo && mSegX[last + 1] < x1 ) {
+            last++;
+        }
+        // Height of skyline at x1, which resumes after new segment.
+        final float resumeY = mSegY[last];
+
+        boolean resume = x1 < stripWidth && ( last + 1 >= mSegNo || mSegX[last + 1] > x1 );
+
+        // Segments [first, last] are replaced by: optional head piece of segment first,
+        // new segment, and optional tail piece at resumeY.
+        boolean head = mSegX[first] < x0;
+        int newNo = ( head ? 1 : 0 ) + 1 + ( resume ? 1 : 0 );
+        int removed = last - first + 1;
+        int delta = newNo - removed;
+
+        ensureSegCapacity( mSegNo + delta );
+        System.arraycopy( mSegX, last + 1, mSegX, last + 1 + delta, mSegNo - last - 1 );
+        System.arraycopy( mSegY, last + 1, mSegY, last + 1 + delta, mSegNo - last - 1 );
+        mSegNo += delta;
+
+        int s = first;
+        if( head ) {
+            // Segment first keeps its start and height.
+            s++;
+        }
+        mSegX[s] = x0;
+        mSegY[s] = y;
+        s++;
+        if( resume ) {
+            mSegX[s] = x1;
+            mSegY[s] = resumeY;
+        }
+    }
+
+
+    private void ensureSegCapacity( int n ) {
+        if( mSegX.length >= n ) {
+            return;
+        }
+        int cap = Math.max( n, mSegX.length * 2 );
+        mSegX = Arrays.copyOf( mSegX, cap );
+        mSegY = Arrays.copyOf( mSegY, cap );
+    }
+
+}
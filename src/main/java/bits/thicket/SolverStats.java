@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Timings and counters collected by {@link LayoutSolver}. Collection is enabled by setting
+ * {@link LayoutParams#mStats} before calling {@link LayoutSolver#init}; when that field is
+ * null, the solver and its phases do no timing or counting at all.
+ * <p>
+ * Fields prefixed with <code>mStep</code> describe the most recent call to
+ * {@link LayoutSolver#step()} and are cleared at the start of each call. Every level of a
+ * multilevel layout has a {@link Level} entry in {@link #mLevels}, indexed by
+ * {@link Graph#mCoarseLevel}, that accumulates the same values over the layout of that level.
+ * <p>
+ * Phase times are indexed by {@link #GRAVITY}, {@link #ATTRACT}, {@link #TREE}, {@link #REPULSE}
+ * and {@link #UPDATE}. Tree construction is reported separately only by the built-in
+ * tree-based repulse phases; for other repulse phases, {@link #REPULSE} includes all repulse
+ * work. Cell and force counts are likewise only reported by built-in tree phases.
+ *
+ * @author decamp
+ */
+public class SolverStats {
+
+    public static final int GRAVITY  = 0;
+    public static final int ATTRACT  = 1;
+    public static final int TREE     = 2;
+    public static final int REPULSE  = 3;
+    public static final int UPDATE   = 4;
+    public static final int PHASE_NO = 5;
+
+    private static final String[] PHASE_NAMES = { "gravity", "attract", "tree", "repulse", "update" };
+
+
+    public static String phaseName( int phase ) {
+        return PHASE_NAMES[phase];
+    }
+
+
+    /**
+     * Number of layout steps performed, over all levels.
+     */
+    public long mStepNo;
+
+    /**
+     * Nanoseconds spent in each phase during most recent step.
+     */
+    public final long[] mStepNanos = new long[PHASE_NO];
+
+    /**
+     * Number of cells in repulse tree during most recent step.
+     */
+    public long mStepCells;
+
+    /**
+     * Number of cells visited by repulse traversal during most recent step.
+     */
+    public long mStepTraversals;
+
+    /**
+     * Number of force evaluations, cell-to-vert or vert-to-vert, during most recent step.
+     */
+    public long mStepForceCalcs;
+
+    /**
+     * Per-level statistics, indexed by coarse level. Entry 0 is the input graph.
+     */
+    public final List<Level> mLevels = new ArrayList<Level>();
+
+
+    /**
+     * Clears all statistics.
+     */
+    public void reset() {
+        mStepNo = 0;
+        clearStep();
+        mLevels.clear();
+    }
+
+    /**
+     * @return statistics for given coarse level, creating entry if needed.
+     */
+    public Level level( int coarseLevel ) {
+        while( mLevels.size() <= coarseLevel ) {
+            Level lev = new Level();
+            lev.mCoarseLevel = mLevels.size();
+            mLevels.add( lev );
+        }
+        return mLevels.get( coarseLevel );
+    }
+
+    /**
+     * @return total nanoseconds spent in given phase over all levels.
+     */
+    public long totalNanos( int phase ) {
+        long sum = 0;
+        for( Level lev: mLevels ) {
+            sum += lev.mNanos[phase];
+        }
+        return sum;
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append( String.format( "%5s %9s %9s %8s %7s %9s %9s", "level", "verts", "edges", "reduce", "steps", "coarsen", "refine" ) );
+        for( int i = 0; i < PHASE_NO; i++ ) {
+            s.append( String.format( " %9s", PHASE_NAMES[i] ) );
+        }
+        s.append( String.format( " %12s%n", "force-calcs" ) );
+
+        for( int j = mLevels.size() - 1; j >= 0; j-- ) {
+            Level lev = mLevels.get( j );
+            s.append( String.format( "%5d %9d %9d %8.3f %7d %9.2f %9.2f",
+                                     lev.mCoarseLevel,
+                                     lev.mVertNo,
+                                     lev.mEdgeNo,
+                                     lev.mReduction,
+                                     lev.mStepNo,
+                                     lev.mCoarsenNanos * 1e-6,
+                                     lev.mRefineNanos * 1e-6 ) );
+            for( int i = 0; i < PHASE_NO; i++ ) {
+                s.append( String.format( " %9.2f", lev.mNanos[i] * 1e-6 ) );
+            }
+            s.append( String.format( " %12d%n", lev.mForceCalcs ) );
+        }
+
+        s.append( "(times in ms)" );
+        return s.toString();
+    }
+
+
+
+    void clearStep() {
+        for( int i = 0; i < PHASE_NO; i++ ) {
+            mStepNanos[i] = 0;
+        }
+        mStepCells      = 0;
+        mStepTraversals = 0;
+        mStepForceCalcs = 0;
+    }
+
+    /**
+     * Called by repulse phases to report time spent building or refitting tree,
+     * and number of cells in tree.
+     */
+    void addTree( long nanos, long cells ) {
+        mStepNanos[TREE] += nanos;
+        mStepCells += cells;
+    }
+
+    /**
+     * Called by repulse phases to report traversal costs.
+     */
+    void addTraversal( long traversals, long forceCalcs ) {
+        mStepTraversals += traversals;
+        mStepForceCalcs += forceCalcs;
+    }
+
+    /**
+     * Adds the most recent step to given level.
+     */
+    void finishStep( Level lev ) {
+        mStepNo++;
+        lev.mStepNo++;
+        for( int i = 0; i < PHASE_NO; i++ ) {
+            lev.mNanos[i] += mStepNanos[i];
+        }
+        lev.mCells      += mStepCells;
+        lev.mTraversals += mStepTraversals;
+        lev.mForceCalcs += mStepForceCalcs;
+    }
+
+
+    /**
+     * Statistics for one level of a multilevel layout.
+     */
+    public static class Level {
+
+        /**
+         * Coarse level of graph. 0 for input graph.
+         */
+        public int mCoarseLevel;
+
+        public int mVertNo;
+        public int mEdgeNo;
+
+        /**
+         * Ratio of verts in this level to verts in next finer level. 1 for input graph.
+         */
+        public float mReduction = 1f;
+
+        /**
+         * Nanoseconds taken to coarsen next finer level into this level.
+         */
+        public long mCoarsenNanos;
+
+        /**
+         * Nanoseconds taken to uncoarsen and refine this level from next coarser level.
+         */
+        public long mRefineNanos;
+
+        /**
+         * Number of layout steps performed on this level.
+         */
+        public int mStepNo;
+
+        /**
+         * Nanoseconds spent in each phase on this level.
+         */
+        public final long[] mNanos = new long[PHASE_NO];
+
+        public long mCells;
+        public long mTraversals;
+        public long mForceCalcs;
+
+    }
+
+}
@@ -0,0 +1,640 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Lays out a graph by minimizing stress with stochastic gradient descent, following
+ * Zheng, Pawar and Goodman, "Graph Drawing by Stochastic Gradient Descent". Each term
+ * pulls a pair of verts toward a distance of <code>mScale</code> times the number of
+ * hops between them, with a weight of one over that distance squared. Each step is one
+ * pass over all terms, in random order, moving the verts of each term directly toward
+ * their target distance. Step lengths are annealed exponentially, so that layouts converge
+ * in {@link LayoutParams#mStressIterations} passes, typically a few dozen, rather than the
+ * hundreds of steps per level required by force-directed layout.
+ * <p>
+ * Graphs of up to {@link LayoutParams#mStressExactMaxVerts} verts use a term for every pair
+ * of connected verts. Larger graphs use the sparse approximation of Ortmann et al.: every edge
+ * is a term, and every vert has a term with each of {@link LayoutParams#mStressPivots} pivots,
+ * weighted by the number of verts that the pivot represents at that distance. Only the
+ * non-pivot vert of a pivot term moves.
+ * <p>
+ * Edge weights are ignored. Verts in different connected components have no terms between
+ * them, so disconnected graphs should be laid out with {@link ComponentLayout} or split first.
+ * Existing vert positions are used as the initial layout unless they are all equal, in which
+ * case verts are placed at random, or unless {@link LayoutParams#mInitPivotMds} is set, in which
+ * case verts are placed with {@link PivotMds}. The sparse approximation fits local structure
+ * less closely than exact terms; increasing <code>mStressPivots</code> narrows the gap.
+ * The result is centered on {@link LayoutParams#mGravityCenter}.
+ * <p>
+ * With <code>mThreadNo &gt; 1</code>, each pass is split into batches that are applied
+ * concurrently without locking. Concurrent updates to the same vert may occasionally be lost,
+ * which SGD tolerates, but results are then not reproducible.
+ * <p>
+ * Usage matches {@link LayoutSolver}: call {@link #init}, then {@link #step()} until
+ * {@link #converged()} returns true.
+ *
+ * @author decamp
+ */
+public class StressSolver {
+
+    private static final float EPS = 0x0.000002P-60f;
+    private static final int MIN_BLOCK_SIZE = 1024;
+
+    private LayoutParams mParams;
+    private Graph mGraph;
+    private final PackedGraph mPacked = new PackedGraph();
+    private int mDim;
+    private float mScale;
+    private Random mRand;
+
+    private boolean mSparse;
+
+    // Exact terms, packed into longs so that shuffling moves one element per term. Both
+    // verts of a term move.
+    private static final int TERM_VERT_BITS = 24;
+    private static final int TERM_HOP_BITS  = 16;
+    private static final int TERM_VERT_MASK = ( 1 << TERM_VERT_BITS ) - 1;
+    private static final int TERM_HOP_MASK  = ( 1 << TERM_HOP_BITS  ) - 1;
+
+    private long[] mTerms = new long[0];
+    private int mTermNo;
+
+    // Sparse terms. Distance from pivot p to vert i is mPivotDist[p*n+i]. mPivotCount[p][d] is
+    // the number of verts closest to pivot p that are at most d hops away.
+    private int mPivotNo;
+    private int[] mPivots    = new int[0];
+    private int[] mPivotDist = new int[0];
+    private int[][] mPivotCount;
+    private int[] mVertOrder = new int[0];
+
+    // Annealing schedule.
+    private double mEtaMax;
+    private double mLambda;
+    private int mIter;
+    private int mIterNo;
+    private float mTol;
+    private boolean mConverged = true;
+
+    private WorkerPool mPool;
+    private Pass[] mPasses = new Pass[0];
+
+
+    /**
+     * Must be called to initialize solver. Computes the terms of the layout, which requires
+     * one breadth-first search per vert for small graphs and one per pivot for large graphs.
+     */
+    public void init( LayoutParams params, Graph graph ) {
+        if( params.mDim != 2 && params.mDim != 3 ) {
+            throw new IllegalArgumentException( "LayoutParams.mDim = " + params.mDim );
+        }
+
+        mParams = params;
+        mGraph  = graph;
+        mDim    = params.mDim;
+        mScale  = params.mScale;
+        mRand   = params.mRand != null ? params.mRand : new Random();
+        mIter   = 0;
+        mIterNo = Math.max( 1, params.mStressIterations );
+        mTol    = params.mScale * params.mUpdateTol;
+
+        final PackedGraph g = mPacked;
+        g.pack( graph );
+        final int n = g.mVertNo;
+
+        mSparse  = n > params.mStressExactMaxVerts;
+        mTermNo  = 0;
+        mPivotNo = 0;
+
+        if( n <= 1 ) {
+            mConverged = true;
+            center();
+            g.writePositions();
+            return;
+        }
+
+        mConverged = false;
+        if( params.mInitPivotMds ) {
+            PivotMds.layout( params, g );
+        } else {
+            initPositions();
+        }
+
+        // Extremes of term weights, as [ min, max ].
+        final double[] weights = { Double.POSITIVE_INFINITY, 0.0 };
+        if( mSparse ) {
+            initSparseTerms( weights );
+        } else {
+            initExactTerms( weights );
+        }
+
+        if( weights[1] == 0.0 ) {
+            // No terms.
+            mConverged = true;
+            center();
+            g.writePositions();
+            return;
+        }
+
+        double etaMax = 1.0 / weights[0];
+        double etaMin = params.mStressEpsilon / weights[1];
+        mEtaMax = etaMax;
+        mLambda = mIterNo > 1 ? Math.log( etaMax / etaMin ) / ( mIterNo - 1 ) : 0.0;
+
+        initPasses( params );
+    }
+
+    /**
+     * Performs one pass over all terms.
+     */
+    public void step() {
+        if( mParams == null ) {
+            throw new IllegalStateException( "Uninitialized." );
+        }
+        if( mConverged ) {
+            return;
+        }
+
+        final float eta   = (float)( mEtaMax * Math.exp( -mLambda * mIter ) );
+        final int itemNo  = mSparse ? mPacked.mVertNo : mTermNo;
+
+        if( mSparse ) {
+            shuffleVerts();
+        } else {
+            shuffleTerms();
+        }
+
+        float maxMove = 0f;
+        final Pass[] passes = mPasses;
+        final int passNo = passes.length;
+        final int block  = ( itemNo + passNo - 1 ) / passNo;
+        for( int i = 0; i < passNo; i++ ) {
+            passes[i].reset( eta, Math.min( itemNo, i * block ), Math.min( itemNo, ( i + 1 ) * block ) );
+        }
+
+        if( mPool != null ) {
+            mPool.run( passes, passNo );
+        } else {
+            passes[0].run();
+        }
+
+        for( Pass p: passes ) {
+            maxMove = Math.max( maxMove, p.mMaxMove );
+        }
+
+        mIter++;
+        if( mIter >= mIterNo || maxMove < mTol ) {
+            mConverged = true;
+        }
+
+        center();
+        mPacked.writePositions();
+    }
+
+    /**
+     * @return true iff solver has converged layout.
+     */
+    public boolean converged() {
+        return mConverged;
+    }
+
+
+    public Graph currentGraph() {
+        return mGraph;
+    }
+
+    /**
+     * @return packed copy of {@link #currentGraph()} on which the solver operates.
+     */
+    public PackedGraph currentPackedGraph() {
+        return mPacked;
+    }
+
+    /**
+     * Releases resources.
+     */
+    public void dispose() {
+        if( mPool != null ) {
+            mPool.shutdown();
+            mPool = null;
+        }
+        mPasses    = new Pass[0];
+        mParams    = null;
+        mGraph     = null;
+        mConverged = true;
+    }
+
+
+
+    private void initPositions() {
+        final PackedGraph g = mPacked;
+        final int n = g.mVertNo;
+
+        boolean distinct = false;
+        for( int i = 1; i < n && !distinct; i++ ) {
+            distinct = g.mX[i] != g.mX[0] || g.mY[i] != g.mY[0] || ( mDim == 3 && g.mZ[i] != g.mZ[0] );
+        }
+        if( distinct ) {
+            return;
+        }
+
+        final Random rand = mRand;
+        final float size  = mScale * (float)Math.pow( n, 1.0 / mDim );
+        for( int i = 0; i < n; i++ ) {
+            g.mX[i] = size * rand.nextFloat();
+            g.mY[i] = size * rand.nextFloat();
+            g.mZ[i] = mDim == 2 ? 0f : size * rand.nextFloat();
+        }
+    }
+
+
+    private void initExactTerms( double[] weights ) {
+        final PackedGraph g = mPacked;
+        final int n = g.mVertNo;
+        final int[] dist  = new int[n];
+        final int[] queue = new int[n];
+
+        // Count terms first so that arrays are only allocated once.
+        long termNo = 0;
+        for( int i = 0; i < n; i++ ) {
+            Graphs.bfs( g, i, dist, 0, queue );
+            for( int j = i + 1; j < n; j++ ) {
+                if( dist[j] > 0 ) {
+                    termNo++;
+                }
+            }
+        }
+        if( termNo > Integer.MAX_VALUE - 8 ) {
+            throw new IllegalArgumentException( "Too many terms for exact stress layout: " + termNo );
+        }
+
+        // As pairs are limited to MAX_VALUE, n and hop counts are below 2^16.
+        final int cap = (int)termNo;
+        if( mTerms.length < cap ) {
+            mTerms = new long[cap];
+        }
+
+        int k = 0;
+        for( int i = 0; i < n; i++ ) {
+            Graphs.bfs( g, i, dist, 0, queue );
+            for( int j = i + 1; j < n; j++ ) {
+                int d = dist[j];
+                if( d <= 0 ) {
+                    continue;
+                }
+                float td = d * mScale;
+                float w  = 1f / ( td * td );
+                mTerms[k++] = (long)i << ( TERM_VERT_BITS + TERM_HOP_BITS ) | (long)j << TERM_HOP_BITS | d;
+                weights[0] = Math.min( weights[0], w );
+                weights[1] = Math.max( weights[1], w );
+            }
+        }
+
+        mTermNo = k;
+    }
+
+
+    private void initSparseTerms( double[] weights ) {
+        final PackedGraph g = mPacked;
+        final int n = g.mVertNo;
+        final int h = Math.max( 1, Math.min( mParams.mStressPivots, n ) );
+
+        if( mPivots.length < h ) {
+            mPivots = new int[h];
+        }
+        if( mPivotDist.length < (long)h * n ) {
+            mPivotDist = new int[ h * n ];
+        }
+        mPivotNo = Graphs.selectPivots( g, h, mRand, mPivots, mPivotDist );
+
+        final int pivotNo = mPivotNo;
+        final int[] dist  = mPivotDist;
+
+        // Assign each vert to its closest pivot, and count the verts assigned to each
+        // pivot at each distance.
+        int[] maxDist = new int[pivotNo];
+        for( int p = 0; p < pivotNo; p++ ) {
+            for( int i = 0; i < n; i++ ) {
+                maxDist[p] = Math.max( maxDist[p], dist[p * n + i] );
+            }
+        }
+
+        int[][] counts = new int[pivotNo][];
+        for( int p = 0; p < pivotNo; p++ ) {
+            counts[p] = new int[ maxDist[p] + 1 ];
+        }
+
+        for( int i = 0; i < n; i++ ) {
+            int best = -1;
+            int bestDist = Integer.MAX_VALUE;
+            for( int p = 0; p < pivotNo; p++ ) {
+                int d = dist[p * n + i];
+                if( d >= 0 && d < bestDist ) {
+                    best = p;
+                    bestDist = d;
+                }
+            }
+            if( best >= 0 ) {
+                counts[best][bestDist]++;
+            }
+        }
+
+        for( int p = 0; p < pivotNo; p++ ) {
+            int[] c = counts[p];
+            for( int d = 1; d < c.length; d++ ) {
+                c[d] += c[d-1];
+            }
+        }
+        mPivotCount = counts;
+
+        // Find extremes of weights.
+        if( g.mEdgeNo > 0 ) {
+            float w = 1f / ( mScale * mScale );
+            weights[0] = Math.min( weights[0], w );
+            weights[1] = Math.max( weights[1], w );
+        }
+
+        for( int p = 0; p < pivotNo; p++ ) {
+            final int[] c = counts[p];
+            for( int i = 0; i < n; i++ ) {
+                int d = dist[p * n + i];
+                if( d <= 0 ) {
+                    continue;
+                }
+                double w = pivotWeight( c, d );
+                weights[0] = Math.min( weights[0], w );
+                weights[1] = Math.max( weights[1], w );
+            }
+        }
+
+        if( mVertOrder.length < n ) {
+            mVertOrder = new int[n];
+        }
+        for( int i = 0; i < n; i++ ) {
+            mVertOrder[i] = i;
+        }
+    }
+
+
+    private float pivotWeight( int[] counts, int hops ) {
+        float d = hops * mScale;
+        return counts[ hops / 2 ] / ( d * d );
+    }
+
+
+    private void initPasses( LayoutParams params ) {
+        final int itemNo = mSparse ? mPacked.mVertNo : mTermNo;
+        int threadNo = WorkerPool.threadCount( params );
+        threadNo = Math.max( 1, Math.min( threadNo, itemNo / MIN_BLOCK_SIZE ) );
+
+        mPool = WorkerPool.reuse( mPool, threadNo );
+        if( mPasses.length != threadNo ) {
+            mPasses = new Pass[threadNo];
+            for( int i = 0; i < threadNo; i++ ) {
+                mPasses[i] = new Pass( this );
+            }
+        }
+    }
+
+
+    private void shuffleTerms() {
+        final long[] terms = mTerms;
+        long x = mRand.nextLong() | 1L;
+        for( int k = mTermNo - 1; k > 0; k-- ) {
+            x = xorshift( x );
+            int r = (int)( ( ( x >>> 32 ) * ( k + 1 ) ) >>> 32 );
+            long t = terms[k];
+            terms[k] = terms[r];
+            terms[r] = t;
+        }
+    }
+
+
+    private void shuffleVerts() {
+        final int[] order = mVertOrder;
+        long x = mRand.nextLong() | 1L;
+        for( int k = mPacked.mVertNo - 1; k > 0; k-- ) {
+            x = xorshift( x );
+            int r = (int)( ( ( x >>> 32 ) * ( k + 1 ) ) >>> 32 );
+            int a = order[k];
+            order[k] = order[r];
+            order[r] = a;
+        }
+    }
+
+    /**
+     * Shuffles are driven by a xorshift generator seeded from mRand once per pass, as
+     * Random.nextInt() costs more than the swap itself on large term arrays.
+     */
+    private static long xorshift( long x ) {
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        return x;
+    }
+
+    /**
+     * Moves centroid of layout onto center of gravity.
+     */
+    private void center() {
+        final PackedGraph g = mPacked;
+        final int n = g.mVertNo;
+        if( n == 0 ) {
+            return;
+        }
+
+        double sx = 0.0;
+        double sy = 0.0;
+        double sz = 0.0;
+        for( int i = 0; i < n; i++ ) {
+            sx += g.mX[i];
+            sy += g.mY[i];
+            sz += g.mZ[i];
+        }
+
+        final float[] c = mParams.mGravityCenter;
+        final float dx = c[0] - (float)( sx / n );
+        final float dy = c[1] - (float)( sy / n );
+        final float dz = mDim == 2 ? 0f : c[2] - (float)( sz / n );
+        for( int i = 0; i < n; i++ ) {
+            g.mX[i] += dx;
+            g.mY[i] += dy;
+            g.mZ[i] += dz;
+        }
+    }
+
+
+
+    private static final class Pass implements Runnable {
+
+        private final StressSolver mSolver;
+
+        float mEta;
+        int mStart;
+        int mEnd;
+        float mMaxMove;
+
+
+        Pass( StressSolver solver ) {
+            mSolver = solver;
+        }
+
+
+        void reset( float eta, int start, int end ) {
+            mEta     = eta;
+            mStart   = start;
+            mEnd     = end;
+            mMaxMove = 0f;
+        }
+
+
+        public void run() {
+            if( mSolver.mSparse ) {
+                runSparse();
+            } else {
+                runExact();
+            }
+        }
+
+
+        private void runExact() {
+            final StressSolver s = mSolver;
+            final boolean dim3 = s.mDim == 3;
+            final float eta    = mEta;
+            final float scale  = s.mScale;
+            final long[] terms = s.mTerms;
+            final float[] xs = s.mPacked.mX;
+            final float[] ys = s.mPacked.mY;
+            final float[] zs = s.mPacked.mZ;
+            float maxMove = 0f;
+
+            for( int k = mStart; k < mEnd; k++ ) {
+                final long t  = terms[k];
+                final int i   = (int)( t >>> ( TERM_VERT_BITS + TERM_HOP_BITS ) );
+                final int j   = (int)( t >>> TERM_HOP_BITS ) & TERM_VERT_MASK;
+                final float td = ( (int)t & TERM_HOP_MASK ) * scale;
+                final float mu = Math.min( eta / ( td * td ), 1f );
+
+                float dx = xs[i] - xs[j];
+                float dy = ys[i] - ys[j];
+                float dz = dim3 ? zs[i] - zs[j] : 0f;
+                float mag = (float)Math.sqrt( dx * dx + dy * dy + dz * dz );
+
+                // Each vert moves half of the way.
+                float r = 0.5f * mu * ( mag - td ) / ( mag + EPS );
+                float mx = r * dx;
+                float my = r * dy;
+                xs[i] -= mx;
+                ys[i] -= my;
+                xs[j] += mx;
+                ys[j] += my;
+                if( dim3 ) {
+                    float mz = r * dz;
+                    zs[i] -= mz;
+                    zs[j] += mz;
+                }
+
+                float move = Math.abs( r ) * mag;
+                if( move > maxMove ) {
+                    maxMove = move;
+                }
+            }
+
+            mMaxMove = maxMove;
+        }
+
+
+        private void runSparse() {
+            final StressSolver s = mSolver;
+            final PackedGraph g  = s.mPacked;
+            final boolean dim3   = s.mDim == 3;
+            final int n          = g.mVertNo;
+            final float eta      = mEta;
+            final float scale    = s.mScale;
+            final float edgeMu   = Math.min( eta / ( scale * scale ), 1f );
+            final int[] order    = s.mVertOrder;
+            final int[] adjStart = g.mAdjStart;
+            final int[] adj      = g.mAdjVert;
+            final int pivotNo    = s.mPivotNo;
+            final int[] pivots   = s.mPivots;
+            final int[] dist     = s.mPivotDist;
+            final int[][] counts = s.mPivotCount;
+            final float[] xs = g.mX;
+            final float[] ys = g.mY;
+            final float[] zs = g.mZ;
+            float maxMove = 0f;
+
+            for( int k = mStart; k < mEnd; k++ ) {
+                final int i = order[k];
+
+                // Edge terms, each applied once from its lower-indexed vert.
+                for( int e = adjStart[i]; e < adjStart[i+1]; e++ ) {
+                    final int j = adj[e];
+                    if( j <= i ) {
+                        continue;
+                    }
+
+                    float dx = xs[i] - xs[j];
+                    float dy = ys[i] - ys[j];
+                    float dz = dim3 ? zs[i] - zs[j] : 0f;
+                    float mag = (float)Math.sqrt( dx * dx + dy * dy + dz * dz );
+                    float r = 0.5f * edgeMu * ( mag - scale ) / ( mag + EPS );
+                    float mx = r * dx;
+                    float my = r * dy;
+                    xs[i] -= mx;
+                    ys[i] -= my;
+                    xs[j] += mx;
+                    ys[j] += my;
+                    if( dim3 ) {
+                        float mz = r * dz;
+                        zs[i] -= mz;
+                        zs[j] += mz;
+                    }
+
+                    float move = Math.abs( r ) * mag;
+                    if( move > maxMove ) {
+                        maxMove = move;
+                    }
+                }
+
+                // Pivot terms, which only move vert i.
+                for( int p = 0; p < pivotNo; p++ ) {
+                    final int hops = dist[ p * n + i ];
+                    if( hops <= 0 ) {
+                        continue;
+                    }
+                    final int q = pivots[p];
+                    final float td = hops * scale;
+                    final float mu = Math.min( eta * counts[p][ hops / 2 ] / ( td * td ), 1f );
+
+                    float dx = xs[i] - xs[q];
+                    float dy = ys[i] - ys[q];
+                    float dz = dim3 ? zs[i] - zs[q] : 0f;
+                    float mag = (float)Math.sqrt( dx * dx + dy * dy + dz * dz );
+                    float r = mu * ( mag - td ) / ( mag + EPS );
+                    xs[i] -= r * dx;
+                    ys[i] -= r * dy;
+                    if( dim3 ) {
+                        zs[i] -= r * dz;
+                    }
+
+                    float move = Math.abs( r ) * mag;
+                    if( move > maxMove ) {
+                        maxMove = move;
+                    }
+                }
+            }
+
+            mMaxMove = maxMove;
+        }
+
+    }
+
+}
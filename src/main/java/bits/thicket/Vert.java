@@ -67,6 +67,37 @@ public class Vert {
     }
 
 
+    /**
+     * Removes an edge from the edge list of this Vert.
+     *
+     * @return true iff edge was found and removed.
+     */
+    public boolean removeEdge( Edge e ) {
+        Edge prev = null;
+        for( Edge f = mEdges; f != null; f = f.next( this ) ) {
+            if( f != e ) {
+                prev = f;
+                continue;
+            }
+            Edge next = f.next( this );
+            if( prev == null ) {
+                mEdges = next;
+            } else if( this == prev.mA ) {
+                prev.mANext = next;
+            } else {
+                prev.mBNext = next;
+            }
+            if( this == e.mA ) {
+                e.mANext = null;
+            } else {
+                e.mBNext = null;
+            }
+            return true;
+        }
+        return false;
+    }
+
+
     public boolean isConnectedTo( Vert b ) {
         for( Edge e = mEdges; e != null; e = e.next( this ) ) {
             if( e.contains( b ) ) {
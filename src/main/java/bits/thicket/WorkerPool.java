@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Fixed set of daemon threads used by solver phases that split their work across cores.
+ * The calling thread always executes the first task of a batch itself, so a pool
+ * created for N threads keeps N-1 background threads.
+ * <p>
+ * Like the rest of the solver, a WorkerPool may only be driven by one thread at a time.
+ *
+ * @author decamp
+ */
+final class WorkerPool {
+
+    private static final AtomicInteger sPoolCount = new AtomicInteger( 0 );
+
+    /**
+     * @return number of threads requested by {@code params.mThreadNo}, resolving
+     *         non-positive values to the number of available processors.
+     */
+    static int threadCount( LayoutParams params ) {
+        int n = params.mThreadNo;
+        if( n <= 0 ) {
+            n = Runtime.getRuntime().availableProcessors();
+        }
+        return n < 1 ? 1 : n;
+    }
+
+    /**
+     * Convenience method for phases that hold onto a pool across calls to {@code init()}.
+     *
+     * @param pool     Currently held pool, or null.
+     * @param threadNo Number of threads required.
+     * @return {@code pool} if it already has {@code threadNo} threads, a new pool if
+     *         {@code threadNo > 1}, or null if work should remain on the calling thread.
+     */
+    static WorkerPool reuse( WorkerPool pool, int threadNo ) {
+        if( pool != null ) {
+            if( pool.threadNo() == threadNo ) {
+                return pool;
+            }
+            pool.shutdown();
+        }
+        return threadNo > 1 ? new WorkerPool( threadNo ) : null;
+    }
+
+
+    private final int mThreadNo;
+    private final ExecutorService mExec;
+    private Future<?>[] mFutures;
+
+
+    WorkerPool( int threadNo ) {
+        if( threadNo < 1 ) {
+            throw new IllegalArgumentException( "threadNo = " + threadNo );
+        }
+
+        mThreadNo = threadNo;
+        mFutures  = new Future<?>[threadNo];
+
+        if( threadNo == 1 ) {
+            mExec = null;
+            return;
+        }
+
+        final int poolId = sPoolCount.incrementAndGet();
+        mExec = Executors.newFixedThreadPool( threadNo - 1, new ThreadFactory() {
+            private int mCount = 0;
+
+            public synchronized Thread newThread( Runnable r ) {
+                Thread t = new Thread( r, "thicket-" + poolId + "-worker-" + ( ++mCount ) );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+    }
+
+
+    /**
+     * @return number of threads that execute tasks, including the calling thread.
+     */
+    int threadNo() {
+        return mThreadNo;
+    }
+
+    /**
+     * Executes a batch of tasks and blocks until all have completed. The first
+     * task is run on the calling thread. If any task throws, the exception is
+     * rethrown after every task in the batch has finished.
+     *
+     * @param tasks Tasks to run.
+     * @param count Number of tasks in {@code tasks} to run.
+     */
+    void run( Runnable[] tasks, int count ) {
+        if( count <= 0 ) {
+            return;
+        }
+
+        if( mExec == null || count == 1 ) {
+            for( int i = 0; i < count; i++ ) {
+                tasks[i].run();
+            }
+            return;
+        }
+
+        if( mFutures.length < count ) {
+            mFutures = new Future<?>[count];
+        }
+
+        final Future<?>[] futures = mFutures;
+        for( int i = 1; i < count; i++ ) {
+            futures[i] = mExec.submit( tasks[i] );
+        }
+
+        Throwable err = null;
+
+        try {
+            tasks[0].run();
+        } catch( Throwable t ) {
+            err = t;
+        }
+
+        boolean interrupted = false;
+
+        for( int i = 1; i < count; i++ ) {
+            while( true ) {
+                try {
+                    futures[i].get();
+                    break;
+                } catch( InterruptedException ex ) {
+                    interrupted = true;
+                } catch( ExecutionException ex ) {
+                    if( err == null ) {
+                        err = ex.getCause();
+                    }
+                    break;
+                }
+            }
+            futures[i] = null;
+        }
+
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+
+        if( err instanceof RuntimeException ) {
+            throw (RuntimeException)err;
+        }
+        if( err instanceof Error ) {
+            throw (Error)err;
+        }
+        if( err != null ) {
+            throw new RuntimeException( err );
+        }
+    }
+
+    /**
+     * Stops all background threads. The pool may not be used afterward.
+     */
+    void shutdown() {
+        if( mExec != null ) {
+            mExec.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.io.File;
+import java.util.Random;
+
+
+/**
+ * Compares serial and multi-threaded attraction phases for every AttractEq, in 2D and 3D,
+ * on both the linked-list and packed graph representations.
+ * <p>
+ * Usage: AttractBench [colFile] [threadNo]
+ *
+ * @author decamp
+ */
+public class AttractBench {
+
+    private static final int WARMUP_STEPS = 50;
+    private static final int TIMED_STEPS  = 200;
+
+
+    public static void main( String[] args ) throws Exception {
+        File file    = new File( args.length > 0 ? args[0] : "src/test/resources/latin_square.col" );
+        int threadNo = args.length > 1 ? Integer.parseInt( args[1] ) : Runtime.getRuntime().availableProcessors();
+
+        Graph graph = ColParser.parse( file, 3 );
+        Graphs.randomizePositions3( graph.mVerts, new float[]{ -10f, -10f, -10f, 10f, 10f, 10f }, new Random( 0 ) );
+        PackedGraph packed = new PackedGraph( graph );
+
+        System.out.println( "Graph: " + file.getName() + "  Verts: " + graph.mVertNo + "  Edges: " + graph.mEdgeNo );
+        System.out.println( "Threads: " + threadNo );
+
+        for( int dim = 2; dim <= 3; dim++ ) {
+            for( AttractEq eq: AttractEq.values() ) {
+                double serial   = time( graph, dim, eq, 1 );
+                float[] ref     = copyForces( graph );
+                double parallel = time( graph, dim, eq, threadNo );
+                float[] par     = copyForces( graph );
+
+                double pSerial   = timePacked( packed, dim, eq, 1 );
+                float[] pRef     = copyForces( packed );
+                double pParallel = timePacked( packed, dim, eq, threadNo );
+                float[] pPar     = copyForces( packed );
+
+                System.out.format( "%dD %-12s graph: %7.3f -> %7.3f ms (%5.2fx, err %.2g)   packed: %7.3f -> %7.3f ms (%5.2fx, err %.2g)%n",
+                                   dim, eq,
+                                   serial * 1e-6, parallel * 1e-6, serial / parallel, relDiff( ref, par ),
+                                   pSerial * 1e-6, pParallel * 1e-6, pSerial / pParallel, relDiff( pRef, pPar ) );
+            }
+        }
+    }
+
+
+    private static double time( Graph graph, int dim, AttractEq eq, int threadNo ) {
+        LayoutParams params = new LayoutParams();
+        params.mDim       = dim;
+        params.mAttractEq = eq;
+        params.mThreadNo  = threadNo;
+
+        AttractPhase phase = new AttractPhase();
+        phase.init( params, graph );
+
+        long total = 0;
+        for( int i = -WARMUP_STEPS; i < TIMED_STEPS; i++ ) {
+            clearForces( graph );
+            long t0 = System.nanoTime();
+            phase.step( params, graph );
+            if( i >= 0 ) {
+                total += System.nanoTime() - t0;
+            }
+        }
+
+        phase.dispose( params, graph );
+        return (double)total / TIMED_STEPS;
+    }
+
+
+    private static double timePacked( PackedGraph graph, int dim, AttractEq eq, int threadNo ) {
+        LayoutParams params = new LayoutParams();
+        params.mDim       = dim;
+        params.mAttractEq = eq;
+        params.mThreadNo  = threadNo;
+
+        PackedAttractPhase phase = new PackedAttractPhase();
+        phase.init( params, graph );
+
+        long total = 0;
+        for( int i = -WARMUP_STEPS; i < TIMED_STEPS; i++ ) {
+            java.util.Arrays.fill( graph.mForceX, 0f );
+            java.util.Arrays.fill( graph.mForceY, 0f );
+            java.util.Arrays.fill( graph.mForceZ, 0f );
+            long t0 = System.nanoTime();
+            phase.step( params, graph );
+            if( i >= 0 ) {
+                total += System.nanoTime() - t0;
+            }
+        }
+
+        phase.dispose( params, graph );
+        return (double)total / TIMED_STEPS;
+    }
+
+
+    private static void clearForces( Graph graph ) {
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            v.mForceX = 0f;
+            v.mForceY = 0f;
+            v.mForceZ = 0f;
+        }
+    }
+
+
+    private static float[] copyForces( Graph graph ) {
+        float[] ret = new float[ graph.mVertNo * 3 ];
+        int i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            ret[i++] = v.mForceX;
+            ret[i++] = v.mForceY;
+            ret[i++] = v.mForceZ;
+        }
+        return ret;
+    }
+
+
+    private static float[] copyForces( PackedGraph graph ) {
+        float[] ret = new float[ graph.mVertNo * 3 ];
+        for( int i = 0; i < graph.mVertNo; i++ ) {
+            ret[i*3  ] = graph.mForceX[i];
+            ret[i*3+1] = graph.mForceY[i];
+            ret[i*3+2] = graph.mForceZ[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Forces are summed in a different order on multiple threads, so results
+     * are compared relative to the largest force magnitude.
+     */
+    private static double relDiff( float[] a, float[] b ) {
+        double diff = 0.0;
+        double max  = 0.0;
+        for( int i = 0; i < a.length; i++ ) {
+            diff = Math.max( diff, Math.abs( a[i] - b[i] ) );
+            max  = Math.max( max, Math.abs( a[i] ) );
+        }
+        return max == 0.0 ? diff : diff / max;
+    }
+
+}
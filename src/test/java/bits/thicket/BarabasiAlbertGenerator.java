@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.*;
+
+
+/**
+ * Generates scale-free graphs by preferential attachment. Each new vert connects
+ * to <code>edgesPerVert</code> distinct existing verts, chosen with probability
+ * proportional to their degree, which produces a few hubs of very high degree.
+ *
+ * @author decamp
+ */
+public class BarabasiAlbertGenerator {
+
+    public static Graph generate( Random rand, int dim, int vertNo, int edgesPerVert ) {
+        if( rand == null ) {
+            rand = new Random();
+        }
+
+        final int m = Math.max( 1, Math.min( edgesPerVert, vertNo - 1 ) );
+        List<Vert> verts = new ArrayList<Vert>( vertNo );
+
+        for( int i = 0; i < vertNo; i++ ) {
+            Vert v = new Vert();
+            v.mX = rand.nextFloat() * 40f - 20f;
+            v.mY = rand.nextFloat() * 40f - 20f;
+            if( dim == 3 ) {
+                v.mZ = rand.nextFloat() * 40f - 20f;
+            }
+            verts.add( v );
+        }
+
+        // Each edge endpoint appears once in this list, so sampling it uniformly
+        // selects verts in proportion to degree.
+        int[] ends = new int[ 2 * m * vertNo ];
+        int endNo  = 0;
+        int[] picks = new int[m];
+
+        // Seed with a star so that every early vert has nonzero degree.
+        for( int i = 1; i <= m && i < vertNo; i++ ) {
+            connect( verts.get( 0 ), verts.get( i ) );
+            ends[endNo++] = 0;
+            ends[endNo++] = i;
+        }
+
+        for( int i = m + 1; i < vertNo; i++ ) {
+            int pickNo = 0;
+            while( pickNo < m ) {
+                int j = ends[ rand.nextInt( endNo ) ];
+                boolean dup = false;
+                for( int k = 0; k < pickNo; k++ ) {
+                    if( picks[k] == j ) {
+                        dup = true;
+                        break;
+                    }
+                }
+                if( !dup ) {
+                    picks[pickNo++] = j;
+                }
+            }
+
+            for( int k = 0; k < m; k++ ) {
+                connect( verts.get( i ), verts.get( picks[k] ) );
+                ends[endNo++] = i;
+                ends[endNo++] = picks[k];
+            }
+        }
+
+        return new Graph( verts );
+    }
+
+
+    private static void connect( Vert a, Vert b ) {
+        Edge edge = new Edge( a, b, 1f );
+        a.addEdge( edge );
+        b.addEdge( edge );
+    }
+
+}
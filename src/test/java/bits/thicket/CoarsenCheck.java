@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Checks that {@link CoarsenStrategy#HANDSHAKE} reduces each level about as much as
+ * {@link CoarsenStrategy#MAX_EDGE}, and that its levels do not depend on thread count.
+ * Graphs are coarsened until they have fewer than two edges, as in a multilevel layout.
+ * Includes a chain whose edge weights increase along its length, on which each parallel
+ * round of handshake matching matches only a single pair.
+ * <p>
+ * Exits with status 1 if any check fails.
+ * <p>
+ * Usage: CoarsenCheck [resourceDir]
+ *
+ * @author decamp
+ */
+public class CoarsenCheck {
+
+    /**
+     * Largest allowed amount by which the fraction of verts kept by a handshake level may
+     * exceed the largest fraction kept by any greedy level.
+     */
+    private static final double MAX_RATIO_EXCESS = 0.05;
+
+    private static final int CHAIN_LENGTH = 1 << 15;
+    private static final int THREAD_NO    = 4;
+
+
+    public static void main( String[] args ) throws Exception {
+        File dir = new File( args.length > 0 ? args[0] : "src/test/resources" );
+        boolean ok = true;
+        ok &= check( "4elt",      new File( dir, "4elt.graph" ) );
+        ok &= check( "powergrid", new File( dir, "us_powergrid_n4941.col" ) );
+        ok &= check( "chain",     null );
+
+        if( !ok ) {
+            System.out.println( "FAILED" );
+            System.exit( 1 );
+        }
+        System.out.println( "OK" );
+    }
+
+
+    private static boolean check( String name, File file ) throws Exception {
+        List<Integer> greedy = levelSizes( file, CoarsenStrategy.MAX_EDGE, 1 );
+        List<Integer> serial = levelSizes( file, CoarsenStrategy.HANDSHAKE, 1 );
+        List<Integer> par    = levelSizes( file, CoarsenStrategy.HANDSHAKE, THREAD_NO );
+
+        double greedyMax = maxRatio( greedy );
+        double serialMax = maxRatio( serial );
+        int greedyLevels = greedy.size() - 1;
+        int serialLevels = serial.size() - 1;
+
+        System.out.format( "%-10s verts %6d  levels %3d greedy %3d  max ratio %.3f greedy %.3f%n",
+                           name, serial.get( 0 ), serialLevels, greedyLevels, serialMax, greedyMax );
+
+        boolean ok = true;
+        for( int i = 1; i < serial.size(); i++ ) {
+            double ratio = (double)serial.get( i ) / serial.get( i - 1 );
+            if( ratio > greedyMax + MAX_RATIO_EXCESS ) {
+                System.out.format( "  level %d keeps %d of %d verts (%.3f)%n", i, serial.get( i ), serial.get( i - 1 ), ratio );
+                ok = false;
+            }
+        }
+        if( serialLevels > greedyLevels + greedyLevels / 4 + 1 ) {
+            System.out.format( "  %d levels, greedy matching needs %d%n", serialLevels, greedyLevels );
+            ok = false;
+        }
+        if( !serial.equals( par ) ) {
+            System.out.format( "  levels differ on %d threads: %s vs %s%n", THREAD_NO, par, serial );
+            ok = false;
+        }
+        return ok;
+    }
+
+    /**
+     * @return number of verts in each level, starting with the input graph.
+     */
+    private static List<Integer> levelSizes( File file, CoarsenStrategy strategy, int threadNo ) throws Exception {
+        LayoutParams params = new LayoutParams();
+        params.mCoarsenStrategy = strategy;
+        params.mThreadNo        = threadNo;
+
+        Graph g = file == null ? chain( CHAIN_LENGTH ) :
+                  file.getName().endsWith( ".col" ) ? ColParser.parse( file, 2 ) : GraphFileParser.parse( file );
+
+        List<Integer> ret = new ArrayList<Integer>();
+        ret.add( g.mVertNo );
+
+        WorkerPool pool = WorkerPool.reuse( null, WorkerPool.threadCount( params ) );
+        CoarseEdgeBuilder builder = new CoarseEdgeBuilder();
+        try {
+            while( g.mEdgeNo >= 2 ) {
+                Graph coarse = Graphs.coarsen( params, g, pool, builder );
+                if( coarse == null ) {
+                    break;
+                }
+                ret.add( coarse.mVertNo );
+                g = coarse;
+            }
+        } finally {
+            if( pool != null ) {
+                pool.shutdown();
+            }
+        }
+
+        return ret;
+    }
+
+
+    private static double maxRatio( List<Integer> sizes ) {
+        double ret = 0.0;
+        for( int i = 1; i < sizes.size(); i++ ) {
+            ret = Math.max( ret, (double)sizes.get( i ) / sizes.get( i - 1 ) );
+        }
+        return ret;
+    }
+
+    /**
+     * @return path of <code>n</code> verts, with edge weights increasing along the path.
+     */
+    private static Graph chain( int n ) {
+        List<Vert> verts = new ArrayList<Vert>( n );
+        for( int i = 0; i < n; i++ ) {
+            verts.add( new Vert() );
+        }
+        for( int i = 1; i < n; i++ ) {
+            Edge e = new Edge( verts.get( i - 1 ), verts.get( i ), i );
+            e.mA.addEdge( e );
+            e.mB.addEdge( e );
+        }
+        return new Graph( verts );
+    }
+
+}
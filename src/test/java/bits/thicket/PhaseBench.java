@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+
+/**
+ * Benchmark harness covering each solver phase, tree construction, coarsening and
+ * complete layouts on the bundled graphs and generated small-world and scale-free graphs.
+ * <p>
+ * Each benchmark is warmed up, then run repeatedly until a minimum time has elapsed.
+ * For every benchmark the harness reports time and throughput per operation and the
+ * number of bytes allocated per operation on the calling thread, where the JVM supports
+ * allocation counters. For full layouts an operation is a complete layout, so time and
+ * allocation are also given per solver step.
+ * <p>
+ * Usage: PhaseBench [-dim 2|3] [-threads N] [-time seconds] [-filter text] [-graphs dir]
+ * <br>
+ * {@code -filter} runs only benchmarks whose name or graph contains the given text.
+ * Also available as the {@code bench} target in build.xml.
+ *
+ * @author decamp
+ */
+public class PhaseBench {
+
+    private static final double WARMUP_FRACTION = 0.5;
+    private static final int MIN_OPS = 3;
+
+
+    public static void main( String[] args ) throws Exception {
+        int dim        = 2;
+        int threadNo   = 1;
+        double seconds = 2.0;
+        String filter  = null;
+        File dir       = new File( "src/test/resources" );
+
+        for( int i = 0; i < args.length; i++ ) {
+            String a = args[i];
+            if( a.equals( "-dim" ) ) {
+                dim = Integer.parseInt( args[++i] );
+            } else if( a.equals( "-threads" ) ) {
+                threadNo = Integer.parseInt( args[++i] );
+            } else if( a.equals( "-time" ) ) {
+                seconds = Double.parseDouble( args[++i] );
+            } else if( a.equals( "-filter" ) ) {
+                filter = args[++i];
+            } else if( a.equals( "-graphs" ) ) {
+                dir = new File( args[++i] );
+            } else {
+                System.err.println( "Usage: PhaseBench [-dim 2|3] [-threads N] [-time seconds] [-filter text] [-graphs dir]" );
+                System.exit( 1 );
+            }
+        }
+
+        List<Source> sources = new ArrayList<Source>();
+        sources.add( new FileSource( new File( dir, "4elt.graph" ) ) );
+        sources.add( new FileSource( new File( dir, "us_powergrid_n4941.col" ) ) );
+        sources.add( new FileSource( new File( dir, "latin_square.col" ) ) );
+        sources.add( new SmallWorldSource( 20000, 6, 0.05 ) );
+        sources.add( new ScaleFreeSource( 20000, 3 ) );
+
+        List<Bench> benches = new ArrayList<Bench>();
+        benches.add( new GravityBench() );
+        benches.add( new AttractBench() );
+        benches.add( new RepulseBench( "repulse-barnes-hut", false ) );
+        benches.add( new RepulseBench( "repulse-brute-force", true ) );
+        benches.add( new TreeBench() );
+        benches.add( new CoarsenBench( "coarsen-uncoarsen", CoarsenStrategy.MAX_EDGE ) );
+        benches.add( new CoarsenBench( "coarsen-handshake", CoarsenStrategy.HANDSHAKE ) );
+        benches.add( new CoarsenBench( "coarsen-signature", CoarsenStrategy.EDGE_SIGNATURE ) );
+        benches.add( new CoarsenBench( "coarsen-group", CoarsenStrategy.GROUP ) );
+        benches.add( new LayoutBench( "layout", false ) );
+        benches.add( new LayoutBench( "layout-hierarchy", true ) );
+
+        System.out.format( "dim=%d  threads=%d  time=%.1fs  alloc-counters=%s%n%n",
+                           dim, threadNo, seconds, Alloc.supported() ? "yes" : "no" );
+        System.out.format( "%-20s %-24s %8s %12s %12s %14s   %s%n",
+                           "benchmark", "graph", "ops", "ms/op", "ops/s", "alloc B/op", "" );
+
+        for( Source src: sources ) {
+            for( Bench b: benches ) {
+                if( filter != null && !b.mName.contains( filter ) && !src.name().contains( filter ) ) {
+                    continue;
+                }
+
+                LayoutParams params = new LayoutParams();
+                params.mDim      = dim;
+                params.mThreadNo = threadNo;
+                params.mRand     = new Random( 0 );
+
+                Result r = run( b, src, params, seconds );
+                System.out.format( "%-20s %-24s %8d %12.3f %12.1f %14s   %s%n",
+                                   b.mName,
+                                   src.name(),
+                                   r.mOps,
+                                   r.mNanos * 1e-6 / r.mOps,
+                                   r.mOps * 1e9 / r.mNanos,
+                                   r.mBytes < 0 ? "n/a" : String.valueOf( r.mBytes / r.mOps ),
+                                   b.note( r ) );
+            }
+        }
+    }
+
+
+    private static Result run( Bench b, Source src, LayoutParams params, double seconds ) throws IOException {
+        b.setup( params, src );
+
+        // Warmup.
+        long limit = (long)( seconds * WARMUP_FRACTION * 1e9 );
+        long start = System.nanoTime();
+        do {
+            b.prepare();
+            b.op();
+        } while( System.nanoTime() - start < limit );
+
+        // Measure. Time spent in prepare() is excluded.
+        Result r = new Result();
+        limit = (long)( seconds * 1e9 );
+        long allocStart = Alloc.bytes();
+
+        while( r.mOps < MIN_OPS || r.mNanos < limit ) {
+            long a = Alloc.bytes();
+            b.prepare();
+            allocStart += Alloc.bytes() - a;
+
+            long t0 = System.nanoTime();
+            r.mUnits += b.op();
+            r.mNanos += System.nanoTime() - t0;
+            r.mOps++;
+        }
+
+        long allocEnd = Alloc.bytes();
+        r.mBytes = allocStart < 0 || allocEnd < 0 ? -1 : allocEnd - allocStart;
+
+        b.teardown();
+        return r;
+    }
+
+
+
+    private static final class Result {
+        long mOps;
+        long mNanos;
+        long mBytes;
+        long mUnits;
+    }
+
+
+    /**
+     * A benchmarked operation on one graph.
+     */
+    private static abstract class Bench {
+
+        final String mName;
+        LayoutParams mParams;
+        Source mSource;
+        Graph mGraph;
+
+        Bench( String name ) {
+            mName = name;
+        }
+
+        void setup( LayoutParams params, Source src ) throws IOException {
+            mParams = params;
+            mSource = src;
+            mGraph  = src.load( params.mDim );
+        }
+
+        /**
+         * Called before each operation, outside of timing.
+         */
+        void prepare() throws IOException {}
+
+        /**
+         * @return number of sub-units processed, such as solver steps, or 0.
+         */
+        abstract long op();
+
+        void teardown() {}
+
+        String note( Result r ) {
+            return "";
+        }
+
+    }
+
+
+    private static final class GravityBench extends Bench {
+
+        private final GravityPhase mPhase = new GravityPhase();
+
+        GravityBench() {
+            super( "gravity" );
+        }
+
+        @Override
+        void setup( LayoutParams params, Source src ) throws IOException {
+            super.setup( params, src );
+            mPhase.init( params, mGraph );
+        }
+
+        @Override
+        long op() {
+            mPhase.step( mParams, mGraph );
+            return 0;
+        }
+
+        @Override
+        void teardown() {
+            mPhase.dispose( mParams, mGraph );
+        }
+
+    }
+
+
+    private static final class AttractBench extends Bench {
+
+        private final AttractPhase mPhase = new AttractPhase();
+
+        AttractBench() {
+            super( "attract" );
+        }
+
+        @Override
+        void setup( LayoutParams params, Source src ) throws IOException {
+            super.setup( params, src );
+            mPhase.init( params, mGraph );
+        }
+
+        @Override
+        long op() {
+            mPhase.step( mParams, mGraph );
+            return 0;
+        }
+
+        @Override
+        void teardown() {
+            mPhase.dispose( mParams, mGraph );
+        }
+
+    }
+
+
+    private static final class RepulseBench extends Bench {
+
+        private final boolean mBrute;
+        private final GravityPhase mGravity = new GravityPhase();
+        private final float[] mBounds = new float[6];
+        private SolverPhase mPhase;
+
+        RepulseBench( String name, boolean brute ) {
+            super( name );
+            mBrute = brute;
+        }
+
+        @Override
+        void setup( LayoutParams params, Source src ) throws IOException {
+            super.setup( params, src );
+            mPhase = mBrute ? new RepulsePhaseBruteForce() : new RepulsePhaseBarnesHut();
+            mGravity.init( params, mGraph );
+            mPhase.init( params, mGraph );
+            mGravity.step( params, mGraph );
+            mGravity.graphBounds( mBounds );
+        }
+
+        @Override
+        long op() {
+            if( mPhase instanceof BoundedSolverPhase ) {
+                ((BoundedSolverPhase)mPhase).step( mParams, mGraph, mBounds );
+            } else {
+                mPhase.step( mParams, mGraph );
+            }
+            return 0;
+        }
+
+        @Override
+        void teardown() {
+            mPhase.dispose( mParams, mGraph );
+        }
+
+    }
+
+
+    private static final class TreeBench extends Bench {
+
+        private static final int DEPTH = 9;
+
+        private Quadtree mTree;
+
+        TreeBench() {
+            super( "quadtree-rebuild" );
+        }
+
+        @Override
+        void setup( LayoutParams params, Source src ) throws IOException {
+            super.setup( params, src );
+            mTree = params.mDim == 2 ? new Quadtree2() : new Quadtree3();
+        }
+
+        @Override
+        long op() {
+            mTree.rebuild( mGraph.mVerts, DEPTH, null, 0f );
+            return 0;
+        }
+
+    }
+
+    /**
+     * One operation coarsens the graph once and then uncoarsens it.
+     */
+    private static final class CoarsenBench extends Bench {
+
+        private final CoarsenStrategy mStrategy;
+        private final CoarseEdgeBuilder mBuilder = new CoarseEdgeBuilder();
+        private WorkerPool mPool;
+        private int mVertNo;
+        private long mCoarseVertNo;
+
+        CoarsenBench( String name, CoarsenStrategy strategy ) {
+            super( name );
+            mStrategy = strategy;
+        }
+
+        @Override
+        void setup( LayoutParams params, Source src ) throws IOException {
+            super.setup( params, src );
+            params.mCoarsenStrategy = mStrategy;
+            mVertNo = mGraph.mVertNo;
+            mPool   = WorkerPool.reuse( mPool, WorkerPool.threadCount( params ) );
+        }
+
+        @Override
+        long op() {
+            Graph coarse = Graphs.coarsen( mParams, mGraph, mPool, mBuilder );
+            mCoarseVertNo += coarse.mVertNo;
+            mGraph = Graphs.uncoarsen( mParams, coarse );
+            return 0;
+        }
+
+        @Override
+        void teardown() {
+            if( mPool != null ) {
+                mPool.shutdown();
+                mPool = null;
+            }
+        }
+
+        @Override
+        String note( Result r ) {
+            return String.format( "reduction %.3f", (double)mCoarseVertNo / ( (double)r.mOps * mVertNo ) );
+        }
+
+    }
+
+    /**
+     * One operation is a complete multilevel layout from the same initial positions.
+     */
+    private static final class LayoutBench extends Bench {
+
+        private final LayoutSolver mSolver = new LayoutSolver();
+        private final boolean mUseHierarchy;
+        private CoarseHierarchy mHierarchy;
+
+        /**
+         * @param useHierarchy If true, coarsening is done once in setup, and each operation
+         *                     lays out the graph from a shared {@link CoarseHierarchy}.
+         */
+        LayoutBench( String name, boolean useHierarchy ) {
+            super( name );
+            mUseHierarchy = useHierarchy;
+        }
+
+        @Override
+        void setup( LayoutParams params, Source src ) throws IOException {
+            super.setup( params, src );
+            mHierarchy = mUseHierarchy ? CoarseHierarchy.build( params, mGraph ) : null;
+        }
+
+        @Override
+        void prepare() throws IOException {
+            mGraph = mSource.load( mParams.mDim );
+            mParams.mRand = new Random( 0 );
+            if( mHierarchy != null ) {
+                mSolver.init( mParams, mHierarchy, mGraph );
+            } else {
+                mSolver.init( mParams, mGraph );
+            }
+        }
+
+        @Override
+        long op() {
+            long steps = 0;
+            while( !mSolver.converged() ) {
+                mSolver.step();
+                steps++;
+            }
+            mSolver.dispose();
+            return steps;
+        }
+
+        @Override
+        String note( Result r ) {
+            String s = String.format( "steps/op %d  us/step %.2f", r.mUnits / r.mOps, r.mNanos * 1e-3 / r.mUnits );
+            if( r.mBytes >= 0 ) {
+                s += "  alloc B/step " + ( r.mBytes / r.mUnits );
+            }
+            return s;
+        }
+
+    }
+
+
+    private static abstract class Source {
+
+        abstract String name();
+
+        /**
+         * @return new copy of graph with deterministic random positions.
+         */
+        abstract Graph load( int dim ) throws IOException;
+
+        static void randomize( Graph g, int dim ) {
+            Random rand = new Random( 0 );
+            if( dim == 2 ) {
+                Graphs.randomizePositions2( g.mVerts, new float[]{ -10f, -10f, 10f, 10f }, rand );
+            } else {
+                Graphs.randomizePositions3( g.mVerts, new float[]{ -10f, -10f, -10f, 10f, 10f, 10f }, rand );
+            }
+        }
+
+    }
+
+
+    private static final class FileSource extends Source {
+
+        private final File mFile;
+
+        FileSource( File file ) {
+            mFile = file;
+        }
+
+        String name() {
+            return mFile.getName();
+        }
+
+        Graph load( int dim ) throws IOException {
+            Graph g = mFile.getName().endsWith( ".col" ) ? ColParser.parse( mFile, dim ) : GraphFileParser.parse( mFile );
+            randomize( g, dim );
+            return g;
+        }
+
+    }
+
+
+    private static final class SmallWorldSource extends Source {
+
+        private final int mVertNo;
+        private final int mEdgesPerVert;
+        private final double mRandFraction;
+
+        SmallWorldSource( int vertNo, int edgesPerVert, double randFraction ) {
+            mVertNo       = vertNo;
+            mEdgesPerVert = edgesPerVert;
+            mRandFraction = randFraction;
+        }
+
+        String name() {
+            return "watts-strogatz-" + mVertNo;
+        }
+
+        Graph load( int dim ) {
+            Graph g = WattsStrogatzGenerator.generate( new Random( 0 ), dim, mVertNo, mEdgesPerVert, mRandFraction );
+            randomize( g, dim );
+            return g;
+        }
+
+    }
+
+    /**
+     * Preferential attachment graph with a few hubs of very high degree.
+     */
+    private static final class ScaleFreeSource extends Source {
+
+        private final int mVertNo;
+        private final int mEdgesPerVert;
+
+        ScaleFreeSource( int vertNo, int edgesPerVert ) {
+            mVertNo       = vertNo;
+            mEdgesPerVert = edgesPerVert;
+        }
+
+        String name() {
+            return "barabasi-albert-" + mVertNo;
+        }
+
+        Graph load( int dim ) {
+            Graph g = BarabasiAlbertGenerator.generate( new Random( 0 ), dim, mVertNo, mEdgesPerVert );
+            randomize( g, dim );
+            return g;
+        }
+
+    }
+
+    /**
+     * Per-thread allocation counters, available on HotSpot JVMs.
+     */
+    private static final class Alloc {
+
+        private static final com.sun.management.ThreadMXBean sBean = bean();
+
+        static boolean supported() {
+            return sBean != null;
+        }
+
+        /**
+         * @return bytes allocated so far by calling thread, or -1 if unsupported.
+         */
+        static long bytes() {
+            if( sBean == null ) {
+                return -1;
+            }
+            return sBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+        }
+
+        private static com.sun.management.ThreadMXBean bean() {
+            try {
+                java.lang.management.ThreadMXBean b = ManagementFactory.getThreadMXBean();
+                if( !( b instanceof com.sun.management.ThreadMXBean ) ) {
+                    return null;
+                }
+                com.sun.management.ThreadMXBean ret = (com.sun.management.ThreadMXBean)b;
+                if( !ret.isThreadAllocatedMemorySupported() ) {
+                    return null;
+                }
+                ret.setThreadAllocatedMemoryEnabled( true );
+                return ret;
+            } catch( Throwable t ) {
+                return null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Checks that {@link PivotMds} preserves the proportions of its input. Square and cubic
+ * grids must come out about equally wide along every axis. A random geometric graph in
+ * a rectangle twice as long as it is wide must come out about twice as long. Hop counts
+ * in that graph approximate Euclidean distance, which they do not along the diagonals
+ * of a grid.
+ * <p>
+ * Exits with status 1 if any check fails.
+ *
+ * @author decamp
+ */
+public class PivotMdsCheck {
+
+    /**
+     * Largest allowed relative error in the ratio between the extents of two axes.
+     */
+    private static final double MAX_RATIO_ERROR = 0.1;
+
+
+    public static void main( String[] args ) throws Exception {
+        boolean ok = true;
+        ok &= check( "square 40x40",  2, grid( 40, 40, 1 ),        new double[]{ 1, 1 } );
+        ok &= check( "cube 12x12x12", 3, grid( 12, 12, 12 ),       new double[]{ 1, 1, 1 } );
+        ok &= check( "rectangle 2x1", 2, rectangle( 2f, 1f, 6000 ), new double[]{ 2, 1 } );
+
+        if( !ok ) {
+            System.out.println( "FAILED" );
+            System.exit( 1 );
+        }
+        System.out.println( "OK" );
+    }
+
+
+    /**
+     * @param expect Expected extent of layout along each axis, in decreasing order.
+     */
+    private static boolean check( String name, int dim, Graph g, double[] expect ) {
+        LayoutParams params = new LayoutParams();
+        params.mDim  = dim;
+        params.mRand = new Random( 0 );
+        PivotMds.layout( params, g );
+
+        // MDS axes are principal axes, in order of decreasing extent.
+        double[] ext = new double[dim];
+        for( int d = 0; d < dim; d++ ) {
+            ext[d] = Math.sqrt( variance( g, d ) );
+        }
+
+        boolean ok = true;
+        StringBuilder s = new StringBuilder();
+        for( int d = 1; d < dim; d++ ) {
+            double ratio = ext[d] / ext[0];
+            double want  = expect[d] / expect[0];
+            s.append( String.format( "  axis %d/0 %.3f (expect %.3f)", d, ratio, want ) );
+            if( Math.abs( ratio / want - 1.0 ) > MAX_RATIO_ERROR ) {
+                ok = false;
+            }
+        }
+
+        System.out.format( "%-16s%s%s%n", name, s, ok ? "" : "  FAILED" );
+        return ok;
+    }
+
+
+    private static double variance( Graph g, int axis ) {
+        double sum = 0.0;
+        double sq  = 0.0;
+        for( Vert v = g.mVerts; v != null; v = v.mGraphNext ) {
+            double x = axis == 0 ? v.mX : axis == 1 ? v.mY : v.mZ;
+            sum += x;
+            sq  += x * x;
+        }
+        double mean = sum / g.mVertNo;
+        return sq / g.mVertNo - mean * mean;
+    }
+
+    /**
+     * @return grid of <code>nx * ny * nz</code> verts, each connected to its neighbours
+     *         along every axis.
+     */
+    private static Graph grid( int nx, int ny, int nz ) {
+        final Vert[] verts = new Vert[nx * ny * nz];
+        for( int i = 0; i < verts.length; i++ ) {
+            verts[i] = new Vert();
+        }
+
+        for( int z = 0; z < nz; z++ ) {
+            for( int y = 0; y < ny; y++ ) {
+                for( int x = 0; x < nx; x++ ) {
+                    Vert v = verts[( z * ny + y ) * nx + x];
+                    if( x > 0 ) {
+                        connect( v, verts[( z * ny + y ) * nx + x - 1] );
+                    }
+                    if( y > 0 ) {
+                        connect( v, verts[( z * ny + y - 1 ) * nx + x] );
+                    }
+                    if( z > 0 ) {
+                        connect( v, verts[( ( z - 1 ) * ny + y ) * nx + x] );
+                    }
+                }
+            }
+        }
+
+        return new Graph( Arrays.asList( verts ) );
+    }
+
+    /**
+     * @return <code>n</code> verts at random points in a <code>w</code> by <code>h</code>
+     *         rectangle, each connected to all verts within a fixed radius.
+     */
+    private static Graph rectangle( float w, float h, int n ) {
+        final float radius = (float)Math.sqrt( 8.0 * w * h / ( Math.PI * n ) );
+        final Random rand = new Random( 0 );
+        final Vert[] verts = new Vert[n];
+        for( int i = 0; i < n; i++ ) {
+            Vert v = new Vert();
+            v.mX = rand.nextFloat() * w;
+            v.mY = rand.nextFloat() * h;
+            verts[i] = v;
+        }
+
+        for( int i = 0; i < n; i++ ) {
+            for( int j = i + 1; j < n; j++ ) {
+                float dx = verts[i].mX - verts[j].mX;
+                float dy = verts[i].mY - verts[j].mY;
+                if( dx * dx + dy * dy < radius * radius ) {
+                    connect( verts[i], verts[j] );
+                }
+            }
+        }
+
+        return new Graph( Arrays.asList( verts ) );
+    }
+
+
+    private static void connect( Vert a, Vert b ) {
+        Edge e = new Edge( a, b, 1f );
+        a.addEdge( e );
+        b.addEdge( e );
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2014. Philip DeCamp
+ * Released under the BSD 2-Clause License
+ * http://opensource.org/licenses/BSD-2-Clause
+ */
+
+package bits.thicket;
+
+import java.io.File;
+import java.util.Random;
+
+
+/**
+ * Compares serial and multi-threaded repulsion on a single graph: Barnes-Hut using
+ * both the linked QuadtreeCell tree and the flat array tree, and the dual-tree phase.
+ * Approximation error is measured against brute-force repulsion.
+ * <p>
+ * Usage: RepulseBench [graphFile] [threadNo] [dim]
+ *
+ * @author decamp
+ */
+public class RepulseBench {
+
+    private static final int WARMUP_STEPS = 30;
+    private static final int TIMED_STEPS  = 50;
+
+
+    public static void main( String[] args ) throws Exception {
+        File file    = new File( args.length > 0 ? args[0] : "src/test/resources/4elt.graph" );
+        int threadNo = args.length > 1 ? Integer.parseInt( args[1] ) : Runtime.getRuntime().availableProcessors();
+        int dim      = args.length > 2 ? Integer.parseInt( args[2] ) : 2;
+
+        Graph graph = file.getName().endsWith( ".col" ) ? ColParser.parse( file, dim ) : GraphFileParser.parse( file );
+        float[] bounds = { -10f, -10f, -10f, 10f, 10f, 10f };
+        if( dim == 2 ) {
+            Graphs.randomizePositions2( graph.mVerts, new float[]{ -10f, -10f, 10f, 10f }, new Random( 0 ) );
+        } else {
+            Graphs.randomizePositions3( graph.mVerts, bounds, new Random( 0 ) );
+        }
+
+        System.out.println( "Graph: " + file.getName() + "  Verts: " + graph.mVertNo + "  Edges: " + graph.mEdgeNo );
+
+        double serial   = time( graph, dim, 1, new RepulsePhaseBarnesHut() );
+        float[] ref     = copyForces( graph );
+        double parallel = time( graph, dim, threadNo, new RepulsePhaseBarnesHut() );
+        float[] par     = copyForces( graph );
+        double flat     = time( graph, dim, 1, new RepulsePhaseFlatTree() );
+        float[] flatRef = copyForces( graph );
+        double flatPar  = time( graph, dim, threadNo, new RepulsePhaseFlatTree() );
+        double dual     = time( graph, dim, 1, new RepulsePhaseDualTree() );
+        float[] dualRef = copyForces( graph );
+        double dualPar  = time( graph, dim, threadNo, new RepulsePhaseDualTree() );
+        float[] exact   = exactForces( graph, dim );
+
+        System.out.format( "serial:        %8.3f ms/step%n", serial * 1e-6 );
+        System.out.format( "parallel:      %8.3f ms/step  (%d threads)%n", parallel * 1e-6, threadNo );
+        System.out.format( "speedup:       %8.2fx%n", serial / parallel );
+        System.out.format( "max force difference: %g%n", maxDiff( ref, par ) );
+        System.out.format( "flat serial:   %8.3f ms/step%n", flat * 1e-6 );
+        System.out.format( "flat parallel: %8.3f ms/step  (%d threads)%n", flatPar * 1e-6, threadNo );
+        System.out.format( "flat speedup:  %8.2fx over linked serial%n", serial / flat );
+        System.out.format( "max flat force difference: %g%n", maxDiff( ref, flatRef ) );
+        System.out.format( "dual serial:   %8.3f ms/step%n", dual * 1e-6 );
+        System.out.format( "dual parallel: %8.3f ms/step  (%d threads)%n", dualPar * 1e-6, threadNo );
+        System.out.format( "dual speedup:  %8.2fx over linked serial%n", serial / dual );
+        System.out.format( "relative error vs exact:  barnes-hut %.3e  dual-tree %.3e%n",
+                           relError( exact, ref ), relError( exact, dualRef ) );
+    }
+
+
+    private static double time( Graph graph, int dim, int threadNo, BoundedSolverPhase repulse ) {
+        LayoutParams params = new LayoutParams();
+        params.mDim      = dim;
+        params.mThreadNo = threadNo;
+
+        GravityPhase gravity = new GravityPhase();
+        gravity.init( params, graph );
+        repulse.init( params, graph );
+        float[] bounds = new float[6];
+
+        for( int i = 0; i < WARMUP_STEPS; i++ ) {
+            gravity.step( params, graph );
+            gravity.graphBounds( bounds );
+            repulse.step( params, graph, bounds );
+        }
+
+        long total = 0;
+        for( int i = 0; i < TIMED_STEPS; i++ ) {
+            long t0 = System.nanoTime();
+            gravity.step( params, graph );
+            gravity.graphBounds( bounds );
+            repulse.step( params, graph, bounds );
+            total += System.nanoTime() - t0;
+        }
+
+        repulse.dispose( params, graph );
+        return (double)total / TIMED_STEPS;
+    }
+
+
+    private static float[] exactForces( Graph graph, int dim ) {
+        LayoutParams params = new LayoutParams();
+        params.mDim = dim;
+
+        GravityPhase gravity = new GravityPhase();
+        RepulsePhaseBruteForce repulse = new RepulsePhaseBruteForce();
+        gravity.init( params, graph );
+        repulse.init( params, graph );
+        gravity.step( params, graph );
+        repulse.step( params, graph );
+        repulse.dispose( params, graph );
+        return copyForces( graph );
+    }
+
+
+    private static float[] copyForces( Graph graph ) {
+        float[] ret = new float[ graph.mVertNo * 3 ];
+        int i = 0;
+        for( Vert v = graph.mVerts; v != null; v = v.mGraphNext ) {
+            ret[i++] = v.mForceX;
+            ret[i++] = v.mForceY;
+            ret[i++] = v.mForceZ;
+        }
+        return ret;
+    }
+
+
+    /**
+     * @return sum of force error magnitudes divided by sum of exact force magnitudes.
+     */
+    private static double relError( float[] exact, float[] approx ) {
+        double num = 0.0;
+        double den = 0.0;
+        for( int i = 0; i < exact.length; i += 3 ) {
+            double dx = approx[i  ] - exact[i  ];
+            double dy = approx[i+1] - exact[i+1];
+            double dz = approx[i+2] - exact[i+2];
+            num += Math.sqrt( dx * dx + dy * dy + dz * dz );
+            den += Math.sqrt( exact[i] * exact[i] + exact[i+1] * exact[i+1] + exact[i+2] * exact[i+2] );
+        }
+        return num / den;
+    }
+
+
+    private static double maxDiff( float[] a, float[] b ) {
+        double ret = 0.0;
+        for( int i = 0; i < a.length; i++ ) {
+            ret = Math.max( ret, Math.abs( a[i] - b[i] ) );
+        }
+        return ret;
+    }
+
+}